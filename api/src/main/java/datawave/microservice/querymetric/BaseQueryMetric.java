@@ -46,6 +46,7 @@ import io.protostuff.Schema;
 @XmlAccessorType(XmlAccessType.NONE)
 public abstract class BaseQueryMetric implements HasMarkings, Serializable {
     
+    private static final long serialVersionUID = 1L;
     private static final Logger log = LoggerFactory.getLogger(BaseQueryMetric.class);
     
     @XmlAccessorType(XmlAccessType.NONE)
@@ -618,15 +619,16 @@ public abstract class BaseQueryMetric implements HasMarkings, Serializable {
     protected String queryId = null;
     @XmlElement
     protected long setupTime = -1;
-    @XmlElement
+    // query and plan are bound through their accessors because a large value is only held in compressed form
     protected String query = null;
+    protected CompressedString compressedQuery = null;
     @XmlElement
     protected String host = null;
     @XmlElement
     protected long createCallTime = -1;
     @XmlElementWrapper(name = "pageMetrics")
     @XmlElement(name = "pageMetric")
-    protected ArrayList<PageMetric> pageTimes = new ArrayList<>();
+    protected PageMetricList pageTimes = new PageMetricList();
     @XmlElement
     protected Collection<String> proxyServers = null;
     @XmlElement
@@ -676,8 +678,8 @@ public abstract class BaseQueryMetric implements HasMarkings, Serializable {
     protected long docRanges = 0;
     @XmlElement
     protected long fiRanges = 0;
-    @XmlElement
     protected String plan = null;
+    protected CompressedString compressedPlan = null;
     @XmlElement
     protected long loginTime = -1;
     @XmlElementWrapper(name = "predictions")
@@ -725,12 +727,28 @@ public abstract class BaseQueryMetric implements HasMarkings, Serializable {
         return createCallTime;
     }
     
+    @XmlElement
     public String getQuery() {
-        return query;
+        return compressedQuery == null ? query : compressedQuery.getValue();
     }
     
+    @XmlElement
     public String getPlan() {
-        return plan;
+        return compressedPlan == null ? plan : compressedPlan.getValue();
+    }
+    
+    /**
+     * @return whether there is a query, which unlike {@link #getQuery()} does not inflate a compressed query
+     */
+    public boolean hasQuery() {
+        return query != null || compressedQuery != null;
+    }
+    
+    /**
+     * @return whether there is a plan, which unlike {@link #getPlan()} does not inflate a compressed plan
+     */
+    public boolean hasPlan() {
+        return plan != null || compressedPlan != null;
     }
     
     public String getHost() {
@@ -793,10 +811,34 @@ public abstract class BaseQueryMetric implements HasMarkings, Serializable {
     
     public void setQuery(String query) {
         this.query = query;
+        this.compressedQuery = null;
     }
     
     public void setPlan(String plan) {
         this.plan = plan;
+        this.compressedPlan = null;
+    }
+    
+    /**
+     * Holds a query or plan with at least threshold characters in compressed form, which is inflated when it is read. A threshold of zero or less leaves them
+     * as they are.
+     *
+     * @param threshold
+     *            the length in characters at which the query and plan are compressed
+     */
+    public void compressQueryAndPlan(int threshold) {
+        if (this.query != null) {
+            this.compressedQuery = CompressedString.compress(this.query, threshold);
+            if (this.compressedQuery != null) {
+                this.query = null;
+            }
+        }
+        if (this.plan != null) {
+            this.compressedPlan = CompressedString.compress(this.plan, threshold);
+            if (this.compressedPlan != null) {
+                this.plan = null;
+            }
+        }
     }
     
     public void setHost(String host) {
@@ -1086,11 +1128,21 @@ public abstract class BaseQueryMetric implements HasMarkings, Serializable {
     }
     
     public void setPageTimes(ArrayList<PageMetric> pageTimes) {
-        this.pageTimes = pageTimes;
+        setPageTimes((List<PageMetric>) pageTimes);
+    }
+    
+    public void setPageTimes(List<PageMetric> pageTimes) {
+        if (pageTimes == null) {
+            this.pageTimes = null;
+        } else if (pageTimes instanceof PageMetricList) {
+            this.pageTimes = (PageMetricList) pageTimes;
+        } else {
+            this.pageTimes = new PageMetricList(pageTimes);
+        }
         this.numResults = 0;
-        if (pageTimes != null) {
-            this.numPages = pageTimes.size();
-            pageTimes.forEach(p -> this.numResults += p.getPagesize());
+        if (this.pageTimes != null) {
+            this.numPages = this.pageTimes.size();
+            this.numResults = this.pageTimes.getTotalPagesize();
         }
     }
     
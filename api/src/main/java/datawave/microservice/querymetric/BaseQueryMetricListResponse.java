@@ -1,5 +1,9 @@
 package datawave.microservice.querymetric;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
@@ -27,6 +31,9 @@ public abstract class BaseQueryMetricListResponse<T extends BaseQueryMetric> ext
     protected List<T> result = null;
     @XmlElement
     protected int numResults = 0;
+    // opaque position to pass back as the cursor to get the next page of results or null if there are no more results
+    @XmlElement
+    protected String nextCursor = null;
     @XmlTransient
     private boolean administratorMode = false;
     @XmlTransient
@@ -53,6 +60,14 @@ public abstract class BaseQueryMetricListResponse<T extends BaseQueryMetric> ext
         this.numResults = numResults;
     }
     
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+    
     public boolean isAdministratorMode() {
         return administratorMode;
     }
@@ -100,6 +115,25 @@ public abstract class BaseQueryMetricListResponse<T extends BaseQueryMetric> ext
     
     @Override
     public String getMainContent() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeMainContent(writer);
+        } catch (IOException e) {
+            // a StringWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+    
+    /**
+     * Writes the same content as {@link #getMainContent()}, one row at a time, so that the whole table is not built in memory before it is sent
+     *
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             if the writer fails
+     */
+    public void writeMainContent(Writer writer) throws IOException {
         StringBuilder builder = new StringBuilder();
         
         builder.append("<table>\n");
@@ -110,6 +144,8 @@ public abstract class BaseQueryMetricListResponse<T extends BaseQueryMetric> ext
         builder.append("<th>Total Page Time (ms)</th><th>Total Page Call Time (ms)</th><th>Total Page Serialization Time (ms)</th>");
         builder.append("<th>Total Page Bytes Sent (uncompressed)</th><th>Lifecycle</th><th>Elapsed Time</th><th>Error Code</th><th>Error Message</th>");
         builder.append("\n</tr>\n");
+        writer.append(builder);
+        builder.setLength(0);
         
         TreeMap<Date,T> metricMap = new TreeMap<Date,T>(Collections.reverseOrder());
         
@@ -182,11 +218,17 @@ public abstract class BaseQueryMetricListResponse<T extends BaseQueryMetric> ext
                             .append("</td>");
             
             builder.append("\n</tr>\n");
+            writer.append(builder);
+            builder.setLength(0);
         }
         
         builder.append("</table>\n");
-        
-        return builder.toString();
+        builder.append(getNextPageLink());
+        writer.append(builder);
+    }
+    
+    protected String getNextPageLink() {
+        return nextCursor == null ? EMPTY : "<br/><a href=\"?cursor=" + nextCursor + "\">Next page</a>\n";
     }
     
 }
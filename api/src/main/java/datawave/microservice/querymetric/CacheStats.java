@@ -15,7 +15,7 @@ import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 @XmlRootElement(name = "CacheStats")
 @XmlAccessorType(XmlAccessType.NONE)
-@XmlType(propOrder = {"serviceStats", "incomingQueryMetrics", "lastWrittenQueryMetrics"})
+@XmlType(propOrder = {"serviceStats", "heavyHitters", "incomingQueryMetrics", "lastWrittenQueryMetrics"})
 public class CacheStats implements Serializable {
     
     private static final long serialVersionUID = 1L;
@@ -30,6 +30,10 @@ public class CacheStats implements Serializable {
     @XmlJavaTypeAdapter(StringMapAdapter.class)
     private Map<String,String> serviceStats = new HashMap<>();
     
+    @XmlElement(name = "heavyHitters")
+    @XmlJavaTypeAdapter(StringMapAdapter.class)
+    private Map<String,String> heavyHitters = new HashMap<>();
+    
     @XmlElement(name = "incomingQueryMetrics")
     @XmlJavaTypeAdapter(StringMapAdapter.class)
     private Map<String,String> incomingQueryMetrics = new HashMap<>();
@@ -82,6 +86,14 @@ public class CacheStats implements Serializable {
         return serviceStats;
     }
     
+    public void setHeavyHitters(Map<String,String> heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+    
+    public Map<String,String> getHeavyHitters() {
+        return heavyHitters;
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -90,11 +102,12 @@ public class CacheStats implements Serializable {
             return false;
         CacheStats that = (CacheStats) o;
         return host.equals(that.host) && memberUuid.equals(that.memberUuid) && incomingQueryMetrics.equals(that.incomingQueryMetrics)
-                        && lastWrittenQueryMetrics.equals(that.lastWrittenQueryMetrics) && serviceStats.equals(that.serviceStats);
+                        && lastWrittenQueryMetrics.equals(that.lastWrittenQueryMetrics) && serviceStats.equals(that.serviceStats)
+                        && heavyHitters.equals(that.heavyHitters);
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(host, memberUuid, incomingQueryMetrics, lastWrittenQueryMetrics, serviceStats);
+        return Objects.hash(host, memberUuid, incomingQueryMetrics, lastWrittenQueryMetrics, serviceStats, heavyHitters);
     }
 }
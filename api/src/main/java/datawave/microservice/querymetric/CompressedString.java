@@ -0,0 +1,88 @@
+package datawave.microservice.querymetric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable deflate-compressed form of a large string value such as a query or a plan. The value is inflated each time that it is read and the inflated string
+ * is not kept, so a cached metric only holds the compressed bytes. Callers that only need to know whether there is a value should not read it.
+ */
+public class CompressedString implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final byte[] bytes;
+    
+    private CompressedString(byte[] bytes) {
+        this.bytes = bytes;
+    }
+    
+    /**
+     * Returns the compressed form of the value, or null if the value has fewer than threshold characters or does not get smaller when it is compressed. A
+     * threshold of zero or less disables compression.
+     */
+    public static CompressedString compress(String value, int threshold) {
+        if (value == null || threshold <= 0 || value.length() < threshold) {
+            return null;
+        }
+        byte[] input = value.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                if (out.size() >= input.length) {
+                    return null;
+                }
+            }
+            return new CompressedString(out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Wraps bytes that were produced by {@link #getBytes()}
+     */
+    public static CompressedString fromBytes(byte[] bytes) {
+        return bytes == null ? null : new CompressedString(bytes);
+    }
+    
+    public byte[] getBytes() {
+        return bytes;
+    }
+    
+    public String getValue() {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("truncated compressed value");
+                }
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("invalid compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return getValue();
+    }
+}
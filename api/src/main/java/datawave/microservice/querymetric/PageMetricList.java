@@ -0,0 +1,681 @@
+package datawave.microservice.querymetric;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import datawave.microservice.querymetric.BaseQueryMetric.PageMetric;
+
+/**
+ * A list of page metrics that is stored column-wise. Each numeric attribute is kept in a packed long[] column, hosts are dictionary-encoded, and page UUIDs are
+ * packed into two longs, so the cost of copying and serializing the pages of a query is proportional to the number of pages rather than to the number of
+ * objects that they would otherwise need.
+ * <p>
+ * The columns are split into fixed-size segments that are shared copy-on-write between a list and its duplicates. Duplicating a list only copies the segment
+ * references and a segment is copied the first time that either list modifies it, so appending a page to a duplicate copies at most one segment.
+ * <p>
+ * Elements are materialized as {@link PageMetric} views when they are read. A view writes its changes back to the list like an element of an ArrayList would
+ * be changed, until the list is structurally modified, after which changing the view throws a {@link ConcurrentModificationException}.
+ * <p>
+ * Like an ArrayList, adding or removing a page other than the last one moves the pages after it. Pages are normally added in page number order, so
+ * {@link #putByPageNumber(PageMetric)} appends in the common case.
+ */
+public class PageMetricList extends AbstractList<PageMetric> implements RandomAccess, Serializable {
+    
+    private static final long serialVersionUID = 3L;
+    
+    private static final int SEGMENT_SIZE = 64;
+    
+    private static final int PAGESIZE = 0;
+    private static final int RETURN_TIME = 1;
+    private static final int CALL_TIME = 2;
+    private static final int SERIALIZATION_TIME = 3;
+    private static final int BYTES_WRITTEN = 4;
+    private static final int PAGE_REQUESTED = 5;
+    private static final int PAGE_RETURNED = 6;
+    private static final int PAGE_NUMBER = 7;
+    private static final int LOGIN_TIME = 8;
+    private static final int NUM_COLUMNS = 9;
+    
+    private static final byte UUID_NULL = 0;
+    private static final byte UUID_PACKED = 1;
+    private static final byte UUID_IRREGULAR = 2;
+    
+    private static class Segment implements Serializable {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final long[][] columns;
+        private final int[] hostIds;
+        private final byte[] uuidTypes;
+        private final long[] uuidMostSigBits;
+        private final long[] uuidLeastSigBits;
+        // set once a second list references the segment, after which neither list modifies it in place
+        private transient volatile boolean shared = false;
+        
+        private Segment() {
+            this.columns = new long[NUM_COLUMNS][SEGMENT_SIZE];
+            this.hostIds = new int[SEGMENT_SIZE];
+            this.uuidTypes = new byte[SEGMENT_SIZE];
+            this.uuidMostSigBits = new long[SEGMENT_SIZE];
+            this.uuidLeastSigBits = new long[SEGMENT_SIZE];
+        }
+        
+        private Segment(Segment other) {
+            this.columns = new long[NUM_COLUMNS][];
+            for (int c = 0; c < NUM_COLUMNS; c++) {
+                this.columns[c] = other.columns[c].clone();
+            }
+            this.hostIds = other.hostIds.clone();
+            this.uuidTypes = other.uuidTypes.clone();
+            this.uuidMostSigBits = other.uuidMostSigBits.clone();
+            this.uuidLeastSigBits = other.uuidLeastSigBits.clone();
+        }
+    }
+    
+    private int size = 0;
+    // only the segments that hold pages are serialized, see writeObject
+    private transient Segment[] segments;
+    // page uuids that can not be packed into two longs, keyed by their position in the list
+    private Map<Integer,String> irregularUuids = new HashMap<>();
+    private List<String> hostDictionary = new ArrayList<>();
+    private transient Map<String,Integer> hostIndex;
+    // the first position of each packed page uuid, built when first needed
+    private transient Map<UUID,Integer> uuidIndex;
+    
+    public PageMetricList() {
+        this(0);
+    }
+    
+    public PageMetricList(int initialCapacity) {
+        int numSegments = (Math.max(initialCapacity, 0) + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        this.segments = new Segment[numSegments];
+    }
+    
+    public PageMetricList(Collection<? extends PageMetric> pageMetrics) {
+        this(pageMetrics == null ? 0 : pageMetrics.size());
+        if (pageMetrics != null) {
+            addAll(pageMetrics);
+        }
+    }
+    
+    /**
+     * Creates a list that shares the segments of other. Neither list copies a shared segment until it modifies it. The segments are marked as shared, but
+     * other is not otherwise changed.
+     */
+    public PageMetricList(PageMetricList other) {
+        int numSegments = numSegments(other.size);
+        this.size = other.size;
+        this.segments = Arrays.copyOf(other.segments, numSegments);
+        for (Segment segment : this.segments) {
+            segment.shared = true;
+        }
+        this.irregularUuids = new HashMap<>(other.irregularUuids);
+        this.hostDictionary = new ArrayList<>(other.hostDictionary);
+    }
+    
+    private static int numSegments(int size) {
+        return (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+    }
+    
+    public void trimToSize() {
+        int numSegments = numSegments(this.size);
+        if (this.segments.length > numSegments) {
+            this.segments = Arrays.copyOf(this.segments, numSegments);
+        }
+    }
+    
+    /**
+     * Returns the given list if it is already a PageMetricList, otherwise a PageMetricList containing its pages
+     */
+    public static PageMetricList of(List<PageMetric> pageMetrics) {
+        if (pageMetrics instanceof PageMetricList) {
+            return (PageMetricList) pageMetrics;
+        } else {
+            return new PageMetricList(pageMetrics);
+        }
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+    }
+    
+    private Segment segment(int index) {
+        return this.segments[index / SEGMENT_SIZE];
+    }
+    
+    // returns the segment that holds index, copying it first if it is shared with another list
+    private Segment writableSegment(int index) {
+        int s = index / SEGMENT_SIZE;
+        if (s >= this.segments.length) {
+            int newLength = Math.max(s + 1, this.segments.length * 2);
+            this.segments = Arrays.copyOf(this.segments, newLength);
+        }
+        if (this.segments[s] == null) {
+            this.segments[s] = new Segment();
+        } else if (this.segments[s].shared) {
+            this.segments[s] = new Segment(this.segments[s]);
+        }
+        return this.segments[s];
+    }
+    
+    private long getColumn(int column, int index) {
+        return segment(index).columns[column][index % SEGMENT_SIZE];
+    }
+    
+    private int getHostId(String host) {
+        if (host == null) {
+            return -1;
+        }
+        if (this.hostIndex == null) {
+            this.hostIndex = new HashMap<>();
+            for (int i = 0; i < this.hostDictionary.size(); i++) {
+                this.hostIndex.put(this.hostDictionary.get(i), i);
+            }
+        }
+        Integer id = this.hostIndex.get(host);
+        if (id == null) {
+            id = this.hostDictionary.size();
+            this.hostDictionary.add(host);
+            this.hostIndex.put(host, id);
+        }
+        return id;
+    }
+    
+    /**
+     * Replaces each distinct page host with the result of the function, which must return an equal string. This allows the service to share one instance of
+     * each host across the metrics that it caches.
+     */
+    public void replaceHosts(UnaryOperator<String> function) {
+        this.hostDictionary.replaceAll(function);
+        this.hostIndex = null;
+    }
+    
+    private static UUID toPackableUuid(String pageUuid) {
+        UUID uuid = null;
+        try {
+            uuid = UUID.fromString(pageUuid);
+        } catch (IllegalArgumentException e) {
+            // not a canonical uuid
+        }
+        // only pack the uuid if it can be restored to exactly the same string
+        return uuid != null && uuid.toString().equals(pageUuid) ? uuid : null;
+    }
+    
+    // writes over the page at index, keeping the uuid index if the page uuid does not change
+    private void replace(int index, PageMetric pageMetric) {
+        if (this.uuidIndex != null && !Objects.equals(getPageUuid(index), pageMetric.getPageUuid())) {
+            this.uuidIndex = null;
+        }
+        write(index, pageMetric);
+    }
+    
+    private void write(int index, PageMetric pageMetric) {
+        Segment segment = writableSegment(index);
+        int offset = index % SEGMENT_SIZE;
+        segment.columns[PAGESIZE][offset] = pageMetric.getPagesize();
+        segment.columns[RETURN_TIME][offset] = pageMetric.getReturnTime();
+        segment.columns[CALL_TIME][offset] = pageMetric.getCallTime();
+        segment.columns[SERIALIZATION_TIME][offset] = pageMetric.getSerializationTime();
+        segment.columns[BYTES_WRITTEN][offset] = pageMetric.getBytesWritten();
+        segment.columns[PAGE_REQUESTED][offset] = pageMetric.getPageRequested();
+        segment.columns[PAGE_RETURNED][offset] = pageMetric.getPageReturned();
+        segment.columns[PAGE_NUMBER][offset] = pageMetric.getPageNumber();
+        segment.columns[LOGIN_TIME][offset] = pageMetric.getLoginTime();
+        segment.hostIds[offset] = getHostId(pageMetric.getHost());
+        
+        String pageUuid = pageMetric.getPageUuid();
+        this.irregularUuids.remove(index);
+        segment.uuidMostSigBits[offset] = 0;
+        segment.uuidLeastSigBits[offset] = 0;
+        if (pageUuid == null) {
+            segment.uuidTypes[offset] = UUID_NULL;
+        } else {
+            UUID uuid = toPackableUuid(pageUuid);
+            if (uuid != null) {
+                segment.uuidTypes[offset] = UUID_PACKED;
+                segment.uuidMostSigBits[offset] = uuid.getMostSignificantBits();
+                segment.uuidLeastSigBits[offset] = uuid.getLeastSignificantBits();
+            } else {
+                segment.uuidTypes[offset] = UUID_IRREGULAR;
+                this.irregularUuids.put(index, pageUuid);
+            }
+        }
+    }
+    
+    // copies length pages within a segment
+    private static void copy(Segment source, int sourceOffset, Segment target, int targetOffset, int length) {
+        for (int c = 0; c < NUM_COLUMNS; c++) {
+            System.arraycopy(source.columns[c], sourceOffset, target.columns[c], targetOffset, length);
+        }
+        System.arraycopy(source.hostIds, sourceOffset, target.hostIds, targetOffset, length);
+        System.arraycopy(source.uuidTypes, sourceOffset, target.uuidTypes, targetOffset, length);
+        System.arraycopy(source.uuidMostSigBits, sourceOffset, target.uuidMostSigBits, targetOffset, length);
+        System.arraycopy(source.uuidLeastSigBits, sourceOffset, target.uuidLeastSigBits, targetOffset, length);
+    }
+    
+    // moves the pages from index to the end of the list up one position, one segment at a time starting from the last
+    private void shiftUp(int index) {
+        int first = index / SEGMENT_SIZE;
+        int last = this.size / SEGMENT_SIZE;
+        for (int s = last; s >= first; s--) {
+            Segment segment = writableSegment(s * SEGMENT_SIZE);
+            int start = s == first ? index % SEGMENT_SIZE : 0;
+            int end = s == last ? this.size % SEGMENT_SIZE : SEGMENT_SIZE - 1;
+            copy(segment, start, segment, start + 1, end - start);
+            if (s > first) {
+                // the last page of the previous segment moves to the start of this one
+                copy(this.segments[s - 1], SEGMENT_SIZE - 1, segment, 0, 1);
+            }
+        }
+        shiftIrregularUuids(index, 1);
+    }
+    
+    // moves the pages after index down one position, one segment at a time starting from the first
+    private void shiftDown(int index) {
+        int first = index / SEGMENT_SIZE;
+        int last = (this.size - 1) / SEGMENT_SIZE;
+        for (int s = first; s <= last; s++) {
+            Segment segment = writableSegment(s * SEGMENT_SIZE);
+            int start = s == first ? index % SEGMENT_SIZE : 0;
+            int end = s == last ? (this.size - 1) % SEGMENT_SIZE : SEGMENT_SIZE - 1;
+            copy(segment, start + 1, segment, start, end - start);
+            if (s < last) {
+                // the first page of the next segment moves to the end of this one
+                copy(this.segments[s + 1], 0, segment, SEGMENT_SIZE - 1, 1);
+            }
+        }
+        shiftIrregularUuids(index + 1, -1);
+    }
+    
+    private void shiftIrregularUuids(int from, int distance) {
+        if (!this.irregularUuids.isEmpty()) {
+            Map<Integer,String> shifted = new HashMap<>();
+            this.irregularUuids.forEach((index, pageUuid) -> shifted.put(index >= from ? index + distance : index, pageUuid));
+            this.irregularUuids = shifted;
+        }
+    }
+    
+    /**
+     * Fills the given PageMetric with the values of the page at index. This allows callers that only need to read the pages, such as serializers, to reuse
+     * one PageMetric for every page.
+     */
+    public PageMetric get(int index, PageMetric pageMetric) {
+        checkIndex(index);
+        Segment segment = segment(index);
+        int offset = index % SEGMENT_SIZE;
+        pageMetric.setPagesize(segment.columns[PAGESIZE][offset]);
+        pageMetric.setReturnTime(segment.columns[RETURN_TIME][offset]);
+        pageMetric.setCallTime(segment.columns[CALL_TIME][offset]);
+        pageMetric.setSerializationTime(segment.columns[SERIALIZATION_TIME][offset]);
+        pageMetric.setBytesWritten(segment.columns[BYTES_WRITTEN][offset]);
+        pageMetric.setPageRequested(segment.columns[PAGE_REQUESTED][offset]);
+        pageMetric.setPageReturned(segment.columns[PAGE_RETURNED][offset]);
+        pageMetric.setPageNumber(segment.columns[PAGE_NUMBER][offset]);
+        pageMetric.setLoginTime(segment.columns[LOGIN_TIME][offset]);
+        pageMetric.setHost(getHost(index));
+        pageMetric.setPageUuid(getPageUuid(index));
+        return pageMetric;
+    }
+    
+    /**
+     * Returns a view of the page at index. Changes to the view are written back to the list.
+     */
+    @Override
+    public PageMetric get(int index) {
+        PageMetricView view = new PageMetricView(this, index);
+        get(index, view);
+        view.attached = true;
+        return view;
+    }
+    
+    @Override
+    public PageMetric set(int index, PageMetric pageMetric) {
+        PageMetric previous = get(index, new PageMetric());
+        replace(index, pageMetric);
+        return previous;
+    }
+    
+    @Override
+    public void add(int index, PageMetric pageMetric) {
+        if (index < 0 || index > this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        if (index < this.size) {
+            shiftUp(index);
+            this.uuidIndex = null;
+        }
+        this.size++;
+        this.modCount++;
+        write(index, pageMetric);
+        if (this.uuidIndex != null) {
+            indexPageUuid(index);
+        }
+    }
+    
+    @Override
+    public PageMetric remove(int index) {
+        PageMetric previous = get(index, new PageMetric());
+        this.irregularUuids.remove(index);
+        shiftDown(index);
+        this.uuidIndex = null;
+        this.size--;
+        this.modCount++;
+        // drop a trailing segment that no longer holds any pages so that it is not shared or serialized
+        int numSegments = numSegments(this.size);
+        if (numSegments < this.segments.length) {
+            this.segments[numSegments] = null;
+        }
+        return previous;
+    }
+    
+    @Override
+    public void clear() {
+        this.size = 0;
+        this.modCount++;
+        this.segments = new Segment[0];
+        this.irregularUuids.clear();
+        this.hostDictionary.clear();
+        this.hostIndex = null;
+        this.uuidIndex = null;
+    }
+    
+    @Override
+    public int size() {
+        return this.size;
+    }
+    
+    public long getPagesize(int index) {
+        checkIndex(index);
+        return getColumn(PAGESIZE, index);
+    }
+    
+    public long getReturnTime(int index) {
+        checkIndex(index);
+        return getColumn(RETURN_TIME, index);
+    }
+    
+    public long getPageNumber(int index) {
+        checkIndex(index);
+        return getColumn(PAGE_NUMBER, index);
+    }
+    
+    public String getHost(int index) {
+        checkIndex(index);
+        int hostId = segment(index).hostIds[index % SEGMENT_SIZE];
+        return hostId < 0 ? null : this.hostDictionary.get(hostId);
+    }
+    
+    public String getPageUuid(int index) {
+        checkIndex(index);
+        Segment segment = segment(index);
+        int offset = index % SEGMENT_SIZE;
+        switch (segment.uuidTypes[offset]) {
+            case UUID_PACKED:
+                return new UUID(segment.uuidMostSigBits[offset], segment.uuidLeastSigBits[offset]).toString();
+            case UUID_IRREGULAR:
+                return this.irregularUuids.get(index);
+            default:
+                return null;
+        }
+    }
+    
+    private void indexPageUuid(int index) {
+        Segment segment = segment(index);
+        int offset = index % SEGMENT_SIZE;
+        if (segment.uuidTypes[offset] == UUID_PACKED) {
+            this.uuidIndex.putIfAbsent(new UUID(segment.uuidMostSigBits[offset], segment.uuidLeastSigBits[offset]), index);
+        }
+    }
+    
+    /**
+     * Returns the position of the page with the given uuid. Packed uuids are looked up in an index of the uuid columns that is kept while pages are appended
+     * and rebuilt after pages are inserted or removed.
+     */
+    public int indexOfPageUuid(String pageUuid) {
+        if (pageUuid == null) {
+            return -1;
+        }
+        UUID uuid = toPackableUuid(pageUuid);
+        if (uuid != null) {
+            if (this.uuidIndex == null) {
+                this.uuidIndex = new HashMap<>();
+                for (int i = 0; i < this.size; i++) {
+                    indexPageUuid(i);
+                }
+            }
+            Integer index = this.uuidIndex.get(uuid);
+            return index == null ? -1 : index;
+        } else {
+            for (Map.Entry<Integer,String> e : this.irregularUuids.entrySet()) {
+                if (e.getValue().equals(pageUuid)) {
+                    return e.getKey();
+                }
+            }
+        }
+        return -1;
+    }
+    
+    // binary search of the page number column, returning -(insertion point + 1) if the page number is not found
+    private int searchPageNumber(long pageNumber) {
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midPageNumber = getColumn(PAGE_NUMBER, mid);
+            if (midPageNumber < pageNumber) {
+                low = mid + 1;
+            } else if (midPageNumber > pageNumber) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+    
+    /**
+     * Returns the position of the page with the given page number. The list must be ordered by page number, see {@link #sortByPageNumber()}
+     */
+    public int indexOfPageNumber(long pageNumber) {
+        int index = searchPageNumber(pageNumber);
+        return index < 0 ? -1 : index;
+    }
+    
+    /**
+     * Replaces the page that has the same page number or otherwise inserts the page at its position by page number. The list must be ordered by page number,
+     * see {@link #sortByPageNumber()}
+     */
+    public void putByPageNumber(PageMetric pageMetric) {
+        int index = searchPageNumber(pageMetric.getPageNumber());
+        if (index >= 0) {
+            replace(index, pageMetric);
+        } else {
+            add(-(index + 1), pageMetric);
+        }
+    }
+    
+    /**
+     * Orders the pages by page number, keeping only the last page for each page number
+     */
+    public void sortByPageNumber() {
+        boolean sorted = true;
+        for (int i = 1; i < this.size && sorted; i++) {
+            sorted = getColumn(PAGE_NUMBER, i - 1) < getColumn(PAGE_NUMBER, i);
+        }
+        if (!sorted) {
+            TreeMap<Long,PageMetric> pagesByPageNumber = new TreeMap<>();
+            for (int i = 0; i < this.size; i++) {
+                pagesByPageNumber.put(getColumn(PAGE_NUMBER, i), get(i, new PageMetric()));
+            }
+            clear();
+            addAll(pagesByPageNumber.values());
+        }
+    }
+    
+    public long getMaxPageNumber() {
+        long max = 0;
+        for (int i = 0; i < this.size; i++) {
+            long pageNumber = getColumn(PAGE_NUMBER, i);
+            if (max == 0 || pageNumber > max) {
+                max = pageNumber;
+            }
+        }
+        return max;
+    }
+    
+    /**
+     * @return the sum of the page sizes of all pages
+     */
+    public long getTotalPagesize() {
+        long total = 0;
+        for (int i = 0; i < this.size; i++) {
+            total += getColumn(PAGESIZE, i);
+        }
+        return total;
+    }
+    
+    /**
+     * Returns a copy of this list that shares its segments until either list modifies them
+     */
+    public PageMetricList duplicate() {
+        return new PageMetricList(this);
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        // only write the segments that hold pages
+        int numSegments = numSegments(this.size);
+        out.writeInt(numSegments);
+        for (int s = 0; s < numSegments; s++) {
+            out.writeObject(this.segments[s]);
+        }
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int numSegments = in.readInt();
+        this.segments = new Segment[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            this.segments[s] = (Segment) in.readObject();
+        }
+        this.hostIndex = null;
+        this.uuidIndex = null;
+    }
+    
+    /**
+     * A page of the list that writes changes to its values back to the list
+     */
+    private static class PageMetricView extends PageMetric {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final transient PageMetricList list;
+        private final transient int index;
+        private final transient int expectedModCount;
+        // set once the view has been filled from the list so that filling it is not written back
+        private transient boolean attached = false;
+        
+        private PageMetricView(PageMetricList list, int index) {
+            this.list = list;
+            this.index = index;
+            this.expectedModCount = list.modCount;
+        }
+        
+        private void writeBack() {
+            if (this.attached) {
+                if (this.list.modCount != this.expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                this.list.replace(this.index, this);
+            }
+        }
+        
+        @Override
+        public void setPagesize(long pagesize) {
+            super.setPagesize(pagesize);
+            writeBack();
+        }
+        
+        @Override
+        public void setReturnTime(long returnTime) {
+            super.setReturnTime(returnTime);
+            writeBack();
+        }
+        
+        @Override
+        public void setCallTime(long callTime) {
+            super.setCallTime(callTime);
+            writeBack();
+        }
+        
+        @Override
+        public void setSerializationTime(long serializationTime) {
+            super.setSerializationTime(serializationTime);
+            writeBack();
+        }
+        
+        @Override
+        public void setBytesWritten(long bytesWritten) {
+            super.setBytesWritten(bytesWritten);
+            writeBack();
+        }
+        
+        @Override
+        public void setPageRequested(long pageRequested) {
+            super.setPageRequested(pageRequested);
+            writeBack();
+        }
+        
+        @Override
+        public void setPageReturned(long pageReturned) {
+            super.setPageReturned(pageReturned);
+            writeBack();
+        }
+        
+        @Override
+        public void setPageNumber(long pageNumber) {
+            super.setPageNumber(pageNumber);
+            writeBack();
+        }
+        
+        @Override
+        public void setLoginTime(long loginTime) {
+            super.setLoginTime(loginTime);
+            writeBack();
+        }
+        
+        @Override
+        public void setHost(String host) {
+            super.setHost(host);
+            writeBack();
+        }
+        
+        @Override
+        public void setPageUuid(String pageUuid) {
+            super.setPageUuid(pageUuid);
+            writeBack();
+        }
+        
+        // a serialized view is a detached copy of the page
+        private Object writeReplace() {
+            return new PageMetric(this);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -22,6 +23,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.time.DateUtils;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
 import datawave.webservice.query.Query;
@@ -58,13 +60,12 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
         this.queryId = other.queryId;
         this.setupTime = other.setupTime;
         this.query = other.query;
+        this.compressedQuery = other.compressedQuery;
         this.host = other.host;
         this.createCallTime = other.createCallTime;
         if (other.pageTimes != null) {
-            this.pageTimes = new ArrayList<>();
-            for (PageMetric p : other.pageTimes) {
-                this.pageTimes.add(p.duplicate());
-            }
+            // copies the packed page columns rather than each PageMetric
+            this.pageTimes = other.pageTimes.duplicate();
         }
         this.numPages = other.numPages;
         this.numResults = other.numResults;
@@ -80,10 +81,11 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
             this.endDate = new Date(other.endDate.getTime());
         }
         if (other.positiveSelectors != null) {
-            this.positiveSelectors = Lists.newArrayList(other.positiveSelectors);
+            // selectors are replaced rather than modified, so the copy keeps an immutable list that its own copies can share
+            this.positiveSelectors = shareable(other.positiveSelectors);
         }
         if (other.negativeSelectors != null) {
-            this.negativeSelectors = Lists.newArrayList(other.negativeSelectors);
+            this.negativeSelectors = shareable(other.negativeSelectors);
         }
         if (other.lastUpdated != null) {
             this.lastUpdated = new Date(other.lastUpdated.getTime());
@@ -102,6 +104,7 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
         this.docRanges = other.docRanges;
         this.fiRanges = other.fiRanges;
         this.plan = other.plan;
+        this.compressedPlan = other.compressedPlan;
         this.loginTime = other.loginTime;
         
         if (other.predictions != null) {
@@ -128,6 +131,16 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
         setColumnVisibility(query.getColumnVisibility());
     }
     
+    private static List<String> shareable(List<String> list) {
+        if (list instanceof ImmutableList) {
+            return list;
+        } else if (list.contains(null)) {
+            return Lists.newArrayList(list);
+        } else {
+            return ImmutableList.copyOf(list);
+        }
+    }
+    
     public BaseQueryMetric duplicate() {
         return new QueryMetric(this);
     }
@@ -270,15 +283,17 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
             output.writeUInt64(5, message.setupTime, false);
             
             if (message.pageTimes != null) {
-                for (PageMetric pageTimes : message.pageTimes) {
-                    if (pageTimes != null) {
-                        output.writeObject(6, pageTimes, PageMetric.getSchema(), true);
-                    }
+                // write each page from the page columns using a single reusable PageMetric
+                PageMetric pageMetric = new PageMetric();
+                for (int i = 0; i < message.pageTimes.size(); i++) {
+                    output.writeObject(6, message.pageTimes.get(i, pageMetric), PageMetric.getSchema(), true);
                 }
             }
             
-            if (message.query != null) {
-                output.writeString(7, message.query, false);
+            // the query and plan are written as text so that every reader of fields 7 and 34 gets them, compressed or not
+            String query = message.getQuery();
+            if (query != null) {
+                output.writeString(7, query, false);
             }
             
             if (message.host != null) {
@@ -382,8 +397,9 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
             output.writeInt64(32, message.docRanges, false);
             output.writeInt64(33, message.fiRanges, false);
             
-            if (message.plan != null) {
-                output.writeString(34, message.plan, false);
+            String plan = message.getPlan();
+            if (plan != null) {
+                output.writeString(34, plan, false);
             }
             
             if (message.loginTime != -1) {
@@ -426,12 +442,13 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
                         break;
                     case 6:
                         if (message.pageTimes == null) {
-                            message.pageTimes = new ArrayList<PageMetric>();
+                            message.pageTimes = new PageMetricList();
                         }
                         message.pageTimes.add(input.mergeObject(null, PageMetric.getSchema()));
                         break;
                     case 7:
                         message.query = input.readString();
+                        message.compressedQuery = null;
                         break;
                     case 8:
                         message.host = input.readString();
@@ -463,12 +480,16 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
                     case 16:
                         if (message.positiveSelectors == null) {
                             message.positiveSelectors = new ArrayList<String>();
+                        } else if (message.positiveSelectors instanceof ImmutableList) {
+                            message.positiveSelectors = new ArrayList<String>(message.positiveSelectors);
                         }
                         message.positiveSelectors.add(input.readString());
                         break;
                     case 17:
                         if (message.negativeSelectors == null) {
                             message.negativeSelectors = new ArrayList<String>();
+                        } else if (message.negativeSelectors instanceof ImmutableList) {
+                            message.negativeSelectors = new ArrayList<String>(message.negativeSelectors);
                         }
                         message.negativeSelectors.add(input.readString());
                         break;
@@ -525,6 +546,7 @@ public class QueryMetric extends BaseQueryMetric implements Serializable, Messag
                         break;
                     case 34:
                         message.plan = input.readString();
+                        message.compressedPlan = null;
                         break;
                     case 35:
                         message.loginTime = input.readUInt64();
@@ -86,6 +86,10 @@ public class QueryMetricListResponse extends BaseQueryMetricListResponse<QueryMe
             }
             
             output.writeInt32(5, message.numResults, false);
+            
+            if (message.nextCursor != null) {
+                output.writeString(6, message.nextCursor, false);
+            }
         }
         
         public void mergeFrom(Input input, QueryMetricListResponse message) throws IOException {
@@ -113,6 +117,9 @@ public class QueryMetricListResponse extends BaseQueryMetricListResponse<QueryMe
                     case 5:
                         message.numResults = input.readInt32();
                         break;
+                    case 6:
+                        message.nextCursor = input.readString();
+                        break;
                     default:
                         input.handleUnknownField(number, this);
                         break;
@@ -134,6 +141,8 @@ public class QueryMetricListResponse extends BaseQueryMetricListResponse<QueryMe
                     return "result";
                 case 5:
                     return "numResults";
+                case 6:
+                    return "nextCursor";
                 default:
                     return null;
             }
@@ -151,6 +160,7 @@ public class QueryMetricListResponse extends BaseQueryMetricListResponse<QueryMe
             fieldMap.put("exceptions", 3);
             fieldMap.put("result", 4);
             fieldMap.put("numResults", 5);
+            fieldMap.put("nextCursor", 6);
         }
     };
 }
@@ -9,12 +9,20 @@ import javax.xml.bind.annotation.XmlElement;
 @XmlAccessorType(XmlAccessType.NONE)
 public class QueryMetricUpdate<T extends BaseQueryMetric> implements Serializable {
     
+    // the value computed for this class before ingestTime was added, so that it stays compatible with members and clients that do not have the field
+    private static final long serialVersionUID = -2865364178875753608L;
+    
     @XmlElement
     protected T metric;
     
     @XmlElement
     protected QueryMetricType metricType;
     
+    // when the update was received by the query metric service, or zero if it arrived directly from the message broker. This adds an ingestTime property
+    // to the messages that are sent to the broker, which a consumer that fails on unknown properties will reject
+    @XmlElement
+    protected long ingestTime;
+    
     /* constructor for deserializing JSON messages */
     public QueryMetricUpdate() {
         
@@ -44,4 +52,12 @@ public class QueryMetricUpdate<T extends BaseQueryMetric> implements Serializabl
     public QueryMetricType getMetricType() {
         return metricType;
     }
+    
+    public void setIngestTime(long ingestTime) {
+        this.ingestTime = ingestTime;
+    }
+    
+    public long getIngestTime() {
+        return ingestTime;
+    }
 }
@@ -205,6 +205,7 @@ public class QueryMetricsDetailListResponse extends QueryMetricListResponse {
         pageTimesBuilder.append("</table>\n");
         
         builder.append(pageTimesBuilder);
+        builder.append(getNextPageLink());
         
         return builder.toString();
     }
@@ -0,0 +1,31 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import datawave.webservice.result.BaseResponse;
+
+@XmlRootElement(name = "RunningQueriesResponse")
+@XmlAccessorType(XmlAccessType.NONE)
+public class RunningQueriesResponse extends BaseResponse {
+    
+    private static final long serialVersionUID = 1L;
+    
+    @XmlElementWrapper(name = "runningQueries")
+    @XmlElement(name = "runningQuery")
+    private List<RunningQuery> runningQueries = new ArrayList<>();
+    
+    public List<RunningQuery> getRunningQueries() {
+        return runningQueries;
+    }
+    
+    public void setRunningQueries(List<RunningQuery> runningQueries) {
+        this.runningQueries = runningQueries;
+    }
+}
@@ -0,0 +1,126 @@
+package datawave.microservice.querymetric;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+
+import datawave.microservice.querymetric.BaseQueryMetric.Lifecycle;
+
+/**
+ * Projection of a cached query metric that holds only what is needed to list the queries that are currently running
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class RunningQuery implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    @XmlElement
+    private String queryId;
+    @XmlElement
+    private String user;
+    @XmlElement
+    private String queryLogic;
+    @XmlElement
+    private String host;
+    @XmlElement
+    private Lifecycle lifecycle;
+    @XmlElement
+    private Date createDate;
+    @XmlElement
+    private Date lastUpdated;
+    @XmlElement
+    private long numPages;
+    @XmlElement
+    private long numResults;
+    
+    public RunningQuery() {
+    
+    }
+    
+    public RunningQuery(BaseQueryMetric metric) {
+        this.queryId = metric.getQueryId();
+        this.user = metric.getUser();
+        this.queryLogic = metric.getQueryLogic();
+        this.host = metric.getHost();
+        this.lifecycle = metric.getLifecycle();
+        this.createDate = metric.getCreateDate();
+        this.lastUpdated = metric.getLastUpdated();
+        this.numPages = metric.getNumPages();
+        this.numResults = metric.getNumResults();
+    }
+    
+    public String getQueryId() {
+        return queryId;
+    }
+    
+    public void setQueryId(String queryId) {
+        this.queryId = queryId;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+    
+    public String getQueryLogic() {
+        return queryLogic;
+    }
+    
+    public void setQueryLogic(String queryLogic) {
+        this.queryLogic = queryLogic;
+    }
+    
+    public String getHost() {
+        return host;
+    }
+    
+    public void setHost(String host) {
+        this.host = host;
+    }
+    
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+    
+    public void setLifecycle(Lifecycle lifecycle) {
+        this.lifecycle = lifecycle;
+    }
+    
+    public Date getCreateDate() {
+        return createDate;
+    }
+    
+    public void setCreateDate(Date createDate) {
+        this.createDate = createDate;
+    }
+    
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+    
+    public void setLastUpdated(Date lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+    
+    public long getNumPages() {
+        return numPages;
+    }
+    
+    public void setNumPages(long numPages) {
+        this.numPages = numPages;
+    }
+    
+    public long getNumResults() {
+        return numResults;
+    }
+    
+    public void setNumResults(long numResults) {
+        this.numResults = numResults;
+    }
+}
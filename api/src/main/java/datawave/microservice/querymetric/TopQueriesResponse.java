@@ -0,0 +1,42 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import datawave.webservice.result.BaseResponse;
+
+@XmlRootElement(name = "TopQueriesResponse")
+@XmlAccessorType(XmlAccessType.NONE)
+public class TopQueriesResponse extends BaseResponse {
+    
+    private static final long serialVersionUID = 1L;
+    
+    @XmlElement
+    private String by;
+    
+    @XmlElementWrapper(name = "topQueries")
+    @XmlElement(name = "topQuery")
+    private List<TopQuery> topQueries = new ArrayList<>();
+    
+    public String getBy() {
+        return by;
+    }
+    
+    public void setBy(String by) {
+        this.by = by;
+    }
+    
+    public List<TopQuery> getTopQueries() {
+        return topQueries;
+    }
+    
+    public void setTopQueries(List<TopQuery> topQueries) {
+        this.topQueries = topQueries;
+    }
+}
@@ -0,0 +1,34 @@
+package datawave.microservice.querymetric;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Summary of a query that ranks among the highest for one measure, along with its value for that measure
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class TopQuery extends RunningQuery {
+    
+    private static final long serialVersionUID = 1L;
+    
+    @XmlElement
+    private long value;
+    
+    public TopQuery() {
+    
+    }
+    
+    public TopQuery(BaseQueryMetric metric, long value) {
+        super(metric);
+        this.value = value;
+    }
+    
+    public long getValue() {
+        return value;
+    }
+    
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,211 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.querymetric.BaseQueryMetric.PageMetric;
+
+public class PageMetricListTest {
+    
+    private static PageMetric createPageMetric(String host, String pageUuid, long pageNumber) {
+        PageMetric pageMetric = new PageMetric(host, pageUuid, 100 * pageNumber, 10, 1000, 2000, 5, 20, 30, 4096);
+        pageMetric.setPageNumber(pageNumber);
+        return pageMetric;
+    }
+    
+    private static List<PageMetric> createPageMetrics() {
+        List<PageMetric> pageMetrics = new ArrayList<>();
+        pageMetrics.add(createPageMetric("host1", UUID.randomUUID().toString(), 1));
+        pageMetrics.add(createPageMetric(null, "aa-bb-cc-dd", 2));
+        pageMetrics.add(createPageMetric("host2", null, 3));
+        pageMetrics.add(createPageMetric("host1", UUID.randomUUID().toString(), 4));
+        return pageMetrics;
+    }
+    
+    @Test
+    public void pagesAreRestoredFromColumns() {
+        List<PageMetric> pageMetrics = createPageMetrics();
+        PageMetricList pageMetricList = new PageMetricList(pageMetrics);
+        assertEquals(pageMetrics.size(), pageMetricList.size());
+        assertEquals(pageMetrics, pageMetricList);
+        assertEquals(1000, pageMetricList.getTotalPagesize());
+        assertEquals(4, pageMetricList.getMaxPageNumber());
+    }
+    
+    @Test
+    public void insertAndRemoveKeepPagesInStep() {
+        List<PageMetric> pageMetrics = createPageMetrics();
+        PageMetricList pageMetricList = new PageMetricList(pageMetrics);
+        PageMetric inserted = createPageMetric("host3", "irregular-uuid", 5);
+        pageMetrics.add(1, inserted);
+        pageMetricList.add(1, inserted);
+        assertEquals(pageMetrics, pageMetricList);
+        assertEquals(1, pageMetricList.indexOfPageUuid("irregular-uuid"));
+        assertEquals(2, pageMetricList.indexOfPageUuid("aa-bb-cc-dd"));
+        
+        pageMetrics.remove(0);
+        pageMetricList.remove(0);
+        assertEquals(pageMetrics, pageMetricList);
+        assertEquals(0, pageMetricList.indexOfPageUuid("irregular-uuid"));
+        assertEquals(1, pageMetricList.indexOfPageUuid("aa-bb-cc-dd"));
+    }
+    
+    @Test
+    public void insertAndRemoveAcrossSegments() {
+        List<PageMetric> pageMetrics = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            pageMetrics.add(createPageMetric("host" + (i % 3), i % 50 == 0 ? "irregular-" + i : UUID.randomUUID().toString(), i));
+        }
+        PageMetricList pageMetricList = new PageMetricList(pageMetrics);
+        for (int index : new int[] {10, 63, 64, 130, 203}) {
+            PageMetric inserted = createPageMetric("host9", UUID.randomUUID().toString(), 1000 + index);
+            pageMetrics.add(index, inserted);
+            pageMetricList.add(index, inserted);
+        }
+        for (int index : new int[] {0, 63, 64, 128, 200}) {
+            pageMetrics.remove(index);
+            pageMetricList.remove(index);
+        }
+        assertEquals(pageMetrics, pageMetricList);
+        for (int i = 0; i < pageMetrics.size(); i++) {
+            assertEquals(i, pageMetricList.indexOfPageUuid(pageMetrics.get(i).getPageUuid()));
+        }
+    }
+    
+    @Test
+    public void changesToAPageAreWrittenBack() {
+        PageMetricList pageMetricList = new PageMetricList(createPageMetrics());
+        assertEquals(3, pageMetricList.indexOfPageUuid(pageMetricList.getPageUuid(3)));
+        PageMetric pageMetric = pageMetricList.get(3);
+        pageMetric.setPagesize(999);
+        pageMetric.setHost("host3");
+        pageMetric.setPageUuid("aa-bb-cc-ee");
+        assertEquals(999, pageMetricList.getPagesize(3));
+        assertEquals("host3", pageMetricList.getHost(3));
+        assertEquals(3, pageMetricList.indexOfPageUuid("aa-bb-cc-ee"));
+        
+        // a page of a duplicate only changes the duplicate
+        PageMetricList duplicate = pageMetricList.duplicate();
+        duplicate.get(0).setPageNumber(10);
+        assertEquals(10, duplicate.getPageNumber(0));
+        assertEquals(1, pageMetricList.getPageNumber(0));
+        
+        // a page can not be changed after the pages have been moved
+        pageMetricList.remove(0);
+        assertThrows(ConcurrentModificationException.class, () -> pageMetric.setPagesize(1));
+    }
+    
+    @Test
+    public void putByPageNumberReplacesOrInserts() {
+        PageMetricList pageMetricList = new PageMetricList(createPageMetrics());
+        pageMetricList.remove(2);
+        pageMetricList.putByPageNumber(createPageMetric("host4", null, 3));
+        assertEquals(4, pageMetricList.size());
+        assertEquals("host4", pageMetricList.get(2).getHost());
+        
+        PageMetric replacement = createPageMetric("host5", null, 3);
+        pageMetricList.putByPageNumber(replacement);
+        assertEquals(4, pageMetricList.size());
+        assertEquals(replacement, pageMetricList.get(pageMetricList.indexOfPageNumber(3)));
+    }
+    
+    @Test
+    public void sortByPageNumberKeepsLastPage() {
+        PageMetricList pageMetricList = new PageMetricList();
+        pageMetricList.add(createPageMetric("host1", null, 2));
+        pageMetricList.add(createPageMetric("host1", null, 1));
+        PageMetric last = createPageMetric("host2", null, 2);
+        pageMetricList.add(last);
+        pageMetricList.sortByPageNumber();
+        assertEquals(2, pageMetricList.size());
+        assertEquals(1, pageMetricList.getPageNumber(0));
+        assertEquals(last, pageMetricList.get(1));
+    }
+    
+    @Test
+    public void duplicateIsIndependent() {
+        PageMetricList pageMetricList = new PageMetricList(createPageMetrics());
+        PageMetricList duplicate = pageMetricList.duplicate();
+        assertEquals(pageMetricList, duplicate);
+        duplicate.set(0, createPageMetric("host9", null, 1));
+        assertNotEquals(pageMetricList, duplicate);
+        assertEquals("host1", pageMetricList.getHost(0));
+    }
+    
+    @Test
+    public void duplicatesShareSegmentsUntilModified() {
+        PageMetricList pageMetricList = new PageMetricList();
+        for (int i = 1; i <= 150; i++) {
+            pageMetricList.add(createPageMetric("host" + (i % 3), UUID.randomUUID().toString(), i));
+        }
+        List<PageMetric> expected = new ArrayList<>(pageMetricList);
+        
+        PageMetricList duplicate = pageMetricList.duplicate();
+        duplicate.add(createPageMetric("host9", "irregular-uuid", 151));
+        duplicate.set(10, createPageMetric("host9", null, 11));
+        duplicate.remove(100);
+        pageMetricList.set(140, createPageMetric("host8", null, 141));
+        
+        assertEquals(150, duplicate.size());
+        assertEquals("host9", duplicate.getHost(10));
+        assertEquals(149, duplicate.indexOfPageUuid("irregular-uuid"));
+        assertEquals(expected.get(140), duplicate.get(139));
+        
+        assertEquals(150, pageMetricList.size());
+        assertEquals(expected.subList(0, 140), pageMetricList.subList(0, 140));
+        assertEquals("host8", pageMetricList.getHost(140));
+        assertEquals(-1, pageMetricList.indexOfPageUuid("irregular-uuid"));
+    }
+    
+    @Test
+    public void javaSerialization() throws Exception {
+        PageMetricList pageMetricList = new PageMetricList(createPageMetrics());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(pageMetricList);
+        }
+        PageMetricList deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            deserialized = (PageMetricList) in.readObject();
+        }
+        assertEquals(pageMetricList, deserialized);
+        // the host dictionary index is rebuilt after deserialization
+        deserialized.add(createPageMetric("host1", null, 5));
+        assertEquals("host1", deserialized.getHost(4));
+    }
+    
+    @Test
+    public void javaSerializationDoesNotChangeTheList() throws Exception {
+        PageMetricList pageMetricList = new PageMetricList(200);
+        pageMetricList.addAll(createPageMetrics());
+        PageMetric pageMetric = pageMetricList.get(0);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(pageMetricList);
+            out.writeObject(pageMetric);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            assertEquals(pageMetricList, in.readObject());
+            // a serialized page is a copy that is not attached to the list
+            assertSame(PageMetric.class, in.readObject().getClass());
+        }
+        
+        // a page read before the list was serialized can still be changed
+        pageMetric.setPagesize(999);
+        assertEquals(999, pageMetricList.getPagesize(0));
+    }
+}
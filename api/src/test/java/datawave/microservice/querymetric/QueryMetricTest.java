@@ -2,6 +2,8 @@ package datawave.microservice.querymetric;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -168,6 +170,57 @@ public class QueryMetricTest {
         assertEquals(queryMetric, deserializedMetric);
     }
     
+    @Test
+    public void testLargeQueryIsHeldCompressed() throws Exception {
+        int threshold = 1024;
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < threshold) {
+            sb.append("FIELD").append(sb.length()).append(" == 'value' || ");
+        }
+        String largeQuery = sb.toString();
+        QueryMetric metric = (QueryMetric) queryMetric.duplicate();
+        metric.setQuery(largeQuery);
+        metric.setPlan(largeQuery);
+        metric.compressQueryAndPlan(threshold);
+        assertNotNull(metric.compressedQuery);
+        assertNotNull(metric.compressedPlan);
+        assertTrue(metric.compressedQuery.getBytes().length < largeQuery.length());
+        assertEquals(largeQuery, metric.getQuery());
+        // the query is only held compressed after it is read
+        assertTrue(metric.hasQuery());
+        assertTrue(metric.hasPlan());
+        assertNull(metric.query);
+        assertEquals(largeQuery, metric.getPlan());
+        assertEquals(largeQuery, metric.duplicate().getQuery());
+        
+        // the query and plan are written as text for readers that only know fields 7 and 34
+        Schema<QueryMetric> schema = (Schema<QueryMetric>) metric.getSchemaInstance();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ProtostuffIOUtil.writeTo(baos, metric, schema, LinkedBuffer.allocate());
+        QueryMetric deserializedMetric = schema.newMessage();
+        ProtostuffIOUtil.mergeFrom(baos.toByteArray(), deserializedMetric, schema);
+        assertEquals(metric, deserializedMetric);
+        assertEquals(largeQuery, deserializedMetric.query);
+        assertEquals(largeQuery, deserializedMetric.plan);
+        
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JaxbAnnotationModule());
+        assertEquals(metric, objectMapper.readValue(objectMapper.writeValueAsString(metric), QueryMetric.class));
+        
+        JAXBContext jaxbContext = JAXBContext.newInstance(QueryMetric.class);
+        baos = new ByteArrayOutputStream();
+        jaxbContext.createMarshaller().marshal(metric, baos);
+        assertEquals(metric, jaxbContext.createUnmarshaller().unmarshal(new ByteArrayInputStream(baos.toByteArray())));
+        
+        // a value below the threshold, or with compression disabled, is kept as text
+        metric.setQuery("FIELD == 'value'");
+        metric.compressQueryAndPlan(threshold);
+        assertNull(metric.compressedQuery);
+        metric.setPlan(largeQuery);
+        metric.compressQueryAndPlan(0);
+        assertNull(metric.compressedPlan);
+    }
+    
     @Test
     public void testProtobufCompleteness() throws Exception {
         testSchemaCompleteness(QueryMetric.class);
@@ -196,8 +249,10 @@ public class QueryMetricTest {
             currentClazz = currentClazz.getSuperclass();
         }
         String message = "field [%s.%s] (or parent class) must be included in getFieldNumber, getFieldName, writeTo, and mergeFrom";
+        // a compressed query or plan is written as the text of the query or plan field
+        List<String> writtenAsOtherFields = Arrays.asList("compressedQuery", "compressedPlan");
         for (Field f : fields) {
-            if (!Modifier.isStatic(f.getModifiers())) {
+            if (!Modifier.isStatic(f.getModifiers()) && !writtenAsOtherFields.contains(f.getName())) {
                 String fieldName = f.getName();
                 int fieldNumber = schema.getFieldNumber(fieldName);
                 assertTrue(fieldNumber > 0, String.format(message, fieldName, className));
@@ -251,6 +306,27 @@ public class QueryMetricTest {
         assertEquals(qm, deserializedMetric);
     }
     
+    @Test
+    public void testDuplicateDoesNotChangeTheOriginal() {
+        QueryMetric qm = new QueryMetric();
+        List<String> selectors = new ArrayList<>(positiveSelectors);
+        qm.setPositiveSelectors(selectors);
+        qm.setPageTimes(new ArrayList<>(pageTimes));
+        QueryMetric duplicate = (QueryMetric) qm.duplicate();
+        assertSame(selectors, qm.getPositiveSelectors());
+        assertEquals(selectors, duplicate.getPositiveSelectors());
+        
+        // the copy of a copy shares its selectors and either metric can add pages without changing the other
+        QueryMetric second = (QueryMetric) duplicate.duplicate();
+        assertSame(duplicate.getPositiveSelectors(), second.getPositiveSelectors());
+        duplicate.getPageTimes().add(new PageMetric());
+        second.getPageTimes().get(0).setCallTime(10);
+        assertEquals(1, qm.getPageTimes().size());
+        assertEquals(0, qm.getPageTimes().get(0).getCallTime());
+        assertEquals(0, duplicate.getPageTimes().get(0).getCallTime());
+        assertEquals(1, second.getPageTimes().size());
+    }
+    
     @Test
     public void testPageMetricParsing1() {
         PageMetric pmRef1 = new PageMetric("localhost", "aa-bb-cc-dd", 2500, 2000, 3500, 3600, 1000, 2200, 3000, 10000);
@@ -0,0 +1,128 @@
+package datawave.microservice.querymetric;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import datawave.microservice.querymetric.handler.QueryGeometryHandler;
+import datawave.query.jexl.visitors.JexlFormattedStringBuildingVisitor;
+
+/**
+ * Caches the formatted query, formatted plan and geo flag of a metric by queryId and numUpdates so that repeated views of the same version of a metric do not
+ * parse the query and plan again. The raw query and plan are only held as hashes and large formatted values are compressed, so an entry does not hold more
+ * than the compressed metric that it was created from.
+ */
+public class FormattedMetricCache {
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private Logger log = LoggerFactory.getLogger(FormattedMetricCache.class);
+    private Cache<String,FormattedMetric> cache;
+    private QueryGeometryHandler geometryHandler;
+    private int compressionThreshold;
+    
+    public FormattedMetricCache(long maximumSize, int compressionThreshold, QueryGeometryHandler geometryHandler) {
+        this.geometryHandler = geometryHandler;
+        this.compressionThreshold = compressionThreshold;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+    
+    /**
+     * Returns a copy of the metric with the formatted query and plan. The metric that is passed in is not changed.
+     *
+     * @param metric
+     *            the metric to format
+     * @return the formatted copy of the metric
+     */
+    public BaseQueryMetric format(BaseQueryMetric metric) {
+        FormattedMetric formattedMetric = getFormattedMetric(metric);
+        BaseQueryMetric copy = metric.duplicate();
+        copy.setQuery(formattedMetric.getFormattedQuery());
+        copy.setPlan(formattedMetric.getFormattedPlan());
+        return copy;
+    }
+    
+    public boolean isGeoQuery(BaseQueryMetric metric) {
+        return getFormattedMetric(metric).geoQuery;
+    }
+    
+    public CacheStats getStats() {
+        return this.cache.stats();
+    }
+    
+    private FormattedMetric getFormattedMetric(BaseQueryMetric metric) {
+        String key = metric.getQueryId() + "-" + metric.getNumUpdates();
+        FormattedMetric formattedMetric = this.cache.getIfPresent(key);
+        // the query and plan are only set once, but a metric that has not yet been written may gain a plan without a change to numUpdates
+        if (formattedMetric == null || !formattedMetric.matches(metric)) {
+            formattedMetric = new FormattedMetric(metric);
+            this.cache.put(key, formattedMetric);
+        }
+        return formattedMetric;
+    }
+    
+    private static HashCode hash(String value) {
+        return value == null ? null : HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8);
+    }
+    
+    private class FormattedMetric {
+        private final HashCode queryHash;
+        private final HashCode planHash;
+        // one of each pair is set, depending on whether the formatted value was large enough to compress
+        private final String formattedQuery;
+        private final CompressedString compressedFormattedQuery;
+        private final String formattedPlan;
+        private final CompressedString compressedFormattedPlan;
+        private final boolean geoQuery;
+        
+        private FormattedMetric(BaseQueryMetric metric) {
+            String query = metric.getQuery();
+            String plan = metric.getPlan();
+            this.queryHash = hash(query);
+            this.planHash = hash(plan);
+            String fmtQuery = query;
+            String fmtPlan = plan;
+            // format a copy so that the metric is unchanged if formatting fails
+            BaseQueryMetric copy = metric.duplicate();
+            // StackOverflowErrors seen in JexlFormattedStringBuildingVisitor.formatMetrics, so protect
+            // this call and keep the original query and plan if formatMetrics fails
+            try {
+                List<BaseQueryMetric> formatted = JexlFormattedStringBuildingVisitor.formatMetrics(Collections.singletonList(copy));
+                if (formatted != null && !formatted.isEmpty()) {
+                    fmtQuery = formatted.get(0).getQuery();
+                    fmtPlan = formatted.get(0).getPlan();
+                }
+            } catch (StackOverflowError | Exception e) {
+                log.warn(String.format("%s while formatting metric %s: %s", e.getClass().getCanonicalName(), metric.getQueryId(), e.getMessage()));
+            }
+            this.compressedFormattedQuery = CompressedString.compress(fmtQuery, compressionThreshold);
+            this.formattedQuery = this.compressedFormattedQuery == null ? fmtQuery : null;
+            this.compressedFormattedPlan = CompressedString.compress(fmtPlan, compressionThreshold);
+            this.formattedPlan = this.compressedFormattedPlan == null ? fmtPlan : null;
+            this.geoQuery = geometryHandler.isGeoQuery(metric);
+        }
+        
+        private String getFormattedQuery() {
+            return this.compressedFormattedQuery == null ? this.formattedQuery : this.compressedFormattedQuery.getValue();
+        }
+        
+        private String getFormattedPlan() {
+            return this.compressedFormattedPlan == null ? this.formattedPlan : this.compressedFormattedPlan.getValue();
+        }
+        
+        private boolean matches(BaseQueryMetric metric) {
+            return Objects.equals(this.queryHash, hash(metric.getQuery())) && Objects.equals(this.planHash, hash(metric.getPlan()));
+        }
+    }
+}
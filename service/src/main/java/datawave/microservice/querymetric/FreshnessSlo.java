@@ -0,0 +1,64 @@
+package datawave.microservice.querymetric;
+
+/**
+ * The percentage of writes whose lag met the freshness SLO over a sliding window. The window is split into buckets that only hold counts, so a long window
+ * does not keep every value the way that a timer's reservoir does.
+ */
+public class FreshnessSlo {
+    
+    private static final int BUCKETS = 60;
+    
+    private final long sloMillis;
+    private final long bucketMillis;
+    private final long[] bucketStart = new long[BUCKETS];
+    private final long[] within = new long[BUCKETS];
+    private final long[] total = new long[BUCKETS];
+    
+    public FreshnessSlo(long sloMillis, long windowMillis) {
+        this.sloMillis = sloMillis;
+        this.bucketMillis = Math.max(windowMillis / BUCKETS, 1);
+    }
+    
+    public void record(long lagMillis) {
+        record(lagMillis, System.currentTimeMillis());
+    }
+    
+    synchronized void record(long lagMillis, long now) {
+        long start = now - (now % this.bucketMillis);
+        int bucket = (int) ((now / this.bucketMillis) % BUCKETS);
+        if (this.bucketStart[bucket] != start) {
+            // the bucket was last used a full window ago
+            this.bucketStart[bucket] = start;
+            this.within[bucket] = 0;
+            this.total[bucket] = 0;
+        }
+        this.total[bucket]++;
+        if (lagMillis <= this.sloMillis) {
+            this.within[bucket]++;
+        }
+    }
+    
+    /**
+     * @return the percent of the writes in the window that met the SLO, or 100 if there were none
+     */
+    public double getPercentWithin() {
+        return getPercentWithin(System.currentTimeMillis());
+    }
+    
+    synchronized double getPercentWithin(long now) {
+        long windowStart = now - this.bucketMillis * BUCKETS;
+        long withinCount = 0;
+        long totalCount = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (this.bucketStart[bucket] > windowStart) {
+                withinCount += this.within[bucket];
+                totalCount += this.total[bucket];
+            }
+        }
+        return totalCount == 0 ? 100.0 : 100.0 * withinCount / totalCount;
+    }
+    
+    public long getSloMillis() {
+        return sloMillis;
+    }
+}
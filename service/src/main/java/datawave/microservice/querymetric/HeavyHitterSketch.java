@@ -0,0 +1,128 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Approximate counts of the most frequent keys in a stream using bounded memory. Every key is counted in a count-min sketch of depth rows of width atomic
+ * counters, which can overestimate a count but never underestimate it. Only the keys whose estimate reaches the smallest retained estimate are kept as
+ * candidates, and when the candidates grow to twice the size they are trimmed back to the largest size estimates by whichever thread gets there first.
+ * <p>
+ * The counters are updated without locking. Updating a candidate takes the lock that the ConcurrentHashMap holds on the key's bin, so threads only wait on
+ * each other when they update candidates in the same bin, which is most often the same heavy key.
+ */
+public class HeavyHitterSketch {
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private final int size;
+    private final int width;
+    private final int depth;
+    private final AtomicLongArray counters;
+    private final LongAdder total = new LongAdder();
+    private final Map<String,Long> candidates = new ConcurrentHashMap<>();
+    private final AtomicBoolean trimming = new AtomicBoolean(false);
+    // the smallest estimate retained by the last trim, below which new keys are not tracked
+    private volatile long threshold = 0;
+    
+    public HeavyHitterSketch(int size, int width, int depth) {
+        this.size = size;
+        this.width = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(this.width * depth);
+    }
+    
+    public void add(String key) {
+        add(key, 1);
+    }
+    
+    public void add(String key, long count) {
+        String k = String.valueOf(key);
+        this.total.add(count);
+        long hash = HASH_FUNCTION.hashUnencodedChars(k).asLong();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            estimate = Math.min(estimate, this.counters.addAndGet(index(hash, row), count));
+        }
+        if (estimate >= this.threshold || this.candidates.containsKey(k)) {
+            this.candidates.merge(k, estimate, Math::max);
+            if (this.candidates.size() > 2 * this.size) {
+                trim();
+            }
+        }
+    }
+    
+    // derives the column of each row from two halves of one hash instead of computing a hash per row
+    private int index(long hash, int row) {
+        int column = ((int) hash + row * (int) (hash >>> 32)) & (this.width - 1);
+        return row * this.width + column;
+    }
+    
+    private void trim() {
+        // threads that find a trim in progress keep going, so the candidates can briefly exceed twice the size
+        if (this.trimming.compareAndSet(false, true)) {
+            try {
+                List<Map.Entry<String,Long>> entries = sortedCandidates();
+                if (entries.size() > this.size) {
+                    for (Map.Entry<String,Long> e : entries.subList(this.size, entries.size())) {
+                        // a candidate that was incremented since it was sorted is left for the next trim
+                        this.candidates.remove(e.getKey(), e.getValue());
+                    }
+                    this.threshold = entries.get(this.size - 1).getValue();
+                }
+            } finally {
+                this.trimming.set(false);
+            }
+        }
+    }
+    
+    private List<Map.Entry<String,Long>> sortedCandidates() {
+        List<Map.Entry<String,Long>> entries = new ArrayList<>(this.candidates.entrySet());
+        entries.sort(Map.Entry.<String,Long> comparingByValue().reversed());
+        return entries;
+    }
+    
+    /**
+     * @return up to size keys with their estimated counts, ordered from the highest count to the lowest
+     */
+    public Map<String,Long> getTopCounts() {
+        Map<String,Long> topCounts = new LinkedHashMap<>();
+        for (Map.Entry<String,Long> e : sortedCandidates()) {
+            if (topCounts.size() >= this.size) {
+                break;
+            }
+            topCounts.put(e.getKey(), e.getValue());
+        }
+        return topCounts;
+    }
+    
+    /**
+     * @return the estimated count of a key whether or not it is one of the candidates
+     */
+    public long getEstimate(String key) {
+        String k = String.valueOf(key);
+        long hash = HASH_FUNCTION.hashUnencodedChars(k).asLong();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            estimate = Math.min(estimate, this.counters.get(index(hash, row)));
+        }
+        return estimate;
+    }
+    
+    public long getTotal() {
+        return this.total.sum();
+    }
+    
+    public int getCandidateCount() {
+        return this.candidates.size();
+    }
+}
@@ -0,0 +1,136 @@
+package datawave.microservice.querymetric;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Runs tasks on a fixed number of lanes, each with one thread and a bounded queue. Tasks with the same key always run on the same lane in the order that they
+ * were submitted, and tasks with different keys run in parallel. When a lane's queue is full, the submitting thread waits, which slows the source of the tasks
+ * instead of holding an unbounded backlog.
+ */
+public class KeyedExecutor {
+    
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    
+    private Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final Lane[] lanes;
+    private volatile boolean running = true;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    
+    public KeyedExecutor(String name, int numLanes, int queueSize) {
+        this.lanes = new Lane[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            this.lanes[i] = new Lane(name + "-" + i, queueSize);
+            this.lanes[i].start();
+        }
+    }
+    
+    /**
+     * Adds the task to the queue of the key's lane, waiting for space if the queue is full
+     *
+     * @param key
+     *            the key whose tasks must run in order
+     * @param task
+     *            the task
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting for space
+     * @throws IllegalStateException
+     *             if the executor is shut down
+     */
+    public void execute(String key, Runnable task) throws InterruptedException {
+        Lane lane = this.lanes[getLane(key)];
+        boolean queued = false;
+        while (this.running && !queued) {
+            queued = lane.queue.offer(task, 100, TimeUnit.MILLISECONDS);
+        }
+        // the lane may have stopped after a shutdown, in which case the task is not run
+        if (!queued || (!this.running && lane.queue.remove(task))) {
+            throw new IllegalStateException("executor is shut down");
+        }
+    }
+    
+    int getLane(String key) {
+        int hash = HASH.hashString(String.valueOf(key), StandardCharsets.UTF_8).asInt();
+        return Math.floorMod(hash, this.lanes.length);
+    }
+    
+    /**
+     * Stops accepting tasks and waits for the queued tasks to run or the timeout to pass
+     */
+    public void shutdown(long timeoutMillis) {
+        this.running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Lane lane : this.lanes) {
+            try {
+                lane.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int remaining = getQueuedCount();
+        if (remaining > 0) {
+            log.warn("Keyed executor stopped with {} tasks not run", remaining);
+        }
+    }
+    
+    public int getQueuedCount() {
+        int queued = 0;
+        for (Lane lane : this.lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+    
+    public long getCompletedCount() {
+        return this.completed.sum();
+    }
+    
+    public long getFailedCount() {
+        return this.failed.sum();
+    }
+    
+    private class Lane extends Thread {
+        
+        private final BlockingQueue<Runnable> queue;
+        
+        Lane(String name, int queueSize) {
+            super(name);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+        
+        @Override
+        public void run() {
+            // after a shutdown, run what is queued
+            while (running || !this.queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (task != null) {
+                    try {
+                        task.run();
+                        completed.increment();
+                    } catch (Throwable t) {
+                        failed.increment();
+                        log.error("Exception running task on " + getName() + ": " + t.getMessage(), t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package datawave.microservice.querymetric;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory-mapped file of a fixed size that holds records, each written as a length followed by the bytes of the record. It is used by the
+ * {@link MetricUpdateSpool} and the {@link MetricJournal}. A new file is filled with zeros, so a zero length marks the end of the records. The length is
+ * written after the bytes so that a record that was partly written is not read, and a record is marked as consumed by negating its length.
+ * <p>
+ * The buffer is unmapped when the segment is closed rather than when it is garbage collected, so that a deleted segment releases its disk space right away.
+ * The owner of a segment must not use it after it is closed.
+ */
+class MappedSegment {
+    
+    static final int LENGTH_BYTES = 4;
+    
+    private static final Logger log = LoggerFactory.getLogger(MappedSegment.class);
+    private static final MethodHandle UNMAPPER = findUnmapper();
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int writePosition = 0;
+    private boolean open = true;
+    
+    MappedSegment(Path path, int size) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    
+    /**
+     * Lists the segment files in a directory in the order of their ids
+     */
+    static List<Path> list(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(prefix) && p.getFileName().toString().endsWith(suffix))
+                            .sorted((p1, p2) -> Long.compare(getId(p1, prefix, suffix), getId(p2, prefix, suffix))).collect(Collectors.toList());
+        }
+    }
+    
+    static long getId(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+    
+    int getCapacity() {
+        return this.buffer.capacity();
+    }
+    
+    int getWritePosition() {
+        return this.writePosition;
+    }
+    
+    boolean hasRoom(int length) {
+        return this.writePosition + LENGTH_BYTES + length <= this.buffer.capacity();
+    }
+    
+    /**
+     * @return the position of the record
+     */
+    int append(byte[] record) {
+        checkOpen();
+        int position = this.writePosition;
+        ByteBuffer target = this.buffer.duplicate();
+        target.position(position + LENGTH_BYTES);
+        target.put(record);
+        // the length is written last so that a record that was partly written is not read
+        this.buffer.putInt(position, record.length);
+        this.writePosition += LENGTH_BYTES + record.length;
+        return position;
+    }
+    
+    byte[] read(int position, int length) {
+        checkOpen();
+        byte[] record = new byte[length];
+        ByteBuffer source = this.buffer.duplicate();
+        source.position(position + LENGTH_BYTES);
+        source.get(record);
+        return record;
+    }
+    
+    /**
+     * @return the length of the record at the position, which is negative if it was consumed
+     */
+    int getLength(int position) {
+        checkOpen();
+        return this.buffer.getInt(position);
+    }
+    
+    void consume(int position, int length) {
+        checkOpen();
+        this.buffer.putInt(position, -length);
+    }
+    
+    void force() {
+        checkOpen();
+        this.buffer.force();
+    }
+    
+    /**
+     * Visits the records that were not consumed and finds the end of the records
+     *
+     * @return the number of records that were not consumed
+     */
+    int recover(RecordVisitor visitor) throws IOException {
+        int unconsumed = 0;
+        int position = 0;
+        while (position + LENGTH_BYTES <= this.buffer.capacity()) {
+            int length = getLength(position);
+            if (length == 0 || position + LENGTH_BYTES + Math.abs(length) > this.buffer.capacity()) {
+                break;
+            }
+            if (length > 0) {
+                visitor.visit(position, length);
+                unconsumed++;
+            }
+            position += LENGTH_BYTES + Math.abs(length);
+        }
+        this.writePosition = position;
+        return unconsumed;
+    }
+    
+    boolean isOpen() {
+        return this.open;
+    }
+    
+    private void checkOpen() {
+        if (!this.open) {
+            throw new IllegalStateException("Segment " + this.path + " is closed");
+        }
+    }
+    
+    void close() {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        if (UNMAPPER != null) {
+            try {
+                UNMAPPER.invoke(this.buffer);
+            } catch (Throwable e) {
+                log.debug("Unable to unmap segment {}: {}", this.path, e.getMessage());
+            }
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            log.debug("Exception closing segment {}: {}", this.path, e.getMessage());
+        }
+    }
+    
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException e) {
+            log.warn("Unable to delete segment {}: {}", this.path, e.getMessage());
+        }
+    }
+    
+    private static MethodHandle findUnmapper() {
+        try {
+            // sun.misc.Unsafe is exported by the jdk.unsupported module, so this works without opening any packages
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            MethodHandle invokeCleaner = MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class));
+            return invokeCleaner.bindTo(field.get(null));
+        } catch (Exception e) {
+            log.warn("Mapped segments will be unmapped when they are garbage collected: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    interface RecordVisitor {
+        void visit(int position, int length) throws IOException;
+    }
+}
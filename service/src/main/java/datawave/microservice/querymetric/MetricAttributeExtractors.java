@@ -0,0 +1,75 @@
+package datawave.microservice.querymetric;
+
+import com.hazelcast.query.extractor.ValueCollector;
+import com.hazelcast.query.extractor.ValueExtractor;
+
+/**
+ * Hazelcast attribute extractors that expose fields of the metric held by a {@link QueryMetricUpdateHolder} so that the incomingQueryMetrics map can be
+ * indexed and queried by them, and a query returns only the matching entries rather than scanning the map.
+ * <p>
+ * An extractor is called with the whole holder, so with a BINARY in-memory format every extraction deserializes the holder (the map is configured as OBJECT,
+ * which avoids this). Every index is updated each time an entry changes, so each update that an entry processor applies runs all of the extractors.
+ */
+public class MetricAttributeExtractors {
+    
+    public static final String LIFECYCLE = "lifecycle";
+    public static final String USER = "user";
+    public static final String QUERY_LOGIC = "queryLogic";
+    public static final String HOST = "host";
+    public static final String CREATE_DATE = "createDate";
+    
+    private MetricAttributeExtractors() {
+    
+    }
+    
+    private abstract static class MetricExtractor implements ValueExtractor<QueryMetricUpdateHolder,Object> {
+        
+        @Override
+        public void extract(QueryMetricUpdateHolder target, Object argument, ValueCollector collector) {
+            BaseQueryMetric metric = target == null ? null : target.getMetric();
+            if (metric != null) {
+                Object value = extract(metric);
+                if (value != null) {
+                    collector.addObject(value);
+                }
+            }
+        }
+        
+        protected abstract Object extract(BaseQueryMetric metric);
+    }
+    
+    public static class LifecycleExtractor extends MetricExtractor {
+        @Override
+        protected Object extract(BaseQueryMetric metric) {
+            return metric.getLifecycle() == null ? null : metric.getLifecycle().name();
+        }
+    }
+    
+    public static class UserExtractor extends MetricExtractor {
+        @Override
+        protected Object extract(BaseQueryMetric metric) {
+            return metric.getUser();
+        }
+    }
+    
+    public static class QueryLogicExtractor extends MetricExtractor {
+        @Override
+        protected Object extract(BaseQueryMetric metric) {
+            return metric.getQueryLogic();
+        }
+    }
+    
+    public static class HostExtractor extends MetricExtractor {
+        @Override
+        protected Object extract(BaseQueryMetric metric) {
+            return metric.getHost();
+        }
+    }
+    
+    public static class CreateDateExtractor extends MetricExtractor {
+        @Override
+        protected Object extract(BaseQueryMetric metric) {
+            return metric.getCreateDate() == null ? null : metric.getCreateDate().getTime();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package datawave.microservice.querymetric;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values with log-linear buckets in the style of an HDR histogram. Values below 64 are counted exactly and larger values in buckets
+ * that are within about 3% of the value, so percentiles have a bounded relative error however the values are distributed. Only the buckets that are used are
+ * allocated, and two histograms can be combined by adding their bucket counts.
+ */
+public class MetricHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    
+    private final Map<Integer,LongAdder> buckets = new ConcurrentHashMap<>();
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    public void update(long value) {
+        long v = Math.max(value, 0);
+        this.buckets.computeIfAbsent(bucketIndex(v), k -> new LongAdder()).increment();
+        this.count.increment();
+        this.max.accumulate(v);
+    }
+    
+    public void merge(MetricHistogram other) {
+        other.buckets.forEach((index, bucketCount) -> this.buckets.computeIfAbsent(index, k -> new LongAdder()).add(bucketCount.sum()));
+        this.count.add(other.getCount());
+        this.max.accumulate(other.getMax());
+    }
+    
+    public long getCount() {
+        return this.count.sum();
+    }
+    
+    public long getMax() {
+        return this.max.get();
+    }
+    
+    /**
+     * @param percentile
+     *            a percentile from 0 to 100
+     * @return the highest value in the bucket that holds the percentile, limited to the maximum value
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        int[] indexes = this.buckets.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(indexes);
+        long seen = 0;
+        for (int index : indexes) {
+            seen += this.buckets.get(index).sum();
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(index), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // keep the top SUB_BUCKET_BITS + 1 bits of the value
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+    }
+    
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,484 @@
+package datawave.microservice.querymetric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+
+import datawave.microservice.querymetric.config.QueryMetricProperties;
+
+/**
+ * A write-ahead journal of the results of the entry processor on this member, so that updates in the incoming cache that were not written by the map store
+ * can be recovered after the member stops, without keeping a backup copy of each entry on another member. Each result is appended to a {@link MappedSegment}
+ * with a sequence number, which is kept in the cached entry, and the records of a query up to that sequence are marked as persisted when the map store writes
+ * the entry. A segment is deleted when all of its records are persisted.
+ * <p>
+ * The journal is split into stripes by query id, each with its own segments and lock, so that entry processors on different partition threads rarely wait
+ * for each other. The results are serialized before the lock of the stripe is taken. The segments found when the journal is opened are kept apart from the
+ * stripes until their records are replayed, so that a write of an entry that does not include them yet can not mark them as persisted.
+ * <p>
+ * When an entry migrates to another member, the new owner journals it when it is next updated, so the records left behind are dropped once they are older than
+ * the configured retention. The journal is a bean that is injected into the map store and put in the Hazelcast user context, where the entry processors that
+ * run on this member find it, so each member needs its own directory.
+ * <p>
+ * Each result is written with Java serialization, so the classes of a journaled holder declare a {@code serialVersionUID} and a record that was written
+ * before a field was added or removed can still be read after a redeploy.
+ */
+public class MetricJournal {
+    
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    public static final String USER_CONTEXT_KEY = "metricJournal";
+    
+    // used where no journal was configured, which journals nothing
+    public static final MetricJournal DISABLED = new MetricJournal();
+    
+    private Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final QueryMetricProperties.Journal properties;
+    private Path directory;
+    private Stripe[] stripes = new Stripe[0];
+    // the segments that were found when the journal was opened, which are not appended to
+    private final Stripe recovered = new Stripe(false);
+    private final AtomicLong nextSegmentId = new AtomicLong();
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    private final AtomicInteger segmentCount = new AtomicInteger();
+    private Thread sweeper = null;
+    private volatile boolean running;
+    
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder swept = new LongAdder();
+    
+    private MetricJournal() {
+        this.properties = null;
+        this.running = false;
+    }
+    
+    /**
+     * Opens the journal in the configured directory, recovering the records that were not persisted, unless it is disabled
+     */
+    public MetricJournal(QueryMetricProperties.Journal properties) throws IOException {
+        this.properties = properties.isEnabled() ? properties : null;
+        this.running = isEnabled();
+        if (isEnabled()) {
+            open();
+        }
+    }
+    
+    /**
+     * @return the journal in the member's user context, or a disabled journal if there is none
+     */
+    public static MetricJournal fromUserContext(HazelcastInstance instance) {
+        MetricJournal journal = instance == null ? null : (MetricJournal) instance.getUserContext().get(USER_CONTEXT_KEY);
+        return journal == null ? DISABLED : journal;
+    }
+    
+    public boolean isEnabled() {
+        return this.properties != null;
+    }
+    
+    private void open() throws IOException {
+        this.directory = Paths.get(this.properties.getDirectory());
+        Files.createDirectories(this.directory);
+        this.stripes = new Stripe[this.properties.getStripes()];
+        for (int x = 0; x < this.stripes.length; x++) {
+            this.stripes[x] = new Stripe(true);
+        }
+        if ((long) this.stripes.length * this.properties.getSegmentSizeBytes() > this.properties.getMaxSizeBytes()) {
+            log.warn("The maximum journal size of {} bytes does not allow a segment for each of the {} stripes", this.properties.getMaxSizeBytes(),
+                            this.stripes.length);
+        }
+        int recoveredCount = 0;
+        for (Path path : MappedSegment.list(this.directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            long id = MappedSegment.getId(path, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            Segment segment = new Segment(id, (int) Files.size(path));
+            recoveredCount += this.recovered.recover(segment);
+            this.nextSegmentId.set(id + 1);
+        }
+        if (recoveredCount > 0) {
+            log.info("Recovered {} journaled updates of {} queries from {}", recoveredCount, this.recovered.records.size(), this.directory);
+        }
+    }
+    
+    private Stripe getStripe(String queryId) {
+        return this.stripes[Math.floorMod(queryId.hashCode(), this.stripes.length)];
+    }
+    
+    /**
+     * Appends the result of an update to the journal
+     *
+     * @return the sequence of the record, or zero if the journal is disabled or full
+     */
+    public long append(String queryId, QueryMetricUpdateHolder holder) {
+        if (!this.running) {
+            return 0;
+        }
+        byte[] payload;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(holder);
+            }
+            payload = bytes.toByteArray();
+        } catch (IOException e) {
+            log.error("Unable to journal update for query {}: {}", queryId, e.getMessage());
+            this.rejected.increment();
+            return 0;
+        }
+        return append(queryId, payload);
+    }
+    
+    long append(String queryId, byte[] payload) {
+        return getStripe(queryId).append(queryId, payload);
+    }
+    
+    private static byte[] createRecord(long sequence, long time, String queryId, byte[] payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(sequence);
+            out.writeLong(time);
+            out.writeUTF(queryId);
+            out.write(payload);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Marks the records of a query up to the given sequence as persisted, which is called after the map store writes the entry. Records that were recovered
+     * when the journal was opened are not affected.
+     */
+    public void persisted(String queryId, long sequence) {
+        if (this.stripes.length > 0) {
+            getStripe(queryId).persisted(queryId, sequence);
+        }
+    }
+    
+    /**
+     * Marks the recovered records of a query up to the given sequence as persisted, which is called once they have been applied to the incoming cache
+     */
+    public void replayed(String queryId, long sequence) {
+        this.recovered.persisted(queryId, sequence);
+    }
+    
+    /**
+     * Returns the latest result of each query that was recovered when the journal was opened and not replayed, with the sequence of its record
+     */
+    public Map<String,QueryMetricUpdateHolder> getRecovered() {
+        Map<String,QueryMetricUpdateHolder> unpersisted = new LinkedHashMap<>();
+        List<String> unreadable = new ArrayList<>();
+        synchronized (this.recovered) {
+            for (Map.Entry<String,List<Record>> entry : this.recovered.records.entrySet()) {
+                List<Record> queryRecords = entry.getValue();
+                Record latest = queryRecords.get(queryRecords.size() - 1);
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(latest.segment.read(latest.position, latest.length)))) {
+                    in.readLong();
+                    in.readLong();
+                    in.readUTF();
+                    QueryMetricUpdateHolder holder = (QueryMetricUpdateHolder) new ObjectInputStream(in).readObject();
+                    holder.setJournalSequence(latest.sequence);
+                    unpersisted.put(entry.getKey(), holder);
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    // it can never be replayed, so it is dropped
+                    log.error("Dropping unreadable journaled update for query {}: {}", entry.getKey(), e.getMessage());
+                    unreadable.add(entry.getKey());
+                }
+            }
+            for (String queryId : unreadable) {
+                this.recovered.persisted(queryId, Long.MAX_VALUE);
+            }
+        }
+        return unpersisted;
+    }
+    
+    /**
+     * Starts the thread that drops the records of queries that are owned by another member and are older than the retention
+     *
+     * @param ownedLocally
+     *            whether a query is owned by this member
+     */
+    public synchronized void startSweeper(Predicate<String> ownedLocally) {
+        if (this.running && this.sweeper == null) {
+            this.sweeper = new Thread(() -> {
+                while (this.running) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.properties.getSweepIntervalMillis()));
+                    try {
+                        sweep(ownedLocally);
+                    } catch (Exception e) {
+                        log.error("Exception sweeping the journal: {}", e.getMessage(), e);
+                    }
+                }
+            }, "metric-journal-sweeper");
+            this.sweeper.setDaemon(true);
+            this.sweeper.start();
+        }
+    }
+    
+    void sweep(Predicate<String> ownedLocally) {
+        long cutoff = System.currentTimeMillis() - this.properties.getUnownedRetentionMillis();
+        for (Stripe stripe : this.stripes) {
+            Map<String,Long> candidates = new HashMap<>();
+            synchronized (stripe) {
+                stripe.records.forEach((queryId, queryRecords) -> {
+                    Record latest = queryRecords.get(queryRecords.size() - 1);
+                    if (latest.time < cutoff) {
+                        candidates.put(queryId, latest.sequence);
+                    }
+                });
+            }
+            // the owner is looked up outside of the lock so that appends are not delayed
+            candidates.forEach((queryId, sequence) -> {
+                if (!ownedLocally.test(queryId)) {
+                    this.swept.add(stripe.persisted(queryId, sequence));
+                }
+            });
+        }
+    }
+    
+    /**
+     * Stops the sweeper and closes the segments. Records that were not persisted stay in the journal for the next start.
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            this.running = false;
+            thread = this.sweeper;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Stripe stripe : this.stripes) {
+            stripe.close();
+        }
+        this.recovered.close();
+    }
+    
+    public long getAppendedCount() {
+        return this.appended.sum();
+    }
+    
+    public long getPersistedCount() {
+        return this.persisted.sum();
+    }
+    
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+    
+    public long getSweptCount() {
+        return this.swept.sum();
+    }
+    
+    public long getPendingCount() {
+        long pending = this.recovered.getPendingCount();
+        for (Stripe stripe : this.stripes) {
+            pending += stripe.getPendingCount();
+        }
+        return pending;
+    }
+    
+    public long getSizeBytes() {
+        long size = this.recovered.getSizeBytes();
+        for (Stripe stripe : this.stripes) {
+            size += stripe.getSizeBytes();
+        }
+        return size;
+    }
+    
+    private class Stripe {
+        private final boolean appendable;
+        // oldest first, records are appended to the last segment
+        private final Deque<Segment> segments = new ArrayDeque<>();
+        // the records that are not persisted for each query, in the order that they were appended
+        private final Map<String,List<Record>> records = new HashMap<>();
+        
+        Stripe(boolean appendable) {
+            this.appendable = appendable;
+        }
+        
+        synchronized long append(String queryId, byte[] payload) {
+            if (!running) {
+                return 0;
+            }
+            long sequence = nextSequence.getAndIncrement();
+            long now = System.currentTimeMillis();
+            byte[] record = createRecord(sequence, now, queryId, payload);
+            Segment segment = this.segments.peekLast();
+            try {
+                if (segment == null || !segment.hasRoom(record.length)) {
+                    if (MappedSegment.LENGTH_BYTES + record.length > properties.getSegmentSizeBytes()
+                                    || (long) segmentCount.incrementAndGet() * properties.getSegmentSizeBytes() > properties.getMaxSizeBytes()) {
+                        segmentCount.decrementAndGet();
+                        rejected.increment();
+                        return 0;
+                    }
+                    segment = new Segment(nextSegmentId.getAndIncrement(), properties.getSegmentSizeBytes());
+                    this.segments.addLast(segment);
+                }
+            } catch (IOException e) {
+                segmentCount.decrementAndGet();
+                log.error("Unable to create journal segment: {}", e.getMessage());
+                rejected.increment();
+                return 0;
+            }
+            int position = segment.append(record);
+            segment.live++;
+            if (properties.isForceOnAppend()) {
+                segment.force();
+            }
+            this.records.computeIfAbsent(queryId, k -> new ArrayList<>()).add(new Record(segment, position, record.length, sequence, now));
+            appended.increment();
+            return sequence;
+        }
+        
+        /**
+         * Indexes the records of a segment that was found when the journal was opened
+         *
+         * @return the number of records that are not persisted
+         */
+        synchronized int recover(Segment segment) throws IOException {
+            segmentCount.incrementAndGet();
+            int live = segment.recover((position, length) -> {
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(segment.read(position, length)))) {
+                    long sequence = in.readLong();
+                    long time = in.readLong();
+                    String queryId = in.readUTF();
+                    this.records.computeIfAbsent(queryId, k -> new ArrayList<>()).add(new Record(segment, position, length, sequence, time));
+                    nextSequence.accumulateAndGet(sequence + 1, Math::max);
+                }
+            });
+            segment.live = live;
+            this.segments.addLast(segment);
+            deleteConsumedSegments();
+            return live;
+        }
+        
+        /**
+         * @return the number of records that were marked as persisted
+         */
+        synchronized int persisted(String queryId, long sequence) {
+            List<Record> queryRecords = this.records.get(queryId);
+            if (queryRecords == null) {
+                return 0;
+            }
+            int count = 0;
+            Iterator<Record> itr = queryRecords.iterator();
+            while (itr.hasNext()) {
+                Record record = itr.next();
+                if (record.sequence <= sequence) {
+                    if (record.segment.isOpen()) {
+                        record.segment.consume(record.position, record.length);
+                        record.segment.live--;
+                    }
+                    itr.remove();
+                    count++;
+                }
+            }
+            if (queryRecords.isEmpty()) {
+                this.records.remove(queryId);
+            }
+            persisted.add(count);
+            deleteConsumedSegments();
+            return count;
+        }
+        
+        private void deleteConsumedSegments() {
+            Iterator<Segment> itr = this.segments.iterator();
+            while (itr.hasNext()) {
+                Segment segment = itr.next();
+                // the last segment of a stripe is kept because it is appended to
+                if (segment.live == 0 && (!this.appendable || segment != this.segments.peekLast())) {
+                    segment.delete();
+                    segmentCount.decrementAndGet();
+                    itr.remove();
+                }
+            }
+        }
+        
+        synchronized long getPendingCount() {
+            long pending = 0;
+            for (Segment segment : this.segments) {
+                pending += segment.live;
+            }
+            return pending;
+        }
+        
+        synchronized long getSizeBytes() {
+            long size = 0;
+            for (Segment segment : this.segments) {
+                size += segment.getCapacity();
+            }
+            return size;
+        }
+        
+        synchronized void close() {
+            for (Segment segment : this.segments) {
+                segment.close();
+            }
+            segmentCount.addAndGet(-this.segments.size());
+            this.segments.clear();
+            this.records.clear();
+        }
+    }
+    
+    private static class Record {
+        private final Segment segment;
+        private final int position;
+        private final int length;
+        private final long sequence;
+        private final long time;
+        
+        Record(Segment segment, int position, int length, long sequence, long time) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.sequence = sequence;
+            this.time = time;
+        }
+    }
+    
+    private class Segment extends MappedSegment {
+        // the number of records that are not persisted
+        private int live = 0;
+        
+        Segment(long id, int size) throws IOException {
+            super(directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX), size);
+        }
+    }
+}
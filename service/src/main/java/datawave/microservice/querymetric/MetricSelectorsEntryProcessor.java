@@ -0,0 +1,43 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * Adds selectors that were extracted asynchronously to a cached metric that does not have them yet
+ */
+public class MetricSelectorsEntryProcessor implements EntryProcessor<String,QueryMetricUpdateHolder,Boolean> {
+    
+    private ArrayList<String> positiveSelectors;
+    private ArrayList<String> negativeSelectors;
+    
+    public MetricSelectorsEntryProcessor(List<String> positiveSelectors, List<String> negativeSelectors) {
+        this.positiveSelectors = new ArrayList<>(positiveSelectors);
+        this.negativeSelectors = new ArrayList<>(negativeSelectors);
+    }
+    
+    @Override
+    public Boolean process(Map.Entry<String,QueryMetricUpdateHolder> entry) {
+        QueryMetricUpdateHolder holder = entry.getValue();
+        if (holder == null || holder.getMetric() == null) {
+            return false;
+        }
+        BaseQueryMetric metric = holder.getMetric();
+        boolean updated = false;
+        if (metric.getPositiveSelectors() == null && !this.positiveSelectors.isEmpty()) {
+            metric.setPositiveSelectors(this.positiveSelectors);
+            updated = true;
+        }
+        if (metric.getNegativeSelectors() == null && !this.negativeSelectors.isEmpty()) {
+            metric.setNegativeSelectors(this.negativeSelectors);
+            updated = true;
+        }
+        if (updated) {
+            entry.setValue(holder);
+        }
+        return updated;
+    }
+}
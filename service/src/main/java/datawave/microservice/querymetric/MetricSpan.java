@@ -0,0 +1,117 @@
+package datawave.microservice.querymetric;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed operation in a trace, created by {@link MetricTracer}. Attributes are only kept for spans that are sampled. A span must be closed by the thread that
+ * started it.
+ */
+public class MetricSpan implements AutoCloseable {
+    
+    // returned when tracing is disabled
+    static final MetricSpan NOOP = new MetricSpan(null, null, null, null, null, false, null);
+    
+    private final MetricTracer tracer;
+    private final String name;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final boolean sampled;
+    private final MetricSpan previous;
+    private final long startEpochMicros;
+    private final long startNanos;
+    private long durationNanos = -1;
+    private Map<String,Object> attributes = null;
+    private Throwable error = null;
+    
+    MetricSpan(MetricTracer tracer, String name, String traceId, String spanId, String parentSpanId, boolean sampled, MetricSpan previous) {
+        this.tracer = tracer;
+        this.name = name;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.sampled = sampled;
+        this.previous = previous;
+        this.startEpochMicros = tracer == null ? 0 : TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.startNanos = tracer == null ? 0 : System.nanoTime();
+    }
+    
+    public MetricSpan setAttribute(String key, Object value) {
+        if (this.sampled) {
+            if (this.attributes == null) {
+                this.attributes = new LinkedHashMap<>();
+            }
+            this.attributes.put(key, value);
+        }
+        return this;
+    }
+    
+    public MetricSpan setError(Throwable error) {
+        if (this.sampled) {
+            this.error = error;
+            setAttribute("exception.message", error.getMessage());
+        }
+        return this;
+    }
+    
+    /**
+     * @return this span as the parent of a remote span in the {@code traceparent} format, or null if tracing is disabled
+     */
+    public String getTraceParent() {
+        if (this.tracer == null) {
+            return null;
+        }
+        return "00-" + this.traceId + "-" + this.spanId + (this.sampled ? "-01" : "-00");
+    }
+    
+    @Override
+    public void close() {
+        if (this.tracer != null && this.durationNanos < 0) {
+            this.durationNanos = System.nanoTime() - this.startNanos;
+            this.tracer.end(this);
+        }
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getTraceId() {
+        return traceId;
+    }
+    
+    public String getSpanId() {
+        return spanId;
+    }
+    
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+    
+    public boolean isSampled() {
+        return sampled;
+    }
+    
+    MetricSpan getPrevious() {
+        return previous;
+    }
+    
+    public long getStartEpochMicros() {
+        return startEpochMicros;
+    }
+    
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+    
+    public Map<String,Object> getAttributes() {
+        return attributes == null ? Collections.emptyMap() : attributes;
+    }
+    
+    public Throwable getError() {
+        return error;
+    }
+}
@@ -0,0 +1,82 @@
+package datawave.microservice.querymetric;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import datawave.microservice.querymetric.BaseQueryMetric.PageMetric;
+
+/**
+ * Bounded dictionary of the strings that repeat across many query metrics: host, user, userDN, query logic, query type, column visibility, version map
+ * entries, and page hosts. The handler owns one interner and metrics are passed through it when they are stored or read from Accumulo, so cached metrics
+ * share a single instance of each of these values instead of holding their own copies. The dictionary is size-bounded, so a value that stops repeating is
+ * evicted and does not stay in memory.
+ */
+public class MetricStringInterner {
+    
+    private final Cache<String,String> cache;
+    
+    public MetricStringInterner(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+    
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return this.cache.get(value, () -> value);
+        } catch (ExecutionException e) {
+            return value;
+        }
+    }
+    
+    /**
+     * Replaces the high-repetition strings of the metric with their interned instances
+     */
+    public <T extends BaseQueryMetric> T intern(T metric) {
+        if (metric != null) {
+            metric.setHost(intern(metric.getHost()));
+            metric.setUser(intern(metric.getUser()));
+            metric.setUserDN(intern(metric.getUserDN()));
+            metric.setQueryLogic(intern(metric.getQueryLogic()));
+            metric.setQueryType(intern(metric.getQueryType()));
+            metric.setColumnVisibility(intern(metric.getColumnVisibility()));
+            metric.setVersionMap(intern(metric.getVersionMap()));
+            List<PageMetric> pageTimes = metric.getPageTimes();
+            if (pageTimes instanceof PageMetricList) {
+                ((PageMetricList) pageTimes).replaceHosts(this::intern);
+            }
+        }
+        return metric;
+    }
+    
+    /**
+     * Returns the version map if all of its strings are already interned, otherwise a copy with the interned strings
+     */
+    public Map<String,String> intern(Map<String,String> versionMap) {
+        if (versionMap != null) {
+            for (Map.Entry<String,String> e : versionMap.entrySet()) {
+                if (intern(e.getKey()) != e.getKey() || intern(e.getValue()) != e.getValue()) {
+                    Map<String,String> interned = new TreeMap<>();
+                    versionMap.forEach((k, v) -> interned.put(intern(k), intern(v)));
+                    return interned;
+                }
+            }
+        }
+        return versionMap;
+    }
+    
+    public long size() {
+        return this.cache.size();
+    }
+    
+    public CacheStats getStats() {
+        return this.cache.stats();
+    }
+}
@@ -0,0 +1,187 @@
+package datawave.microservice.querymetric;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Creates the spans that trace a metric update through the service. Trace context is carried between services and members in the W3C {@code traceparent}
+ * format that OpenTelemetry uses, so the spans can be joined with the spans of the services that send updates. Root spans are sampled by their trace id at the
+ * configured ratio, and a span whose parent was not sampled is not sampled either. Sampled spans are passed to a {@link SpanExporter} when they end, which by
+ * default logs them to the {@value #SPAN_LOGGER} logger, where an appender can write them to a file.
+ * <p>
+ * The tracer is a bean that is injected where spans are created. Entry processors, which are created by Hazelcast, find it in the user context of the member
+ * that runs them.
+ */
+public class MetricTracer {
+    
+    public static final String TRACE_PARENT_HEADER = "traceparent";
+    public static final String SPAN_LOGGER = "datawave.microservice.querymetric.spans";
+    public static final String USER_CONTEXT_KEY = "metricTracer";
+    
+    // used where no tracer was configured, which creates no spans
+    public static final MetricTracer DISABLED = new MetricTracer(false, 0, null);
+    
+    /**
+     * Receives spans that were sampled when they end
+     */
+    public interface SpanExporter {
+        void export(MetricSpan span);
+    }
+    
+    /**
+     * Logs each span on one line in the style of the OpenTelemetry logging exporter
+     */
+    public static class LoggingSpanExporter implements SpanExporter {
+        private final Logger log = LoggerFactory.getLogger(SPAN_LOGGER);
+        
+        @Override
+        public void export(MetricSpan span) {
+            if (log.isInfoEnabled()) {
+                log.info("'{}' : {} {} parent={} start={} durationMicros={} status={} {}", span.getName(), span.getTraceId(), span.getSpanId(),
+                                span.getParentSpanId(), span.getStartEpochMicros(), span.getDurationNanos() / 1000, span.getError() == null ? "OK" : "ERROR",
+                                span.getAttributes());
+            }
+        }
+    }
+    
+    private final boolean enabled;
+    private final long sampleThreshold;
+    private final SpanExporter exporter;
+    private final ThreadLocal<MetricSpan> currentSpan = new ThreadLocal<>();
+    
+    public MetricTracer(boolean enabled, double sampleRatio) {
+        this(enabled, sampleRatio, null);
+    }
+    
+    public MetricTracer(boolean enabled, double sampleRatio, SpanExporter exporter) {
+        this.enabled = enabled;
+        // the same comparison as the OpenTelemetry trace id ratio sampler, so every service samples a trace the same way
+        this.sampleThreshold = sampleRatio >= 1.0 ? Long.MAX_VALUE : (long) (Math.max(sampleRatio, 0.0) * Long.MAX_VALUE);
+        this.exporter = exporter == null ? new LoggingSpanExporter() : exporter;
+    }
+    
+    /**
+     * @return the tracer in the member's user context, or a disabled tracer if there is none
+     */
+    public static MetricTracer fromUserContext(HazelcastInstance instance) {
+        MetricTracer tracer = instance == null ? null : (MetricTracer) instance.getUserContext().get(USER_CONTEXT_KEY);
+        return tracer == null ? DISABLED : tracer;
+    }
+    
+    /**
+     * Starts a span that is a child of this thread's current span, or the root of a new trace, and makes it the current span until it is closed
+     */
+    public MetricSpan startSpan(String name) {
+        return startSpan(name, null);
+    }
+    
+    /**
+     * Starts a span that is a child of the given remote parent and makes it the current span until it is closed
+     *
+     * @param name
+     *            the span name
+     * @param traceParent
+     *            the parent in the {@code traceparent} format, or null to use this thread's current span
+     * @return the span, which must be closed by this thread
+     */
+    public MetricSpan startSpan(String name, String traceParent) {
+        if (!this.enabled) {
+            return MetricSpan.NOOP;
+        }
+        MetricSpan previous = this.currentSpan.get();
+        String traceId;
+        String parentSpanId;
+        boolean sampled;
+        String[] parent = parseTraceParent(traceParent);
+        if (parent != null) {
+            traceId = parent[0];
+            parentSpanId = parent[1];
+            sampled = (Integer.parseInt(parent[2], 16) & 1) == 1;
+        } else if (previous != null && previous != MetricSpan.NOOP) {
+            traceId = previous.getTraceId();
+            parentSpanId = previous.getSpanId();
+            sampled = previous.isSampled();
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long traceIdLow = random.nextLong();
+            traceId = toHex(random.nextLong()) + toHex(traceIdLow);
+            parentSpanId = null;
+            sampled = (traceIdLow & Long.MAX_VALUE) < this.sampleThreshold;
+        }
+        MetricSpan span = new MetricSpan(this, name, traceId, newSpanId(), parentSpanId, sampled, previous);
+        this.currentSpan.set(span);
+        return span;
+    }
+    
+    /**
+     * @return this thread's current span in the {@code traceparent} format, or null if there is none
+     */
+    public String getCurrentTraceParent() {
+        MetricSpan span = this.currentSpan.get();
+        return span == null ? null : span.getTraceParent();
+    }
+    
+    void end(MetricSpan span) {
+        if (this.currentSpan.get() == span) {
+            if (span.getPrevious() == null) {
+                this.currentSpan.remove();
+            } else {
+                this.currentSpan.set(span.getPrevious());
+            }
+        }
+        if (span.isSampled()) {
+            try {
+                this.exporter.export(span);
+            } catch (Exception e) {
+                LoggerFactory.getLogger(MetricTracer.class).debug("Exception exporting span: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * @return the trace id, parent span id, and flags, or null if the value is missing or invalid
+     */
+    static String[] parseTraceParent(String traceParent) {
+        if (traceParent == null || traceParent.length() != 55) {
+            return null;
+        }
+        String[] parts = traceParent.split("-");
+        if (parts.length != 4 || parts[0].equals("ff") || parts[1].length() != 32 || parts[2].length() != 16 || parts[3].length() != 2) {
+            return null;
+        }
+        if (!isHex(parts[1]) || !isHex(parts[2]) || !isHex(parts[3]) || isZero(parts[1]) || isZero(parts[2])) {
+            return null;
+        }
+        return new String[] {parts[1], parts[2], parts[3]};
+    }
+    
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isZero(String value) {
+        return value.chars().allMatch(c -> c == '0');
+    }
+    
+    private static String newSpanId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return toHex(id);
+    }
+    
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+}
@@ -2,18 +2,48 @@ package datawave.microservice.querymetric;
 
 import java.util.Map;
 
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
 import com.hazelcast.map.EntryProcessor;
 
+import datawave.microservice.querymetric.QueryMetricUpdateHolder.Counter;
 import datawave.microservice.querymetric.handler.QueryMetricCombiner;
 
-public class MetricUpdateEntryProcessor implements EntryProcessor<String,QueryMetricUpdateHolder,Long> {
+public class MetricUpdateEntryProcessor implements EntryProcessor<String,QueryMetricUpdateHolder,Long>, HazelcastInstanceAware {
     
     private QueryMetricCombiner combiner;
     private QueryMetricUpdateHolder metricUpdate;
+    private boolean backup = false;
+    // the update is a holder from the journal, whose counters are merged into the cached holder
+    private boolean replay = false;
+    // set by Hazelcast on the member that runs the processor
+    private transient TopQueryTracker topQueryTracker;
+    private transient MetricTracer metricTracer;
+    private transient MetricJournal metricJournal;
     
     public MetricUpdateEntryProcessor(QueryMetricUpdateHolder metricUpdate, QueryMetricCombiner combiner) {
+        this(metricUpdate, combiner, false);
+    }
+    
+    public MetricUpdateEntryProcessor(QueryMetricUpdateHolder metricUpdate, QueryMetricCombiner combiner, boolean replay) {
         this.metricUpdate = metricUpdate;
         this.combiner = combiner;
+        this.replay = replay;
+    }
+    
+    @Override
+    public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+        this.topQueryTracker = TopQueryTracker.fromUserContext(hazelcastInstance);
+        this.metricTracer = MetricTracer.fromUserContext(hazelcastInstance);
+        this.metricJournal = MetricJournal.fromUserContext(hazelcastInstance);
+    }
+    
+    @Override
+    public EntryProcessor<String,QueryMetricUpdateHolder,Long> getBackupProcessor() {
+        // the same update is applied to the backup, but only the owner journals the result and keeps it on the leaderboards
+        MetricUpdateEntryProcessor backupProcessor = new MetricUpdateEntryProcessor(this.metricUpdate, this.combiner, this.replay);
+        backupProcessor.backup = true;
+        return backupProcessor;
     }
     
     @Override
@@ -22,29 +52,68 @@ public class MetricUpdateEntryProcessor implements EntryProcessor<String,QueryMe
         QueryMetricType metricType = this.metricUpdate.getMetricType();
         BaseQueryMetric updatedMetric = this.metricUpdate.getMetric();
         long start = System.currentTimeMillis();
-        if (entry.getValue() == null) {
-            updatedHolder = this.metricUpdate;
-        } else {
-            updatedHolder = entry.getValue();
-            BaseQueryMetric storedMetric = entry.getValue().getMetric();
-            BaseQueryMetric combinedMetric;
-            combinedMetric = this.combiner.combineMetrics(updatedMetric, storedMetric, metricType);
-            updatedHolder.setMetric(combinedMetric);
-            updatedHolder.setMetricType(metricType);
-        }
-        
-        if (metricType.equals(QueryMetricType.DISTRIBUTED) && updatedMetric != null) {
-            // these values are added incrementally in a distributed update. Because we can not be sure
-            // exactly when the incomingQueryMetricCache value is stored, it would otherwise be possible
-            // for updates to be included twice. These values are reset after being used in the AccumuloMapStore
-            updatedHolder.addValue("sourceCount", updatedMetric.getSourceCount());
-            updatedHolder.addValue("nextCount", updatedMetric.getNextCount());
-            updatedHolder.addValue("seekCount", updatedMetric.getSeekCount());
-            updatedHolder.addValue("yieldCount", updatedMetric.getYieldCount());
-            updatedHolder.addValue("docRanges", updatedMetric.getDocRanges());
-            updatedHolder.addValue("fiRanges", updatedMetric.getFiRanges());
+        MetricTracer tracer = this.metricTracer == null ? MetricTracer.DISABLED : this.metricTracer;
+        MetricSpan span = tracer.startSpan("MetricUpdateEntryProcessor", this.metricUpdate.getTraceParent())
+                        .setAttribute("queryId", entry.getKey());
+        try {
+            if (this.replay && metricType.equals(QueryMetricType.DISTRIBUTED) && updatedMetric != null) {
+                // the journaled metric holds every count since the entry was created, so only the counts that were not written are combined
+                updatedMetric.setSourceCount(this.metricUpdate.getValue(Counter.SOURCE_COUNT));
+                updatedMetric.setNextCount(this.metricUpdate.getValue(Counter.NEXT_COUNT));
+                updatedMetric.setSeekCount(this.metricUpdate.getValue(Counter.SEEK_COUNT));
+                updatedMetric.setYieldCount(this.metricUpdate.getValue(Counter.YIELD_COUNT));
+                updatedMetric.setDocRanges(this.metricUpdate.getValue(Counter.DOC_RANGES));
+                updatedMetric.setFiRanges(this.metricUpdate.getValue(Counter.FI_RANGES));
+            }
+            if (entry.getValue() == null) {
+                updatedHolder = this.metricUpdate;
+            } else {
+                updatedHolder = entry.getValue();
+                BaseQueryMetric storedMetric = entry.getValue().getMetric();
+                BaseQueryMetric combinedMetric;
+                combinedMetric = this.combiner.combineMetrics(updatedMetric, storedMetric, metricType);
+                updatedHolder.setMetric(combinedMetric);
+                updatedHolder.setMetricType(metricType);
+            }
+            
+            if (this.replay) {
+                // the journaled counters were not written, and they are already in a journaled holder that becomes the entry
+                if (updatedHolder != this.metricUpdate) {
+                    updatedHolder.addValues(this.metricUpdate);
+                }
+            } else if (metricType.equals(QueryMetricType.DISTRIBUTED) && updatedMetric != null) {
+                // these values are added incrementally in a distributed update. Because we can not be sure
+                // exactly when the incomingQueryMetricCache value is stored, it would otherwise be possible
+                // for updates to be included twice. These values are reset after being used in the AccumuloMapStore
+                updatedHolder.addValue(Counter.SOURCE_COUNT, updatedMetric.getSourceCount());
+                updatedHolder.addValue(Counter.NEXT_COUNT, updatedMetric.getNextCount());
+                updatedHolder.addValue(Counter.SEEK_COUNT, updatedMetric.getSeekCount());
+                updatedHolder.addValue(Counter.YIELD_COUNT, updatedMetric.getYieldCount());
+                updatedHolder.addValue(Counter.DOC_RANGES, updatedMetric.getDocRanges());
+                updatedHolder.addValue(Counter.FI_RANGES, updatedMetric.getFiRanges());
+            }
+            updatedHolder.markDirty(this.metricUpdate, start);
+            if (!this.backup) {
+                MetricJournal journal = this.metricJournal == null ? MetricJournal.DISABLED : this.metricJournal;
+                if (journal.isEnabled()) {
+                    long journalSequence = journal.append(entry.getKey(), updatedHolder);
+                    if (journalSequence > 0) {
+                        updatedHolder.setJournalSequence(journalSequence);
+                    }
+                }
+            }
+            entry.setValue(updatedHolder);
+            // the leaderboards are kept by the owner of the entry so that no additional copy of the metric is sent
+            if (!this.backup && this.topQueryTracker != null) {
+                if (updatedHolder.isFinalLifecycle()) {
+                    this.topQueryTracker.remove(entry.getKey());
+                } else {
+                    this.topQueryTracker.update(updatedHolder.getMetric());
+                }
+            }
+            return Long.valueOf(System.currentTimeMillis() - start);
+        } finally {
+            span.close();
         }
-        entry.setValue(updatedHolder);
-        return Long.valueOf(System.currentTimeMillis() - start);
     }
 }
@@ -13,4 +13,8 @@ public class MetricUpdateEntryProcessorFactory {
     MetricUpdateEntryProcessor createEntryProcessor(QueryMetricUpdateHolder metricUpdate) {
         return new MetricUpdateEntryProcessor(metricUpdate, combiner);
     }
+    
+    MetricUpdateEntryProcessor createReplayEntryProcessor(QueryMetricUpdateHolder journaledHolder) {
+        return new MetricUpdateEntryProcessor(journaledHolder, combiner, true);
+    }
 }
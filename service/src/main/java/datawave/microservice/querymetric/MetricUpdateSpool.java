@@ -0,0 +1,363 @@
+package datawave.microservice.querymetric;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import datawave.microservice.querymetric.config.QueryMetricProperties;
+
+/**
+ * Holds query metric updates on local disk while they can not be sent to the message broker. The JSON of each update is appended to a {@link MappedSegment},
+ * and a drainer thread sends them to the broker in batches in the order that they were appended. A sent update is marked as consumed, so after a restart only
+ * the updates that were not sent are replayed, and a segment is deleted when all of its updates have been sent. An update of a batch that was not sent is sent
+ * again with the next batch, after the later updates of its batch that were sent. The number of segments is limited by the maximum size of the spool, and an
+ * update that does not fit is rejected.
+ * <p>
+ * Updates are in the page cache when they are appended, so they survive a restart of the service but not of the host unless forceOnAppend is set.
+ */
+public class MetricUpdateSpool {
+    
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    
+    private Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final QueryMetricProperties.Spool properties;
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    // oldest first, updates are appended to the last segment
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    // held while deciding whether an update is sent or spooled and while spooling it, but not while an update is sent
+    private final Object sendLock = new Object();
+    // set when an update is spooled and cleared when the spool is drained, so that updates are spooled behind spooled updates
+    private boolean spooling = false;
+    private long nextSegmentId = 0;
+    private long pending = 0;
+    private Thread drainer = null;
+    private volatile boolean running = true;
+    
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder drained = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder drainFailures = new LongAdder();
+    
+    public MetricUpdateSpool(QueryMetricProperties.Spool properties, ObjectMapper objectMapper) throws IOException {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.directory = Paths.get(properties.getDirectory());
+        Files.createDirectories(this.directory);
+        recover();
+        this.spooling = this.pending > 0;
+    }
+    
+    /**
+     * Sends a batch of updates to the broker once
+     */
+    public interface BatchSender {
+        /**
+         * @return whether each update was sent, in the order of the updates
+         */
+        boolean[] send(List<QueryMetricUpdate> updates);
+    }
+    
+    /**
+     * Starts the thread that sends the spooled updates
+     *
+     * @param sender
+     *            sends a batch of updates to the broker
+     */
+    public synchronized void start(BatchSender sender) {
+        if (this.drainer == null) {
+            this.drainer = new Thread(() -> drain(sender), "metric-spool-drainer");
+            this.drainer.setDaemon(true);
+            this.drainer.start();
+        }
+    }
+    
+    /**
+     * Sends an update when nothing is spooled, or appends it to the spool if there are spooled updates or it was not sent. The lock is only held to check
+     * whether updates are being spooled and to append, so updates are sent in parallel and a send that waits for its confirm does not hold up the others. Once
+     * an update is spooled, the updates that follow it are spooled until the spool is drained.
+     *
+     * @param sender
+     *            sends an update to the broker once, returning false if it was not sent
+     * @return false if the update was not sent and the spool is full
+     */
+    public boolean sendOrAppend(QueryMetricUpdate update, Predicate<QueryMetricUpdate> sender) {
+        boolean spooled;
+        synchronized (this.sendLock) {
+            spooled = this.spooling;
+        }
+        // an update of this thread that was spooled was appended before this one is checked, so it can not be overtaken
+        return spooled ? append(update) : (sender.test(update) || append(update));
+    }
+    
+    /**
+     * Appends an update to the spool
+     *
+     * @return false if the spool is full
+     */
+    public boolean append(QueryMetricUpdate update) {
+        byte[] bytes;
+        try {
+            bytes = this.objectMapper.writeValueAsBytes(update);
+        } catch (IOException e) {
+            log.error("Unable to spool update for query {}: {}", update.getMetric().getQueryId(), e.getMessage());
+            this.rejected.increment();
+            return false;
+        }
+        // the flag is set and the update appended under the send lock, so the drainer can not find the spool empty in between
+        synchronized (this.sendLock) {
+            this.spooling = true;
+            return append(bytes);
+        }
+    }
+    
+    private boolean append(byte[] bytes) {
+        synchronized (this) {
+            Segment segment = this.segments.peekLast();
+            try {
+                if (segment == null || !segment.hasRoom(bytes.length)) {
+                    if (MappedSegment.LENGTH_BYTES + bytes.length > this.properties.getSegmentSizeBytes()
+                                    || (this.segments.size() + 1L) * this.properties.getSegmentSizeBytes() > this.properties.getMaxSizeBytes()) {
+                        this.rejected.increment();
+                        return false;
+                    }
+                    segment = new Segment(this.nextSegmentId++, this.properties.getSegmentSizeBytes());
+                    this.segments.addLast(segment);
+                }
+            } catch (IOException e) {
+                log.error("Unable to create spool segment: {}", e.getMessage());
+                this.rejected.increment();
+                return false;
+            }
+            segment.append(bytes);
+            if (this.properties.isForceOnAppend()) {
+                segment.force();
+            }
+            this.pending++;
+        }
+        this.appended.increment();
+        return true;
+    }
+    
+    public synchronized boolean isEmpty() {
+        return this.pending == 0;
+    }
+    
+    private void drain(BatchSender sender) {
+        while (this.running) {
+            boolean more = false;
+            try {
+                more = drainBatch(sender);
+            } catch (Exception e) {
+                log.error("Exception draining the spool: {}", e.getMessage(), e);
+            }
+            if (!more) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.properties.getDrainIntervalMillis()));
+            }
+        }
+    }
+    
+    /**
+     * Sends the next batch of updates in order. The updates that are not sent stay in the spool and are sent with the next batch.
+     *
+     * @return true if the whole batch was sent and there may be more updates
+     */
+    boolean drainBatch(BatchSender sender) {
+        List<Record> batch = peek(this.properties.getBatchSize());
+        List<Record> records = new ArrayList<>(batch.size());
+        List<QueryMetricUpdate> updates = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            try {
+                updates.add(this.objectMapper.readValue(record.bytes, QueryMetricUpdate.class));
+                records.add(record);
+            } catch (IOException e) {
+                // it can never be sent, so it is dropped
+                log.error("Dropping unreadable spooled update: {}", e.getMessage());
+                consumed(record);
+            }
+        }
+        boolean allSent = true;
+        if (!updates.isEmpty()) {
+            boolean[] sent = sender.send(updates);
+            for (int i = 0; i < records.size(); i++) {
+                if (sent[i]) {
+                    consumed(records.get(i));
+                    this.drained.increment();
+                } else {
+                    allSent = false;
+                }
+            }
+            if (!allSent) {
+                this.drainFailures.increment();
+            }
+        }
+        synchronized (this.sendLock) {
+            // updates are sent directly again once the spooled updates have been sent
+            if (isEmpty()) {
+                this.spooling = false;
+            }
+        }
+        return allSent && batch.size() == this.properties.getBatchSize();
+    }
+    
+    private synchronized List<Record> peek(int max) {
+        List<Record> batch = new ArrayList<>();
+        for (Segment segment : this.segments) {
+            int position = segment.readPosition;
+            while (batch.size() < max && position < segment.getWritePosition()) {
+                int length = segment.getLength(position);
+                if (length > 0) {
+                    batch.add(new Record(segment, position, segment.read(position, length)));
+                }
+                position += MappedSegment.LENGTH_BYTES + Math.abs(length);
+            }
+            if (batch.size() >= max) {
+                break;
+            }
+        }
+        return batch;
+    }
+    
+    private synchronized void consumed(Record record) {
+        Segment segment = record.segment;
+        if (!segment.isOpen()) {
+            // the spool was shut down while the batch was sent, so the update is sent again after a restart
+            return;
+        }
+        segment.consume(record.position, record.bytes.length);
+        // an update that was not sent keeps the read position until it is sent
+        while (segment.readPosition < segment.getWritePosition() && segment.getLength(segment.readPosition) < 0) {
+            segment.readPosition += MappedSegment.LENGTH_BYTES - segment.getLength(segment.readPosition);
+        }
+        this.pending--;
+        // delete the segments that have been sent and are no longer appended to
+        while (this.segments.size() > 1 && this.segments.peekFirst().isConsumed()) {
+            this.segments.removeFirst().delete();
+        }
+    }
+    
+    private void recover() throws IOException {
+        for (Path path : MappedSegment.list(this.directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            long id = MappedSegment.getId(path, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            Segment segment = new Segment(id, (int) Files.size(path));
+            this.pending += segment.recover();
+            this.nextSegmentId = id + 1;
+            if (segment.isConsumed() && segment.getWritePosition() > 0) {
+                segment.delete();
+            } else {
+                this.segments.addLast(segment);
+            }
+        }
+        if (this.pending > 0) {
+            log.info("Recovered {} spooled updates from {}", this.pending, this.directory);
+        }
+    }
+    
+    /**
+     * Stops the drainer and closes the segments. Updates that were not sent stay in the spool for the next start.
+     */
+    public void shutdown() {
+        this.running = false;
+        Thread thread;
+        synchronized (this) {
+            thread = this.drainer;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Segment segment : this.segments) {
+                segment.close();
+            }
+            this.segments.clear();
+        }
+    }
+    
+    public long getAppendedCount() {
+        return this.appended.sum();
+    }
+    
+    public long getDrainedCount() {
+        return this.drained.sum();
+    }
+    
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+    
+    public long getDrainFailureCount() {
+        return this.drainFailures.sum();
+    }
+    
+    public synchronized long getPendingCount() {
+        return this.pending;
+    }
+    
+    public synchronized long getSizeBytes() {
+        return (long) this.segments.size() * this.properties.getSegmentSizeBytes();
+    }
+    
+    private static class Record {
+        private final Segment segment;
+        private final int position;
+        private final byte[] bytes;
+        
+        Record(Segment segment, int position, byte[] bytes) {
+            this.segment = segment;
+            this.position = position;
+            this.bytes = bytes;
+        }
+    }
+    
+    private class Segment extends MappedSegment {
+        // the position of the first update that was not sent
+        private int readPosition = 0;
+        
+        Segment(long id, int size) throws IOException {
+            super(directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX), size);
+        }
+        
+        /**
+         * Finds the first update that was not sent and the end of the updates
+         *
+         * @return the number of updates that were not sent
+         */
+        int recover() throws IOException {
+            this.readPosition = -1;
+            int unsent = recover((position, length) -> {
+                if (this.readPosition < 0) {
+                    this.readPosition = position;
+                }
+            });
+            if (this.readPosition < 0) {
+                this.readPosition = getWritePosition();
+            }
+            return unsent;
+        }
+        
+        boolean isConsumed() {
+            return this.readPosition >= getWritePosition();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.PartitionSelectorStrategy;
+
+import com.hazelcast.cluster.Member;
+import com.hazelcast.cluster.MembershipEvent;
+import com.hazelcast.cluster.MembershipListener;
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Selects the stream partition of a query metric update so that it is consumed by the member that owns the query's Hazelcast partition, where the entry
+ * processor runs without a network round trip. Each member publishes its {@code spring.cloud.stream.instanceIndex} as a member attribute, and an update is
+ * sent to the partition with the index of the owner of its query id.
+ * <p>
+ * Only the updates that this service publishes itself are routed, which are the updates received by the REST endpoints and sent to the broker on the
+ * queryMetricSource binding. Updates that other services send to the broker are partitioned by their own producers, and executeOnKey sends them to the owner
+ * as usual.
+ * <p>
+ * The indexes of the current members are kept up to date as members join and leave. When the owner is unknown or has no index, for example during a
+ * migration, the partition is chosen by hashing the query id over the indexes of the current members, so that an update is not sent to the partition of a
+ * member that has left. If no member has an index, the query id is hashed over all of the partitions.
+ * <p>
+ * To use it, the producer binding sets {@code partitionKeyExpression: payload.metric.queryId}, {@code partitionSelectorName: partitionOwnerSelector}, and a
+ * {@code partitionCount} equal to the number of members, and the consumer binding is partitioned with each member's instance index.
+ */
+public class PartitionOwnerSelector implements PartitionSelectorStrategy, MembershipListener {
+    
+    public static final String INSTANCE_INDEX_ATTRIBUTE = "streamInstanceIndex";
+    
+    private Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final HazelcastInstance instance;
+    private volatile List<Integer> memberIndexes = Collections.emptyList();
+    
+    public PartitionOwnerSelector(HazelcastInstance instance) {
+        this.instance = instance;
+        // registered before the members are read so that no change is missed
+        this.instance.getCluster().addMembershipListener(this);
+        updateMemberIndexes();
+    }
+    
+    @Override
+    public void memberAdded(MembershipEvent membershipEvent) {
+        updateMemberIndexes();
+    }
+    
+    @Override
+    public void memberRemoved(MembershipEvent membershipEvent) {
+        updateMemberIndexes();
+    }
+    
+    private synchronized void updateMemberIndexes() {
+        SortedSet<Integer> indexes = new TreeSet<>();
+        for (Member member : this.instance.getCluster().getMembers()) {
+            Integer index = getInstanceIndex(member);
+            if (index != null && !indexes.add(index)) {
+                log.warn("More than one member has the stream instance index {}", index);
+            }
+        }
+        this.memberIndexes = Collections.unmodifiableList(new ArrayList<>(indexes));
+        log.info("Stream instance indexes of the members are now {}", this.memberIndexes);
+    }
+    
+    private Integer getInstanceIndex(Member member) {
+        String index = member.getAttribute(INSTANCE_INDEX_ATTRIBUTE);
+        try {
+            return index == null ? null : Integer.valueOf(index);
+        } catch (NumberFormatException e) {
+            log.warn("Member {} has an invalid stream instance index {}", member.getUuid(), index);
+            return null;
+        }
+    }
+    
+    List<Integer> getMemberIndexes() {
+        return memberIndexes;
+    }
+    
+    @Override
+    public int selectPartition(Object key, int partitionCount) {
+        try {
+            Member owner = this.instance.getPartitionService().getPartition(key).getOwner();
+            Integer index = owner == null ? null : getInstanceIndex(owner);
+            if (index != null && index >= 0 && index < partitionCount) {
+                return index;
+            }
+        } catch (Exception e) {
+            log.debug("Unable to find the owner of {}: {}", key, e.getMessage());
+        }
+        int hash = String.valueOf(key).hashCode();
+        List<Integer> indexes = new ArrayList<>();
+        for (Integer index : this.memberIndexes) {
+            if (index >= 0 && index < partitionCount) {
+                indexes.add(index);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return Math.floorMod(hash, partitionCount);
+        }
+        return indexes.get(Math.floorMod(hash, indexes.size()));
+    }
+}
@@ -0,0 +1,166 @@
+package datawave.microservice.querymetric;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.google.common.collect.Multimap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import datawave.microservice.querymetric.BaseQueryMetric.Lifecycle;
+
+/**
+ * Compact record of what was last persisted for a query metric. Instead of a second full copy of the metric, this holds the event field/value pairs that were
+ * written, the values needed to compute the delete and write timestamps, and the counters that distributed updates are added to.
+ * <p>
+ * The values of fields that are deleted when they change are kept verbatim so that a delete mutation can be created for them. The values of other fields are
+ * only compared with the next value, so a long value of such a field (for example the query or plan) is kept only as a hash.
+ */
+public class PersistedMetricState implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    // values of fields that are never deleted and that are longer than this are only kept as a hash
+    public static final int MAX_VERBATIM_VALUE_LENGTH = 256;
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private String queryId;
+    private Date createDate;
+    private Date lastUpdated;
+    private long numUpdates;
+    private Lifecycle lifecycle;
+    private long sourceCount;
+    private long nextCount;
+    private long seekCount;
+    private long yieldCount;
+    private long docRanges;
+    private long fiRanges;
+    private Map<String,Set<String>> writtenValues = new HashMap<>();
+    private Map<String,Set<Long>> writtenHashes = new HashMap<>();
+    
+    /**
+     * @param metric
+     *            the metric that was written
+     * @param writtenFields
+     *            the event fields and values of the metric
+     * @param deletedWhenChanged
+     *            whether the previous value of a field is deleted when it changes, in which case the value is kept verbatim
+     */
+    public PersistedMetricState(BaseQueryMetric metric, Multimap<String,String> writtenFields, Predicate<String> deletedWhenChanged) {
+        this.queryId = metric.getQueryId();
+        this.createDate = metric.getCreateDate();
+        this.lastUpdated = metric.getLastUpdated();
+        this.numUpdates = metric.getNumUpdates();
+        this.lifecycle = metric.getLifecycle();
+        this.sourceCount = metric.getSourceCount();
+        this.nextCount = metric.getNextCount();
+        this.seekCount = metric.getSeekCount();
+        this.yieldCount = metric.getYieldCount();
+        this.docRanges = metric.getDocRanges();
+        this.fiRanges = metric.getFiRanges();
+        writtenFields.entries().forEach(e -> {
+            if (e.getValue() != null) {
+                if (e.getValue().length() > MAX_VERBATIM_VALUE_LENGTH && !deletedWhenChanged.test(e.getKey())) {
+                    this.writtenHashes.computeIfAbsent(e.getKey(), k -> new HashSet<>()).add(hash(e.getValue()));
+                } else {
+                    this.writtenValues.computeIfAbsent(e.getKey(), k -> new HashSet<>()).add(e.getValue());
+                }
+            }
+        });
+    }
+    
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+    
+    public boolean isWritten(String field, String value) {
+        if (value == null) {
+            return false;
+        }
+        Set<String> values = this.writtenValues.get(field);
+        if (values != null && values.contains(value)) {
+            return true;
+        }
+        Set<Long> hashes = this.writtenHashes.get(field);
+        return hashes != null && value.length() > MAX_VERBATIM_VALUE_LENGTH && hashes.contains(hash(value));
+    }
+    
+    /**
+     * Returns true if any value was written for the field or, for a grouped field such as VERSION, for any field of the group
+     */
+    public boolean isFieldWritten(String baseField) {
+        return getWrittenFields().stream().anyMatch(f -> f.equals(baseField) || f.startsWith(baseField + "."));
+    }
+    
+    public Set<String> getWrittenFields() {
+        Set<String> fields = new HashSet<>(this.writtenValues.keySet());
+        fields.addAll(this.writtenHashes.keySet());
+        return fields;
+    }
+    
+    /**
+     * Returns the values that were written for a field and that are kept verbatim, which includes every value of a field that is deleted when it changes
+     */
+    public Set<String> getWrittenValues(String field) {
+        Set<String> values = this.writtenValues.get(field);
+        return values == null ? Collections.emptySet() : Collections.unmodifiableSet(values);
+    }
+    
+    public String getQueryId() {
+        return queryId;
+    }
+    
+    public Date getCreateDate() {
+        return createDate;
+    }
+    
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+    
+    public long getNumUpdates() {
+        return numUpdates;
+    }
+    
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+    
+    public long getSourceCount() {
+        return sourceCount;
+    }
+    
+    public long getNextCount() {
+        return nextCount;
+    }
+    
+    public long getSeekCount() {
+        return seekCount;
+    }
+    
+    public long getYieldCount() {
+        return yieldCount;
+    }
+    
+    public long getDocRanges() {
+        return docRanges;
+    }
+    
+    public long getFiRanges() {
+        return fiRanges;
+    }
+    
+    @Override
+    public String toString() {
+        return "PersistedMetricState{queryId=" + queryId + ", createDate=" + createDate + ", lastUpdated=" + lastUpdated + ", numUpdates=" + numUpdates
+                        + ", lifecycle=" + lifecycle + ", fields=" + (writtenValues.size() + writtenHashes.size()) + "}";
+    }
+}
@@ -7,36 +7,54 @@ import static datawave.microservice.querymetric.QueryMetricOperationsStats.TIMER
 import static datawave.microservice.querymetric.config.HazelcastMetricCacheConfiguration.INCOMING_METRICS;
 import static datawave.microservice.querymetric.config.HazelcastMetricCacheConfiguration.LAST_WRITTEN_METRICS;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PreDestroy;
 import javax.annotation.security.PermitAll;
 import javax.inject.Named;
 
-import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.accumulo.core.security.VisibilityEvaluator;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.integration.IntegrationMessageHeaderAccessor;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.support.MessageBuilder;
@@ -47,30 +65,40 @@ import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hazelcast.cluster.Member;
+import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.HazelcastInstanceNotActiveException;
 import com.hazelcast.map.IMap;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.Predicates;
 import com.hazelcast.spring.cache.HazelcastCacheManager;
 
 import datawave.marking.MarkingFunctions;
 import datawave.microservice.authorization.user.DatawaveUserDetails;
 import datawave.microservice.querymetric.config.QueryMetricProperties;
 import datawave.microservice.querymetric.config.QueryMetricProperties.Retry;
+import datawave.microservice.querymetric.config.QueryMetricProperties.SelectorExtraction;
+import datawave.microservice.querymetric.config.QueryMetricProperties.TopQueries;
 import datawave.microservice.querymetric.factory.BaseQueryMetricListResponseFactory;
 import datawave.microservice.querymetric.function.QueryMetricSupplier;
+import datawave.microservice.querymetric.handler.BaseQueryMetricHandler;
 import datawave.microservice.querymetric.handler.QueryGeometryHandler;
 import datawave.microservice.querymetric.handler.ShardTableQueryMetricHandler;
-import datawave.microservice.querymetric.handler.SimpleQueryGeometryHandler;
 import datawave.microservice.security.util.DnUtils;
-import datawave.query.jexl.visitors.JexlFormattedStringBuildingVisitor;
 import datawave.security.authorization.DatawaveUser;
 import datawave.webservice.query.exception.DatawaveErrorCode;
 import datawave.webservice.query.exception.QueryException;
+import datawave.webservice.query.exception.QueryExceptionType;
 import datawave.webservice.query.map.QueryGeometryResponse;
 import datawave.webservice.result.VoidResponse;
 import io.swagger.v3.oas.annotations.ExternalDocumentation;
@@ -90,6 +118,7 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 public class QueryMetricOperations {
     // Note: This must match 'confirmAckChannel' in the service configuration. Default set in bootstrap.yml.
     public static final String CONFIRM_ACK_CHANNEL = "confirmAckChannel";
+    public static final String TOP_QUERIES_EXECUTOR = "topQueriesExecutor";
     
     private Logger log = LoggerFactory.getLogger(QueryMetricOperations.class);
     
@@ -104,11 +133,21 @@ public class QueryMetricOperations {
     private MergeLockLifecycleListener mergeLock;
     private MetricUpdateEntryProcessorFactory entryProcessorFactory;
     private QueryMetricOperationsStats stats;
+    private ExecutorService metricSelectorsExecutor;
+    // a permit for each thread and each queued extraction, so that an extraction that was submitted is never rejected
+    private Semaphore metricSelectorsPermits;
+    private FormattedMetricCache formattedMetricCache;
+    private MetricUpdateSpool spool = null;
     
     private final QueryMetricSupplier queryMetricSupplier;
     private final DnUtils dnUtils;
+    private final MetricTracer metricTracer;
+    private final MetricJournal metricJournal;
     
     private static final Map<String,CountDownLatch> correlationLatchMap = new ConcurrentHashMap<>();
+    // the lifecycles of queries that have not reached a final status
+    private static final List<BaseQueryMetric.Lifecycle> RUNNING_LIFECYCLES = Arrays.asList(BaseQueryMetric.Lifecycle.DEFINED,
+                    BaseQueryMetric.Lifecycle.INITIALIZED, BaseQueryMetric.Lifecycle.RESULTS, BaseQueryMetric.Lifecycle.MAXWORK);
     
     /**
      * The enum Default datetime.
@@ -149,13 +188,19 @@ public class QueryMetricOperations {
      *            the entry processor factory
      * @param stats
      *            the stats
+     * @param objectMapper
+     *            the ObjectMapper used to write spooled updates
+     * @param metricTracer
+     *            the tracer of metric updates
+     * @param metricJournal
+     *            the journal of this member, whose recovered updates are replayed
      */
     @Autowired
     public QueryMetricOperations(QueryMetricProperties queryMetricProperties, @Named("queryMetricCacheManager") CacheManager cacheManager,
                     ShardTableQueryMetricHandler handler, QueryGeometryHandler geometryHandler, MarkingFunctions markingFunctions,
                     BaseQueryMetricListResponseFactory queryMetricListResponseFactory, MergeLockLifecycleListener mergeLock,
                     MetricUpdateEntryProcessorFactory entryProcessorFactory, QueryMetricOperationsStats stats, QueryMetricSupplier queryMetricSupplier,
-                    DnUtils dnUtils) {
+                    DnUtils dnUtils, ObjectMapper objectMapper, MetricTracer metricTracer, MetricJournal metricJournal) {
         this.queryMetricProperties = queryMetricProperties;
         this.handler = handler;
         this.geometryHandler = geometryHandler;
@@ -169,12 +214,65 @@ public class QueryMetricOperations {
         this.stats = stats;
         this.queryMetricSupplier = queryMetricSupplier;
         this.dnUtils = dnUtils;
+        this.metricTracer = metricTracer;
+        this.metricJournal = metricJournal;
+        this.formattedMetricCache = new FormattedMetricCache(queryMetricProperties.getFormattedMetricCacheSize(), handler.getCompressionThreshold(),
+                        geometryHandler);
+        this.stats.setFormattedMetricCache(this.formattedMetricCache);
+        SelectorExtraction selectorExtraction = queryMetricProperties.getSelectorExtraction();
+        if (selectorExtraction.isAsync()) {
+            this.metricSelectorsExecutor = new ThreadPoolExecutor(selectorExtraction.getThreads(), selectorExtraction.getThreads(), 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(selectorExtraction.getQueueSize()),
+                            new ThreadFactoryBuilder().setNameFormat("metric-selectors-thread-%d").setDaemon(true).build());
+            this.metricSelectorsPermits = new Semaphore(selectorExtraction.getThreads() + selectorExtraction.getQueueSize());
+        }
+        if (queryMetricProperties.getSpool().isEnabled()) {
+            try {
+                this.spool = new MetricUpdateSpool(queryMetricProperties.getSpool(), objectMapper);
+                this.spool.start(this::sendMessages);
+                this.stats.setSpool(this.spool);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open the metric update spool: " + e.getMessage(), e);
+            }
+        }
+    }
+    
+    /**
+     * Applies the updates that were journaled by this member before it stopped and not written by the map store. This runs once the application is ready
+     * rather than while this bean is created, so the member has joined the cluster. Each journaled holder is merged into the cached entry by the combiner, and
+     * its counters are added to the cached counters, so the counts of distributed updates that were not written are kept. The owner of each entry journals the
+     * merged result, so the recovered records are then dropped.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayJournal() {
+        if (!this.metricJournal.isEnabled()) {
+            return;
+        }
+        int replayed = 0;
+        for (Map.Entry<String,QueryMetricUpdateHolder> entry : this.metricJournal.getRecovered().entrySet()) {
+            String queryId = entry.getKey();
+            QueryMetricUpdateHolder holder = entry.getValue();
+            try {
+                storeMetricUpdate(holder, this.entryProcessorFactory.createReplayEntryProcessor(holder));
+                this.metricJournal.replayed(queryId, holder.getJournalSequence());
+                replayed++;
+            } catch (Exception e) {
+                log.error("Unable to replay journaled update for query {}: {}", queryId, e.getMessage());
+            }
+        }
+        log.info("Replayed {} journaled updates", replayed);
     }
     
     @PreDestroy
     public void shutdown() {
+        if (this.metricSelectorsExecutor != null) {
+            this.metricSelectorsExecutor.shutdown();
+        }
+        if (this.spool != null) {
+            this.spool.shutdown();
+        }
         this.stats.queueAggregatedQueryStatsForTimely();
-        this.stats.writeQueryStatsToTimely();
+        this.stats.shutdown();
     }
     
     /**
@@ -193,21 +291,31 @@ public class QueryMetricOperations {
     @RequestMapping(path = "/updateMetrics", method = {RequestMethod.POST}, consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
                     produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
     public VoidResponse updateMetrics(@RequestBody List<BaseQueryMetric> queryMetrics,
-                    @RequestParam(value = "metricType", defaultValue = "DISTRIBUTED") QueryMetricType metricType) {
+                    @RequestParam(value = "metricType", defaultValue = "DISTRIBUTED") QueryMetricType metricType,
+                    @RequestHeader(value = MetricTracer.TRACE_PARENT_HEADER, required = false) String traceParent) {
         if (!this.mergeLock.isAllowedReadLock()) {
             throw new IllegalStateException("service unavailable");
         }
         stats.getMeter(METERS.REST).mark(queryMetrics.size());
         VoidResponse response = new VoidResponse();
-        for (BaseQueryMetric m : queryMetrics) {
-            if (log.isTraceEnabled()) {
-                log.trace("received metric update via REST: " + m.toString());
-            } else {
-                log.debug("received metric update via REST: " + m.getQueryId());
-            }
-            if (!updateMetric(new QueryMetricUpdate<>(m, metricType))) {
-                throw new RuntimeException("Unable to process query metric update for query [" + m.getQueryId() + "]");
+        MetricSpan span = this.metricTracer.startSpan("updateMetrics", traceParent).setAttribute("updates", queryMetrics.size());
+        try {
+            for (BaseQueryMetric m : queryMetrics) {
+                if (log.isTraceEnabled()) {
+                    log.trace("received metric update via REST: " + m.toString());
+                } else {
+                    log.debug("received metric update via REST: " + m.getQueryId());
+                }
+                QueryMetricUpdate update = new QueryMetricUpdate<>(m, metricType);
+                update.setIngestTime(System.currentTimeMillis());
+                if (!updateMetric(update)) {
+                    RuntimeException e = new RuntimeException("Unable to process query metric update for query [" + m.getQueryId() + "]");
+                    span.setError(e);
+                    throw e;
+                }
             }
+        } finally {
+            span.close();
         }
         return response;
     }
@@ -228,7 +336,8 @@ public class QueryMetricOperations {
     @RequestMapping(path = "/updateMetric", method = {RequestMethod.POST}, consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
                     produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
     public VoidResponse updateMetric(@RequestBody BaseQueryMetric queryMetric,
-                    @RequestParam(value = "metricType", defaultValue = "DISTRIBUTED") QueryMetricType metricType) {
+                    @RequestParam(value = "metricType", defaultValue = "DISTRIBUTED") QueryMetricType metricType,
+                    @RequestHeader(value = MetricTracer.TRACE_PARENT_HEADER, required = false) String traceParent) {
         if (!this.mergeLock.isAllowedReadLock()) {
             throw new IllegalStateException("service unavailable");
         }
@@ -238,8 +347,17 @@ public class QueryMetricOperations {
         } else {
             log.debug("received metric update via REST: " + queryMetric.getQueryId());
         }
-        if (!updateMetric(new QueryMetricUpdate(queryMetric, metricType))) {
-            throw new RuntimeException("Unable to process query metric update for query [" + queryMetric.getQueryId() + "]");
+        MetricSpan span = this.metricTracer.startSpan("updateMetric", traceParent).setAttribute("queryId", queryMetric.getQueryId());
+        try {
+            QueryMetricUpdate update = new QueryMetricUpdate(queryMetric, metricType);
+            update.setIngestTime(System.currentTimeMillis());
+            if (!updateMetric(update)) {
+                RuntimeException e = new RuntimeException("Unable to process query metric update for query [" + queryMetric.getQueryId() + "]");
+                span.setError(e);
+                throw e;
+            }
+        } finally {
+            span.close();
         }
         return new VoidResponse();
     }
@@ -268,6 +386,13 @@ public class QueryMetricOperations {
     }
     
     private boolean updateMetric(QueryMetricUpdate update) {
+        if (this.spool != null) {
+            // once updates are spooled, later updates are spooled behind them so that they are sent in order
+            if (this.spool.sendOrAppend(update, this::sendMessage)) {
+                return true;
+            }
+            log.warn("Metric update spool is full, retrying update for query {}", update.getMetric().getQueryId());
+        }
         
         boolean success;
         final long updateStartTime = System.currentTimeMillis();
@@ -315,26 +440,90 @@ public class QueryMetricOperations {
      */
     private boolean sendMessage(QueryMetricUpdate update) {
         String correlationId = UUID.randomUUID().toString();
-        
-        CountDownLatch latch = null;
-        if (queryMetricProperties.isConfirmAckEnabled()) {
-            latch = new CountDownLatch(1);
-            correlationLatchMap.put(correlationId, latch);
+        MetricSpan span = this.metricTracer.startSpan("sendMessage").setAttribute("queryId", update.getMetric().getQueryId())
+                        .setAttribute("correlationId", correlationId);
+        try {
+            CountDownLatch latch = null;
+            if (queryMetricProperties.isConfirmAckEnabled()) {
+                latch = new CountDownLatch(1);
+                correlationLatchMap.put(correlationId, latch);
+            }
+            
+            MessageBuilder<QueryMetricUpdate> messageBuilder = MessageBuilder.withPayload(update).setCorrelationId(correlationId);
+            // the consumer continues this trace
+            String traceParent = span.getTraceParent();
+            if (traceParent != null) {
+                messageBuilder.setHeader(MetricTracer.TRACE_PARENT_HEADER, traceParent);
+            }
+            boolean success = queryMetricSupplier.send(messageBuilder.build());
+            
+            if (queryMetricProperties.isConfirmAckEnabled()) {
+                MetricSpan confirmAckSpan = this.metricTracer.startSpan("confirmAck");
+                try {
+                    success = success && latch.await(queryMetricProperties.getConfirmAckTimeoutMillis(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    success = false;
+                } finally {
+                    correlationLatchMap.remove(correlationId);
+                    confirmAckSpan.setAttribute("success", success).close();
+                }
+            }
+            
+            span.setAttribute("success", success);
+            return success;
+        } finally {
+            span.close();
         }
-        
-        boolean success = queryMetricSupplier.send(MessageBuilder.withPayload(update).setCorrelationId(correlationId).build());
-        
-        if (queryMetricProperties.isConfirmAckEnabled()) {
-            try {
-                success = success && latch.await(queryMetricProperties.getConfirmAckTimeoutMillis(), TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                success = false;
-            } finally {
-                correlationLatchMap.remove(correlationId);
+    }
+    
+    /**
+     * Sends a batch of spooled updates without waiting for the confirm of each one before sending the next, then waits for the confirms together.
+     *
+     * @param updates
+     *            the updates to send, in order
+     * @return whether each update was sent
+     */
+    private boolean[] sendMessages(List<QueryMetricUpdate> updates) {
+        boolean[] sent = new boolean[updates.size()];
+        String[] correlationIds = new String[updates.size()];
+        CountDownLatch[] latches = new CountDownLatch[updates.size()];
+        MetricSpan span = this.metricTracer.startSpan("sendMessages").setAttribute("updates", updates.size());
+        try {
+            String traceParent = span.getTraceParent();
+            for (int i = 0; i < updates.size(); i++) {
+                correlationIds[i] = UUID.randomUUID().toString();
+                if (queryMetricProperties.isConfirmAckEnabled()) {
+                    latches[i] = new CountDownLatch(1);
+                    correlationLatchMap.put(correlationIds[i], latches[i]);
+                }
+                MessageBuilder<QueryMetricUpdate> messageBuilder = MessageBuilder.withPayload(updates.get(i)).setCorrelationId(correlationIds[i]);
+                if (traceParent != null) {
+                    messageBuilder.setHeader(MetricTracer.TRACE_PARENT_HEADER, traceParent);
+                }
+                sent[i] = queryMetricSupplier.send(messageBuilder.build());
+            }
+            if (queryMetricProperties.isConfirmAckEnabled()) {
+                // the confirms share one timeout, so a batch waits no longer than a single update
+                long deadline = System.currentTimeMillis() + queryMetricProperties.getConfirmAckTimeoutMillis();
+                for (int i = 0; i < updates.size(); i++) {
+                    if (sent[i]) {
+                        try {
+                            sent[i] = latches[i].await(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            sent[i] = false;
+                        }
+                    }
+                }
+            }
+            return sent;
+        } finally {
+            for (String correlationId : correlationIds) {
+                if (correlationId != null) {
+                    correlationLatchMap.remove(correlationId);
+                }
             }
+            span.close();
         }
-        
-        return success;
     }
     
     /**
@@ -345,13 +534,71 @@ public class QueryMetricOperations {
      */
     public void storeMetric(QueryMetricUpdate update) {
         stats.getMeter(METERS.MESSAGE).mark();
+        long now = System.currentTimeMillis();
+        if (update.getIngestTime() == 0) {
+            // updates that were sent directly to the message broker are ingested when they are received
+            update.setIngestTime(now);
+        } else {
+            stats.getTimer(TIMERS.TRANSIT).update(Math.max(now - update.getIngestTime(), 0), TimeUnit.MILLISECONDS);
+        }
+        // share the repeated strings of metrics that were deserialized from a message or a REST request
+        this.handler.getStringInterner().intern(update.getMetric());
         String queryId = update.getMetric().getQueryId();
         this.stats.queueTimelyMetrics(update);
         log.debug("storing update for {}", queryId);
-        if (update.getMetric().getPositiveSelectors() == null) {
-            this.handler.populateMetricSelectors(update.getMetric());
+        BaseQueryMetric metric = update.getMetric();
+        boolean extractSelectorsAsync = false;
+        boolean extractSelectorsOnWrite = false;
+        if (metric.getPositiveSelectors() == null) {
+            if (this.metricSelectorsExecutor != null && metric.getQuery() != null && this.handler.isMetricSelectorsNeeded(metric)) {
+                if (this.metricSelectorsPermits.tryAcquire()) {
+                    extractSelectorsAsync = true;
+                } else {
+                    // rather than parse the query on the message handling thread, the map store extracts the selectors when it writes the metric
+                    this.stats.getMeter(METERS.SELECTORS_DEFERRED).mark();
+                    extractSelectorsOnWrite = true;
+                }
+            } else {
+                this.handler.populateMetricSelectors(metric);
+            }
+        }
+        // capture this before the metric is handed to the cache
+        String query = metric.getQuery();
+        metric.compressQueryAndPlan(this.handler.getCompressionThreshold());
+        QueryMetricUpdateHolder metricUpdate = new QueryMetricUpdateHolder(update);
+        metricUpdate.setMetricSelectorsPending(extractSelectorsOnWrite);
+        try {
+            storeMetricUpdate(metricUpdate);
+        } catch (RuntimeException e) {
+            if (extractSelectorsAsync) {
+                this.metricSelectorsPermits.release();
+            }
+            throw e;
+        }
+        if (extractSelectorsAsync) {
+            this.metricSelectorsExecutor.execute(() -> populateMetricSelectors(queryId, query));
+        }
+    }
+    
+    private void populateMetricSelectors(String queryId, String query) {
+        try {
+            BaseQueryMetricHandler.MetricSelectors selectors = this.handler.getMetricSelectors(query);
+            if (!selectors.isEmpty()) {
+                IMap<String,QueryMetricUpdateHolder> incomingQueryMetricsCacheHz = ((IMap<String,QueryMetricUpdateHolder>) incomingQueryMetricsCache
+                                .getNativeCache());
+                this.mergeLock.lock();
+                try {
+                    incomingQueryMetricsCacheHz.executeOnKey(queryId,
+                                    new MetricSelectorsEntryProcessor(selectors.getPositiveSelectors(), selectors.getNegativeSelectors()));
+                } finally {
+                    this.mergeLock.unlock();
+                }
+            }
+        } catch (Exception e) {
+            log.error("populateMetricSelectors for {}: {}", queryId, e.getMessage());
+        } finally {
+            this.metricSelectorsPermits.release();
         }
-        storeMetricUpdate(new QueryMetricUpdateHolder(update));
     }
     
     private String getClusterLocalMemberUuid() {
@@ -359,18 +606,26 @@ public class QueryMetricOperations {
     }
     
     private void storeMetricUpdate(QueryMetricUpdateHolder metricUpdate) {
+        storeMetricUpdate(metricUpdate, this.entryProcessorFactory.createEntryProcessor(metricUpdate));
+    }
+    
+    private void storeMetricUpdate(QueryMetricUpdateHolder metricUpdate, MetricUpdateEntryProcessor entryProcessor) {
         Timer.Context storeTimer = this.stats.getTimer(TIMERS.STORE).time();
         String queryId = metricUpdate.getMetric().getQueryId();
+        MetricSpan span = this.metricTracer.startSpan("storeMetricUpdate").setAttribute("queryId", queryId);
+        // the entry processor and the map store continue this trace on the member that owns the entry
+        metricUpdate.setTraceParent(span.getTraceParent());
         try {
             IMap<String,QueryMetricUpdateHolder> incomingQueryMetricsCacheHz = ((IMap<String,QueryMetricUpdateHolder>) incomingQueryMetricsCache
                             .getNativeCache());
             this.mergeLock.lock();
             try {
-                incomingQueryMetricsCacheHz.executeOnKey(queryId, this.entryProcessorFactory.createEntryProcessor(metricUpdate));
+                incomingQueryMetricsCacheHz.executeOnKey(queryId, entryProcessor);
             } finally {
                 this.mergeLock.unlock();
             }
         } catch (Exception e) {
+            span.setError(e);
             if (!this.mergeLock.isShuttingDown()) {
                 if (e instanceof HazelcastInstanceNotActiveException) {
                     log.error("HazelcastInstanceNotActiveException - OK if shutting down");
@@ -380,6 +635,8 @@ public class QueryMetricOperations {
             }
             // fail the handling of the message
             throw new RuntimeException(e.getMessage());
+        } finally {
+            span.close();
         }
         storeTimer.stop();
     }
@@ -424,11 +681,10 @@ public class QueryMetricOperations {
                 // since we are using the incomingQueryMetricsCache, we need to make sure that the
                 // requesting user has the necessary Authorizations to view the requested query metric
                 if (sameUser || allowAllMetrics) {
-                    ColumnVisibility columnVisibility = this.markingFunctions.translateToColumnVisibility(metric.getMarkings());
+                    ColumnVisibility columnVisibility = this.handler.getVisibilityCache().getColumnVisibility(metric.getMarkings());
                     boolean userCanSeeVisibility = true;
                     for (DatawaveUser user : currentUser.getProxiedUsers()) {
-                        Authorizations authorizations = new Authorizations(user.getAuths().toArray(new String[0]));
-                        VisibilityEvaluator visibilityEvaluator = new VisibilityEvaluator(authorizations);
+                        VisibilityEvaluator visibilityEvaluator = this.handler.getVisibilityCache().getVisibilityEvaluator(user.getAuths());
                         if (visibilityEvaluator.evaluate(columnVisibility) == false) {
                             userCanSeeVisibility = false;
                             break;
@@ -443,27 +699,19 @@ public class QueryMetricOperations {
             response.addException(new QueryException(e.getMessage(), 500));
         }
         // Set the result to have the formatted query and query plan
-        // StackOverflowErrors seen in JexlFormattedStringBuildingVisitor.formatMetrics, so protect
-        // this call for each metric with try/catch and add original metric if formatMetrics fails
+        // The formatted values are cached by queryId and numUpdates so that repeated views do not parse again, and each metric in
+        // the response is a formatted copy so that the metrics that were read are unchanged
         List<BaseQueryMetric> fmtMetricList = new ArrayList<>();
+        boolean geoQuery = false;
         for (BaseQueryMetric m : metricList) {
-            List<BaseQueryMetric> formatted = null;
-            try {
-                formatted = JexlFormattedStringBuildingVisitor.formatMetrics(Collections.singletonList(m));
-            } catch (StackOverflowError | Exception e) {
-                log.warn(String.format("%s while formatting metric %s: %s", e.getClass().getCanonicalName(), m.getQueryId(), e.getMessage()));
-            }
-            if (formatted == null || formatted.isEmpty()) {
-                fmtMetricList.add(m);
-            } else {
-                fmtMetricList.addAll(formatted);
-            }
+            geoQuery = geoQuery || this.formattedMetricCache.isGeoQuery(m);
+            fmtMetricList.add(this.formattedMetricCache.format(m));
         }
         response.setResult(fmtMetricList);
         if (fmtMetricList.isEmpty()) {
             response.setHasResults(false);
         } else {
-            response.setGeoQuery(fmtMetricList.stream().anyMatch(SimpleQueryGeometryHandler::isGeoQuery));
+            response.setGeoQuery(geoQuery);
             response.setHasResults(true);
         }
         return response;
@@ -491,10 +739,136 @@ public class QueryMetricOperations {
             metricResponse.getExceptions().forEach(e -> queryGeometryResponse.addException(new QueryException(e.getMessage(), e.getCause(), e.getCode())));
             return queryGeometryResponse;
         } else {
+            // the geo features of each query are cached by the geometry handler, which builds a new response for each request
             return geometryHandler.getQueryGeometryResponse(queryId, metricResponse.getResult());
         }
     }
     
+    /**
+     * Returns a page of query metrics. Users other than a MetricsAdministrator can only see their own query metrics.
+     *
+     * @param currentUser
+     *            the current user
+     * @param begin
+     *            formatted date/time (yyyyMMdd | yyyyMMdd HHmmss | yyyyMMdd HHmmss.SSS)
+     * @param end
+     *            formatted date/time (yyyyMMdd | yyyyMMdd HHmmss | yyyyMMdd HHmmss.SSS)
+     * @param user
+     *            the user whose query metrics are returned, by default the current user or all users for a MetricsAdministrator
+     * @param pageSize
+     *            the maximum number of query metrics to return
+     * @param cursor
+     *            the nextCursor from the previous page; begin, end and user are taken from the cursor
+     * @return the base query metric list response
+     * @HTTP 200 success
+     * @HTTP 500 internal server error
+     */
+    @Operation(summary = "Get a page of query metrics.", description = "Pass the nextCursor from a response as the cursor to get the next page.")
+    @PermitAll
+    @RequestMapping(path = "/list", method = {RequestMethod.GET}, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public BaseQueryMetricListResponse list(@AuthenticationPrincipal DatawaveUserDetails currentUser, @RequestParam(required = false) String begin,
+                    @RequestParam(required = false) String end, @RequestParam(required = false) String user,
+                    @RequestParam(required = false) Integer pageSize, @RequestParam(required = false) String cursor) {
+        return getListResponse(currentUser, begin, end, user, pageSize, cursor);
+    }
+    
+    /**
+     * Returns a page of query metrics as HTML. The table is written to the response one row at a time instead of being built in memory first.
+     *
+     * @param currentUser
+     *            the current user
+     * @param begin
+     *            formatted date/time (yyyyMMdd | yyyyMMdd HHmmss | yyyyMMdd HHmmss.SSS)
+     * @param end
+     *            formatted date/time (yyyyMMdd | yyyyMMdd HHmmss | yyyyMMdd HHmmss.SSS)
+     * @param user
+     *            the user whose query metrics are returned, by default the current user or all users for a MetricsAdministrator
+     * @param pageSize
+     *            the maximum number of query metrics to return
+     * @param cursor
+     *            the nextCursor from the previous page; begin, end and user are taken from the cursor
+     * @return the streamed HTML page
+     * @HTTP 200 success
+     * @HTTP 500 internal server error
+     */
+    @Operation(summary = "Get a page of query metrics as HTML.", description = "Follow the next page link to get the next page.")
+    @PermitAll
+    @RequestMapping(path = "/list", method = {RequestMethod.GET}, produces = {MediaType.TEXT_HTML_VALUE})
+    public ResponseEntity<StreamingResponseBody> listHtml(@AuthenticationPrincipal DatawaveUserDetails currentUser,
+                    @RequestParam(required = false) String begin, @RequestParam(required = false) String end, @RequestParam(required = false) String user,
+                    @RequestParam(required = false) Integer pageSize, @RequestParam(required = false) String cursor) {
+        BaseQueryMetricListResponse response = getListResponse(currentUser, begin, end, user, pageSize, cursor);
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            writer.append("<!DOCTYPE html>\n<html>\n<head>\n<title>").append(response.getTitle()).append("</title>\n");
+            writer.append(response.getHeadContent()).append("\n</head>\n<body>\n");
+            writer.append("<h1>").append(response.getPageHeader()).append("</h1>\n");
+            if (response.getExceptions() != null && !response.getExceptions().isEmpty()) {
+                for (QueryExceptionType e : response.getExceptions()) {
+                    writer.append("<p>").append(StringEscapeUtils.escapeHtml(e.getMessage())).append("</p>\n");
+                }
+            } else {
+                response.writeMainContent(writer);
+            }
+            writer.append("</body>\n</html>\n");
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.TEXT_HTML).body(body);
+    }
+    
+    private BaseQueryMetricListResponse getListResponse(DatawaveUserDetails currentUser, String begin, String end, String user, Integer pageSize,
+                    String cursor) {
+        BaseQueryMetricListResponse response = this.queryMetricListResponseFactory.createResponse();
+        try {
+            QueryMetricsCursor position;
+            if (StringUtils.isNotBlank(cursor)) {
+                position = QueryMetricsCursor.decode(cursor);
+            } else {
+                Date endDate = parseDate(end, END);
+                if (endDate == null) {
+                    endDate = new Date();
+                }
+                Date beginDate = parseDate(begin, BEGIN);
+                if (beginDate == null) {
+                    beginDate = DateUtils.addDays(endDate, -90);
+                }
+                if (endDate.before(beginDate)) {
+                    String s = "begin date can not be after end date";
+                    throw new QueryException(DatawaveErrorCode.BEGIN_DATE_AFTER_END_DATE, new IllegalArgumentException(s), s);
+                }
+                position = new QueryMetricsCursor(beginDate, endDate, StringUtils.isBlank(user) ? null : user.trim(), null);
+            }
+            
+            // only a MetricsAdministrator can see other users' query metrics
+            String requestingUser = dnUtils.getShortName(currentUser.getPrimaryUser().getName());
+            boolean allowAllMetrics = currentUser.getPrimaryUser().getRoles().contains("MetricsAdministrator");
+            String metricUser = position.getUser();
+            if (!allowAllMetrics) {
+                if (metricUser != null && !metricUser.equals(requestingUser)) {
+                    throw new IllegalArgumentException("user " + requestingUser + " can not view query metrics for user " + metricUser);
+                }
+                metricUser = requestingUser;
+            }
+            
+            int size = pageSize == null ? this.queryMetricProperties.getListPageSize()
+                            : Math.min(pageSize, this.queryMetricProperties.getMaxListPageSize());
+            if (size <= 0) {
+                throw new IllegalArgumentException("pageSize must be greater than 0");
+            }
+            
+            List<BaseQueryMetric> page = new ArrayList<>();
+            String lastKey = this.handler.getQueryMetrics(position.getBegin(), position.getEnd(), currentUser, metricUser, position.getLastKey(), size, page);
+            response.setResult(page);
+            response.setHasResults(!page.isEmpty());
+            if (lastKey != null) {
+                response.setNextCursor(position.next(lastKey).encode());
+            }
+        } catch (Exception e) {
+            response.addException(new QueryException(e.getMessage(), 500));
+        }
+        return response;
+    }
+    
     private static Date parseDate(String dateString, DEFAULT_DATETIME defaultDateTime) throws IllegalArgumentException {
         if (StringUtils.isBlank(dateString)) {
             return null;
@@ -597,6 +971,105 @@ public class QueryMetricOperations {
         }
     }
     
+    /**
+     * Returns the queries that are running according to the metrics that are held in the incoming metrics cache. The cache is queried by indexed attributes
+     * and only a summary of each matching metric is returned, so this does not read from Accumulo.
+     *
+     * @param user
+     *            only return queries for this user
+     * @param queryLogic
+     *            only return queries for this query logic
+     * @param host
+     *            only return queries on this host
+     * @param lifecycle
+     *            only return queries in these lifecycles, defaults to the lifecycles that are not final
+     * @param begin
+     *            only return queries created at or after this formatted date/time (yyyyMMdd | yyyyMMdd HHmmss | yyyyMMdd HHmmss.SSS)
+     * @return the running queries
+     * @HTTP 200 success
+     * @HTTP 500 internal server error
+     */
+    @Operation(summary = "Get the queries that are running from the metrics cache.")
+    @Secured({"Administrator", "JBossAdministrator", "MetricsAdministrator"})
+    @RequestMapping(path = "/running", method = {RequestMethod.GET}, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public RunningQueriesResponse running(@RequestParam(required = false) String user, @RequestParam(required = false) String queryLogic,
+                    @RequestParam(required = false) String host, @RequestParam(required = false) List<BaseQueryMetric.Lifecycle> lifecycle,
+                    @RequestParam(required = false) String begin) {
+        RunningQueriesResponse response = new RunningQueriesResponse();
+        try {
+            List<Predicate<String,QueryMetricUpdateHolder>> predicates = new ArrayList<>();
+            List<BaseQueryMetric.Lifecycle> lifecycles = lifecycle == null || lifecycle.isEmpty() ? RUNNING_LIFECYCLES : lifecycle;
+            predicates.add(Predicates.in(MetricAttributeExtractors.LIFECYCLE, lifecycles.stream().map(Enum::name).toArray(String[]::new)));
+            if (user != null) {
+                predicates.add(Predicates.equal(MetricAttributeExtractors.USER, user));
+            }
+            if (queryLogic != null) {
+                predicates.add(Predicates.equal(MetricAttributeExtractors.QUERY_LOGIC, queryLogic));
+            }
+            if (host != null) {
+                predicates.add(Predicates.equal(MetricAttributeExtractors.HOST, host));
+            }
+            if (begin != null) {
+                predicates.add(Predicates.greaterEqual(MetricAttributeExtractors.CREATE_DATE, parseDate(begin, BEGIN).getTime()));
+            }
+            IMap<String,QueryMetricUpdateHolder> incomingCacheHz = ((IMap<String,QueryMetricUpdateHolder>) incomingQueryMetricsCache.getNativeCache());
+            Predicate<String,QueryMetricUpdateHolder> predicate = Predicates.and(predicates.toArray(new Predicate[0]));
+            Collection<RunningQuery> runningQueries = incomingCacheHz.project(new RunningQueryProjection(), predicate);
+            List<RunningQuery> result = new ArrayList<>(runningQueries.size());
+            runningQueries.stream().filter(Objects::nonNull).forEach(result::add);
+            result.sort(Comparator.comparing(RunningQuery::getCreateDate, Comparator.nullsLast(Comparator.naturalOrder())));
+            response.setRunningQueries(result);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            response.addException(e);
+        }
+        return response;
+    }
+    
+    /**
+     * Returns the queries with the highest values for a measure, merged from the leaderboards kept by each cluster member
+     *
+     * @param by
+     *            the measure to rank queries by (elapsed | nextCount | seekCount | pages)
+     * @param limit
+     *            the maximum number of queries to return, defaults to and can not exceed the number retained by each member
+     * @return the top queries
+     * @HTTP 200 success
+     * @HTTP 500 internal server error
+     */
+    @Operation(summary = "Get the queries with the highest elapsed time, next count, seek count, or pages.")
+    @Secured({"Administrator", "JBossAdministrator", "MetricsAdministrator"})
+    @RequestMapping(path = "/top", method = {RequestMethod.GET}, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public TopQueriesResponse top(@RequestParam(defaultValue = "elapsed") String by, @RequestParam(required = false) Integer limit) {
+        TopQueriesResponse response = new TopQueriesResponse();
+        try {
+            TopQueryTracker.Measure measure = TopQueryTracker.Measure.fromName(by);
+            response.setBy(measure.getName());
+            TopQueries topQueries = this.queryMetricProperties.getTopQueries();
+            HazelcastInstance instance = ((HazelcastCacheManager) this.cacheManager).getHazelcastInstance();
+            Map<Member,Future<List<TopQuery>>> futures = instance.getExecutorService(TOP_QUERIES_EXECUTOR).submitToAllMembers(new TopQueriesTask(measure));
+            // a query can be retained by more than one member, so keep its highest value
+            Map<String,TopQuery> merged = new HashMap<>();
+            for (Map.Entry<Member,Future<List<TopQuery>>> future : futures.entrySet()) {
+                try {
+                    for (TopQuery topQuery : future.getValue().get(topQueries.getTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                        merged.merge(topQuery.getQueryId(), topQuery, (q1, q2) -> q1.getValue() >= q2.getValue() ? q1 : q2);
+                    }
+                } catch (Exception e) {
+                    log.warn("unable to get top queries from member " + future.getKey() + ": " + e.getMessage());
+                }
+            }
+            int maxResults = limit == null ? topQueries.getSize() : Math.min(Math.max(limit, 0), topQueries.getSize());
+            List<TopQuery> result = new ArrayList<>(merged.values());
+            result.sort(Comparator.comparingLong(TopQuery::getValue).reversed());
+            response.setTopQueries(new ArrayList<>(result.subList(0, Math.min(maxResults, result.size()))));
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            response.addException(e);
+        }
+        return response;
+    }
+    
     /**
      * Returns cache stats for the local part of the distributed Hazelcast cache
      *
@@ -614,6 +1087,7 @@ public class QueryMetricOperations {
         IMap<Object,Object> lastWrittenCacheHz = ((IMap<Object,Object>) lastWrittenQueryMetricCache.getNativeCache());
         cacheStats.setLastWrittenQueryMetrics(this.stats.getLocalMapStats(lastWrittenCacheHz.getLocalMapStats()));
         cacheStats.setServiceStats(this.stats.formatStats(this.stats.getServiceStats(), true));
+        cacheStats.setHeavyHitters(this.stats.getHeavyHitters());
         cacheStats.setMemberUuid(getClusterLocalMemberUuid());
         try {
             cacheStats.setHost(InetAddress.getLocalHost().getCanonicalHostName());
@@ -636,6 +1110,5 @@ public class QueryMetricOperations {
     @Scheduled(fixedRateString = "${datawave.query.metric.stats.publishQueryStatsToTimelyRateMs:60000}")
     public void publishQueryStatsToTimely() {
         this.stats.queueAggregatedQueryStatsForTimely();
-        this.stats.writeQueryStatsToTimely();
     }
 }
@@ -8,14 +8,11 @@ import static datawave.microservice.querymetric.config.HazelcastMetricCacheConfi
 import java.net.InetAddress;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -28,39 +25,78 @@ import com.codahale.metrics.Metered;
 import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheStats;
 import com.hazelcast.map.IMap;
 import com.hazelcast.map.LocalMapStats;
 
+import datawave.microservice.querymetric.config.QueryMetricProperties;
 import datawave.microservice.querymetric.config.TimelyProperties;
 import datawave.microservice.querymetric.handler.ShardTableQueryMetricHandler;
 import datawave.microservice.querymetric.persistence.AccumuloMapStore;
-import datawave.util.timely.TcpClient;
-import datawave.util.timely.UdpClient;
 
 public class QueryMetricOperationsStats {
     
     private Logger log = LoggerFactory.getLogger(getClass());
     private Map<TIMERS,Timer> timerMap = new HashMap<>();
     private Map<METERS,Meter> meterMap = new HashMap<>();
-    private TcpClient timelyTcpClient;
-    private UdpClient timelyUdpClient;
+    private TimelyPublisher timelyPublisher;
     
     protected TimelyProperties timelyProperties;
     protected ShardTableQueryMetricHandler handler;
     protected AccumuloMapStore mapStore;
     protected CacheManager cacheManager;
-    protected Map<String,Long> hostCountMap = new HashMap<>();
-    protected Map<String,Long> userCountMap = new HashMap<>();
-    protected Map<String,Long> logicCountMap = new HashMap<>();
-    protected List<String> queryStatsToWriteToTimely = Collections.synchronizedList(new ArrayList<>());
+    protected QueryMetricProperties.HeavyHitters heavyHitterProperties;
+    protected MetricUpdateSpool spool = null;
+    protected FormattedMetricCache formattedMetricCache = null;
+    // queries initialized and updates received per host, user, and query logic since the counts were last written to Timely, which are only counted when
+    // Timely is enabled because they are not reset otherwise
+    protected AtomicReference<HeavyHitterCounts> queryCounts = new AtomicReference<>();
+    protected AtomicReference<HeavyHitterCounts> updateCounts = new AtomicReference<>();
+    // histograms of closed queries since they were last written to Timely when aggregation is enabled
+    protected AtomicReference<QueryStatsAggregator> queryStatsAggregator = new AtomicReference<>();
     protected Map<String,String> staticTags = new LinkedHashMap<>();
+    // the tags do not change, so the suffix added to each Timely line is rendered once
+    protected String commonTags = "";
     
     public enum TIMERS {
-        STORE
+        STORE, TRANSIT
     }
     
     public enum METERS {
-        REST, MESSAGE
+        REST, MESSAGE, MESSAGE_DROPPED, SELECTORS_DEFERRED
+    }
+    
+    /**
+     * Heavy hitter sketches of one count by host, user, and query logic
+     */
+    public static class HeavyHitterCounts {
+        private final HeavyHitterSketch host;
+        private final HeavyHitterSketch user;
+        private final HeavyHitterSketch logic;
+        
+        public HeavyHitterCounts(QueryMetricProperties.HeavyHitters properties) {
+            this.host = new HeavyHitterSketch(properties.getSize(), properties.getWidth(), properties.getDepth());
+            this.user = new HeavyHitterSketch(properties.getSize(), properties.getWidth(), properties.getDepth());
+            this.logic = new HeavyHitterSketch(properties.getSize(), properties.getWidth(), properties.getDepth());
+        }
+        
+        public void add(String host, String user, String logic) {
+            this.host.add(host);
+            this.user.add(user);
+            this.logic.add(logic);
+        }
+        
+        public HeavyHitterSketch getHost() {
+            return host;
+        }
+        
+        public HeavyHitterSketch getUser() {
+            return user;
+        }
+        
+        public HeavyHitterSketch getLogic() {
+            return logic;
+        }
     }
     
     /*
@@ -71,7 +107,16 @@ public class QueryMetricOperationsStats {
     
     public QueryMetricOperationsStats(TimelyProperties timelyProperties, ShardTableQueryMetricHandler handler, CacheManager cacheManager,
                     AccumuloMapStore mapStore) {
+        this(timelyProperties, handler, cacheManager, mapStore, new QueryMetricProperties());
+    }
+    
+    public QueryMetricOperationsStats(TimelyProperties timelyProperties, ShardTableQueryMetricHandler handler, CacheManager cacheManager,
+                    AccumuloMapStore mapStore, QueryMetricProperties queryMetricProperties) {
         this.timelyProperties = timelyProperties;
+        this.heavyHitterProperties = queryMetricProperties.getHeavyHitters();
+        this.queryCounts.set(new HeavyHitterCounts(heavyHitterProperties));
+        this.updateCounts.set(new HeavyHitterCounts(heavyHitterProperties));
+        this.queryStatsAggregator.set(new QueryStatsAggregator(timelyProperties.getAggregation().getMaxTagValues()));
         this.handler = handler;
         this.mapStore = mapStore;
         this.cacheManager = cacheManager;
@@ -81,24 +126,29 @@ public class QueryMetricOperationsStats {
         for (METERS name : METERS.values()) {
             this.meterMap.put(name, new Meter());
         }
-        if (this.timelyProperties.isEnabled()) {
-            try {
-                if (timelyProperties.getProtocol().equals(TimelyProperties.Protocol.TCP)) {
-                    this.timelyTcpClient = new TcpClient(timelyProperties.getHost(), timelyProperties.getPort());
-                    this.timelyTcpClient.open();
-                } else {
-                    this.timelyUdpClient = new UdpClient(timelyProperties.getHost(), timelyProperties.getPort());
-                    this.timelyUdpClient.open();
-                }
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
-            }
-        }
         try {
             staticTags.put("host", InetAddress.getLocalHost().getCanonicalHostName());
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
+        this.commonTags = renderCommonTags();
+        if (this.timelyProperties.isEnabled()) {
+            this.timelyPublisher = new TimelyPublisher(timelyProperties);
+        }
+    }
+    
+    public void setSpool(MetricUpdateSpool spool) {
+        this.spool = spool;
+    }
+    
+    public void setFormattedMetricCache(FormattedMetricCache formattedMetricCache) {
+        this.formattedMetricCache = formattedMetricCache;
+    }
+    
+    public void shutdown() {
+        if (this.timelyPublisher != null) {
+            this.timelyPublisher.shutdown();
+        }
     }
     
     public Timer getTimer(TIMERS name) {
@@ -126,68 +176,14 @@ public class QueryMetricOperationsStats {
     
     public void writeServiceStatsToTimely() {
         if (this.timelyProperties.isEnabled()) {
-            List<String> serviceStatsToWriteToTimely = new ArrayList<>();
-            
             long timestamp = System.currentTimeMillis();
             Map<String,Double> serviceStatsDouble = getServiceStats();
             addLocalMapStats(serviceStatsDouble);
             Map<String,String> serviceStats = formatStats(serviceStatsDouble, false);
             serviceStats.entrySet().forEach(entry -> {
-                serviceStatsToWriteToTimely
-                                .add("put microservice.querymetric." + entry.getKey() + " " + timestamp + " " + entry.getValue() + getCommonTags() + "\n");
+                this.timelyPublisher
+                                .publish("put microservice.querymetric." + entry.getKey() + " " + timestamp + " " + entry.getValue() + this.commonTags + "\n");
             });
-            try {
-                for (String metric : serviceStatsToWriteToTimely) {
-                    if (this.timelyProperties.getProtocol().equals(TimelyProperties.Protocol.TCP)) {
-                        this.timelyTcpClient.write(metric);
-                    } else {
-                        this.timelyUdpClient.write(metric);
-                    }
-                }
-            } catch (Exception e) {
-                log.error("Exception writing metrics to Timely: " + e.getMessage());
-            } finally {
-                if (this.timelyProperties.getProtocol().equals(TimelyProperties.Protocol.TCP)) {
-                    this.timelyTcpClient.flush();
-                }
-            }
-        }
-        
-    }
-    
-    public void writeQueryStatsToTimely() {
-        if (this.timelyProperties.isEnabled()) {
-            List<String> tempMetricsToWrite = new ArrayList<>();
-            // add metrics to a new list so that issues with Timely don't indirectly
-            // prevent the metric service from handling incoming metric updates
-            synchronized (this.queryStatsToWriteToTimely) {
-                tempMetricsToWrite.addAll(this.queryStatsToWriteToTimely);
-                this.queryStatsToWriteToTimely.clear();
-            }
-            try {
-                Iterator<String> itr = tempMetricsToWrite.iterator();
-                while (itr.hasNext()) {
-                    String metric = itr.next();
-                    if (this.timelyProperties.getProtocol().equals(TimelyProperties.Protocol.TCP)) {
-                        this.timelyTcpClient.write(metric);
-                    } else {
-                        this.timelyUdpClient.write(metric);
-                    }
-                    // remove metric if write is successful
-                    itr.remove();
-                }
-            } catch (Exception e) {
-                log.error("Exception writing metrics to Timely: " + e.getMessage());
-                // add back metrics so that we keep trying to write them
-                this.queryStatsToWriteToTimely.addAll(tempMetricsToWrite);
-                if (this.queryStatsToWriteToTimely.size() > 10000) {
-                    this.queryStatsToWriteToTimely.clear();
-                }
-            } finally {
-                if (this.timelyProperties.getProtocol().equals(TimelyProperties.Protocol.TCP)) {
-                    this.timelyTcpClient.flush();
-                }
-            }
         }
     }
     
@@ -235,11 +231,79 @@ public class QueryMetricOperationsStats {
         Map<String,Double> stats = new LinkedHashMap<>();
         addTimerStats("store", getTimer(TIMERS.STORE), stats);
         addTimerStats("accumulo", this.mapStore.getWriteTimer(), stats);
+        // the freshness of the stored metrics: time from the REST request to the message being received, time spent waiting
+        // in the cache for the write-behind, and the lag from the update being produced or received to it being written
+        addTimerStats("transit", getTimer(TIMERS.TRANSIT), stats);
+        addTimerStats("dirty", this.mapStore.getDirtyTimer(), stats);
+        addTimerStats("eventToDurable", this.mapStore.getEventToDurableTimer(), stats);
+        addTimerStats("ingestToDurable", this.mapStore.getIngestToDurableTimer(), stats);
+        stats.put("freshnessSloMillis", Double.valueOf(this.mapStore.getFreshnessSlo().getSloMillis()));
+        stats.put("eventToDurableWithinSlo_Percent", this.mapStore.getFreshnessSlo().getPercentWithin());
         addMeterStats("message", getMeter(METERS.MESSAGE), stats);
         addMeterStats("rest", getMeter(METERS.REST), stats);
+        addMeterStats("messageDropped", getMeter(METERS.MESSAGE_DROPPED), stats);
+        addCacheStats("columnVisibilityCache", this.handler.getVisibilityCache().getColumnVisibilityStats(), stats);
+        addCacheStats("visibilityEvaluatorCache", this.handler.getVisibilityCache().getVisibilityEvaluatorStats(), stats);
+        addCacheStats("metricSelectorsCache", this.handler.getMetricSelectorsCacheStats(), stats);
+        addMeterStats("selectorsDeferred", getMeter(METERS.SELECTORS_DEFERRED), stats);
+        if (this.formattedMetricCache != null) {
+            addCacheStats("formattedMetricCache", this.formattedMetricCache.getStats(), stats);
+        }
+        addCacheStats("stringInterner", this.handler.getStringInterner().getStats(), stats);
+        stats.put("stringInternerSize", Double.valueOf(this.handler.getStringInterner().size()));
+        addHeavyHitterStats("queryCount", this.queryCounts.get(), stats);
+        addHeavyHitterStats("updateCount", this.updateCounts.get(), stats);
+        if (this.timelyPublisher != null) {
+            stats.put("timelyPublished", Double.valueOf(this.timelyPublisher.getPublishedCount()));
+            stats.put("timelyDropped", Double.valueOf(this.timelyPublisher.getDroppedCount()));
+            stats.put("timelyWritten", Double.valueOf(this.timelyPublisher.getWrittenCount()));
+            stats.put("timelyWriteFailures", Double.valueOf(this.timelyPublisher.getWriteFailureCount()));
+            stats.put("timelyConnects", Double.valueOf(this.timelyPublisher.getConnectCount()));
+            stats.put("timelyBuffered", Double.valueOf(this.timelyPublisher.getBufferedCount()));
+        }
+        if (this.spool != null) {
+            stats.put("spoolAppended", Double.valueOf(this.spool.getAppendedCount()));
+            stats.put("spoolDrained", Double.valueOf(this.spool.getDrainedCount()));
+            stats.put("spoolRejected", Double.valueOf(this.spool.getRejectedCount()));
+            stats.put("spoolDrainFailures", Double.valueOf(this.spool.getDrainFailureCount()));
+            stats.put("spoolPending", Double.valueOf(this.spool.getPendingCount()));
+            stats.put("spoolBytes", Double.valueOf(this.spool.getSizeBytes()));
+        }
+        // queries with a final lifecycle that were set to expire from the incoming cache after being written
+        stats.put("finalTtl", Double.valueOf(this.mapStore.getFinalTtlCount()));
+        // metrics that were created again and combined with the local copy of the last written metric or with one read from Accumulo
+        addMeterStats("lastWrittenMetricHits", this.mapStore.getLastWrittenMetricHits(), stats);
+        addMeterStats("storedMetricReads", this.mapStore.getStoredMetricReads(), stats);
+        MetricJournal journal = this.mapStore.getJournal();
+        if (journal.isEnabled()) {
+            stats.put("journalAppended", Double.valueOf(journal.getAppendedCount()));
+            stats.put("journalPersisted", Double.valueOf(journal.getPersistedCount()));
+            stats.put("journalRejected", Double.valueOf(journal.getRejectedCount()));
+            stats.put("journalSwept", Double.valueOf(journal.getSweptCount()));
+            stats.put("journalPending", Double.valueOf(journal.getPendingCount()));
+            stats.put("journalBytes", Double.valueOf(journal.getSizeBytes()));
+        }
         return stats;
     }
     
+    /**
+     * Returns the estimated counts of the most frequent hosts, users, and query logics since the counts were last written to Timely
+     *
+     * @return the counts keyed by count name, tag, and value
+     */
+    public Map<String,String> getHeavyHitters() {
+        Map<String,String> heavyHitters = new LinkedHashMap<>();
+        addHeavyHitters("queryCount", this.queryCounts.get(), heavyHitters);
+        addHeavyHitters("updateCount", this.updateCounts.get(), heavyHitters);
+        return heavyHitters;
+    }
+    
+    private void addHeavyHitters(String baseName, HeavyHitterCounts counts, Map<String,String> heavyHitters) {
+        counts.getHost().getTopCounts().forEach((k, v) -> heavyHitters.put(baseName + ".HOST." + k, String.valueOf(v)));
+        counts.getUser().getTopCounts().forEach((k, v) -> heavyHitters.put(baseName + ".USER." + k, String.valueOf(v)));
+        counts.getLogic().getTopCounts().forEach((k, v) -> heavyHitters.put(baseName + ".QUERY_LOGIC." + k, String.valueOf(v)));
+    }
+    
     public void queueTimelyMetrics(QueryMetricUpdate update) {
         queueTimelyMetrics(update.getMetric());
     }
@@ -251,38 +315,36 @@ public class QueryMetricOperationsStats {
             String host = queryMetric.getHost();
             String user = queryMetric.getUser();
             String logic = queryMetric.getQueryLogic();
+            this.updateCounts.get().add(host, user, logic);
+            if (lifecycle.equals(BaseQueryMetric.Lifecycle.INITIALIZED)) {
+                this.queryCounts.get().add(host, user, logic);
+            }
             if (lifecycle.equals(BaseQueryMetric.Lifecycle.CLOSED) || lifecycle.equals(BaseQueryMetric.Lifecycle.CANCELLED)) {
-                long createDate = queryMetric.getCreateDate().getTime();
-                // write ELAPSED_TIME
-                this.queryStatsToWriteToTimely.add("put dw.query.metrics.ELAPSED_TIME " + createDate + " " + queryMetric.getElapsedTime() + " HOST=" + host
-                                + getCommonTags() + "\n");
-                this.queryStatsToWriteToTimely.add("put dw.query.metrics.ELAPSED_TIME " + createDate + " " + queryMetric.getElapsedTime() + " USER=" + user
-                                + getCommonTags() + "\n");
-                this.queryStatsToWriteToTimely.add("put dw.query.metrics.ELAPSED_TIME " + createDate + " " + queryMetric.getElapsedTime() + " QUERY_LOGIC="
-                                + logic + getCommonTags() + "\n");
-                
-                // write NUM_RESULTS
-                this.queryStatsToWriteToTimely.add("put dw.query.metrics.NUM_RESULTS " + createDate + " " + queryMetric.getNumResults() + " HOST=" + host
-                                + getCommonTags() + "\n");
-                this.queryStatsToWriteToTimely.add("put dw.query.metrics.NUM_RESULTS " + createDate + " " + queryMetric.getNumResults() + " USER=" + user
-                                + getCommonTags() + "\n");
-                this.queryStatsToWriteToTimely.add("put dw.query.metrics.NUM_RESULTS " + createDate + " " + queryMetric.getNumResults() + " QUERY_LOGIC="
-                                + logic + getCommonTags() + "\n");
-            } else if (lifecycle.equals(BaseQueryMetric.Lifecycle.INITIALIZED)) {
-                // aggregate these metrics for later writing to timely
-                synchronized (this.hostCountMap) {
-                    Long hostCount = this.hostCountMap.get(host);
-                    this.hostCountMap.put(host, hostCount == null ? 1l : hostCount + 1);
-                    Long userCount = this.userCountMap.get(user);
-                    this.userCountMap.put(user, userCount == null ? 1l : userCount + 1);
-                    Long logicCount = this.logicCountMap.get(logic);
-                    this.logicCountMap.put(logic, logicCount == null ? 1l : logicCount + 1);
+                if (this.timelyProperties.getAggregation().isEnabled()) {
+                    this.queryStatsAggregator.get().record(host, user, logic, queryMetric.getElapsedTime(), queryMetric.getNumResults());
+                } else {
+                    long createDate = queryMetric.getCreateDate().getTime();
+                    // write ELAPSED_TIME
+                    this.timelyPublisher.publish("put dw.query.metrics.ELAPSED_TIME " + createDate + " " + queryMetric.getElapsedTime() + " HOST=" + host
+                                    + this.commonTags + "\n");
+                    this.timelyPublisher.publish("put dw.query.metrics.ELAPSED_TIME " + createDate + " " + queryMetric.getElapsedTime() + " USER=" + user
+                                    + this.commonTags + "\n");
+                    this.timelyPublisher.publish("put dw.query.metrics.ELAPSED_TIME " + createDate + " " + queryMetric.getElapsedTime() + " QUERY_LOGIC="
+                                    + logic + this.commonTags + "\n");
+                    
+                    // write NUM_RESULTS
+                    this.timelyPublisher.publish("put dw.query.metrics.NUM_RESULTS " + createDate + " " + queryMetric.getNumResults() + " HOST=" + host
+                                    + this.commonTags + "\n");
+                    this.timelyPublisher.publish("put dw.query.metrics.NUM_RESULTS " + createDate + " " + queryMetric.getNumResults() + " USER=" + user
+                                    + this.commonTags + "\n");
+                    this.timelyPublisher.publish("put dw.query.metrics.NUM_RESULTS " + createDate + " " + queryMetric.getNumResults() + " QUERY_LOGIC="
+                                    + logic + this.commonTags + "\n");
                 }
             }
         }
     }
     
-    protected String getCommonTags() {
+    private String renderCommonTags() {
         Map<String,String> tags = new LinkedHashMap<>();
         tags.putAll(this.timelyProperties.getTags());
         tags.putAll(this.staticTags);
@@ -311,26 +373,39 @@ public class QueryMetricOperationsStats {
     public void queueAggregatedQueryStatsForTimely() {
         if (this.timelyProperties.isEnabled()) {
             long now = System.currentTimeMillis();
-            synchronized (hostCountMap) {
-                this.hostCountMap.entrySet().forEach(entry -> {
-                    this.queryStatsToWriteToTimely
-                                    .add("put dw.query.metrics.COUNT " + now + " " + entry.getValue() + " HOST=" + entry.getKey() + getCommonTags() + "\n");
-                });
-                this.hostCountMap.clear();
-                this.userCountMap.entrySet().forEach(entry -> {
-                    this.queryStatsToWriteToTimely
-                                    .add("put dw.query.metrics.COUNT " + now + " " + entry.getValue() + " USER=" + entry.getKey() + getCommonTags() + "\n");
-                });
-                this.userCountMap.clear();
-                this.logicCountMap.entrySet().forEach(entry -> {
-                    this.queryStatsToWriteToTimely.add(
-                                    "put dw.query.metrics.COUNT " + now + " " + entry.getValue() + " QUERY_LOGIC=" + entry.getKey() + getCommonTags() + "\n");
-                });
-                this.logicCountMap.clear();
+            // start new counts for the next interval. An update that was counted in the replaced sketches after they were read is not written.
+            // COUNT and UPDATE_COUNT are estimates from the sketches and are only written for the heavyHitters.size most frequent hosts, users and
+            // query logics of the interval, so a value may be slightly high and the less frequent values are not written at all
+            queueHeavyHittersForTimely("COUNT", this.queryCounts.getAndSet(new HeavyHitterCounts(this.heavyHitterProperties)), now);
+            queueHeavyHittersForTimely("UPDATE_COUNT", this.updateCounts.getAndSet(new HeavyHitterCounts(this.heavyHitterProperties)), now);
+            if (this.timelyProperties.getAggregation().isEnabled()) {
+                QueryStatsAggregator aggregator = this.queryStatsAggregator
+                                .getAndSet(new QueryStatsAggregator(this.timelyProperties.getAggregation().getMaxTagValues()));
+                aggregator.forEach((measure, tag, tagValue, histogram) -> queueHistogramForTimely(measure, tag, tagValue, histogram, now));
             }
         }
     }
     
+    private void queueHistogramForTimely(QueryStatsAggregator.Measure measure, QueryStatsAggregator.Tag tag, String tagValue, MetricHistogram histogram,
+                    long timestamp) {
+        if (histogram.getCount() > 0) {
+            String prefix = "put dw.query.metrics." + measure.name() + "_";
+            String suffix = (tag == null ? "" : " " + tag.name() + "=" + tagValue) + this.commonTags + "\n";
+            this.timelyPublisher.publish(prefix + "COUNT " + timestamp + " " + histogram.getCount() + suffix);
+            this.timelyPublisher.publish(prefix + "P50 " + timestamp + " " + histogram.getValueAtPercentile(50) + suffix);
+            this.timelyPublisher.publish(prefix + "P95 " + timestamp + " " + histogram.getValueAtPercentile(95) + suffix);
+            this.timelyPublisher.publish(prefix + "P99 " + timestamp + " " + histogram.getValueAtPercentile(99) + suffix);
+            this.timelyPublisher.publish(prefix + "MAX " + timestamp + " " + histogram.getMax() + suffix);
+        }
+    }
+    
+    private void queueHeavyHittersForTimely(String metricName, HeavyHitterCounts counts, long timestamp) {
+        String prefix = "put dw.query.metrics." + metricName + " " + timestamp + " ";
+        counts.getHost().getTopCounts().forEach((k, v) -> this.timelyPublisher.publish(prefix + v + " HOST=" + k + this.commonTags + "\n"));
+        counts.getUser().getTopCounts().forEach((k, v) -> this.timelyPublisher.publish(prefix + v + " USER=" + k + this.commonTags + "\n"));
+        counts.getLogic().getTopCounts().forEach((k, v) -> this.timelyPublisher.publish(prefix + v + " QUERY_LOGIC=" + k + this.commonTags + "\n"));
+    }
+    
     private void addTimerStats(String baseName, Timer timer, Map<String,Double> stats) {
         Snapshot snapshot = timer.getSnapshot();
         stats.put(baseName + "Latency_Mean", snapshot.getMean() / 1000000);
@@ -351,4 +426,17 @@ public class QueryMetricOperationsStats {
         stats.put(baseName + "RatePerSec_5_Min_Avg", meter.getFiveMinuteRate());
         stats.put(baseName + "RatePerSec_15_Min_Avg", meter.getFifteenMinuteRate());
     }
+    
+    private void addHeavyHitterStats(String baseName, HeavyHitterCounts counts, Map<String,Double> stats) {
+        stats.put(baseName + "Total", Double.valueOf(counts.getHost().getTotal()));
+        stats.put(baseName + "TrackedHosts", Double.valueOf(counts.getHost().getCandidateCount()));
+        stats.put(baseName + "TrackedUsers", Double.valueOf(counts.getUser().getCandidateCount()));
+        stats.put(baseName + "TrackedQueryLogics", Double.valueOf(counts.getLogic().getCandidateCount()));
+    }
+    
+    private void addCacheStats(String baseName, CacheStats cacheStats, Map<String,Double> stats) {
+        stats.put(baseName + "HitCount", Double.valueOf(cacheStats.hitCount()));
+        stats.put(baseName + "MissCount", Double.valueOf(cacheStats.missCount()));
+        stats.put(baseName + "HitRate", cacheStats.hitRate());
+    }
 }
@@ -1,5 +1,10 @@
 package datawave.microservice.querymetric;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,13 +12,67 @@ import datawave.microservice.querymetric.BaseQueryMetric.Lifecycle;
 
 public class QueryMetricUpdateHolder<T extends BaseQueryMetric> extends QueryMetricUpdate<T> {
     
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * The counters that are added incrementally by DISTRIBUTED updates
+     */
+    public enum Counter {
+        SOURCE_COUNT("sourceCount"),
+        NEXT_COUNT("nextCount"),
+        SEEK_COUNT("seekCount"),
+        YIELD_COUNT("yieldCount"),
+        DOC_RANGES("docRanges"),
+        FI_RANGES("fiRanges");
+        
+        private static final Counter[] COUNTERS = values();
+        
+        private final String key;
+        
+        Counter(String key) {
+            this.key = key;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public static Counter fromKey(String key) {
+            for (Counter counter : COUNTERS) {
+                if (counter.key.equals(key)) {
+                    return counter;
+                }
+            }
+            return null;
+        }
+    }
+    
+    // the lifecycles after which a query is not expected to be updated again
+    private static final EnumSet<Lifecycle> FINAL_LIFECYCLES = EnumSet.of(Lifecycle.CLOSED, Lifecycle.CANCELLED, Lifecycle.MAXRESULTS, Lifecycle.NEXTTIMEOUT,
+                    Lifecycle.TIMEOUT, Lifecycle.SHUTDOWN);
+    
     private boolean persisted = false;
     private Lifecycle lowestLifecycleSincePersist;
-    private Map<String,Long> values = new HashMap<>();
+    // written by writeObject as a length followed by the values
+    private transient long[] counters = new long[Counter.COUNTERS.length];
+    // only allocated for counters that are not a Counter, such as those added by a subclass of BaseQueryMetric
+    private Map<String,Long> values = null;
+    // the earliest times of the updates that were combined since the last persist, which measure how stale the stored metric is
+    private long eventTime = 0;
+    private long dirtyTime = 0;
+    // the trace of the earliest update since the last persist, which the map store continues when it is written
+    private String traceParent = null;
+    // the sequence of the latest journal record of this entry, which the map store marks as persisted when it is written
+    private long journalSequence = 0;
+    // the selectors of the query could not be extracted when it was received, so the map store extracts them when the metric is written
+    private boolean metricSelectorsPending = false;
     
     public QueryMetricUpdateHolder(T metric, QueryMetricType metricType) {
         super(metric, metricType);
         this.lowestLifecycleSincePersist = this.metric.getLifecycle();
+        if (this.metric.getLastUpdated() != null) {
+            this.eventTime = this.metric.getLastUpdated().getTime();
+        }
     }
     
     public QueryMetricUpdateHolder(T metric) {
@@ -22,6 +81,11 @@ public class QueryMetricUpdateHolder<T extends BaseQueryMetric> extends QueryMet
     
     public QueryMetricUpdateHolder(QueryMetricUpdate metricUpdate) {
         this((T) metricUpdate.getMetric(), metricUpdate.getMetricType());
+        this.ingestTime = metricUpdate.getIngestTime();
+        // the event time is read from the producer's clock, so an update can not be produced after it was received by this service
+        if (this.ingestTime > 0 && this.eventTime > this.ingestTime) {
+            this.eventTime = this.ingestTime;
+        }
     }
     
     // If we know that this metric has been persisted by the AccumuloMapStore, then it is not new
@@ -30,32 +94,157 @@ public class QueryMetricUpdateHolder<T extends BaseQueryMetric> extends QueryMet
         return !persisted && (lowestLifecycleSincePersist == null || lowestLifecycleSincePersist.equals(Lifecycle.DEFINED));
     }
     
+    public void addValue(Counter counter, long value) {
+        counters[counter.ordinal()] += value;
+    }
+    
+    public long getValue(Counter counter) {
+        return counters[counter.ordinal()];
+    }
+    
     public void addValue(String key, Long value) {
-        if (values.containsKey(key)) {
-            values.put(key, values.get(key) + value);
+        Counter counter = Counter.fromKey(key);
+        if (counter != null) {
+            addValue(counter, value);
         } else {
-            values.put(key, value);
+            if (values == null) {
+                values = new HashMap<>();
+            }
+            values.merge(key, value, Long::sum);
         }
     }
     
     public Long getValue(String key) {
-        if (values.containsKey(key)) {
+        Counter counter = Counter.fromKey(key);
+        if (counter != null) {
+            return getValue(counter);
+        } else if (values != null && values.containsKey(key)) {
             return values.get(key);
         } else {
             return 0l;
         }
     }
     
+    /**
+     * Adds the counters of another holder that are not persisted, which is used when a journaled holder is merged into the cached holder
+     */
+    public void addValues(QueryMetricUpdateHolder<?> other) {
+        for (int x = 0; x < counters.length; x++) {
+            counters[x] += other.counters[x];
+        }
+        if (other.values != null) {
+            other.values.forEach(this::addValue);
+        }
+    }
+    
     public void persisted() {
         persisted = true;
-        values.clear();
+        Arrays.fill(counters, 0);
+        values = null;
         lowestLifecycleSincePersist = null;
+        eventTime = 0;
+        ingestTime = 0;
+        dirtyTime = 0;
+        traceParent = null;
+    }
+    
+    /**
+     * Records that an update was applied to this holder in the cache, keeping the earliest times of the updates that are not persisted yet
+     *
+     * @param update
+     *            the update that was applied, which may be this holder
+     * @param now
+     *            the time that the update was applied
+     */
+    public void markDirty(QueryMetricUpdateHolder update, long now) {
+        this.eventTime = earliest(this.eventTime, update.eventTime);
+        this.ingestTime = earliest(this.ingestTime, update.ingestTime);
+        this.metricSelectorsPending |= update.metricSelectorsPending;
+        if (this.dirtyTime == 0) {
+            this.dirtyTime = now;
+            this.traceParent = update.traceParent;
+        }
+    }
+    
+    private static long earliest(long time1, long time2) {
+        return time1 == 0 ? time2 : (time2 == 0 ? time1 : Math.min(time1, time2));
+    }
+    
+    /**
+     * @return when the earliest update that is not persisted was produced according to the producer's clock, or zero if unknown. A producer whose clock is
+     *         behind makes the update look older than it is.
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+    
+    /**
+     * @return when the earliest update that is not persisted was applied to the cache, or zero if there is none
+     */
+    public long getDirtyTime() {
+        return dirtyTime;
+    }
+    
+    public void setTraceParent(String traceParent) {
+        this.traceParent = traceParent;
+    }
+    
+    /**
+     * @return the trace context of the earliest update that is not persisted in the {@code traceparent} format, or null if it is not traced
+     */
+    public String getTraceParent() {
+        return traceParent;
+    }
+    
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+    
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+    
+    public void setMetricSelectorsPending(boolean metricSelectorsPending) {
+        this.metricSelectorsPending = metricSelectorsPending;
+    }
+    
+    public boolean isMetricSelectorsPending() {
+        return metricSelectorsPending;
+    }
+    
+    public boolean isFinalLifecycle() {
+        return this.metric != null && this.metric.getLifecycle() != null && FINAL_LIFECYCLES.contains(this.metric.getLifecycle());
+    }
+    
+    public boolean isPersisted() {
+        return persisted;
     }
     
     public Lifecycle getLowestLifecycleSincePersist() {
         return lowestLifecycleSincePersist;
     }
     
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(counters.length);
+        for (long counter : counters) {
+            out.writeLong(counter);
+        }
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // counters are read by position, and a counter that this version does not have is skipped
+        counters = new long[Counter.COUNTERS.length];
+        int length = in.readInt();
+        for (int x = 0; x < length; x++) {
+            long counter = in.readLong();
+            if (x < counters.length) {
+                counters[x] = counter;
+            }
+        }
+    }
+    
     @Override
     public void setMetric(T metric) {
         super.setMetric(metric);
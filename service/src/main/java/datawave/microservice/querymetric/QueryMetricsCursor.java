@@ -0,0 +1,77 @@
+package datawave.microservice.querymetric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * The position in a paged list of query metrics. The cursor carries the original search so that a client only needs to pass the cursor to get the next page,
+ * and the event key of the last metric that was returned so that the next page continues after it.
+ */
+public class QueryMetricsCursor {
+    
+    private final Date begin;
+    private final Date end;
+    private final String user;
+    private final String lastKey;
+    
+    public QueryMetricsCursor(Date begin, Date end, String user, String lastKey) {
+        this.begin = begin;
+        this.end = end;
+        this.user = user;
+        this.lastKey = lastKey;
+    }
+    
+    public Date getBegin() {
+        return begin;
+    }
+    
+    public Date getEnd() {
+        return end;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public String getLastKey() {
+        return lastKey;
+    }
+    
+    public QueryMetricsCursor next(String lastKey) {
+        return new QueryMetricsCursor(begin, end, user, lastKey);
+    }
+    
+    public String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(begin.getTime());
+            out.writeLong(end.getTime());
+            out.writeUTF(user == null ? "" : user);
+            out.writeUTF(lastKey == null ? "" : lastKey);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+    
+    public static QueryMetricsCursor decode(String cursor) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            Date begin = new Date(in.readLong());
+            Date end = new Date(in.readLong());
+            String user = in.readUTF();
+            String lastKey = in.readUTF();
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("invalid cursor: " + cursor);
+            }
+            return new QueryMetricsCursor(begin, end, user.isEmpty() ? null : user, lastKey.isEmpty() ? null : lastKey);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package datawave.microservice.querymetric;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Histograms of the elapsed time and number of results of closed queries by host, user, and query logic for one publishing interval. The number of tag values
+ * kept for each tag is limited, and values beyond the limit are counted under {@link #OTHER}.
+ */
+public class QueryStatsAggregator {
+    
+    public static final String OTHER = "other";
+    
+    public enum Measure {
+        ELAPSED_TIME, NUM_RESULTS
+    }
+    
+    public enum Tag {
+        HOST, USER, QUERY_LOGIC
+    }
+    
+    /**
+     * Receives the histograms of an interval
+     */
+    public interface HistogramConsumer {
+        /**
+         * @param tag
+         *            the tag, or null for the histogram of all queries
+         * @param tagValue
+         *            the tag value, or null for the histogram of all queries
+         */
+        void accept(Measure measure, Tag tag, String tagValue, MetricHistogram histogram);
+    }
+    
+    private final int maxTagValues;
+    private final Map<Measure,Map<Tag,Map<String,MetricHistogram>>> histograms = new EnumMap<>(Measure.class);
+    
+    public QueryStatsAggregator(int maxTagValues) {
+        this.maxTagValues = maxTagValues;
+        for (Measure measure : Measure.values()) {
+            Map<Tag,Map<String,MetricHistogram>> tagHistograms = new EnumMap<>(Tag.class);
+            for (Tag tag : Tag.values()) {
+                tagHistograms.put(tag, new ConcurrentHashMap<>());
+            }
+            this.histograms.put(measure, tagHistograms);
+        }
+    }
+    
+    public void record(String host, String user, String logic, long elapsedTime, long numResults) {
+        record(Measure.ELAPSED_TIME, host, user, logic, elapsedTime);
+        record(Measure.NUM_RESULTS, host, user, logic, numResults);
+    }
+    
+    private void record(Measure measure, String host, String user, String logic, long value) {
+        Map<Tag,Map<String,MetricHistogram>> tagHistograms = this.histograms.get(measure);
+        getHistogram(tagHistograms.get(Tag.HOST), host).update(value);
+        getHistogram(tagHistograms.get(Tag.USER), user).update(value);
+        getHistogram(tagHistograms.get(Tag.QUERY_LOGIC), logic).update(value);
+    }
+    
+    private MetricHistogram getHistogram(Map<String,MetricHistogram> tagHistograms, String tagValue) {
+        String value = String.valueOf(tagValue);
+        MetricHistogram histogram = tagHistograms.get(value);
+        if (histogram == null) {
+            // concurrent records can add a few values past the limit, which still bounds the number of histograms
+            if (tagHistograms.size() >= this.maxTagValues) {
+                value = OTHER;
+            }
+            histogram = tagHistograms.computeIfAbsent(value, k -> new MetricHistogram());
+        }
+        return histogram;
+    }
+    
+    /**
+     * Passes each histogram to the consumer, followed by the histogram of all queries for each measure
+     */
+    public void forEach(HistogramConsumer consumer) {
+        this.histograms.forEach((measure, tagHistograms) -> {
+            // every query is recorded once per tag, so the host histograms together hold every query
+            MetricHistogram all = new MetricHistogram();
+            tagHistograms.get(Tag.HOST).values().forEach(all::merge);
+            tagHistograms.forEach((tag, valueHistograms) -> {
+                valueHistograms.forEach((tagValue, histogram) -> consumer.accept(measure, tag, tagValue, histogram));
+            });
+            consumer.accept(measure, null, null, all);
+        });
+    }
+}
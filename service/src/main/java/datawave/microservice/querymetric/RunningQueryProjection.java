@@ -0,0 +1,20 @@
+package datawave.microservice.querymetric;
+
+import java.util.Map;
+
+import com.hazelcast.projection.Projection;
+
+/**
+ * Transforms entries of the incomingQueryMetrics map into {@link RunningQuery} summaries on the member that owns each entry, so that only the summaries are
+ * returned to the caller
+ */
+public class RunningQueryProjection implements Projection<Map.Entry<String,QueryMetricUpdateHolder>,RunningQuery> {
+    
+    private static final long serialVersionUID = 1L;
+    
+    @Override
+    public RunningQuery transform(Map.Entry<String,QueryMetricUpdateHolder> entry) {
+        QueryMetricUpdateHolder holder = entry.getValue();
+        return holder == null || holder.getMetric() == null ? null : new RunningQuery(holder.getMetric());
+    }
+}
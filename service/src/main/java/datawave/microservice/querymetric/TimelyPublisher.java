@@ -0,0 +1,243 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.querymetric.config.TimelyProperties;
+import datawave.util.timely.TcpClient;
+import datawave.util.timely.UdpClient;
+
+/**
+ * Writes metric lines to Timely from a dedicated thread. Callers add lines to a bounded lock-free ring buffer and never wait on Timely. When the buffer is full
+ * the line is dropped and counted, so an outage costs at most the size of the buffer and one batch. The publisher thread writes the lines in batches, and when
+ * a write fails it closes the connection, keeps the batch, and reconnects with an exponential backoff.
+ */
+public class TimelyPublisher {
+    
+    private Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final TimelyProperties timelyProperties;
+    private final TimelyProperties.Publisher publisherProperties;
+    private final RingBuffer buffer;
+    private final Thread thread;
+    private volatile boolean running = true;
+    
+    private TcpClient tcpClient;
+    private UdpClient udpClient;
+    private long backoffMillis = 0;
+    private long nextConnectMillis = 0;
+    
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    
+    public TimelyPublisher(TimelyProperties timelyProperties) {
+        this.timelyProperties = timelyProperties;
+        this.publisherProperties = timelyProperties.getPublisher();
+        this.buffer = new RingBuffer(this.publisherProperties.getBufferSize());
+        this.thread = new Thread(this::run, "timely-publisher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    /**
+     * Adds a line for the publisher thread to write
+     *
+     * @param line
+     *            a newline-terminated Timely put command
+     * @return false if the buffer was full and the line was dropped
+     */
+    public boolean publish(String line) {
+        if (this.buffer.offer(line)) {
+            this.published.increment();
+            return true;
+        } else {
+            this.dropped.increment();
+            return false;
+        }
+    }
+    
+    /**
+     * Stops the publisher thread after it writes the lines that are already buffered or the timeout passes
+     */
+    public void shutdown() {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join(this.publisherProperties.getShutdownTimeoutMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void run() {
+        List<String> batch = new ArrayList<>(this.publisherProperties.getBatchSize());
+        // after a shutdown, keep writing what is buffered unless Timely is unavailable
+        while (this.running || ((!batch.isEmpty() || !this.buffer.isEmpty()) && this.backoffMillis == 0)) {
+            String line;
+            while (batch.size() < this.publisherProperties.getBatchSize() && (line = this.buffer.poll()) != null) {
+                batch.add(line);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.publisherProperties.getIdleMillis()));
+            } else if (System.currentTimeMillis() < this.nextConnectMillis) {
+                // hold the batch until the backoff passes, new lines wait in the buffer or are dropped when it fills
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(this.nextConnectMillis - System.currentTimeMillis(), 100)));
+            } else if (write(batch)) {
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty() || !this.buffer.isEmpty()) {
+            log.warn("Timely publisher stopped with {} lines not written", batch.size() + this.buffer.size());
+        }
+        disconnect();
+    }
+    
+    private boolean write(List<String> batch) {
+        try {
+            connect();
+            for (String line : batch) {
+                if (this.tcpClient != null) {
+                    this.tcpClient.write(line);
+                } else {
+                    this.udpClient.write(line);
+                }
+            }
+            if (this.tcpClient != null) {
+                // one flush sends the whole batch
+                this.tcpClient.flush();
+            }
+            this.written.add(batch.size());
+            this.backoffMillis = 0;
+            return true;
+        } catch (Exception e) {
+            this.writeFailures.increment();
+            disconnect();
+            this.backoffMillis = this.backoffMillis == 0 ? this.publisherProperties.getInitialBackoffMillis()
+                            : Math.min(this.backoffMillis * 2, this.publisherProperties.getMaxBackoffMillis());
+            this.nextConnectMillis = System.currentTimeMillis() + this.backoffMillis;
+            log.error("Exception writing metrics to Timely, retrying in {}ms: {}", this.backoffMillis, e.getMessage());
+            return false;
+        }
+    }
+    
+    private void connect() throws Exception {
+        if (this.tcpClient == null && this.udpClient == null) {
+            if (this.timelyProperties.getProtocol().equals(TimelyProperties.Protocol.TCP)) {
+                TcpClient client = new TcpClient(this.timelyProperties.getHost(), this.timelyProperties.getPort());
+                client.open();
+                this.tcpClient = client;
+            } else {
+                UdpClient client = new UdpClient(this.timelyProperties.getHost(), this.timelyProperties.getPort());
+                client.open();
+                this.udpClient = client;
+            }
+            this.connects.increment();
+        }
+    }
+    
+    private void disconnect() {
+        try {
+            if (this.tcpClient != null) {
+                this.tcpClient.close();
+            }
+            if (this.udpClient != null) {
+                this.udpClient.close();
+            }
+        } catch (Exception e) {
+            log.debug("Exception closing Timely client: " + e.getMessage());
+        } finally {
+            this.tcpClient = null;
+            this.udpClient = null;
+        }
+    }
+    
+    public long getPublishedCount() {
+        return this.published.sum();
+    }
+    
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+    
+    public long getWrittenCount() {
+        return this.written.sum();
+    }
+    
+    public long getWriteFailureCount() {
+        return this.writeFailures.sum();
+    }
+    
+    public long getConnectCount() {
+        return this.connects.sum();
+    }
+    
+    public int getBufferedCount() {
+        return this.buffer.size();
+    }
+    
+    /**
+     * Bounded buffer for many producers and the single publisher thread. Producers claim a slot by advancing the tail with a CAS and then fill it, and the
+     * publisher empties slots in order from the head, stopping at a slot that was claimed but is not filled yet.
+     */
+    static class RingBuffer {
+        
+        private final AtomicReferenceArray<String> slots;
+        private final int capacity;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        // only written by the publisher thread
+        private volatile long head = 0;
+        
+        RingBuffer(int capacity) {
+            this.capacity = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            this.mask = this.capacity - 1;
+            this.slots = new AtomicReferenceArray<>(this.capacity);
+        }
+        
+        boolean offer(String value) {
+            long t;
+            do {
+                t = this.tail.get();
+                if (t - this.head >= this.capacity) {
+                    return false;
+                }
+            } while (!this.tail.compareAndSet(t, t + 1));
+            this.slots.lazySet((int) t & this.mask, value);
+            return true;
+        }
+        
+        String poll() {
+            long h = this.head;
+            int index = (int) h & this.mask;
+            String value = this.slots.get(index);
+            if (value != null) {
+                this.slots.lazySet(index, null);
+                this.head = h + 1;
+            }
+            return value;
+        }
+        
+        boolean isEmpty() {
+            return this.tail.get() == this.head;
+        }
+        
+        int size() {
+            return (int) (this.tail.get() - this.head);
+        }
+        
+        int capacity() {
+            return this.capacity;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package datawave.microservice.querymetric;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+
+/**
+ * Runs on each cluster member to return that member's leaderboard for one measure
+ */
+public class TopQueriesTask implements Callable<List<TopQuery>>, Serializable, HazelcastInstanceAware {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final TopQueryTracker.Measure measure;
+    private transient TopQueryTracker topQueryTracker;
+    
+    public TopQueriesTask(TopQueryTracker.Measure measure) {
+        this.measure = measure;
+    }
+    
+    @Override
+    public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+        this.topQueryTracker = TopQueryTracker.fromUserContext(hazelcastInstance);
+    }
+    
+    @Override
+    public List<TopQuery> call() {
+        return this.topQueryTracker == null ? Collections.emptyList() : this.topQueryTracker.getTopQueries(this.measure);
+    }
+}
@@ -0,0 +1,186 @@
+package datawave.microservice.querymetric;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+
+/**
+ * Keeps, for each {@link Measure}, the queries with the highest values that were seen by this member. Each leaderboard is a bounded min-heap so that a metric
+ * update is only compared against the smallest retained value, and a query that is already retained is replaced with its latest value. The leaderboards of all
+ * members are merged when they are requested.
+ * <p>
+ * The tracker is a bean that is put in the Hazelcast user context so that the entry processors and tasks that run on a member can find it. A query leaves the
+ * leaderboards when it reaches a final lifecycle or its entry leaves the incoming cache of this member.
+ */
+public class TopQueryTracker implements EntryEvictedListener<String,QueryMetricUpdateHolder>, EntryRemovedListener<String,QueryMetricUpdateHolder>,
+                EntryExpiredListener<String,QueryMetricUpdateHolder> {
+    
+    public static final int DEFAULT_SIZE = 100;
+    public static final String USER_CONTEXT_KEY = "topQueryTracker";
+    
+    public enum Measure {
+        ELAPSED("elapsed", BaseQueryMetric::getElapsedTime),
+        NEXT_COUNT("nextCount", BaseQueryMetric::getNextCount),
+        SEEK_COUNT("seekCount", BaseQueryMetric::getSeekCount),
+        PAGES("pages", BaseQueryMetric::getNumPages);
+        
+        private final String name;
+        private final ToLongFunction<BaseQueryMetric> valueFunction;
+        
+        Measure(String name, ToLongFunction<BaseQueryMetric> valueFunction) {
+            this.name = name;
+            this.valueFunction = valueFunction;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public long getValue(BaseQueryMetric metric) {
+            return valueFunction.applyAsLong(metric);
+        }
+        
+        /**
+         * Accepts either the request parameter name (nextCount) or the enum name (NEXT_COUNT) of a measure
+         */
+        public static Measure fromName(String name) {
+            for (Measure measure : values()) {
+                if (measure.name.equalsIgnoreCase(name) || measure.name().equalsIgnoreCase(name)) {
+                    return measure;
+                }
+            }
+            throw new IllegalArgumentException("unknown measure: " + name);
+        }
+    }
+    
+    private final int size;
+    private final Map<Measure,Leaderboard> leaderboards = new EnumMap<>(Measure.class);
+    
+    public TopQueryTracker(int size) {
+        this.size = size;
+        for (Measure measure : Measure.values()) {
+            this.leaderboards.put(measure, new Leaderboard(measure, size));
+        }
+    }
+    
+    /**
+     * @return the tracker that was put in the user context of the instance, or null if there is none
+     */
+    public static TopQueryTracker fromUserContext(HazelcastInstance instance) {
+        return instance == null ? null : (TopQueryTracker) instance.getUserContext().get(USER_CONTEXT_KEY);
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public void update(BaseQueryMetric metric) {
+        if (metric != null && metric.getQueryId() != null) {
+            for (Leaderboard leaderboard : this.leaderboards.values()) {
+                leaderboard.offer(metric);
+            }
+        }
+    }
+    
+    public void remove(String queryId) {
+        if (queryId != null) {
+            for (Leaderboard leaderboard : this.leaderboards.values()) {
+                leaderboard.remove(queryId);
+            }
+        }
+    }
+    
+    @Override
+    public void entryEvicted(EntryEvent<String,QueryMetricUpdateHolder> event) {
+        remove(event.getKey());
+    }
+    
+    @Override
+    public void entryRemoved(EntryEvent<String,QueryMetricUpdateHolder> event) {
+        remove(event.getKey());
+    }
+    
+    @Override
+    public void entryExpired(EntryEvent<String,QueryMetricUpdateHolder> event) {
+        remove(event.getKey());
+    }
+    
+    /**
+     * @return the retained queries for the measure ordered from the highest value to the lowest
+     */
+    public List<TopQuery> getTopQueries(Measure measure) {
+        return this.leaderboards.get(measure).getTopQueries();
+    }
+    
+    private static class Leaderboard {
+        
+        private final Measure measure;
+        private final int size;
+        private final PriorityQueue<TopQuery> heap;
+        private final Map<String,TopQuery> retained = new ConcurrentHashMap<>();
+        // the smallest retained value once the heap is full, checked without locking so that most updates do not contend
+        private volatile long minimum = 0;
+        
+        Leaderboard(Measure measure, int size) {
+            this.measure = measure;
+            this.size = size;
+            this.heap = new PriorityQueue<>(size, Comparator.comparingLong(TopQuery::getValue));
+        }
+        
+        void offer(BaseQueryMetric metric) {
+            long value = this.measure.getValue(metric);
+            String queryId = metric.getQueryId();
+            if (value <= this.minimum && !this.retained.containsKey(queryId)) {
+                return;
+            }
+            synchronized (this) {
+                TopQuery existing = this.retained.get(queryId);
+                if (existing != null) {
+                    this.heap.remove(existing);
+                } else if (this.heap.size() >= this.size) {
+                    if (value <= this.heap.peek().getValue()) {
+                        return;
+                    }
+                    this.retained.remove(this.heap.poll().getQueryId());
+                }
+                TopQuery topQuery = new TopQuery(metric, value);
+                this.heap.add(topQuery);
+                this.retained.put(queryId, topQuery);
+                if (this.heap.size() >= this.size) {
+                    this.minimum = this.heap.peek().getValue();
+                }
+            }
+        }
+        
+        void remove(String queryId) {
+            if (!this.retained.containsKey(queryId)) {
+                return;
+            }
+            synchronized (this) {
+                TopQuery existing = this.retained.remove(queryId);
+                if (existing != null) {
+                    this.heap.remove(existing);
+                    // the heap is no longer full, so any value can be retained again
+                    this.minimum = 0;
+                }
+            }
+        }
+        
+        synchronized List<TopQuery> getTopQueries() {
+            List<TopQuery> topQueries = new ArrayList<>(this.heap);
+            topQueries.sort(Comparator.comparingLong(TopQuery::getValue).reversed());
+            return topQueries;
+        }
+    }
+}
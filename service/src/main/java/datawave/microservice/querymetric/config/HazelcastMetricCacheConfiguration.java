@@ -19,9 +19,13 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 
+import com.hazelcast.cluster.Member;
+import com.hazelcast.config.AttributeConfig;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.DiscoveryStrategyConfig;
 import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.IndexConfig;
+import com.hazelcast.config.IndexType;
 import com.hazelcast.config.JoinConfig;
 import com.hazelcast.config.ListenerConfig;
 import com.hazelcast.config.MapConfig;
@@ -33,12 +37,19 @@ import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.LifecycleEvent;
 import com.hazelcast.kubernetes.HazelcastKubernetesDiscoveryStrategyFactory;
 import com.hazelcast.kubernetes.KubernetesProperties;
+import com.hazelcast.query.Predicates;
+import com.hazelcast.query.extractor.ValueExtractor;
 import com.hazelcast.spi.discovery.integration.DiscoveryServiceProvider;
 import com.hazelcast.spring.cache.HazelcastCache;
 import com.hazelcast.spring.cache.HazelcastCacheManager;
 
 import datawave.microservice.querymetric.ClusterMembershipListener;
 import datawave.microservice.querymetric.MergeLockLifecycleListener;
+import datawave.microservice.querymetric.MetricAttributeExtractors;
+import datawave.microservice.querymetric.MetricJournal;
+import datawave.microservice.querymetric.MetricTracer;
+import datawave.microservice.querymetric.PartitionOwnerSelector;
+import datawave.microservice.querymetric.TopQueryTracker;
 import datawave.microservice.querymetric.persistence.AccumuloMapLoader;
 import datawave.microservice.querymetric.persistence.AccumuloMapStore;
 import datawave.microservice.querymetric.persistence.MetricMapListener;
@@ -55,6 +66,9 @@ public class HazelcastMetricCacheConfiguration {
     @Value("${hazelcast.clusterName:${spring.application.name}}")
     private String clusterName;
     
+    @Value("${spring.cloud.stream.instanceIndex:-1}")
+    private int streamInstanceIndex;
+    
     @Bean(name = "queryMetricCacheManager")
     public HazelcastCacheManager queryMetricCacheManager(@Qualifier("metrics") HazelcastInstance instance) throws IOException {
         return new HazelcastCacheManager(instance);
@@ -63,20 +77,37 @@ public class HazelcastMetricCacheConfiguration {
     @Bean
     @Qualifier("metrics")
     HazelcastInstance hazelcastInstance(Config config, @Qualifier("store") AccumuloMapStore mapStore, @Qualifier("loader") AccumuloMapLoader mapLoader,
-                    MergeLockLifecycleListener lifecycleListener) {
+                    MergeLockLifecycleListener lifecycleListener, HazelcastMetricCacheProperties serverProperties,
+                    QueryMetricProperties queryMetricProperties, TopQueryTracker topQueryTracker, MetricTracer metricTracer, MetricJournal metricJournal)
+                    throws IOException {
         // Autowire both the AccumuloMapStore and AccumuloMapLoader so that they both get created
         // Ensure that the lastWrittenQueryMetricCache is set into the MapStore before the instance is active and the writeLock is released
         lifecycleListener.writeLockRunnable.lock(LifecycleEvent.LifecycleState.STARTING);
+        // the entry processors and tasks that run on this member find the trackers in the user context
+        config.getUserContext().put(TopQueryTracker.USER_CONTEXT_KEY, topQueryTracker);
+        config.getUserContext().put(MetricTracer.USER_CONTEXT_KEY, metricTracer);
+        config.getUserContext().put(MetricJournal.USER_CONTEXT_KEY, metricJournal);
         HazelcastInstance instance = Hazelcast.newHazelcastInstance(config);
+        metricJournal.startSweeper(queryId -> {
+            Member owner = instance.getPartitionService().getPartition(queryId).getOwner();
+            return owner == null || owner.localMember();
+        });
         
         try {
             HazelcastCacheManager cacheManager = new HazelcastCacheManager(instance);
             
             HazelcastCache lastWrittenQueryMetricsCache = (HazelcastCache) cacheManager.getCache(LAST_WRITTEN_METRICS);
-            lastWrittenQueryMetricsCache.getNativeCache().addEntryListener(new MetricMapListener(LAST_WRITTEN_METRICS), true);
-            
             HazelcastCache incomingMetricsCache = (HazelcastCache) cacheManager.getCache(INCOMING_METRICS);
-            incomingMetricsCache.getNativeCache().addEntryListener(new MetricMapListener(INCOMING_METRICS), true);
+            HazelcastMetricCacheProperties.EventAuditProperties eventAudit = serverProperties.getEventAudit();
+            if (eventAudit.isEnabled()) {
+                // local listeners only receive the events of entries owned by this member, so values are not shipped between members
+                lastWrittenQueryMetricsCache.getNativeCache().addLocalEntryListener(new MetricMapListener(LAST_WRITTEN_METRICS, eventAudit.getSampleRate()),
+                                Predicates.alwaysTrue(), eventAudit.isIncludeValue());
+                incomingMetricsCache.getNativeCache().addLocalEntryListener(new MetricMapListener(INCOMING_METRICS, eventAudit.getSampleRate()),
+                                Predicates.alwaysTrue(), eventAudit.isIncludeValue());
+            }
+            // queries leave the leaderboards when their entry leaves this member's incoming cache
+            incomingMetricsCache.getNativeCache().addLocalEntryListener(topQueryTracker, Predicates.alwaysTrue(), false);
             
             MapStoreConfig mapStoreConfig = config.getMapConfigs().get(LAST_WRITTEN_METRICS).getMapStoreConfig();
             if (mapStoreConfig.getInitialLoadMode().equals(MapStoreConfig.InitialLoadMode.LAZY)) {
@@ -84,6 +115,7 @@ public class HazelcastMetricCacheConfiguration {
                 lastWrittenQueryMetricsCache.getNativeCache().size();
             }
             mapStore.setLastWrittenQueryMetricCache(lastWrittenQueryMetricsCache);
+            mapStore.setIncomingQueryMetricsCache(incomingMetricsCache);
             System.setProperty("hzAddress", instance.getCluster().getLocalMember().getAddress().toString());
             System.setProperty("hzUuid", instance.getCluster().getLocalMember().getUuid().toString());
         } catch (Exception e) {
@@ -94,6 +126,26 @@ public class HazelcastMetricCacheConfiguration {
         return instance;
     }
     
+    /**
+     * The journal is opened before this member joins the cluster and is sent updates, and it is shut down after the Hazelcast instance and the map store,
+     * which depend on it, so the last writes mark their records as persisted
+     */
+    @Bean
+    public MetricJournal metricJournal(QueryMetricProperties queryMetricProperties) throws IOException {
+        return new MetricJournal(queryMetricProperties.getJournal());
+    }
+    
+    @Bean
+    public TopQueryTracker topQueryTracker(QueryMetricProperties queryMetricProperties) {
+        return new TopQueryTracker(queryMetricProperties.getTopQueries().getSize());
+    }
+    
+    @Bean
+    @ConditionalOnProperty(value = "datawave.query.metric.partitionRoutingEnabled", havingValue = "true")
+    public PartitionOwnerSelector partitionOwnerSelector(@Qualifier("metrics") HazelcastInstance instance) {
+        return new PartitionOwnerSelector(instance);
+    }
+    
     @Bean
     @Profile("consul")
     public Config consulConfig(HazelcastMetricCacheProperties serverProperties, DiscoveryServiceProvider discoveryServiceProvider,
@@ -189,6 +241,10 @@ public class HazelcastMetricCacheConfiguration {
             config.setProperty("hazelcast.merge.next.run.delay.seconds", Integer.toString(cacheProperties.getMergeIntervalSeconds()));
             config.getNetworkConfig().setReuseAddress(true); // Reuse addresses (so we can try to keep our port on a restart)
         }
+        if (streamInstanceIndex >= 0) {
+            // used to route updates to the member that owns their partition
+            config.getMemberAttributeConfig().setAttribute(PartitionOwnerSelector.INSTANCE_INDEX_ATTRIBUTE, Integer.toString(streamInstanceIndex));
+        }
         ListenerConfig lifecycleListenerConfig = new ListenerConfig();
         lifecycleListenerConfig.setImplementation(lifecycleListener);
         config.addListenerConfig(lifecycleListenerConfig);
@@ -197,6 +253,15 @@ public class HazelcastMetricCacheConfiguration {
         membershipListenerConfig.setImplementation(new ClusterMembershipListener());
         config.addListenerConfig(membershipListenerConfig);
         
+        // index the in-progress metrics so that they can be queried by these attributes without a full scan. Each index is updated
+        // on every update of an entry, so an index is only worth adding for an attribute that is queried
+        MapConfig incomingMapConfig = config.getMapConfig(INCOMING_METRICS);
+        addIndexedAttribute(incomingMapConfig, MetricAttributeExtractors.LIFECYCLE, MetricAttributeExtractors.LifecycleExtractor.class, IndexType.HASH);
+        addIndexedAttribute(incomingMapConfig, MetricAttributeExtractors.USER, MetricAttributeExtractors.UserExtractor.class, IndexType.HASH);
+        addIndexedAttribute(incomingMapConfig, MetricAttributeExtractors.QUERY_LOGIC, MetricAttributeExtractors.QueryLogicExtractor.class, IndexType.HASH);
+        addIndexedAttribute(incomingMapConfig, MetricAttributeExtractors.HOST, MetricAttributeExtractors.HostExtractor.class, IndexType.HASH);
+        addIndexedAttribute(incomingMapConfig, MetricAttributeExtractors.CREATE_DATE, MetricAttributeExtractors.CreateDateExtractor.class, IndexType.SORTED);
+        
         Map<String,MapConfig> mapConfigs = config.getMapConfigs();
         for (Map.Entry<String,MapConfig> e : mapConfigs.entrySet()) {
             InMemoryFormat inMemoryFormat = e.getValue().getInMemoryFormat();
@@ -207,4 +272,13 @@ public class HazelcastMetricCacheConfiguration {
         }
         return config;
     }
+    
+    private void addIndexedAttribute(MapConfig mapConfig, String attribute, Class<? extends ValueExtractor> extractor, IndexType indexType) {
+        // leave attributes that are already configured in the XML configuration alone
+        boolean configured = mapConfig.getAttributeConfigs().stream().anyMatch(a -> a.getName().equals(attribute));
+        if (!configured) {
+            mapConfig.addAttributeConfig(new AttributeConfig(attribute, extractor.getName()));
+            mapConfig.addIndexConfig(new IndexConfig(indexType, attribute));
+        }
+    }
 }
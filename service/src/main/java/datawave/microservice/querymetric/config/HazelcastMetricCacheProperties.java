@@ -1,8 +1,14 @@
 package datawave.microservice.querymetric.config;
 
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.NestedConfigurationProperty;
+import org.springframework.validation.annotation.Validated;
 
+@Validated
 @ConfigurationProperties(prefix = "hazelcast.server")
 public class HazelcastMetricCacheProperties {
     
@@ -35,6 +41,14 @@ public class HazelcastMetricCacheProperties {
     @NestedConfigurationProperty
     private KubernetesProperties k8s = new KubernetesProperties();
     
+    /**
+     * Debug logging of cache entry events. Auditing is off by default because listeners that carry values cause every event to ship and deserialize the
+     * metric.
+     */
+    @Valid
+    @NestedConfigurationProperty
+    private EventAuditProperties eventAudit = new EventAuditProperties();
+    
     public int getMergeDelaySeconds() {
         return mergeDelaySeconds;
     }
@@ -83,6 +97,14 @@ public class HazelcastMetricCacheProperties {
         this.k8s = k8s;
     }
     
+    public EventAuditProperties getEventAudit() {
+        return eventAudit;
+    }
+    
+    public void setEventAudit(EventAuditProperties eventAudit) {
+        this.eventAudit = eventAudit;
+    }
+    
     public static class KubernetesProperties {
         private String serviceDnsName = "cache.datawave";
         private int serviceDnsTimeout = 10;
@@ -104,4 +126,46 @@ public class HazelcastMetricCacheProperties {
         }
     }
     
+    @Validated
+    public static class EventAuditProperties {
+        /**
+         * If true, then a local entry listener that logs entry events at debug level is registered on each metric map
+         */
+        private boolean enabled = false;
+        /**
+         * If true, then events carry the old and new values so that the metric details are logged
+         */
+        private boolean includeValue = false;
+        /**
+         * The fraction of events that are logged, between 0 and 1
+         */
+        @DecimalMin("0.0")
+        @DecimalMax("1.0")
+        private double sampleRate = 1.0;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public boolean isIncludeValue() {
+            return includeValue;
+        }
+        
+        public void setIncludeValue(boolean includeValue) {
+            this.includeValue = includeValue;
+        }
+        
+        public double getSampleRate() {
+            return sampleRate;
+        }
+        
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+    
 }
@@ -8,14 +8,19 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cloud.stream.config.ListenerContainerCustomizer;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -29,9 +34,11 @@ import com.github.benmanes.caffeine.cache.CaffeineSpec;
 
 import datawave.marking.MarkingFunctions;
 import datawave.microservice.querymetric.BaseQueryMetric;
+import datawave.microservice.querymetric.MetricTracer;
 import datawave.microservice.querymetric.QueryMetricFactory;
 import datawave.microservice.querymetric.QueryMetricFactoryImpl;
 import datawave.microservice.querymetric.QueryMetricOperations;
+import datawave.microservice.querymetric.QueryMetricOperationsStats;
 import datawave.microservice.querymetric.factory.BaseQueryMetricListResponseFactory;
 import datawave.microservice.querymetric.factory.QueryMetricListResponseFactory;
 import datawave.microservice.querymetric.factory.QueryMetricQueryLogicFactory;
@@ -60,8 +67,20 @@ import datawave.webservice.query.result.event.ResponseObjectFactory;
 public class QueryMetricHandlerConfiguration {
     
     @Bean
-    public QueryMetricConsumer queryMetricSink(QueryMetricOperations queryMetricOperations) {
-        return new QueryMetricConsumer(queryMetricOperations);
+    public QueryMetricConsumer queryMetricSink(QueryMetricOperations queryMetricOperations, QueryMetricProperties queryMetricProperties,
+                    MetricTracer metricTracer, QueryMetricOperationsStats stats) {
+        return new QueryMetricConsumer(queryMetricOperations, queryMetricProperties.getKeyedConsumer(), metricTracer, stats);
+    }
+    
+    // queryMetricSink-in-0 is the only consumer binding, so the Rabbit binder only creates its listener container
+    @Bean
+    public ListenerContainerCustomizer<AbstractMessageListenerContainer> queryMetricSinkContainerCustomizer(QueryMetricConsumer queryMetricSink) {
+        return (container, destinationName, group) -> queryMetricSink.configureListenerContainer(container);
+    }
+    
+    @Bean
+    public MetricTracer metricTracer(QueryMetricProperties queryMetricProperties) {
+        return new MetricTracer(queryMetricProperties.getTracing().isEnabled(), queryMetricProperties.getTracing().getSampleRatio());
     }
     
     @Bean
@@ -93,22 +112,28 @@ public class QueryMetricHandlerConfiguration {
     @ConditionalOnMissingBean
     public ShardTableQueryMetricHandler shardTableQueryMetricHandler(QueryMetricHandlerProperties queryMetricHandlerProperties,
                     @Qualifier("warehouse") AccumuloClientPool accumuloClientPool, QueryMetricQueryLogicFactory logicFactory, QueryMetricFactory metricFactory,
-                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner, LuceneToJexlQueryParser luceneToJexlQueryParser,
-                    ResponseObjectFactory responseObjectFactory, WebClient.Builder webClientBuilder,
-                    @Autowired(required = false) JWTTokenHandler jwtTokenHandler, DnUtils dnUtils) {
+                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner,
+                    ObjectProvider<LuceneToJexlQueryParser> luceneToJexlQueryParsers, ResponseObjectFactory responseObjectFactory,
+                    WebClient.Builder webClientBuilder, @Autowired(required = false) JWTTokenHandler jwtTokenHandler, DnUtils dnUtils,
+                    MetricTracer metricTracer) {
+        ShardTableQueryMetricHandler handler;
         if (queryMetricHandlerProperties.isUseRemoteQuery()) {
-            return new RemoteShardTableQueryMetricHandler(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions,
-                            queryMetricCombiner, luceneToJexlQueryParser, responseObjectFactory, webClientBuilder, jwtTokenHandler, dnUtils);
+            handler = new RemoteShardTableQueryMetricHandler(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions,
+                            queryMetricCombiner, luceneToJexlQueryParsers::getObject, responseObjectFactory, webClientBuilder, jwtTokenHandler, dnUtils);
         } else {
-            return new LocalShardTableQueryMetricHandler(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions,
-                            queryMetricCombiner, luceneToJexlQueryParser, dnUtils);
+            handler = new LocalShardTableQueryMetricHandler(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions,
+                            queryMetricCombiner, luceneToJexlQueryParsers::getObject, dnUtils);
         }
+        handler.setMetricTracer(metricTracer);
+        return handler;
     }
     
     @Bean
     @ConditionalOnMissingBean
-    public QueryMetricCombiner queryMetricCombiner() {
-        return new QueryMetricCombiner();
+    public QueryMetricCombiner queryMetricCombiner(QueryMetricHandlerProperties queryMetricHandlerProperties) {
+        QueryMetricCombiner queryMetricCombiner = new QueryMetricCombiner();
+        queryMetricCombiner.setCompressionThreshold(queryMetricHandlerProperties.getCompressionThreshold());
+        return queryMetricCombiner;
     }
     
     @Bean
@@ -122,7 +147,9 @@ public class QueryMetricHandlerConfiguration {
         return new QueryMetricListResponseFactory();
     }
     
+    // the parser is not thread safe, so each thread that parses queries gets its own instance
     @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     @ConditionalOnMissingBean
     public LuceneToJexlQueryParser luceneToJexlQueryParser() {
         LuceneToJexlQueryParser luceneToJexlQueryParser = new LuceneToJexlQueryParser();
@@ -83,6 +83,20 @@ public class QueryMetricHandlerProperties {
     protected String npeOuEntries;
     protected String subjectDnPattern;
     
+    @Positive
+    protected long columnVisibilityCacheSize = 1000;
+    @Positive
+    protected long visibilityEvaluatorCacheSize = 1000;
+    @Positive
+    protected long metricSelectorsCacheSize = 1000;
+    @Positive
+    protected long geoFeaturesCacheSize = 1000;
+    @Positive
+    protected long internedStringCacheSize = 10000;
+    // query and plan values with at least this many characters are held compressed, 0 disables compression
+    @Min(0)
+    protected int compressionThreshold = 16384;
+    
     //@formatter:off
     protected List<String> indexFields = Arrays.asList(
             "AUTHORIZATIONS",
@@ -569,4 +583,52 @@ public class QueryMetricHandlerProperties {
     public void setSubjectDnPattern(String subjectDnPattern) {
         this.subjectDnPattern = subjectDnPattern;
     }
+    
+    public long getColumnVisibilityCacheSize() {
+        return columnVisibilityCacheSize;
+    }
+    
+    public void setColumnVisibilityCacheSize(long columnVisibilityCacheSize) {
+        this.columnVisibilityCacheSize = columnVisibilityCacheSize;
+    }
+    
+    public long getVisibilityEvaluatorCacheSize() {
+        return visibilityEvaluatorCacheSize;
+    }
+    
+    public void setVisibilityEvaluatorCacheSize(long visibilityEvaluatorCacheSize) {
+        this.visibilityEvaluatorCacheSize = visibilityEvaluatorCacheSize;
+    }
+    
+    public long getMetricSelectorsCacheSize() {
+        return metricSelectorsCacheSize;
+    }
+    
+    public void setMetricSelectorsCacheSize(long metricSelectorsCacheSize) {
+        this.metricSelectorsCacheSize = metricSelectorsCacheSize;
+    }
+    
+    public long getGeoFeaturesCacheSize() {
+        return geoFeaturesCacheSize;
+    }
+    
+    public void setGeoFeaturesCacheSize(long geoFeaturesCacheSize) {
+        this.geoFeaturesCacheSize = geoFeaturesCacheSize;
+    }
+    
+    public long getInternedStringCacheSize() {
+        return internedStringCacheSize;
+    }
+    
+    public void setInternedStringCacheSize(long internedStringCacheSize) {
+        this.internedStringCacheSize = internedStringCacheSize;
+    }
+    
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+    
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
 }
@@ -3,6 +3,9 @@ package datawave.microservice.querymetric.config;
 import java.util.concurrent.TimeUnit;
 
 import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Positive;
 import javax.validation.constraints.PositiveOrZero;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -13,10 +16,51 @@ import org.springframework.validation.annotation.Validated;
 public class QueryMetricProperties {
     private boolean confirmAckEnabled = true;
     private long confirmAckTimeoutMillis = 500L;
+    // send updates to the member that owns the query's Hazelcast partition, see PartitionOwnerSelector
+    private boolean partitionRoutingEnabled = false;
+    @Positive
+    private long formattedMetricCacheSize = 500L;
+    @Positive
+    private int listPageSize = 100;
+    @Positive
+    private int maxListPageSize = 1000;
+    // the target lag from an update being produced to it being written to Accumulo
+    @Positive
+    private long freshnessSloMillis = TimeUnit.MINUTES.toMillis(1);
+    // the period over which the percentage of writes that met the freshness SLO is reported
+    @Positive
+    private long freshnessSloWindowSeconds = TimeUnit.MINUTES.toSeconds(5);
+    // how long a query with a final lifecycle stays in the incoming cache after it is written, or zero to leave it to the map's expiration
+    @PositiveOrZero
+    private long persistedFinalTtlSeconds = 60;
+    // the number of written metrics kept by each member to combine with a query's metric when it is created again, or zero to read them from Accumulo
+    @PositiveOrZero
+    private long lastWrittenMetricCacheSize = 1000L;
     
     @Valid
     private Retry retry = new Retry();
     
+    @Valid
+    private SelectorExtraction selectorExtraction = new SelectorExtraction();
+    
+    @Valid
+    private TopQueries topQueries = new TopQueries();
+    
+    @Valid
+    private HeavyHitters heavyHitters = new HeavyHitters();
+    
+    @Valid
+    private Tracing tracing = new Tracing();
+    
+    @Valid
+    private KeyedConsumer keyedConsumer = new KeyedConsumer();
+    
+    @Valid
+    private Spool spool = new Spool();
+    
+    @Valid
+    private Journal journal = new Journal();
+    
     public boolean isConfirmAckEnabled() {
         return confirmAckEnabled;
     }
@@ -33,6 +77,70 @@ public class QueryMetricProperties {
         this.confirmAckTimeoutMillis = confirmAckTimeoutMillis;
     }
     
+    public boolean isPartitionRoutingEnabled() {
+        return partitionRoutingEnabled;
+    }
+    
+    public void setPartitionRoutingEnabled(boolean partitionRoutingEnabled) {
+        this.partitionRoutingEnabled = partitionRoutingEnabled;
+    }
+    
+    public long getFormattedMetricCacheSize() {
+        return formattedMetricCacheSize;
+    }
+    
+    public void setFormattedMetricCacheSize(long formattedMetricCacheSize) {
+        this.formattedMetricCacheSize = formattedMetricCacheSize;
+    }
+    
+    public int getListPageSize() {
+        return listPageSize;
+    }
+    
+    public void setListPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+    }
+    
+    public int getMaxListPageSize() {
+        return maxListPageSize;
+    }
+    
+    public void setMaxListPageSize(int maxListPageSize) {
+        this.maxListPageSize = maxListPageSize;
+    }
+    
+    public long getFreshnessSloMillis() {
+        return freshnessSloMillis;
+    }
+    
+    public void setFreshnessSloMillis(long freshnessSloMillis) {
+        this.freshnessSloMillis = freshnessSloMillis;
+    }
+    
+    public long getFreshnessSloWindowSeconds() {
+        return freshnessSloWindowSeconds;
+    }
+    
+    public void setFreshnessSloWindowSeconds(long freshnessSloWindowSeconds) {
+        this.freshnessSloWindowSeconds = freshnessSloWindowSeconds;
+    }
+    
+    public long getPersistedFinalTtlSeconds() {
+        return persistedFinalTtlSeconds;
+    }
+    
+    public void setPersistedFinalTtlSeconds(long persistedFinalTtlSeconds) {
+        this.persistedFinalTtlSeconds = persistedFinalTtlSeconds;
+    }
+    
+    public long getLastWrittenMetricCacheSize() {
+        return lastWrittenMetricCacheSize;
+    }
+    
+    public void setLastWrittenMetricCacheSize(long lastWrittenMetricCacheSize) {
+        this.lastWrittenMetricCacheSize = lastWrittenMetricCacheSize;
+    }
+    
     public Retry getRetry() {
         return retry;
     }
@@ -41,6 +149,62 @@ public class QueryMetricProperties {
         this.retry = retry;
     }
     
+    public SelectorExtraction getSelectorExtraction() {
+        return selectorExtraction;
+    }
+    
+    public void setSelectorExtraction(SelectorExtraction selectorExtraction) {
+        this.selectorExtraction = selectorExtraction;
+    }
+    
+    public TopQueries getTopQueries() {
+        return topQueries;
+    }
+    
+    public void setTopQueries(TopQueries topQueries) {
+        this.topQueries = topQueries;
+    }
+    
+    public HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+    
+    public void setHeavyHitters(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+    
+    public Tracing getTracing() {
+        return tracing;
+    }
+    
+    public void setTracing(Tracing tracing) {
+        this.tracing = tracing;
+    }
+    
+    public KeyedConsumer getKeyedConsumer() {
+        return keyedConsumer;
+    }
+    
+    public void setKeyedConsumer(KeyedConsumer keyedConsumer) {
+        this.keyedConsumer = keyedConsumer;
+    }
+    
+    public Spool getSpool() {
+        return spool;
+    }
+    
+    public void setSpool(Spool spool) {
+        this.spool = spool;
+    }
+    
+    public Journal getJournal() {
+        return journal;
+    }
+    
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+    
     @Validated
     public static class Retry {
         @PositiveOrZero
@@ -76,4 +240,351 @@ public class QueryMetricProperties {
             this.backoffIntervalMillis = backoffIntervalMillis;
         }
     }
+    
+    @Validated
+    public static class SelectorExtraction {
+        // parse queries for selectors off of the message handling thread and add the selectors to the cached metric afterwards
+        private boolean async = false;
+        
+        @Positive
+        private int threads = 2;
+        
+        @Positive
+        private int queueSize = 1000;
+        
+        public boolean isAsync() {
+            return async;
+        }
+        
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+        
+        public int getThreads() {
+            return threads;
+        }
+        
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+        
+        public int getQueueSize() {
+            return queueSize;
+        }
+        
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+    }
+    
+    @Validated
+    public static class TopQueries {
+        // the number of queries retained by each member for each measure
+        @Positive
+        private int size = 100;
+        
+        // how long to wait for each member's leaderboard when merging them
+        @Positive
+        private long timeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        
+        public int getSize() {
+            return size;
+        }
+        
+        public void setSize(int size) {
+            this.size = size;
+        }
+        
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+        
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+    
+    @Validated
+    public static class HeavyHitters {
+        // the number of users, hosts, and query logics that are reported for each count. The counts are estimates that can be slightly high, and the less
+        // frequent values are not reported or written to Timely
+        @Positive
+        private int size = 100;
+        
+        // counters per row of the count-min sketch, rounded up to a power of two
+        @Positive
+        private int width = 2048;
+        
+        // rows of the count-min sketch, each with an independent hash
+        @Positive
+        private int depth = 4;
+        
+        public int getSize() {
+            return size;
+        }
+        
+        public void setSize(int size) {
+            this.size = size;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public void setWidth(int width) {
+            this.width = width;
+        }
+        
+        public int getDepth() {
+            return depth;
+        }
+        
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+    }
+    
+    @Validated
+    public static class Tracing {
+        private boolean enabled = false;
+        
+        // the fraction of traces started by this service that are exported, traces started by a caller follow the caller's sampling decision
+        @DecimalMin("0.0")
+        @DecimalMax("1.0")
+        private double sampleRatio = 0.01;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public double getSampleRatio() {
+            return sampleRatio;
+        }
+        
+        public void setSampleRatio(double sampleRatio) {
+            this.sampleRatio = sampleRatio;
+        }
+    }
+    
+    @Validated
+    public static class KeyedConsumer {
+        // the number of lanes that store updates in parallel, or zero to store them on the binder's thread. With lanes, the Rabbit listener
+        // container uses manual acknowledgement so that messages are acknowledged after they are stored, and prefetches enough to fill the lanes
+        @PositiveOrZero
+        private int lanes = 0;
+        
+        // the number of updates that can wait on each lane before the binder's thread waits
+        @Positive
+        private int queueSize = 100;
+        
+        // how long to wait on shutdown for the queued updates to be stored
+        @PositiveOrZero
+        private long shutdownTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+        
+        public int getLanes() {
+            return lanes;
+        }
+        
+        public void setLanes(int lanes) {
+            this.lanes = lanes;
+        }
+        
+        public int getQueueSize() {
+            return queueSize;
+        }
+        
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+        
+        public long getShutdownTimeoutMillis() {
+            return shutdownTimeoutMillis;
+        }
+        
+        public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+            this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        }
+    }
+    
+    @Validated
+    public static class Spool {
+        // when enabled, REST updates that can not be sent to the message broker are held on local disk and sent when it is available
+        private boolean enabled = false;
+        
+        private String directory = System.getProperty("java.io.tmpdir") + "/querymetric-spool";
+        
+        // the size of each memory-mapped segment file, which limits the size of an update
+        @Positive
+        private int segmentSizeBytes = 16 * 1024 * 1024;
+        
+        // updates are rejected when the segments would exceed this size
+        @Positive
+        private long maxSizeBytes = 1024L * 1024 * 1024;
+        
+        // the number of spooled updates that are sent together before waiting for their confirms
+        @Positive
+        private int batchSize = 100;
+        
+        // how long to wait when the spool is empty or an update could not be sent
+        @Positive
+        private long drainIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+        
+        // write each update to disk before it is acknowledged instead of leaving it in the page cache
+        private boolean forceOnAppend = false;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public String getDirectory() {
+            return directory;
+        }
+        
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+        
+        public int getSegmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+        
+        public void setSegmentSizeBytes(int segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+        
+        public long getMaxSizeBytes() {
+            return maxSizeBytes;
+        }
+        
+        public void setMaxSizeBytes(long maxSizeBytes) {
+            this.maxSizeBytes = maxSizeBytes;
+        }
+        
+        public int getBatchSize() {
+            return batchSize;
+        }
+        
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+        
+        public long getDrainIntervalMillis() {
+            return drainIntervalMillis;
+        }
+        
+        public void setDrainIntervalMillis(long drainIntervalMillis) {
+            this.drainIntervalMillis = drainIntervalMillis;
+        }
+        
+        public boolean isForceOnAppend() {
+            return forceOnAppend;
+        }
+        
+        public void setForceOnAppend(boolean forceOnAppend) {
+            this.forceOnAppend = forceOnAppend;
+        }
+    }
+    
+    @Validated
+    public static class Journal {
+        // when enabled, each member journals the updates in the incoming cache until they are written, so the cache can run without backups
+        private boolean enabled = false;
+        
+        // must not be shared with another member
+        private String directory = System.getProperty("java.io.tmpdir") + "/querymetric-journal";
+        
+        // the size of each memory-mapped segment file, which limits the size of a journaled metric
+        @Positive
+        private int segmentSizeBytes = 16 * 1024 * 1024;
+        
+        // updates are not journaled when the segments would exceed this size
+        @Positive
+        private long maxSizeBytes = 1024L * 1024 * 1024;
+        
+        // the journal is split by query id into stripes that are appended to in parallel, at least the number of Hazelcast partition threads
+        @Positive
+        private int stripes = 16;
+        
+        // write each record to disk before the update is acknowledged instead of leaving it in the page cache
+        private boolean forceOnAppend = false;
+        
+        // how long to keep the records of queries that migrated to another member, which journals them when they are next updated
+        @Positive
+        private long unownedRetentionMillis = TimeUnit.MINUTES.toMillis(10);
+        
+        @Positive
+        private long sweepIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public String getDirectory() {
+            return directory;
+        }
+        
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+        
+        public int getSegmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+        
+        public void setSegmentSizeBytes(int segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+        
+        public long getMaxSizeBytes() {
+            return maxSizeBytes;
+        }
+        
+        public void setMaxSizeBytes(long maxSizeBytes) {
+            this.maxSizeBytes = maxSizeBytes;
+        }
+        
+        public boolean isForceOnAppend() {
+            return forceOnAppend;
+        }
+        
+        public void setForceOnAppend(boolean forceOnAppend) {
+            this.forceOnAppend = forceOnAppend;
+        }
+        
+        public int getStripes() {
+            return stripes;
+        }
+        
+        public void setStripes(int stripes) {
+            this.stripes = stripes;
+        }
+        
+        public long getUnownedRetentionMillis() {
+            return unownedRetentionMillis;
+        }
+        
+        public void setUnownedRetentionMillis(long unownedRetentionMillis) {
+            this.unownedRetentionMillis = unownedRetentionMillis;
+        }
+        
+        public long getSweepIntervalMillis() {
+            return sweepIntervalMillis;
+        }
+        
+        public void setSweepIntervalMillis(long sweepIntervalMillis) {
+            this.sweepIntervalMillis = sweepIntervalMillis;
+        }
+    }
 }
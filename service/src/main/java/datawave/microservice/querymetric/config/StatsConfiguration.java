@@ -17,7 +17,7 @@ public class StatsConfiguration {
     @Bean
     @ConditionalOnMissingBean
     QueryMetricOperationsStats queryMetricOperationsStats(TimelyProperties timelyProperties, ShardTableQueryMetricHandler handler,
-                    @Named("queryMetricCacheManager") CacheManager cacheManager, AccumuloMapStore mapStore) {
-        return new QueryMetricOperationsStats(timelyProperties, handler, cacheManager, mapStore);
+                    @Named("queryMetricCacheManager") CacheManager cacheManager, AccumuloMapStore mapStore, QueryMetricProperties queryMetricProperties) {
+        return new QueryMetricOperationsStats(timelyProperties, handler, cacheManager, mapStore, queryMetricProperties);
     }
 }
@@ -13,11 +13,95 @@ public class TimelyProperties {
     private Protocol protocol = Protocol.TCP;
     private int port = 4242;
     private Map<String,String> tags = new LinkedHashMap<>();
+    private Publisher publisher = new Publisher();
+    private Aggregation aggregation = new Aggregation();
     
     public enum Protocol {
         TCP, UDP
     }
     
+    public static class Aggregation {
+        // publish histograms of the elapsed time and number of results of closed queries each interval instead of a point per query
+        private boolean enabled = false;
+        // histograms kept for each of host, user, and query logic, after which values are aggregated together
+        private int maxTagValues = 1000;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public int getMaxTagValues() {
+            return maxTagValues;
+        }
+        
+        public void setMaxTagValues(int maxTagValues) {
+            this.maxTagValues = maxTagValues;
+        }
+    }
+    
+    public static class Publisher {
+        // lines that can wait to be written, rounded up to a power of two. Lines are dropped when it is full
+        private int bufferSize = 16384;
+        private int batchSize = 500;
+        // how long the publisher thread waits when there is nothing to write
+        private long idleMillis = 50;
+        private long initialBackoffMillis = 1000;
+        private long maxBackoffMillis = 60000;
+        private long shutdownTimeoutMillis = 5000;
+        
+        public int getBufferSize() {
+            return bufferSize;
+        }
+        
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+        
+        public int getBatchSize() {
+            return batchSize;
+        }
+        
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+        
+        public long getIdleMillis() {
+            return idleMillis;
+        }
+        
+        public void setIdleMillis(long idleMillis) {
+            this.idleMillis = idleMillis;
+        }
+        
+        public long getInitialBackoffMillis() {
+            return initialBackoffMillis;
+        }
+        
+        public void setInitialBackoffMillis(long initialBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+        }
+        
+        public long getMaxBackoffMillis() {
+            return maxBackoffMillis;
+        }
+        
+        public void setMaxBackoffMillis(long maxBackoffMillis) {
+            this.maxBackoffMillis = maxBackoffMillis;
+        }
+        
+        public long getShutdownTimeoutMillis() {
+            return shutdownTimeoutMillis;
+        }
+        
+        public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+            this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        }
+    }
+    
     public String getHost() {
         return host;
     }
@@ -57,4 +141,20 @@ public class TimelyProperties {
     public boolean isEnabled() {
         return enabled;
     }
+    
+    public Publisher getPublisher() {
+        return publisher;
+    }
+    
+    public void setPublisher(Publisher publisher) {
+        this.publisher = publisher;
+    }
+    
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+    
+    public void setAggregation(Aggregation aggregation) {
+        this.aggregation = aggregation;
+    }
 }
@@ -1,29 +1,163 @@
 package datawave.microservice.querymetric.function;
 
+import java.io.IOException;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.acks.AcknowledgmentCallback;
+import org.springframework.messaging.Message;
 
+import com.codahale.metrics.Meter;
+import com.rabbitmq.client.Channel;
+
+import datawave.microservice.querymetric.KeyedExecutor;
+import datawave.microservice.querymetric.MetricSpan;
+import datawave.microservice.querymetric.MetricTracer;
 import datawave.microservice.querymetric.QueryMetricOperations;
+import datawave.microservice.querymetric.QueryMetricOperationsStats;
 import datawave.microservice.querymetric.QueryMetricUpdate;
+import datawave.microservice.querymetric.config.QueryMetricProperties;
 
-public class QueryMetricConsumer implements Consumer<QueryMetricUpdate> {
+/**
+ * Stores the query metric updates received from the message broker. When lanes are configured, updates are stored in parallel on lanes chosen by query id, so
+ * the updates of each query are stored in the order that they were received. The listener container is then switched to manual acknowledgement by
+ * {@link #configureListenerContainer}, so a message is acknowledged after it is stored. A message that could not be stored is tried again on its lane, which
+ * keeps its order, and is then requeued once and rejected if it fails again after it is redelivered. A requeued message is redelivered after the messages that
+ * followed it, so it may be applied after later updates of the same query.
+ * <p>
+ * Without lanes, the binder acknowledges a message when accept returns and retries it when accept throws.
+ */
+public class QueryMetricConsumer implements Consumer<Message<QueryMetricUpdate>> {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     private QueryMetricOperations queryMetricOperations;
+    private QueryMetricProperties.KeyedConsumer keyedConsumerProperties;
+    private MetricTracer metricTracer;
+    // updates that failed on a lane and could not be returned to the broker
+    private Meter droppedMeter;
+    private KeyedExecutor executor = null;
     
     public QueryMetricConsumer(QueryMetricOperations queryMetricOperations) {
+        this(queryMetricOperations, new QueryMetricProperties.KeyedConsumer(), MetricTracer.DISABLED, null);
+    }
+    
+    public QueryMetricConsumer(QueryMetricOperations queryMetricOperations, QueryMetricProperties.KeyedConsumer keyedConsumerProperties,
+                    MetricTracer metricTracer, QueryMetricOperationsStats stats) {
         this.queryMetricOperations = queryMetricOperations;
+        this.keyedConsumerProperties = keyedConsumerProperties;
+        this.metricTracer = metricTracer;
+        this.droppedMeter = stats == null ? new Meter() : stats.getMeter(QueryMetricOperationsStats.METERS.MESSAGE_DROPPED);
+        if (keyedConsumerProperties.getLanes() > 0) {
+            this.executor = new KeyedExecutor("metric-consumer-lane", keyedConsumerProperties.getLanes(), keyedConsumerProperties.getQueueSize());
+        }
     }
     
     @Override
-    public void accept(QueryMetricUpdate queryMetricUpdate) {
+    public void accept(Message<QueryMetricUpdate> message) {
+        if (this.executor == null) {
+            if (process(message)) {
+                acknowledge(message, true);
+            } else if (!acknowledge(message, false)) {
+                // let the binder retry the message
+                throw new RuntimeException("Error processing query metric update message");
+            }
+        } else {
+            try {
+                // waits when the lane is full, which stops the binder from taking more messages
+                this.executor.execute(message.getPayload().getMetric().getQueryId(), () -> processOnLane(message));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    private void processOnLane(Message<QueryMetricUpdate> message) {
+        // the lane stores the updates of a query one at a time, so trying again here keeps them in order
+        boolean success = process(message) || process(message);
+        if (!acknowledge(message, success) && !success) {
+            // without manual acknowledgement the binder acknowledged the message when it was queued
+            this.droppedMeter.mark();
+            log.error("Dropping query metric update for {} that could not be stored or returned to the broker", message.getPayload().getMetric().getQueryId());
+        }
+    }
+    
+    /**
+     * Switches the binder's listener container to manual acknowledgement when lanes are configured, so that a message is acknowledged after its lane stores
+     * it, and lets the broker deliver enough unacknowledged messages to fill the lanes. Without lanes the container keeps the binder's configuration.
+     */
+    public void configureListenerContainer(AbstractMessageListenerContainer container) {
+        if (this.executor != null) {
+            container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+            // the updates waiting on each lane and the one that each lane is storing
+            container.setPrefetchCount(this.keyedConsumerProperties.getLanes() * (this.keyedConsumerProperties.getQueueSize() + 1));
+        }
+    }
+    
+    private boolean process(Message<QueryMetricUpdate> message) {
+        // continue the trace of the sender, if there is one
+        Object traceParent = message.getHeaders().get(MetricTracer.TRACE_PARENT_HEADER);
+        MetricSpan span = this.metricTracer.startSpan("QueryMetricConsumer.accept", traceParent == null ? null : traceParent.toString());
         try {
-            queryMetricOperations.storeMetric(queryMetricUpdate);
+            queryMetricOperations.storeMetric(message.getPayload());
+            return true;
         } catch (Exception e) {
+            span.setError(e);
             log.error("Error processing query metric update message: {}", e.getMessage());
-            throw new RuntimeException(e);
+            return false;
+        } finally {
+            span.close();
+        }
+    }
+    
+    /**
+     * Acknowledges, requeues or rejects a message that was received with manual acknowledgement
+     *
+     * @return false if the message was not received with manual acknowledgement
+     */
+    private boolean acknowledge(Message<QueryMetricUpdate> message, boolean success) {
+        // a message that already failed once is not requeued, so it goes to the dead letter queue if there is one
+        boolean requeue = !success && !Boolean.TRUE.equals(message.getHeaders().get(AmqpHeaders.REDELIVERED, Boolean.class));
+        AcknowledgmentCallback callback = message.getHeaders().get(IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK, AcknowledgmentCallback.class);
+        if (callback != null) {
+            if (success) {
+                callback.acknowledge(AcknowledgmentCallback.Status.ACCEPT);
+            } else {
+                callback.acknowledge(requeue ? AcknowledgmentCallback.Status.REQUEUE : AcknowledgmentCallback.Status.REJECT);
+            }
+            return true;
+        }
+        Channel channel = message.getHeaders().get(AmqpHeaders.CHANNEL, Channel.class);
+        Long deliveryTag = message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+        if (channel != null && deliveryTag != null) {
+            // the lanes share the channel of the binder's consumer, which must not be used by more than one thread at a time
+            synchronized (channel) {
+                try {
+                    if (success) {
+                        channel.basicAck(deliveryTag, false);
+                    } else {
+                        channel.basicNack(deliveryTag, false, requeue);
+                    }
+                } catch (IOException e) {
+                    log.error("Error acknowledging query metric update message: {}", e.getMessage());
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Waits for the updates on the lanes to be stored
+     */
+    public void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdown(this.keyedConsumerProperties.getShutdownTimeoutMillis());
         }
     }
 }
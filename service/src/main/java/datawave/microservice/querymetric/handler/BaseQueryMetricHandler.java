@@ -1,15 +1,28 @@
 package datawave.microservice.querymetric.handler;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.commons.jexl2.parser.ASTEQNode;
 import org.apache.commons.jexl2.parser.ASTJexlScript;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.log4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import datawave.microservice.querymetric.BaseQueryMetric;
 import datawave.microservice.querymetric.BaseQueryMetric.Lifecycle;
 import datawave.microservice.querymetric.QueryMetricSummary;
@@ -24,11 +37,27 @@ import datawave.query.language.tree.QueryNode;
  */
 public abstract class BaseQueryMetricHandler<T extends BaseQueryMetric> implements QueryMetricHandler<T> {
     
+    private static final HashFunction QUERY_HASH_FUNCTION = Hashing.murmur3_128();
+    
     private Logger log = Logger.getLogger(BaseQueryMetricHandler.class);
-    protected LuceneToJexlQueryParser luceneToJexlQueryParser;
+    // LuceneToJexlQueryParser is not thread safe, and selectors are extracted on several threads, so each thread gets its own instance
+    private final ThreadLocal<LuceneToJexlQueryParser> luceneToJexlQueryParser;
+    // maps a hash of the query string to the selectors extracted from it so that large queries are not held as keys
+    protected Cache<HashCode,MetricSelectors> metricSelectorsCache;
+    
+    public BaseQueryMetricHandler(Supplier<LuceneToJexlQueryParser> luceneToJexlQueryParserSupplier) {
+        this(luceneToJexlQueryParserSupplier, 1000);
+    }
     
-    public BaseQueryMetricHandler(LuceneToJexlQueryParser luceneToJexlQueryParser) {
-        this.luceneToJexlQueryParser = luceneToJexlQueryParser;
+    /**
+     * @param luceneToJexlQueryParserSupplier
+     *            creates a configured parser for each thread that extracts selectors
+     * @param metricSelectorsCacheSize
+     *            the number of queries whose selectors are cached
+     */
+    public BaseQueryMetricHandler(Supplier<LuceneToJexlQueryParser> luceneToJexlQueryParserSupplier, long metricSelectorsCacheSize) {
+        this.luceneToJexlQueryParser = ThreadLocal.withInitial(luceneToJexlQueryParserSupplier);
+        this.metricSelectorsCache = CacheBuilder.newBuilder().maximumSize(metricSelectorsCacheSize).recordStats().build();
     }
     
     public void populateSummary(T metric, QueryMetricSummary bucket) {
@@ -41,6 +70,24 @@ public abstract class BaseQueryMetricHandler<T extends BaseQueryMetric> implemen
     public QueryMetricsSummaryResponse processQueryMetricsSummary(List<T> queryMetrics, Date end) throws IOException {
         
         QueryMetricsSummaryResponse summary = new QueryMetricsSummaryResponse();
+        Consumer<T> summaryBinner = createSummaryBinner(summary, end);
+        for (T metric : queryMetrics) {
+            summaryBinner.accept(metric);
+        }
+        
+        return summary;
+    }
+    
+    /**
+     * Creates a consumer that adds each metric that it is given to the summary so that metrics can be summarized as they are read
+     *
+     * @param summary
+     *            the summary to add metrics to
+     * @param end
+     *            the end date of the summary
+     * @return the consumer
+     */
+    public Consumer<T> createSummaryBinner(QueryMetricsSummaryResponse summary, Date end) {
         Date hour1 = DateUtils.addHours(end, -1);
         Date hour6 = DateUtils.addHours(end, -6);
         Date hour12 = DateUtils.addHours(end, -12);
@@ -50,15 +97,13 @@ public abstract class BaseQueryMetricHandler<T extends BaseQueryMetric> implemen
         Date day60 = DateUtils.addDays(end, -60);
         Date day90 = DateUtils.addDays(end, -90);
         
-        for (T metric : queryMetrics) {
+        return metric -> {
             try {
                 binSummary(metric, summary, hour1, hour6, hour12, day1, day7, day30, day60, day90);
             } catch (Exception e1) {
                 log.error(e1.getMessage());
             }
-        }
-        
-        return summary;
+        };
     }
     
     public void binSummary(T metric, QueryMetricsSummaryResponse summary, Date hour1, Date hour6, Date hour12, Date day1, Date day7, Date day30, Date day60,
@@ -93,57 +138,112 @@ public abstract class BaseQueryMetricHandler<T extends BaseQueryMetric> implemen
         populateSummary(metric, summary.getAll());
     }
     
-    public void populateMetricSelectors(T queryMetric) {
+    public boolean isMetricSelectorsNeeded(T queryMetric) {
         String type = queryMetric.getQueryType();
         Lifecycle lifecycle = queryMetric.getLifecycle();
         // this is time consuming - we only need to parse the query and write the selectors once
-        if (lifecycle.equals(Lifecycle.DEFINED) && type != null && type.equalsIgnoreCase("RunningQuery") && queryMetric.getPositiveSelectors() == null
-                        && queryMetric.getNegativeSelectors() == null) {
+        return lifecycle != null && lifecycle.equals(Lifecycle.DEFINED) && type != null && type.equalsIgnoreCase("RunningQuery")
+                        && queryMetric.getPositiveSelectors() == null && queryMetric.getNegativeSelectors() == null;
+    }
+    
+    public void populateMetricSelectors(T queryMetric) {
+        if (isMetricSelectorsNeeded(queryMetric) && queryMetric.getQuery() != null) {
+            MetricSelectors selectors = getMetricSelectors(queryMetric.getQuery());
+            if (!selectors.getPositiveSelectors().isEmpty()) {
+                queryMetric.setPositiveSelectors(new ArrayList<>(selectors.getPositiveSelectors()));
+            }
+            if (!selectors.getNegativeSelectors().isEmpty()) {
+                queryMetric.setNegativeSelectors(new ArrayList<>(selectors.getNegativeSelectors()));
+            }
+        }
+    }
+    
+    /**
+     * Returns the selectors for a query, parsing the query only if the same query has not been seen recently. The selectors depend only on the query string,
+     * which is parsed as JEXL and then as LUCENE regardless of the query syntax.
+     *
+     * @param query
+     *            the query string
+     * @return the positive and negative selectors for the query
+     */
+    public MetricSelectors getMetricSelectors(String query) {
+        String normalizedQuery = query.trim();
+        HashCode key = QUERY_HASH_FUNCTION.hashString(normalizedQuery, StandardCharsets.UTF_8);
+        try {
+            return this.metricSelectorsCache.get(key, () -> extractMetricSelectors(normalizedQuery));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            log.error("getMetricSelectors: " + e.getMessage());
+            return MetricSelectors.EMPTY;
+        }
+    }
+    
+    public CacheStats getMetricSelectorsCacheStats() {
+        return this.metricSelectorsCache.stats();
+    }
+    
+    protected MetricSelectors extractMetricSelectors(String query) {
+        List<String> positiveSelectors = new ArrayList<>();
+        List<String> negativeSelectors = new ArrayList<>();
+        try {
+            ASTJexlScript jexlScript = null;
             try {
-                String query = queryMetric.getQuery();
-                if (query != null) {
-                    ASTJexlScript jexlScript = null;
-                    try {
-                        // Parse and flatten here before visitors visit.
-                        jexlScript = JexlASTHelper.parseAndFlattenJexlQuery(query);
-                    } catch (Exception e) {
-                        // not JEXL, try LUCENE
-                        QueryNode node = this.luceneToJexlQueryParser.parse(query);
-                        String jexlQuery = node.getOriginalQuery();
-                        jexlScript = JexlASTHelper.parseAndFlattenJexlQuery(jexlQuery);
+                // Parse and flatten here before visitors visit.
+                jexlScript = JexlASTHelper.parseAndFlattenJexlQuery(query);
+            } catch (Exception e) {
+                // not JEXL, try LUCENE
+                QueryNode node = this.luceneToJexlQueryParser.get().parse(query);
+                String jexlQuery = node.getOriginalQuery();
+                jexlScript = JexlASTHelper.parseAndFlattenJexlQuery(jexlQuery);
+            }
+            
+            if (jexlScript != null) {
+                jexlScript = TreeFlatteningRebuildingVisitor.flatten(jexlScript);
+                List<ASTEQNode> positiveEQNodes = JexlASTHelper.getPositiveEQNodes(jexlScript);
+                for (ASTEQNode pos : positiveEQNodes) {
+                    String identifier = JexlASTHelper.getIdentifier(pos);
+                    Object literal = JexlASTHelper.getLiteralValue(pos);
+                    if (identifier != null && literal != null) {
+                        positiveSelectors.add(identifier + ":" + literal);
                     }
-                    
-                    if (jexlScript != null) {
-                        jexlScript = TreeFlatteningRebuildingVisitor.flatten(jexlScript);
-                        List<ASTEQNode> positiveEQNodes = JexlASTHelper.getPositiveEQNodes(jexlScript);
-                        List<String> positiveSelectors = new ArrayList<>();
-                        for (ASTEQNode pos : positiveEQNodes) {
-                            String identifier = JexlASTHelper.getIdentifier(pos);
-                            Object literal = JexlASTHelper.getLiteralValue(pos);
-                            if (identifier != null && literal != null) {
-                                positiveSelectors.add(identifier + ":" + literal);
-                            }
-                        }
-                        if (!positiveSelectors.isEmpty()) {
-                            queryMetric.setPositiveSelectors(positiveSelectors);
-                        }
-                        List<ASTEQNode> negativeEQNodes = JexlASTHelper.getNegativeEQNodes(jexlScript);
-                        List<String> negativeSelectors = new ArrayList<>();
-                        for (ASTEQNode neg : negativeEQNodes) {
-                            String identifier = JexlASTHelper.getIdentifier(neg);
-                            Object literal = JexlASTHelper.getLiteralValue(neg);
-                            if (identifier != null && literal != null) {
-                                negativeSelectors.add(identifier + ":" + literal);
-                            }
-                        }
-                        if (!negativeSelectors.isEmpty()) {
-                            queryMetric.setNegativeSelectors(negativeSelectors);
-                        }
+                }
+                List<ASTEQNode> negativeEQNodes = JexlASTHelper.getNegativeEQNodes(jexlScript);
+                for (ASTEQNode neg : negativeEQNodes) {
+                    String identifier = JexlASTHelper.getIdentifier(neg);
+                    Object literal = JexlASTHelper.getLiteralValue(neg);
+                    if (identifier != null && literal != null) {
+                        negativeSelectors.add(identifier + ":" + literal);
                     }
                 }
-            } catch (Exception e) {
-                log.error("populateMetricSelectors: " + e.getMessage());
             }
+        } catch (Exception e) {
+            // cache the empty result so that an unparseable query is not parsed again
+            log.error("populateMetricSelectors: " + e.getMessage());
+        }
+        return new MetricSelectors(positiveSelectors, negativeSelectors);
+    }
+    
+    public static class MetricSelectors {
+        
+        public static final MetricSelectors EMPTY = new MetricSelectors(Collections.emptyList(), Collections.emptyList());
+        
+        private final List<String> positiveSelectors;
+        private final List<String> negativeSelectors;
+        
+        public MetricSelectors(List<String> positiveSelectors, List<String> negativeSelectors) {
+            this.positiveSelectors = Collections.unmodifiableList(positiveSelectors);
+            this.negativeSelectors = Collections.unmodifiableList(negativeSelectors);
+        }
+        
+        public List<String> getPositiveSelectors() {
+            return positiveSelectors;
+        }
+        
+        public List<String> getNegativeSelectors() {
+            return negativeSelectors;
+        }
+        
+        public boolean isEmpty() {
+            return positiveSelectors.isEmpty() && negativeSelectors.isEmpty();
         }
     }
 }
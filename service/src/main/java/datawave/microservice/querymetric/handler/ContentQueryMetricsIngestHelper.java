@@ -14,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 
 import datawave.ingest.data.config.NormalizedContentInterface;
@@ -23,6 +24,7 @@ import datawave.ingest.data.config.ingest.TermFrequencyIngestHelperInterface;
 import datawave.microservice.querymetric.BaseQueryMetric;
 import datawave.microservice.querymetric.BaseQueryMetric.PageMetric;
 import datawave.microservice.querymetric.BaseQueryMetric.Prediction;
+import datawave.microservice.querymetric.PersistedMetricState;
 import datawave.webservice.query.util.QueryUtil;
 
 public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements TermFrequencyIngestHelperInterface {
@@ -46,6 +48,10 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
         return normalize(delegate.getEventFieldsToDelete(updatedQueryMetric, storedQueryMetric));
     }
     
+    public Multimap<String,NormalizedContentInterface> getEventFieldsToDelete(Multimap<String,String> updatedFields, PersistedMetricState persistedState) {
+        return normalize(delegate.getEventFieldsToDelete(updatedFields, persistedState));
+    }
+    
     @Override
     public Multimap<String,NormalizedContentInterface> normalize(Multimap<String,String> fields) {
         Multimap<String,NormalizedContentInterface> results = HashMultimap.create();
@@ -73,6 +79,24 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
         return normalize(delegate.getEventFieldsToWrite(updatedQueryMetric, storedQueryMetric));
     }
     
+    public Multimap<String,NormalizedContentInterface> getEventFieldsToWrite(Multimap<String,String> updatedFields, PersistedMetricState persistedState) {
+        return normalize(delegate.getEventFieldsToWrite(updatedFields, persistedState));
+    }
+    
+    /**
+     * Returns every event field and (un-normalized) value of the metric, which is what is recorded as written in a {@link PersistedMetricState}
+     */
+    public Multimap<String,String> getEventFieldValues(BaseQueryMetric queryMetric) {
+        return delegate.getEventFieldValues(queryMetric);
+    }
+    
+    /**
+     * Returns true if the previous value of the event field is deleted when the field changes
+     */
+    public boolean isDeletedWhenChanged(String field) {
+        return delegate.isDeletedWhenChanged(HelperDelegate.getBaseField(field));
+    }
+    
     @Override
     public boolean isTermFrequencyField(String field) {
         return contentIndexFields.contains(field);
@@ -94,6 +118,33 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
     
     public static class HelperDelegate<T extends BaseQueryMetric> {
         
+        // the fields that getEventFieldsToWrite only writes when the stored metric has no value for them
+        private static final Set<String> WRITE_ONCE_FIELDS = ImmutableSet.of("POSITIVE_SELECTORS", "NEGATIVE_SELECTORS", "AUTHORIZATIONS", "BEGIN_DATE",
+                        "CREATE_DATE", "END_DATE", "HOST", "PARAMETERS", "PLAN", "PROXY_SERVERS", "PREDICTION", "QUERY", "QUERY_ID", "QUERY_LOGIC",
+                        "QUERY_NAME", "QUERY_TYPE", "SETUP_TIME", "USER", "USER_DN", "VERSION");
+        
+        // the fields whose stored value getEventFieldsToDelete deletes when it changes
+        private static final Set<String> DELETED_WHEN_CHANGED_FIELDS = ImmutableSet.of("CREATE_CALL_TIME", "DOC_RANGES", "ELAPSED_TIME", "FI_RANGES",
+                        "LAST_UPDATED", "LIFECYCLE", "LOGIN_TIME", "NUM_UPDATES", "NEXT_COUNT", "NUM_PAGES", "NUM_RESULTS", "PAGE_METRICS", "SEEK_COUNT",
+                        "SETUP_TIME", "SOURCE_COUNT", "YIELD_COUNT");
+        
+        protected static String getBaseField(String field) {
+            int x = field.indexOf('.');
+            return x > -1 ? field.substring(0, x) : field;
+        }
+        
+        /**
+         * A subclass that adds fields in putExtendedFieldsToWrite and putExtendedFieldsToDelete overrides this and {@link #isDeletedWhenChanged(String)} so
+         * that its fields are written and deleted against a {@link PersistedMetricState} the same way as against a stored metric
+         */
+        protected boolean isWriteOnce(String baseField) {
+            return WRITE_ONCE_FIELDS.contains(baseField);
+        }
+        
+        protected boolean isDeletedWhenChanged(String baseField) {
+            return DELETED_WHEN_CHANGED_FIELDS.contains(baseField);
+        }
+        
         protected boolean isChanged(String updated, String stored) {
             if ((StringUtils.isBlank(stored) && StringUtils.isNotBlank(updated)) || (stored != null && updated != null && !stored.equals(updated))) {
                 return true;
@@ -239,7 +290,8 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
             if (isFirstWrite(updated.getParameters(), stored == null ? null : stored.getParameters())) {
                 fields.put("PARAMETERS", QueryUtil.toParametersString(updated.getParameters()));
             }
-            if (isFirstWrite(updated.getPlan(), stored == null ? null : stored.getPlan())) {
+            // the stored plan is only checked for, so that it is not inflated
+            if ((stored == null || !stored.hasPlan()) && isFirstWrite(updated.getPlan(), null)) {
                 fields.put("PLAN", updated.getPlan());
             }
             if (isFirstWrite(updated.getProxyServers(), stored == null ? null : stored.getProxyServers())) {
@@ -275,7 +327,8 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
                     }
                 }
             }
-            if (isFirstWrite(updated.getQuery(), stored == null ? null : stored.getQuery())) {
+            // the stored query is only checked for, so that it is not inflated
+            if ((stored == null || !stored.hasQuery()) && isFirstWrite(updated.getQuery(), null)) {
                 fields.put("QUERY", updated.getQuery());
             }
             if (isFirstWrite(updated.getQueryId(), stored == null ? null : stored.getQueryId())) {
@@ -331,7 +384,63 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
         }
         
         protected void putExtendedFieldsToWrite(T updated, T stored, Multimap<String,String> fields) {
-            
+        
+        }
+        
+        public Multimap<String,String> getEventFieldValues(T metric) {
+            return getEventFieldsToWrite(metric, (T) null);
+        }
+        
+        /**
+         * Returns the same fields as {@link #getEventFieldsToWrite(BaseQueryMetric, BaseQueryMetric)} using the persisted state in place of the stored
+         * metric: a write-once field is written if no value was written for it, and any other field is written if its value was not written.
+         *
+         * @param updatedFields
+         *            the event field values of the updated metric
+         * @param persisted
+         *            what was last persisted, or null if nothing was
+         * @return the fields to write
+         */
+        public Multimap<String,String> getEventFieldsToWrite(Multimap<String,String> updatedFields, PersistedMetricState persisted) {
+            HashMultimap<String,String> fields = HashMultimap.create();
+            for (Map.Entry<String,String> e : updatedFields.entries()) {
+                if (persisted == null) {
+                    fields.put(e.getKey(), e.getValue());
+                } else {
+                    String baseField = getBaseField(e.getKey());
+                    if (isWriteOnce(baseField) ? !persisted.isFieldWritten(baseField) : !persisted.isWritten(e.getKey(), e.getValue())) {
+                        fields.put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            return fields;
+        }
+        
+        /**
+         * Returns the same fields as {@link #getEventFieldsToDelete(BaseQueryMetric, BaseQueryMetric)} using the persisted state in place of the stored
+         * metric: the persisted values of a field that is deleted when it changes are deleted if the updated metric has a different value for the field.
+         *
+         * @param updatedFields
+         *            the event field values of the updated metric
+         * @param persisted
+         *            what was last persisted, or null if nothing was
+         * @return the fields to delete
+         */
+        public Multimap<String,String> getEventFieldsToDelete(Multimap<String,String> updatedFields, PersistedMetricState persisted) {
+            HashMultimap<String,String> fields = HashMultimap.create();
+            if (persisted != null) {
+                for (String field : updatedFields.keySet()) {
+                    if (isDeletedWhenChanged(getBaseField(field))) {
+                        Collection<String> updatedValues = updatedFields.get(field);
+                        for (String persistedValue : persisted.getWrittenValues(field)) {
+                            if (!updatedValues.contains(persistedValue)) {
+                                fields.put(field, persistedValue);
+                            }
+                        }
+                    }
+                }
+            }
+            return fields;
         }
         
         public Multimap<String,String> getEventFieldsToDelete(T updated, T stored) {
@@ -429,7 +538,7 @@ public class ContentQueryMetricsIngestHelper extends CSVIngestHelper implements
         }
         
         protected void putExtendedFieldsToDelete(T updated, T stored, Multimap<String,String> fields) {
-            
+        
         }
     }
 }
@@ -13,6 +13,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.apache.accumulo.core.client.AccumuloClient;
 import org.apache.commons.lang.StringUtils;
@@ -52,8 +53,9 @@ public class LocalShardTableQueryMetricHandler<T extends BaseQueryMetric> extend
     
     public LocalShardTableQueryMetricHandler(QueryMetricHandlerProperties queryMetricHandlerProperties, @Qualifier("warehouse") AccumuloClientPool clientPool,
                     QueryMetricQueryLogicFactory logicFactory, QueryMetricFactory metricFactory, MarkingFunctions markingFunctions,
-                    QueryMetricCombiner queryMetricCombiner, LuceneToJexlQueryParser luceneToJexlQueryParser, DnUtils dnUtils) {
-        super(queryMetricHandlerProperties, clientPool, logicFactory, metricFactory, markingFunctions, queryMetricCombiner, luceneToJexlQueryParser, dnUtils);
+                    QueryMetricCombiner queryMetricCombiner, Supplier<LuceneToJexlQueryParser> luceneToJexlQueryParserSupplier, DnUtils dnUtils) {
+        super(queryMetricHandlerProperties, clientPool, logicFactory, metricFactory, markingFunctions, queryMetricCombiner, luceneToJexlQueryParserSupplier,
+                        dnUtils);
         
         this.datawaveQueryMetricFactory = metricFactory;
         
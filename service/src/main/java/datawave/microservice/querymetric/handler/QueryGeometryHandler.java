@@ -1,5 +1,6 @@
 package datawave.microservice.querymetric.handler;
 
+import java.util.Collections;
 import java.util.List;
 
 import datawave.microservice.querymetric.BaseQueryMetric;
@@ -8,4 +9,9 @@ import datawave.webservice.query.map.QueryGeometryResponse;
 public interface QueryGeometryHandler {
     
     QueryGeometryResponse getQueryGeometryResponse(String id, List<? extends BaseQueryMetric> queries);
+    
+    default boolean isGeoQuery(BaseQueryMetric metric) {
+        List<?> result = getQueryGeometryResponse(metric.getQueryId(), Collections.singletonList(metric)).getResult();
+        return result != null && !result.isEmpty();
+    }
 }
@@ -1,22 +1,31 @@
 package datawave.microservice.querymetric.handler;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import datawave.microservice.querymetric.BaseQueryMetric;
 import datawave.microservice.querymetric.BaseQueryMetric.PageMetric;
+import datawave.microservice.querymetric.PageMetricList;
 import datawave.microservice.querymetric.QueryMetricType;
 
 public class QueryMetricCombiner<T extends BaseQueryMetric> implements Serializable {
     
     private static final Logger log = LoggerFactory.getLogger(QueryMetricCombiner.class);
     
+    // query and plan values with at least this many characters are held compressed in the combined metric, 0 disables compression
+    private int compressionThreshold = 0;
+    
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+    
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+    
     public T combineMetrics(T updatedQueryMetric, T cachedQueryMetric, QueryMetricType metricType) {
         
         T combinedMetric = updatedQueryMetric;
@@ -46,7 +55,7 @@ public class QueryMetricCombiner<T extends BaseQueryMetric> implements Serializa
             // Do not update queryId -- shouldn't change anyway
             
             // only update once
-            if (combinedMetric.getQuery() == null && updatedQueryMetric.getQuery() != null) {
+            if (!combinedMetric.hasQuery() && updatedQueryMetric.hasQuery()) {
                 combinedMetric.setQuery(updatedQueryMetric.getQuery());
             }
             // only update once
@@ -54,49 +63,40 @@ public class QueryMetricCombiner<T extends BaseQueryMetric> implements Serializa
                 combinedMetric.setHost(updatedQueryMetric.getHost());
             }
             
-            // Map page numbers to page metrics and update
-            Map<Long,PageMetric> storedPagesByPageNumMap = new TreeMap<>();
-            Map<String,PageMetric> storedPagesByUuidMap = new TreeMap<>();
-            if (combinedMetric.getPageTimes() != null) {
-                combinedMetric.getPageTimes().forEach(pm -> {
-                    storedPagesByPageNumMap.put(pm.getPageNumber(), pm);
-                    if (pm.getPageUuid() != null) {
-                        storedPagesByUuidMap.put(pm.getPageUuid(), pm);
-                    }
-                });
-            }
+            // Combine the page metrics in the duplicated page columns, which are kept ordered by page
+            // number with one page per page number. Pages are only materialized when they are combined
+            PageMetricList combinedPages = combinedMetric.getPageTimes() == null ? new PageMetricList() : PageMetricList.of(combinedMetric.getPageTimes());
+            combinedPages.sortByPageNumber();
             // combine all of the page metrics from the cached metric and the updated metric
             if (updatedQueryMetric.getPageTimes() != null) {
-                long pageNum = getLastPageNumber(combinedMetric) + 1;
+                long pageNum = combinedPages.getMaxPageNumber() + 1;
                 for (PageMetric updatedPage : updatedQueryMetric.getPageTimes()) {
-                    PageMetric storedPage = null;
+                    int storedIndex = -1;
                     if (updatedPage.getPageUuid() != null) {
-                        storedPage = storedPagesByUuidMap.get(updatedPage.getPageUuid());
+                        storedIndex = combinedPages.indexOfPageUuid(updatedPage.getPageUuid());
                     }
                     if (metricType.equals(QueryMetricType.DISTRIBUTED)) {
-                        if (storedPage != null) {
+                        if (storedIndex >= 0) {
                             // updatedPage found by pageUuid
-                            updatedPage = combinePageMetrics(updatedPage, storedPage);
-                            storedPagesByPageNumMap.put(updatedPage.getPageNumber(), updatedPage);
+                            updatedPage = combinePageMetrics(updatedPage, combinedPages.get(storedIndex));
                         } else {
                             // assume that this is the next page in sequence
                             updatedPage.setPageNumber(pageNum);
-                            storedPagesByPageNumMap.put(pageNum, updatedPage);
                             pageNum++;
                         }
                     } else {
-                        if (storedPage == null) {
-                            storedPage = storedPagesByPageNumMap.get(updatedPage.getPageNumber());
+                        if (storedIndex < 0) {
+                            storedIndex = combinedPages.indexOfPageNumber(updatedPage.getPageNumber());
                         }
-                        if (storedPage != null) {
-                            updatedPage = combinePageMetrics(updatedPage, storedPage);
+                        if (storedIndex >= 0) {
+                            updatedPage = combinePageMetrics(updatedPage, combinedPages.get(storedIndex));
                         }
-                        // page metrics are mapped to their page number to prevent duplicates
-                        storedPagesByPageNumMap.put(updatedPage.getPageNumber(), updatedPage);
                     }
+                    // page metrics are mapped to their page number to prevent duplicates
+                    combinedPages.putByPageNumber(updatedPage);
                 }
             }
-            combinedMetric.setPageTimes(new ArrayList<>(storedPagesByPageNumMap.values()));
+            combinedMetric.setPageTimes(combinedPages);
             
             // only update once
             if (combinedMetric.getProxyServers() == null && updatedQueryMetric.getProxyServers() != null) {
@@ -185,7 +185,7 @@ public class QueryMetricCombiner<T extends BaseQueryMetric> implements Serializa
                 combinedMetric.setFiRanges(updatedQueryMetric.getFiRanges());
             }
             // only update once
-            if (combinedMetric.getPlan() == null && updatedQueryMetric.getPlan() != null) {
+            if (!combinedMetric.hasPlan() && updatedQueryMetric.hasPlan()) {
                 combinedMetric.setPlan(updatedQueryMetric.getPlan());
             }
             // only update once
@@ -194,12 +194,17 @@ public class QueryMetricCombiner<T extends BaseQueryMetric> implements Serializa
             }
             // use the max numUpdates
             combinedMetric.setNumUpdates(Math.max(combinedMetric.getNumUpdates(), updatedQueryMetric.getNumUpdates()));
+            // a query or plan that was copied from the updated metric is set as text
+            combinedMetric.compressQueryAndPlan(this.compressionThreshold);
         }
         log.trace("Combined metrics cached: " + cachedQueryMetric + " updated: " + updatedQueryMetric + " combined: " + combinedMetric);
         return combinedMetric;
     }
     
     public long getLastPageNumber(BaseQueryMetric m) {
+        if (m.getPageTimes() instanceof PageMetricList) {
+            return ((PageMetricList) m.getPageTimes()).getMaxPageNumber();
+        }
         long lastPage = 0;
         List<PageMetric> pageMetrics = m.getPageTimes();
         for (PageMetric pm : pageMetrics) {
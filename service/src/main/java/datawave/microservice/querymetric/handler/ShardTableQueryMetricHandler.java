@@ -5,6 +5,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -12,10 +13,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.apache.accumulo.core.client.AccumuloClient;
 import org.apache.accumulo.core.client.AccumuloException;
@@ -64,6 +70,11 @@ import datawave.microservice.querymetric.BaseQueryMetric;
 import datawave.microservice.querymetric.BaseQueryMetric.Lifecycle;
 import datawave.microservice.querymetric.BaseQueryMetric.PageMetric;
 import datawave.microservice.querymetric.BaseQueryMetric.Prediction;
+import datawave.microservice.querymetric.MetricSpan;
+import datawave.microservice.querymetric.MetricStringInterner;
+import datawave.microservice.querymetric.MetricTracer;
+import datawave.microservice.querymetric.PageMetricList;
+import datawave.microservice.querymetric.PersistedMetricState;
 import datawave.microservice.querymetric.QueryMetricFactory;
 import datawave.microservice.querymetric.QueryMetricType;
 import datawave.microservice.querymetric.QueryMetricsSummaryResponse;
@@ -88,6 +99,9 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final org.apache.log4j.Logger setupLogger = org.apache.log4j.Logger.getLogger(getClass());
     
+    private static final String ALL_USERS_QUERY = "((_Bounded_ = true) && (USER > 'A' && USER < 'ZZZZZZZ'))";
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+    
     protected String clientAuthorizations;
     
     protected AccumuloClientPool accumuloClientPool;
@@ -106,14 +120,17 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
     protected QueryMetricCombiner queryMetricCombiner;
     protected MarkingFunctions markingFunctions;
     protected DnUtils dnUtils;
+    protected VisibilityCache visibilityCache;
+    protected MetricStringInterner stringInterner;
+    protected MetricTracer metricTracer = MetricTracer.DISABLED;
     // this lock is necessary for when there is an error condition and the accumuloRecordWriter needs to be replaced
     protected ReentrantReadWriteLock accumuloRecordWriterLock = new ReentrantReadWriteLock();
     
     public ShardTableQueryMetricHandler(QueryMetricHandlerProperties queryMetricHandlerProperties,
                     @Qualifier("warehouse") AccumuloClientPool accumuloClientPool, QueryMetricQueryLogicFactory logicFactory, QueryMetricFactory metricFactory,
-                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner, LuceneToJexlQueryParser luceneToJexlQueryParser,
-                    DnUtils dnUtils) {
-        super(luceneToJexlQueryParser);
+                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner,
+                    Supplier<LuceneToJexlQueryParser> luceneToJexlQueryParserSupplier, DnUtils dnUtils) {
+        super(luceneToJexlQueryParserSupplier, queryMetricHandlerProperties.getMetricSelectorsCacheSize());
         this.queryMetricHandlerProperties = queryMetricHandlerProperties;
         this.logicFactory = logicFactory;
         this.metricFactory = metricFactory;
@@ -121,6 +138,9 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
         this.dnUtils = dnUtils;
         this.accumuloClientPool = accumuloClientPool;
         this.queryMetricCombiner = queryMetricCombiner;
+        this.visibilityCache = new VisibilityCache(markingFunctions, queryMetricHandlerProperties.getColumnVisibilityCacheSize(),
+                        queryMetricHandlerProperties.getVisibilityEvaluatorCacheSize());
+        this.stringInterner = new MetricStringInterner(queryMetricHandlerProperties.getInternedStringCacheSize());
         
         queryMetricHandlerProperties.getProperties().entrySet().forEach(e -> conf.set(e.getKey(), e.getValue()));
         
@@ -145,6 +165,22 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
         }
     }
     
+    public void setMetricTracer(MetricTracer metricTracer) {
+        this.metricTracer = metricTracer;
+    }
+    
+    public VisibilityCache getVisibilityCache() {
+        return visibilityCache;
+    }
+    
+    public MetricStringInterner getStringInterner() {
+        return stringInterner;
+    }
+    
+    public int getCompressionThreshold() {
+        return this.queryMetricHandlerProperties.getCompressionThreshold();
+    }
+    
     public void shutdown() throws Exception {
         if (this.recordWriter != null) {
             this.accumuloRecordWriterLock.writeLock().lock();
@@ -191,7 +227,10 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
     }
     
     private void writeMetric(T updated, T stored, long timestamp, boolean delete, ContentIndexingColumnBasedHandler handler) throws Exception {
-        Multimap<BulkIngestKey,Value> r = getEntries(handler, updated, stored, timestamp);
+        writeEntries(getEntries(handler, updated, stored, timestamp), delete, handler);
+    }
+    
+    private void writeEntries(Multimap<BulkIngestKey,Value> r, boolean delete, ContentIndexingColumnBasedHandler handler) throws Exception {
         if (r != null) {
             for (Entry<BulkIngestKey,Value> e : r.entries()) {
                 recordWriter.write(e.getKey().getTableName(), getMutation(e.getKey().getKey(), e.getValue()));
@@ -205,6 +244,45 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
     }
     
     public void writeMetric(T updatedQueryMetric, List<T> storedQueryMetrics, long timestamp, boolean delete) throws Exception {
+        writeMetric(handler -> {
+            if (storedQueryMetrics.isEmpty()) {
+                writeMetric(updatedQueryMetric, null, timestamp, delete, handler);
+            } else {
+                for (T storedQueryMetric : storedQueryMetrics) {
+                    writeMetric(updatedQueryMetric, storedQueryMetric, timestamp, delete, handler);
+                }
+            }
+        }, delete);
+    }
+    
+    /**
+     * Writes the fields of updatedQueryMetric that are written against what was last persisted, or when delete is true, deletes the persisted values that are
+     * deleted when they change. These are the same fields as when writing against the stored metric.
+     *
+     * @param updatedQueryMetric
+     *            the metric to write
+     * @param updatedFields
+     *            the event field values of updatedQueryMetric, from {@link #getEventFieldValues(BaseQueryMetric)}
+     * @param persistedState
+     *            what was last persisted
+     * @param timestamp
+     *            the timestamp of the mutations
+     * @param delete
+     *            true to delete the changed values
+     * @throws Exception
+     *             if the write fails
+     */
+    public void writeMetric(T updatedQueryMetric, Multimap<String,String> updatedFields, PersistedMetricState persistedState, long timestamp,
+                    boolean delete) throws Exception {
+        writeMetric(handler -> writeEntries(getEntries(handler, updatedQueryMetric, updatedFields, persistedState, timestamp), delete, handler), delete);
+    }
+    
+    private interface MetricWriter {
+        void write(ContentIndexingColumnBasedHandler handler) throws Exception;
+    }
+    
+    private void writeMetric(MetricWriter writer, boolean delete) throws Exception {
+        MetricSpan span = this.metricTracer.startSpan("writeMetric").setAttribute("delete", delete);
         try {
             TaskAttemptID taskId = new TaskAttemptID(new TaskID(new JobID(JOB_ID, 1), TaskType.MAP, 1), 1);
             this.accumuloRecordWriterLock.readLock().lock();
@@ -218,13 +296,7 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
                     }
                 };
                 handler.setup(context);
-                if (storedQueryMetrics.isEmpty()) {
-                    writeMetric(updatedQueryMetric, null, timestamp, delete, handler);
-                } else {
-                    for (T storedQueryMetric : storedQueryMetrics) {
-                        writeMetric(updatedQueryMetric, storedQueryMetric, timestamp, delete, handler);
-                    }
-                }
+                writer.write(handler);
             } finally {
                 this.accumuloRecordWriterLock.readLock().unlock();
             }
@@ -237,7 +309,10 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
             reload();
             // we have no way of knowing if the rejected mutation is this one or a previously
             // written one throw the exception so that the metric will be re-written
+            span.setError(e);
             throw e;
+        } finally {
+            span.close();
         }
     }
     
@@ -256,14 +331,63 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
         Map<String,String> eventFields = new HashMap<>();
         ContentQueryMetricsIngestHelper ingestHelper = getQueryMetricsIngestHelper(false);
         ingestHelper.setup(conf);
-        Multimap<String,NormalizedContentInterface> fieldsToWrite = ingestHelper.getEventFieldsToWrite(queryMetric, null);
+        Multimap<String,NormalizedContentInterface> fieldsToWrite = ingestHelper.normalize(ingestHelper.getEventFieldValues(queryMetric));
         for (Entry<String,NormalizedContentInterface> entry : fieldsToWrite.entries()) {
             eventFields.put(entry.getKey(), entry.getValue().getEventFieldValue());
         }
         return eventFields;
     }
     
+    /**
+     * Returns every event field and (un-normalized) value of the metric
+     */
+    public Multimap<String,String> getEventFieldValues(T queryMetric) {
+        return getQueryMetricsIngestHelper(false).getEventFieldValues(queryMetric);
+    }
+    
+    public PersistedMetricState getPersistedMetricState(T queryMetric) {
+        return getPersistedMetricState(queryMetric, getEventFieldValues(queryMetric));
+    }
+    
+    public PersistedMetricState getPersistedMetricState(T queryMetric, Multimap<String,String> fieldValues) {
+        return new PersistedMetricState(queryMetric, fieldValues, getQueryMetricsIngestHelper(false)::isDeletedWhenChanged);
+    }
+    
     protected Multimap<BulkIngestKey,Value> getEntries(ContentIndexingColumnBasedHandler handler, T updatedQueryMetric, T storedQueryMetric, long timestamp) {
+        return getEntries(handler, updatedQueryMetric, ingestHelper -> {
+            if (ingestHelper.getDeleteMode()) {
+                return ingestHelper.getEventFieldsToDelete(updatedQueryMetric, storedQueryMetric);
+            } else {
+                return ingestHelper.getEventFieldsToWrite(updatedQueryMetric, storedQueryMetric);
+            }
+        }, timestamp);
+    }
+    
+    protected Multimap<BulkIngestKey,Value> getEntries(ContentIndexingColumnBasedHandler handler, T updatedQueryMetric, Multimap<String,String> updatedFields,
+                    PersistedMetricState persistedState, long timestamp) {
+        return getEntries(handler, updatedQueryMetric, ingestHelper -> {
+            if (ingestHelper.getDeleteMode()) {
+                return ingestHelper.getEventFieldsToDelete(updatedFields, persistedState);
+            } else {
+                return ingestHelper.getEventFieldsToWrite(updatedFields, persistedState);
+            }
+        }, timestamp);
+    }
+    
+    private Multimap<BulkIngestKey,Value> getEntries(ContentIndexingColumnBasedHandler handler, T updatedQueryMetric,
+                    Function<ContentQueryMetricsIngestHelper,Multimap<String,NormalizedContentInterface>> fieldsFunction, long timestamp) {
+        MetricSpan span = this.metricTracer.startSpan("getEntries").setAttribute("queryId", updatedQueryMetric.getQueryId());
+        try {
+            Multimap<BulkIngestKey,Value> entries = createEntries(handler, updatedQueryMetric, fieldsFunction, timestamp);
+            span.setAttribute("entries", entries.size());
+            return entries;
+        } finally {
+            span.close();
+        }
+    }
+    
+    private Multimap<BulkIngestKey,Value> createEntries(ContentIndexingColumnBasedHandler handler, T updatedQueryMetric,
+                    Function<ContentQueryMetricsIngestHelper,Multimap<String,NormalizedContentInterface>> fieldsFunction, long timestamp) {
         Type type = TypeRegistry.getType("querymetrics");
         ContentQueryMetricsIngestHelper ingestHelper = (ContentQueryMetricsIngestHelper) handler.getContentIndexingDataTypeHelper();
         boolean deleteMode = ingestHelper.getDeleteMode();
@@ -277,7 +401,7 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
         Map<String,String> markings = updatedQueryMetric.getMarkings();
         if (markings != null && !markings.isEmpty()) {
             try {
-                event.setVisibility(this.markingFunctions.translateToColumnVisibility(updatedQueryMetric.getMarkings()));
+                event.setVisibility(this.visibilityCache.getColumnVisibility(markings));
             } catch (MarkingFunctions.Exception e) {
                 log.error(e.getMessage(), e);
                 event.setVisibility(this.queryMetricHandlerProperties.getDefaultMetricVisibility());
@@ -291,13 +415,7 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
         
         event.setId(uidBuilder.newId(updatedQueryMetric.getQueryId().getBytes(Charset.forName("UTF-8")), (Date) null));
         
-        final Multimap<String,NormalizedContentInterface> fields;
-        
-        if (deleteMode) {
-            fields = ingestHelper.getEventFieldsToDelete(updatedQueryMetric, storedQueryMetric);
-        } else {
-            fields = ingestHelper.getEventFieldsToWrite(updatedQueryMetric, storedQueryMetric);
-        }
+        final Multimap<String,NormalizedContentInterface> fields = fieldsFunction.apply(ingestHelper);
         
         Key key = new Key();
         
@@ -378,7 +496,38 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
     
     public List<T> getQueryMetrics(Query query) throws Exception {
         List<T> queryMetrics = new ArrayList<>();
-        
+        processQueryMetrics(query, metric -> queryMetrics.add(metric));
+        return queryMetrics;
+    }
+    
+    /**
+     * Passes each metric that matches the query to the processor as each page of events is returned instead of collecting all of the metrics
+     *
+     * @param query
+     *            the query
+     * @param processor
+     *            returns false to stop reading results
+     * @return true if the processor stopped reading before all results were read
+     * @throws Exception
+     *             if the query fails
+     */
+    public boolean processQueryMetrics(Query query, Predicate<T> processor) throws Exception {
+        return processEvents(query, event -> processor.test(toMetric(event)));
+    }
+    
+    /**
+     * Passes each event that matches the query to the processor as each page of events is returned
+     *
+     * @param query
+     *            the query
+     * @param processor
+     *            returns false to stop reading results
+     * @return true if the processor stopped reading before all results were read
+     * @throws Exception
+     *             if the query fails
+     */
+    protected boolean processEvents(Query query, Predicate<EventBase<?,?>> processor) throws Exception {
+        boolean stopped = false;
         String queryId = query.getId().toString();
         try {
             BaseQueryResponse queryResponse = createAndNext(query);
@@ -401,12 +550,17 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
                     
                     if (eventList != null && !eventList.isEmpty()) {
                         for (EventBase<?,?> event : eventList) {
-                            T metric = toMetric(event);
-                            queryMetrics.add(metric);
+                            if (!processor.test(event)) {
+                                stopped = true;
+                                break;
+                            }
+                        }
+                        if (stopped) {
+                            done = true;
+                        } else {
+                            // request the next page
+                            queryResponse = next(queryId);
                         }
-                        
-                        // request the next page
-                        queryResponse = next(queryId);
                     } else {
                         done = true;
                     }
@@ -421,7 +575,7 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
             close(queryId);
         }
         
-        return queryMetrics;
+        return stopped;
     }
     
     protected abstract BaseQueryResponse createAndNext(Query query) throws Exception;
@@ -645,8 +799,8 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
                     
                 }
             }
-            m.setPageTimes(new ArrayList<>(pageMetrics.values()));
-            return m;
+            m.setPageTimes(new PageMetricList(pageMetrics.values()));
+            return this.stringInterner.intern(m);
         } catch (RuntimeException e) {
             return null;
         }
@@ -749,42 +903,165 @@ public abstract class ShardTableQueryMetricHandler<T extends BaseQueryMetric> ex
         QueryMetricsSummaryResponse response = new QueryMetricsSummaryResponse();
         try {
             // this method is open to any user
-            DatawaveUser datawaveUser = currentUser.getPrimaryUser();
-            String datawaveUserShortName = dnUtils.getShortName(datawaveUser.getName());
-            Collection<String> userAuths = new ArrayList<>(datawaveUser.getAuths());
-            if (clientAuthorizations != null) {
-                Collection<String> connectorAuths = new ArrayList<>();
-                Arrays.stream(StringUtils.split(clientAuthorizations, ',')).forEach(a -> {
-                    connectorAuths.add(a);
-                });
-                userAuths.retainAll(connectorAuths);
-            }
-            Collection<? extends Collection<String>> authorizations = Collections.singletonList(userAuths);
-            Query query = createQuery();
-            query.setBeginDate(begin);
-            query.setEndDate(end);
-            query.setQueryLogicName(queryMetricHandlerProperties.getQueryMetricsLogic());
+            String datawaveUserShortName = dnUtils.getShortName(currentUser.getPrimaryUser().getName());
+            String queryString;
             if (onlyCurrentUser) {
-                query.setQuery("USER == '" + datawaveUserShortName + "'");
+                queryString = "USER == " + toJexlLiteral(datawaveUserShortName);
             } else {
-                query.setQuery("((_Bounded_ = true) && (USER > 'A' && USER < 'ZZZZZZZ'))");
+                queryString = ALL_USERS_QUERY;
             }
-            query.setQueryName(queryMetricHandlerProperties.getQueryMetricsLogic());
-            query.setColumnVisibility(queryMetricHandlerProperties.getQueryVisibility());
-            query.setQueryAuthorizations(WSAuthorizationsUtil.buildAuthorizationString(authorizations));
-            query.setExpirationDate(DateUtils.addDays(new Date(), 1));
-            query.setPagesize(1000);
-            query.setUserDN(datawaveUserShortName);
-            query.setId(UUID.randomUUID());
-            query.setParameters(ImmutableMap.of(QueryOptions.INCLUDE_GROUPING_CONTEXT, "true"));
-            
-            List<T> queryMetrics = getQueryMetrics(query);
-            response = processQueryMetricsSummary(queryMetrics, end);
+            Query query = createUserQuery(begin, end, currentUser, queryString, 1000);
             
+            // bin each metric as it is read so that the matching metrics are never all held at once
+            QueryMetricsSummaryResponse summary = new QueryMetricsSummaryResponse();
+            Consumer<T> summaryBinner = createSummaryBinner(summary, end);
+            processQueryMetrics(query, metric -> {
+                summaryBinner.accept(metric);
+                return true;
+            });
+            response = summary;
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             response.addException(e);
         }
         return response;
     }
+    
+    /**
+     * Returns one page of the metrics that the current user is able to see, in the order of their event keys. If user is null, then metrics for all users are
+     * returned.
+     * <p>
+     * A page continues after the key of the last metric of the previous page instead of reading past the metrics of the earlier pages again. The search is
+     * run one day at a time starting with the day of that key, because the query logic scans the shards of a day in parallel and does not return their events
+     * in key order. The page is made of the smallest keys after the last key, so only the day that a page ends in is read again for the next page.
+     *
+     * @param begin
+     *            the begin date
+     * @param end
+     *            the end date
+     * @param currentUser
+     *            the current user whose authorizations are used for the query
+     * @param user
+     *            the user whose metrics are returned or null for all users
+     * @param afterKey
+     *            the event key of the last metric of the previous page or null for the first page
+     * @param pageSize
+     *            the maximum number of metrics to return
+     * @param page
+     *            the list that the page of metrics is added to
+     * @return the event key of the last metric in the page if there are more metrics after this page, otherwise null
+     * @throws Exception
+     *             if the query fails
+     */
+    public String getQueryMetrics(Date begin, Date end, DatawaveUserDetails currentUser, String user, String afterKey, int pageSize, List<T> page)
+                    throws Exception {
+        String queryString = user == null ? ALL_USERS_QUERY : "USER == " + toJexlLiteral(user);
+        // the smallest keys after afterKey, plus one more to tell whether there is another page
+        TreeMap<String,EventBase<?,?>> nextEvents = new TreeMap<>();
+        Date windowBegin = begin;
+        Date afterKeyDay = afterKey == null ? null : getShardDate(afterKey);
+        if (afterKeyDay != null && afterKeyDay.after(windowBegin)) {
+            windowBegin = afterKeyDay;
+        }
+        while (!windowBegin.after(end) && nextEvents.size() <= pageSize) {
+            Date windowEnd = DateUtils.addMilliseconds(getNextDay(windowBegin), -1);
+            if (windowEnd.after(end)) {
+                windowEnd = end;
+            }
+            // each day is read in full, so it is read in pages of the same size as the other searches
+            processEvents(createUserQuery(windowBegin, windowEnd, currentUser, queryString, 1000), event -> {
+                String key = getEventKey(event);
+                if (afterKey == null || key.compareTo(afterKey) > 0) {
+                    if (nextEvents.size() <= pageSize) {
+                        nextEvents.put(key, event);
+                    } else if (key.compareTo(nextEvents.lastKey()) < 0) {
+                        nextEvents.pollLastEntry();
+                        nextEvents.put(key, event);
+                    }
+                }
+                return true;
+            });
+            windowBegin = DateUtils.addMilliseconds(windowEnd, 1);
+        }
+        boolean hasMore = nextEvents.size() > pageSize;
+        String lastKey = null;
+        for (Map.Entry<String,EventBase<?,?>> entry : nextEvents.entrySet()) {
+            if (page.size() == pageSize) {
+                break;
+            }
+            page.add(toMetric(entry.getValue()));
+            lastKey = entry.getKey();
+        }
+        return hasMore ? lastKey : null;
+    }
+    
+    /**
+     * The key of an event, which orders events by shard and then by their datatype and uid
+     */
+    protected static String getEventKey(EventBase<?,?> event) {
+        return event.getMetadata().getRow() + "\u0000" + event.getMetadata().getDataType() + "\u0000" + event.getMetadata().getInternalId();
+    }
+    
+    /**
+     * Returns the start of the day of the shard in an event key, or null if the key does not start with a shard date
+     */
+    protected static Date getShardDate(String eventKey) {
+        if (eventKey.length() < 8) {
+            return null;
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+        sdf.setTimeZone(GMT);
+        try {
+            return sdf.parse(eventKey.substring(0, 8));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+    
+    // the start of the next day in GMT, which is the time zone that shards and request dates use
+    private static Date getNextDay(Date date) {
+        Calendar calendar = Calendar.getInstance(GMT);
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTime();
+    }
+    
+    /**
+     * Quotes a value as a JEXL string literal so that it can not change the meaning of the query that it is added to
+     */
+    public static String toJexlLiteral(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+    
+    protected Query createUserQuery(Date begin, Date end, DatawaveUserDetails currentUser, String queryString, int pageSize) {
+        DatawaveUser datawaveUser = currentUser.getPrimaryUser();
+        String datawaveUserShortName = dnUtils.getShortName(datawaveUser.getName());
+        Collection<String> userAuths = new ArrayList<>(datawaveUser.getAuths());
+        if (clientAuthorizations != null) {
+            Collection<String> connectorAuths = new ArrayList<>();
+            Arrays.stream(StringUtils.split(clientAuthorizations, ',')).forEach(a -> {
+                connectorAuths.add(a);
+            });
+            userAuths.retainAll(connectorAuths);
+        }
+        Collection<? extends Collection<String>> authorizations = Collections.singletonList(userAuths);
+        Query query = createQuery();
+        query.setBeginDate(begin);
+        query.setEndDate(end);
+        query.setQueryLogicName(queryMetricHandlerProperties.getQueryMetricsLogic());
+        query.setQuery(queryString);
+        query.setQueryName(queryMetricHandlerProperties.getQueryMetricsLogic());
+        query.setColumnVisibility(queryMetricHandlerProperties.getQueryVisibility());
+        query.setQueryAuthorizations(WSAuthorizationsUtil.buildAuthorizationString(authorizations));
+        query.setExpirationDate(DateUtils.addDays(new Date(), 1));
+        query.setPagesize(pageSize);
+        query.setUserDN(datawaveUserShortName);
+        query.setId(UUID.randomUUID());
+        query.setParameters(ImmutableMap.of(QueryOptions.INCLUDE_GROUPING_CONTEXT, "true"));
+        return query;
+    }
 }
@@ -2,15 +2,25 @@ package datawave.microservice.querymetric.handler;
 
 import static datawave.query.QueryParameters.QUERY_SYNTAX;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.jexl2.parser.JexlNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import datawave.microservice.querymetric.BaseQueryMetric;
 import datawave.microservice.querymetric.config.QueryMetricHandlerProperties;
 import datawave.query.jexl.JexlASTHelper;
@@ -30,12 +40,19 @@ public class SimpleQueryGeometryHandler implements QueryGeometryHandler {
     private static final String LUCENE = "LUCENE";
     private static final String JEXL = "JEXL";
     
-    private LuceneToJexlQueryParser parser = new LuceneToJexlQueryParser();
+    // LuceneToJexlQueryParser is not thread safe, so each thread gets its own reusable instance
+    private static final ThreadLocal<LuceneToJexlQueryParser> parser = ThreadLocal.withInitial(LuceneToJexlQueryParser::new);
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    // geo features by a hash of the query syntax and query string so that a query is only parsed once
+    private final Cache<HashCode,GeoFeatures> geoFeaturesCache;
     
     private String basemaps;
     
     public SimpleQueryGeometryHandler(QueryMetricHandlerProperties queryMetricHandlerProperties) {
         this.basemaps = queryMetricHandlerProperties.getBaseMaps();
+        this.geoFeaturesCache = CacheBuilder.newBuilder().maximumSize(queryMetricHandlerProperties.getGeoFeaturesCacheSize()).build();
     }
     
     @Override
@@ -45,13 +62,10 @@ public class SimpleQueryGeometryHandler implements QueryGeometryHandler {
         if (metrics != null) {
             Set<QueryGeometry> queryGeometries = new LinkedHashSet<>();
             for (BaseQueryMetric metric : metrics) {
-                try {
-                    boolean isLuceneQuery = isLuceneQuery(metric.getParameters());
-                    String jexlQuery = (isLuceneQuery) ? toJexlQuery(metric.getQuery()) : metric.getQuery();
-                    JexlNode queryNode = JexlASTHelper.parseAndFlattenJexlQuery(jexlQuery);
-                    queryGeometries.addAll(GeoFeatureVisitor.getGeoFeatures(queryNode, isLuceneQuery));
-                } catch (Exception e) {
-                    log.error(e.getMessage(), e);
+                GeoFeatures geoFeatures = getGeoFeatures(metric);
+                if (geoFeatures.isValid()) {
+                    queryGeometries.addAll(geoFeatures.getQueryGeometries());
+                } else {
                     response.addException(new Exception("Unable to parse the geo features"));
                 }
             }
@@ -62,27 +76,63 @@ public class SimpleQueryGeometryHandler implements QueryGeometryHandler {
     }
     
     private static boolean isLuceneQuery(Set<QueryImpl.Parameter> parameters) {
-        return parameters.stream().anyMatch(p -> p.getParameterName().equals(QUERY_SYNTAX) && p.getParameterValue().equals(LUCENE));
+        return parameters != null && parameters.stream().anyMatch(p -> p.getParameterName().equals(QUERY_SYNTAX) && p.getParameterValue().equals(LUCENE));
     }
     
-    private String toJexlQuery(String query) throws ParseException {
-        return toJexlQuery(query, parser);
+    private static String toJexlQuery(String query) throws ParseException {
+        return parser.get().parse(query).getOriginalQuery();
+    }
+    
+    private GeoFeatures getGeoFeatures(BaseQueryMetric metric) {
+        boolean isLuceneQuery = isLuceneQuery(metric.getParameters());
+        String query = metric.getQuery();
+        if (query == null) {
+            return GeoFeatures.INVALID;
+        }
+        HashCode key = HASH_FUNCTION.newHasher().putBoolean(isLuceneQuery).putString(query, StandardCharsets.UTF_8).hash();
+        try {
+            return geoFeaturesCache.get(key, () -> {
+                try {
+                    String jexlQuery = (isLuceneQuery) ? toJexlQuery(query) : query;
+                    JexlNode queryNode = JexlASTHelper.parseAndFlattenJexlQuery(jexlQuery);
+                    return new GeoFeatures(new ArrayList<>(GeoFeatureVisitor.getGeoFeatures(queryNode, isLuceneQuery)));
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
+                    return GeoFeatures.INVALID;
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            log.error(e.getMessage(), e);
+            return GeoFeatures.INVALID;
+        }
     }
     
-    private static String toJexlQuery(String query, LuceneToJexlQueryParser parser) throws ParseException {
-        return parser.parse(query).getOriginalQuery();
+    /**
+     * Returns true if the query has geo features. The features are extracted as they are for {@link #getQueryGeometryResponse}, using the query syntax of the
+     * metric, so a LUCENE query is converted to JEXL first. Only the text of the functions depends on the syntax, not whether any were found.
+     */
+    @Override
+    public boolean isGeoQuery(BaseQueryMetric metric) {
+        GeoFeatures geoFeatures = getGeoFeatures(metric);
+        return geoFeatures.isValid() && !geoFeatures.getQueryGeometries().isEmpty();
     }
     
-    public static boolean isGeoQuery(BaseQueryMetric metric) {
-        try {
-            String jexlQuery = metric.getQuery();
-            if (isLuceneQuery(metric.getParameters()))
-                jexlQuery = toJexlQuery(jexlQuery, new LuceneToJexlQueryParser());
-            
-            return !GeoFeatureVisitor.getGeoFeatures(JexlASTHelper.parseAndFlattenJexlQuery(jexlQuery)).isEmpty();
-        } catch (Exception e) {
-            log.trace("Unable to parse the geo features", e);
+    private static class GeoFeatures {
+        
+        private static final GeoFeatures INVALID = new GeoFeatures(null);
+        
+        private final List<QueryGeometry> queryGeometries;
+        
+        private GeoFeatures(List<QueryGeometry> queryGeometries) {
+            this.queryGeometries = queryGeometries == null ? null : Collections.unmodifiableList(queryGeometries);
+        }
+        
+        private boolean isValid() {
+            return queryGeometries != null;
+        }
+        
+        private List<QueryGeometry> getQueryGeometries() {
+            return queryGeometries;
         }
-        return false;
     }
 }
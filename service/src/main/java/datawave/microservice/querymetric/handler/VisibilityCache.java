@@ -0,0 +1,67 @@
+package datawave.microservice.querymetric.handler;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.accumulo.core.security.VisibilityEvaluator;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import datawave.marking.MarkingFunctions;
+
+/**
+ * Bounded caches for the ColumnVisibility translated from a metric's markings and for the VisibilityEvaluator built from a set of authorizations. The number
+ * of distinct markings and authorization sets is small compared to the number of metrics, so translating them once avoids parsing the same expressions on
+ * every write and every query.
+ */
+public class VisibilityCache {
+    
+    private final MarkingFunctions markingFunctions;
+    private final Cache<Map<String,String>,ColumnVisibility> columnVisibilityCache;
+    private final Cache<Set<String>,VisibilityEvaluator> visibilityEvaluatorCache;
+    
+    public VisibilityCache(MarkingFunctions markingFunctions, long maxColumnVisibilities, long maxVisibilityEvaluators) {
+        this.markingFunctions = markingFunctions;
+        this.columnVisibilityCache = CacheBuilder.newBuilder().maximumSize(maxColumnVisibilities).recordStats().build();
+        this.visibilityEvaluatorCache = CacheBuilder.newBuilder().maximumSize(maxVisibilityEvaluators).recordStats().build();
+    }
+    
+    public ColumnVisibility getColumnVisibility(Map<String,String> markings) throws MarkingFunctions.Exception {
+        // copy the markings so that a caller can not modify a cache key
+        Map<String,String> key = markings == null ? new HashMap<>() : new HashMap<>(markings);
+        try {
+            return this.columnVisibilityCache.get(key, () -> this.markingFunctions.translateToColumnVisibility(key));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof MarkingFunctions.Exception) {
+                throw (MarkingFunctions.Exception) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+    
+    public VisibilityEvaluator getVisibilityEvaluator(Collection<String> auths) {
+        Set<String> key = auths == null ? new HashSet<>() : new HashSet<>(auths);
+        try {
+            return this.visibilityEvaluatorCache.get(key, () -> new VisibilityEvaluator(new Authorizations(key.toArray(new String[0]))));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+    
+    public CacheStats getColumnVisibilityStats() {
+        return this.columnVisibilityCache.stats();
+    }
+    
+    public CacheStats getVisibilityEvaluatorStats() {
+        return this.visibilityEvaluatorCache.stats();
+    }
+}
@@ -15,29 +15,24 @@ import com.hazelcast.map.MapLoader;
 import com.hazelcast.map.MapStoreFactory;
 
 import datawave.microservice.querymetric.BaseQueryMetric;
-import datawave.microservice.querymetric.QueryMetricUpdate;
-import datawave.microservice.querymetric.QueryMetricUpdateHolder;
+import datawave.microservice.querymetric.PersistedMetricState;
 import datawave.microservice.querymetric.handler.ShardTableQueryMetricHandler;
 
 @Component("loader")
 @ConditionalOnProperty(name = "hazelcast.server.enabled", havingValue = "true")
-public class AccumuloMapLoader<T extends BaseQueryMetric> implements MapLoader<String,QueryMetricUpdateHolder<T>> {
+public class AccumuloMapLoader<T extends BaseQueryMetric> implements MapLoader<String,PersistedMetricState> {
     
     private Logger log = LoggerFactory.getLogger(getClass());
     private static AccumuloMapLoader instance;
     protected ShardTableQueryMetricHandler<T> handler;
     
-    public static class Factory implements MapStoreFactory<String,QueryMetricUpdate> {
+    public static class Factory implements MapStoreFactory<String,PersistedMetricState> {
         @Override
-        public MapLoader<String,QueryMetricUpdate> newMapStore(String mapName, Properties properties) {
+        public MapLoader<String,PersistedMetricState> newMapStore(String mapName, Properties properties) {
             return AccumuloMapLoader.instance;
         }
     }
     
-    protected AccumuloMapLoader() {
-        
-    }
-    
     @Autowired
     public AccumuloMapLoader(ShardTableQueryMetricHandler<T> handler) {
         this.handler = handler;
@@ -49,25 +44,25 @@ public class AccumuloMapLoader<T extends BaseQueryMetric> implements MapLoader<S
     }
     
     @Override
-    public QueryMetricUpdateHolder load(String s) {
+    public PersistedMetricState load(String s) {
         T metric = null;
         try {
             metric = this.handler.getQueryMetric(s);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
-        return metric == null ? null : new QueryMetricUpdateHolder(metric);
+        return metric == null ? null : this.handler.getPersistedMetricState(metric);
     }
     
     @Override
-    public Map<String,QueryMetricUpdateHolder<T>> loadAll(Collection<String> keys) {
-        Map<String,QueryMetricUpdateHolder<T>> metrics = new LinkedHashMap<>();
+    public Map<String,PersistedMetricState> loadAll(Collection<String> keys) {
+        Map<String,PersistedMetricState> metrics = new LinkedHashMap<>();
         keys.forEach(id -> {
-            BaseQueryMetric queryMetric;
+            T queryMetric;
             try {
                 queryMetric = this.handler.getQueryMetric(id);
                 if (queryMetric != null) {
-                    metrics.put(id, new QueryMetricUpdateHolder(queryMetric));
+                    metrics.put(id, this.handler.getPersistedMetricState(queryMetric));
                 }
             } catch (Exception e) {
                 log.error(e.getMessage(), e);
@@ -2,8 +2,8 @@ package datawave.microservice.querymetric.persistence;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
@@ -20,32 +20,56 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.Cache;
 import org.springframework.stereotype.Component;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
 import com.codahale.metrics.Timer;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Multimap;
 import com.hazelcast.map.IMap;
 import com.hazelcast.map.MapLoader;
 import com.hazelcast.map.MapStore;
 import com.hazelcast.map.MapStoreFactory;
 
 import datawave.microservice.querymetric.BaseQueryMetric;
+import datawave.microservice.querymetric.FreshnessSlo;
 import datawave.microservice.querymetric.MergeLockLifecycleListener;
+import datawave.microservice.querymetric.MetricJournal;
+import datawave.microservice.querymetric.MetricSpan;
+import datawave.microservice.querymetric.MetricTracer;
+import datawave.microservice.querymetric.PersistedMetricState;
 import datawave.microservice.querymetric.QueryMetricType;
 import datawave.microservice.querymetric.QueryMetricUpdate;
 import datawave.microservice.querymetric.QueryMetricUpdateHolder;
+import datawave.microservice.querymetric.QueryMetricUpdateHolder.Counter;
+import datawave.microservice.querymetric.config.QueryMetricProperties;
+import datawave.microservice.querymetric.handler.BaseQueryMetricHandler;
 import datawave.microservice.querymetric.handler.ShardTableQueryMetricHandler;
 
 @Component("store")
 @ConditionalOnProperty(name = "hazelcast.server.enabled")
-public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoader<T> implements MapStore<String,QueryMetricUpdateHolder<T>> {
+public class AccumuloMapStore<T extends BaseQueryMetric> implements MapStore<String,QueryMetricUpdateHolder<T>> {
     
     private static AccumuloMapStore instance;
     private Logger log = LoggerFactory.getLogger(AccumuloMapStore.class);
+    private ShardTableQueryMetricHandler<T> handler;
     private IMap<Object,Object> lastWrittenQueryMetricCache;
     private MergeLockLifecycleListener mergeLock;
     private com.google.common.cache.Cache failures;
     private Timer writeTimer = new Timer(new SlidingTimeWindowArrayReservoir(1, MINUTES));
+    // how long updates waited in the cache before being written and how stale the written metrics were
+    private Timer dirtyTimer = new Timer(new SlidingTimeWindowArrayReservoir(1, MINUTES));
+    private Timer eventToDurableTimer = new Timer(new SlidingTimeWindowArrayReservoir(1, MINUTES));
+    private Timer ingestToDurableTimer = new Timer(new SlidingTimeWindowArrayReservoir(1, MINUTES));
+    private FreshnessSlo freshnessSlo;
+    private MetricTracer metricTracer;
+    private MetricJournal journal;
     private boolean shuttingDown = false;
+    private long persistedFinalTtlSeconds;
+    private FinalMetricExpirer finalMetricExpirer = null;
+    // the last metric written for each query, which an incoming metric that was created again is combined with
+    private com.google.common.cache.Cache<String,T> lastWrittenMetrics = null;
+    private Meter lastWrittenMetricHits = new Meter();
+    private Meter storedMetricReads = new Meter();
     
     public static class Factory implements MapStoreFactory<String,BaseQueryMetric> {
         @Override
@@ -55,16 +79,28 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
     }
     
     @Autowired
-    public AccumuloMapStore(ShardTableQueryMetricHandler handler, MergeLockLifecycleListener mergeLock) {
+    public AccumuloMapStore(ShardTableQueryMetricHandler<T> handler, MergeLockLifecycleListener mergeLock, QueryMetricProperties queryMetricProperties,
+                    MetricTracer metricTracer, MetricJournal journal) {
         this.handler = handler;
         this.mergeLock = mergeLock;
+        this.metricTracer = metricTracer;
+        this.journal = journal;
         this.failures = CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES).build();
+        this.persistedFinalTtlSeconds = queryMetricProperties.getPersistedFinalTtlSeconds();
+        this.freshnessSlo = new FreshnessSlo(queryMetricProperties.getFreshnessSloMillis(),
+                        TimeUnit.SECONDS.toMillis(queryMetricProperties.getFreshnessSloWindowSeconds()));
+        if (queryMetricProperties.getLastWrittenMetricCacheSize() > 0) {
+            this.lastWrittenMetrics = CacheBuilder.newBuilder().maximumSize(queryMetricProperties.getLastWrittenMetricCacheSize()).build();
+        }
         AccumuloMapStore.instance = this;
     }
     
     @PreDestroy
     public void shutdown() {
         this.shuttingDown = true;
+        if (this.finalMetricExpirer != null) {
+            this.finalMetricExpirer.shutdown();
+        }
         // ensure that queued updates written to the handler's
         // MultiTabletBatchWriter are flushed to Accumulo on shutdown
         try {
@@ -78,17 +114,57 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
         this.lastWrittenQueryMetricCache = (IMap<Object,Object>) lastWrittenQueryMetricCache.getNativeCache();
     }
     
+    public void setIncomingQueryMetricsCache(Cache incomingQueryMetricsCache) {
+        if (this.persistedFinalTtlSeconds > 0) {
+            this.finalMetricExpirer = new FinalMetricExpirer((IMap<Object,Object>) incomingQueryMetricsCache.getNativeCache(), this.persistedFinalTtlSeconds);
+        }
+    }
+    
     @Override
     public void store(String queryId, QueryMetricUpdateHolder<T> queryMetricUpdate) {
+        // these are reset when the update is persisted
+        long eventTime = queryMetricUpdate.getEventTime();
+        long ingestTime = queryMetricUpdate.getIngestTime();
+        long dirtyTime = queryMetricUpdate.getDirtyTime();
+        // later updates that are applied while this one is written have a higher sequence and stay in the journal
+        long journalSequence = queryMetricUpdate.getJournalSequence();
+        long start = System.currentTimeMillis();
+        if (dirtyTime > 0) {
+            dirtyTimer.update(Math.max(start - dirtyTime, 0), TimeUnit.MILLISECONDS);
+        }
+        boolean success = false;
+        // the write continues the trace of the earliest update that it persists
+        MetricSpan span = this.metricTracer.startSpan("AccumuloMapStore.store", queryMetricUpdate.getTraceParent()).setAttribute("queryId", queryId)
+                        .setAttribute("lifecycle", queryMetricUpdate.getMetric().getLifecycle());
         Timer.Context writeTimerContext = writeTimer.time();
         try {
-            storeWithRetry(queryMetricUpdate);
+            success = storeWithRetry(queryMetricUpdate);
         } finally {
             writeTimerContext.stop();
+            span.setAttribute("success", success).close();
+        }
+        // the mutations have been handed to the handler's batch writer, which flushes them within its maximum latency
+        if (success) {
+            this.journal.persisted(queryId, journalSequence);
+            if (queryMetricUpdate.isFinalLifecycle() && this.finalMetricExpirer != null) {
+                this.finalMetricExpirer.expire(queryId, journalSequence);
+            }
+            long now = System.currentTimeMillis();
+            if (eventTime > 0) {
+                eventToDurableTimer.update(Math.max(now - eventTime, 0), TimeUnit.MILLISECONDS);
+            }
+            if (ingestTime > 0) {
+                ingestToDurableTimer.update(Math.max(now - ingestTime, 0), TimeUnit.MILLISECONDS);
+            }
+            // the SLO is measured from the event time when it is known, which is never later than the ingest time
+            long sloStart = eventTime > 0 ? eventTime : ingestTime;
+            if (sloStart > 0) {
+                freshnessSlo.record(Math.max(now - sloStart, 0));
+            }
         }
     }
     
-    public void storeWithRetry(QueryMetricUpdateHolder<T> queryMetricUpdate) {
+    public boolean storeWithRetry(QueryMetricUpdateHolder<T> queryMetricUpdate) {
         boolean retry = true;
         boolean success = false;
         while (!this.shuttingDown && !success && retry) {
@@ -104,57 +180,94 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
                 }
             }
         }
+        return success;
     }
     
     public void store(QueryMetricUpdateHolder<T> queryMetricUpdate) throws Exception {
         String queryId = queryMetricUpdate.getMetric().getQueryId();
         T updatedMetric = null;
+        if (queryMetricUpdate.isMetricSelectorsPending()) {
+            populateMetricSelectors(queryMetricUpdate);
+        }
+        // An incoming metric that was created after this query was last persisted (for example, after an eviction) is combined with
+        // the last written metric. It is found before taking the merge lock so that a slow read does not hold up a merge of the caches.
+        T lastQueryMetric = null;
+        if (!queryMetricUpdate.isNewMetric() && !queryMetricUpdate.isPersisted()) {
+            lastQueryMetric = getLastWrittenMetric(queryId);
+        }
         this.mergeLock.lock();
         try {
             updatedMetric = (T) queryMetricUpdate.getMetric().duplicate();
             QueryMetricType metricType = queryMetricUpdate.getMetricType();
-            QueryMetricUpdateHolder<T> lastQueryMetricUpdate = null;
+            PersistedMetricState lastPersistedState = null;
+            Multimap<String,String> updatedFields;
             
             if (!queryMetricUpdate.isNewMetric()) {
-                lastQueryMetricUpdate = (QueryMetricUpdateHolder<T>) lastWrittenQueryMetricCache.get(queryId);
+                lastPersistedState = (PersistedMetricState) lastWrittenQueryMetricCache.get(queryId);
             }
             
-            if (lastQueryMetricUpdate != null) {
-                T lastQueryMetric = lastQueryMetricUpdate.getMetric();
-                if (metricType.equals(QueryMetricType.DISTRIBUTED)) {
-                    // these values are added incrementally in a distributed update. Because we can not be sure
-                    // exactly when the incomingQueryMetricCache value is stored, it would otherwise be possible
-                    // for updates to be included twice.
-                    updatedMetric.setSourceCount(queryMetricUpdate.getValue("sourceCount"));
-                    updatedMetric.setNextCount(queryMetricUpdate.getValue("nextCount"));
-                    updatedMetric.setSeekCount(queryMetricUpdate.getValue("seekCount"));
-                    updatedMetric.setYieldCount(queryMetricUpdate.getValue("yieldCount"));
-                    updatedMetric.setDocRanges(queryMetricUpdate.getValue("docRanges"));
-                    updatedMetric.setFiRanges(queryMetricUpdate.getValue("fiRanges"));
+            if (lastPersistedState != null) {
+                if (queryMetricUpdate.isPersisted()) {
+                    // The incoming metric has been combined with every update since it was last persisted,
+                    // so only the values that are tracked in the persisted state need to be carried forward
+                    if (metricType.equals(QueryMetricType.DISTRIBUTED)) {
+                        // these values are added incrementally in a distributed update. Because we can not be sure
+                        // exactly when the incomingQueryMetricCache value is stored, it would otherwise be possible
+                        // for updates to be included twice.
+                        updatedMetric.setSourceCount(lastPersistedState.getSourceCount() + queryMetricUpdate.getValue(Counter.SOURCE_COUNT));
+                        updatedMetric.setNextCount(lastPersistedState.getNextCount() + queryMetricUpdate.getValue(Counter.NEXT_COUNT));
+                        updatedMetric.setSeekCount(lastPersistedState.getSeekCount() + queryMetricUpdate.getValue(Counter.SEEK_COUNT));
+                        updatedMetric.setYieldCount(lastPersistedState.getYieldCount() + queryMetricUpdate.getValue(Counter.YIELD_COUNT));
+                        updatedMetric.setDocRanges(lastPersistedState.getDocRanges() + queryMetricUpdate.getValue(Counter.DOC_RANGES));
+                        updatedMetric.setFiRanges(lastPersistedState.getFiRanges() + queryMetricUpdate.getValue(Counter.FI_RANGES));
+                    }
+                    if (lastPersistedState.getCreateDate() != null) {
+                        updatedMetric.setCreateDate(lastPersistedState.getCreateDate());
+                    }
+                    if (lastPersistedState.getLastUpdated() != null && (updatedMetric.getLastUpdated() == null
+                                    || lastPersistedState.getLastUpdated().getTime() > updatedMetric.getLastUpdated().getTime())) {
+                        updatedMetric.setLastUpdated(lastPersistedState.getLastUpdated());
+                    }
+                    updatedMetric.setNumUpdates(Math.max(updatedMetric.getNumUpdates(), lastPersistedState.getNumUpdates()));
+                } else {
+                    // The incoming metric was created after this query was last persisted (for example, after an
+                    // eviction) and may only be a partial update, so combine it with the full persisted metric
+                    if (metricType.equals(QueryMetricType.DISTRIBUTED)) {
+                        updatedMetric.setSourceCount(queryMetricUpdate.getValue(Counter.SOURCE_COUNT));
+                        updatedMetric.setNextCount(queryMetricUpdate.getValue(Counter.NEXT_COUNT));
+                        updatedMetric.setSeekCount(queryMetricUpdate.getValue(Counter.SEEK_COUNT));
+                        updatedMetric.setYieldCount(queryMetricUpdate.getValue(Counter.YIELD_COUNT));
+                        updatedMetric.setDocRanges(queryMetricUpdate.getValue(Counter.DOC_RANGES));
+                        updatedMetric.setFiRanges(queryMetricUpdate.getValue(Counter.FI_RANGES));
+                    }
+                    if (lastQueryMetric != null) {
+                        updatedMetric = handler.combineMetrics(updatedMetric, lastQueryMetric, metricType);
+                    }
                 }
-                
-                updatedMetric = handler.combineMetrics(updatedMetric, lastQueryMetric, metricType);
                 long numUpdates = updatedMetric.getNumUpdates();
                 // The createDate shouldn't change once it is set, so this is just insurance
                 // We use the higher timestamp to ensure that the deletes and successive writes persist
                 // As long as this timestamp is greater than when it was written, then the delete will be effective
                 long deleteTimestamp;
-                if (lastQueryMetric.getCreateDate().after(updatedMetric.getCreateDate())) {
+                if (lastPersistedState.getCreateDate().after(updatedMetric.getCreateDate())) {
                     deleteTimestamp = updatedMetric.getCreateDate().getTime() + numUpdates;
                 } else {
-                    deleteTimestamp = lastQueryMetric.getCreateDate().getTime() + numUpdates;
+                    deleteTimestamp = lastPersistedState.getCreateDate().getTime() + numUpdates;
                 }
                 long writeTimestamp = deleteTimestamp + 1;
                 updatedMetric.setNumUpdates(numUpdates + 1);
                 updatedMetric.setLastUpdated(new Date(updatedMetric.getLastUpdated().getTime() + 1));
                 
-                if (lastQueryMetric.getLastUpdated() != null) {
-                    handler.writeMetric(updatedMetric, Collections.singletonList(lastQueryMetric), deleteTimestamp, true);
+                // the event fields are computed once and used for the deletes, the writes and the new persisted state
+                updatedFields = handler.getEventFieldValues(updatedMetric);
+                if (lastPersistedState.getLastUpdated() != null) {
+                    handler.writeMetric(updatedMetric, updatedFields, lastPersistedState, deleteTimestamp, true);
                 }
-                handler.writeMetric(updatedMetric, Collections.singletonList(lastQueryMetric), writeTimestamp, false);
+                handler.writeMetric(updatedMetric, updatedFields, lastPersistedState, writeTimestamp, false);
             } else {
                 updatedMetric.setLastUpdated(updatedMetric.getCreateDate());
-                handler.writeMetric(updatedMetric, Collections.emptyList(), updatedMetric.getCreateDate().getTime(), false);
+                updatedFields = handler.getEventFieldValues(updatedMetric);
+                handler.writeMetric(updatedMetric, updatedFields, null, updatedMetric.getCreateDate().getTime(), false);
             }
             if (log.isTraceEnabled()) {
                 log.trace("writing metric to accumulo: " + queryId + " - " + queryMetricUpdate.getMetric());
@@ -162,7 +275,11 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
                 log.debug("writing metric to accumulo: " + queryId);
             }
             
-            lastWrittenQueryMetricCache.set(queryId, new QueryMetricUpdateHolder(updatedMetric));
+            lastWrittenQueryMetricCache.set(queryId, handler.getPersistedMetricState(updatedMetric, updatedFields));
+            if (this.lastWrittenMetrics != null) {
+                // updatedMetric is a copy that is not changed once it is written
+                this.lastWrittenMetrics.put(queryId, updatedMetric);
+            }
             queryMetricUpdate.persisted();
             failures.invalidate(queryId);
         } finally {
@@ -182,6 +299,43 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
         }
     }
     
+    /**
+     * Returns the metric that was last written for a query. The local copy is used if it is the one that the persisted state was taken from, which it is not
+     * if another member wrote the query since, and otherwise the metric is read from Accumulo after flushing the writes that are still in the batch writer.
+     */
+    private T getLastWrittenMetric(String queryId) throws Exception {
+        if (this.lastWrittenMetrics != null) {
+            T lastWrittenMetric = this.lastWrittenMetrics.getIfPresent(queryId);
+            PersistedMetricState lastPersistedState = (PersistedMetricState) lastWrittenQueryMetricCache.get(queryId);
+            if (lastWrittenMetric != null && lastPersistedState != null && lastWrittenMetric.getNumUpdates() == lastPersistedState.getNumUpdates()) {
+                this.lastWrittenMetricHits.mark();
+                return (T) lastWrittenMetric.duplicate();
+            }
+        }
+        this.storedMetricReads.mark();
+        handler.flush();
+        return handler.getQueryMetric(queryId);
+    }
+    
+    /**
+     * Extracts the selectors that were not extracted when the query was received because the extraction queue was full. They are added to the cached metric,
+     * which is the metric that is written, so that later writes keep them.
+     */
+    private void populateMetricSelectors(QueryMetricUpdateHolder<T> queryMetricUpdate) {
+        T metric = queryMetricUpdate.getMetric();
+        String query = metric.getQuery();
+        if (query != null && metric.getPositiveSelectors() == null && metric.getNegativeSelectors() == null) {
+            BaseQueryMetricHandler.MetricSelectors selectors = handler.getMetricSelectors(query);
+            if (!selectors.getPositiveSelectors().isEmpty()) {
+                metric.setPositiveSelectors(new ArrayList<>(selectors.getPositiveSelectors()));
+            }
+            if (!selectors.getNegativeSelectors().isEmpty()) {
+                metric.setNegativeSelectors(new ArrayList<>(selectors.getNegativeSelectors()));
+            }
+        }
+        queryMetricUpdate.setMetricSelectorsPending(false);
+    }
+    
     private boolean retryOnException(QueryMetricUpdate update, Exception e) {
         String queryId = update.getMetric().getQueryId();
         Integer numFailures = 1;
@@ -230,6 +384,12 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
         return null;
     }
     
+    @Override
+    public Iterable<String> loadAllKeys() {
+        // not implemented
+        return null;
+    }
+    
     @Override
     public void delete(String key) {
         // not implemented
@@ -243,4 +403,36 @@ public class AccumuloMapStore<T extends BaseQueryMetric> extends AccumuloMapLoad
     public Timer getWriteTimer() {
         return writeTimer;
     }
+    
+    public Timer getDirtyTimer() {
+        return dirtyTimer;
+    }
+    
+    public Timer getEventToDurableTimer() {
+        return eventToDurableTimer;
+    }
+    
+    public Timer getIngestToDurableTimer() {
+        return ingestToDurableTimer;
+    }
+    
+    public FreshnessSlo getFreshnessSlo() {
+        return freshnessSlo;
+    }
+    
+    public Meter getLastWrittenMetricHits() {
+        return lastWrittenMetricHits;
+    }
+    
+    public Meter getStoredMetricReads() {
+        return storedMetricReads;
+    }
+    
+    public long getFinalTtlCount() {
+        return finalMetricExpirer == null ? 0 : finalMetricExpirer.getExpiredCount();
+    }
+    
+    public MetricJournal getJournal() {
+        return journal;
+    }
 }
@@ -0,0 +1,78 @@
+package datawave.microservice.querymetric.persistence;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hazelcast.map.IMap;
+
+import datawave.microservice.querymetric.QueryMetricUpdateHolder;
+
+/**
+ * Shortens the time that a query which reached a final lifecycle stays in the incoming cache once it is written, so that the heap and the eviction budget of
+ * the cache go to running queries. An update that arrives later creates the entry again, which is combined with the stored metric when it is written.
+ * <p>
+ * The ttl is set on a thread of its own rather than on the map store's thread, which must not call back into the map that it stores. It is only set when the
+ * cached holder is still the one that was written, that is when it has the same journal sequence and no update has been applied since it was persisted.
+ */
+public class FinalMetricExpirer {
+    
+    private Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final IMap<Object,Object> incomingQueryMetricsCache;
+    private final long ttlSeconds;
+    private final Executor executor;
+    private final LongAdder expired = new LongAdder();
+    
+    public FinalMetricExpirer(IMap<Object,Object> incomingQueryMetricsCache, long ttlSeconds) {
+        // when the queue is full, the entry is left to the map's expiration
+        this(incomingQueryMetricsCache, ttlSeconds, new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(10000),
+                        new ThreadFactoryBuilder().setNameFormat("metric-expirer-thread-%d").setDaemon(true).build(), new ThreadPoolExecutor.DiscardPolicy()));
+    }
+    
+    FinalMetricExpirer(IMap<Object,Object> incomingQueryMetricsCache, long ttlSeconds, Executor executor) {
+        this.incomingQueryMetricsCache = incomingQueryMetricsCache;
+        this.ttlSeconds = ttlSeconds;
+        this.executor = executor;
+    }
+    
+    /**
+     * @param queryId
+     *            the query that was written
+     * @param journalSequence
+     *            the journal sequence of the holder that was written
+     */
+    public void expire(String queryId, long journalSequence) {
+        this.executor.execute(() -> expireNow(queryId, journalSequence));
+    }
+    
+    private void expireNow(String queryId, long journalSequence) {
+        try {
+            QueryMetricUpdateHolder holder = (QueryMetricUpdateHolder) this.incomingQueryMetricsCache.get(queryId);
+            if (holder == null || !holder.isFinalLifecycle() || holder.getDirtyTime() > 0 || holder.getJournalSequence() != journalSequence) {
+                return;
+            }
+            if (this.incomingQueryMetricsCache.setTtl(queryId, this.ttlSeconds, TimeUnit.SECONDS)) {
+                this.expired.increment();
+            }
+        } catch (Exception e) {
+            log.debug("Unable to set the ttl of {}: {}", queryId, e.getMessage());
+        }
+    }
+    
+    public void shutdown() {
+        if (this.executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) this.executor).shutdownNow();
+        }
+    }
+    
+    public long getExpiredCount() {
+        return this.expired.sum();
+    }
+}
@@ -1,6 +1,9 @@
 package datawave.microservice.querymetric.persistence;
 
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +19,7 @@ import com.hazelcast.map.listener.EntryUpdatedListener;
 import com.hazelcast.map.listener.MapEvictedListener;
 
 import datawave.microservice.querymetric.BaseQueryMetric;
+import datawave.microservice.querymetric.PersistedMetricState;
 import datawave.microservice.querymetric.QueryMetricUpdate;
 
 /*
@@ -32,70 +36,98 @@ import datawave.microservice.querymetric.QueryMetricUpdate;
 public class MetricMapListener implements EntryAddedListener, EntryUpdatedListener, EntryLoadedListener, MapEvictedListener, EntryEvictedListener,
                 EntryRemovedListener, EntryMergedListener {
     
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd HHmmss").withZone(ZoneId.systemDefault());
     private Logger log = LoggerFactory.getLogger(MetricMapListener.class);
     private String mapName;
+    private double sampleRate;
     
     public MetricMapListener(String mapName) {
+        this(mapName, 1.0);
+    }
+    
+    /**
+     * @param mapName
+     *            the name of the map that the listener is registered on
+     * @param sampleRate
+     *            the fraction of events that are logged, between 0 and 1
+     */
+    public MetricMapListener(String mapName, double sampleRate) {
+        if (!(sampleRate >= 0.0 && sampleRate <= 1.0)) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+        }
         this.mapName = mapName;
+        this.sampleRate = sampleRate;
+    }
+    
+    private static String format(Date date) {
+        return date == null ? null : DATE_FORMAT.format(date.toInstant());
     }
     
     private String printEvent(EntryEvent event) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd HHmmss");
         Object value = event.getValue();
         Object oldValue = event.getOldValue();
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("entryEventType=%s, member=%s, name='%s', key=%s", event.getEventType(), event.getMember(), event.getName(), event.getKey()));
         if (value != null && value instanceof QueryMetricUpdate) {
             BaseQueryMetric valueMetric = ((QueryMetricUpdate) value).getMetric();
-            sb.append(String.format(" metric[createDate=%s, host=%s, lifecycle=%s, numPages=%s, numUpdates=%s]", sdf.format(valueMetric.getCreateDate()),
+            sb.append(String.format(" metric[createDate=%s, host=%s, lifecycle=%s, numPages=%s, numUpdates=%s]", format(valueMetric.getCreateDate()),
                             valueMetric.getHost(), valueMetric.getLifecycle(), valueMetric.getPageTimes().size(), valueMetric.getNumUpdates()));
+        } else if (value != null && value instanceof PersistedMetricState) {
+            PersistedMetricState valueState = (PersistedMetricState) value;
+            sb.append(String.format(" persisted[createDate=%s, lifecycle=%s, numUpdates=%d]", format(valueState.getCreateDate()), valueState.getLifecycle(),
+                            valueState.getNumUpdates()));
         }
         if (oldValue != null && oldValue instanceof QueryMetricUpdate) {
             BaseQueryMetric oldValueMetric = ((QueryMetricUpdate) oldValue).getMetric();
-            sb.append(String.format(" oldMetric[createDate=%s, host=%s, lifecycle=%s, numPages=%d, numUpdates=%d]", sdf.format(oldValueMetric.getCreateDate()),
+            sb.append(String.format(" oldMetric[createDate=%s, host=%s, lifecycle=%s, numPages=%d, numUpdates=%d]", format(oldValueMetric.getCreateDate()),
                             oldValueMetric.getHost(), oldValueMetric.getLifecycle(), oldValueMetric.getPageTimes().size(), oldValueMetric.getNumUpdates()));
+        } else if (oldValue != null && oldValue instanceof PersistedMetricState) {
+            PersistedMetricState oldValueState = (PersistedMetricState) oldValue;
+            sb.append(String.format(" oldPersisted[createDate=%s, lifecycle=%s, numUpdates=%d]", format(oldValueState.getCreateDate()),
+                            oldValueState.getLifecycle(), oldValueState.getNumUpdates()));
         }
         return sb.toString();
     }
     
-    @Override
-    public void entryAdded(EntryEvent event) {
-        if (event.getMember().localMember()) {
+    // the listener is registered as a local listener, so each event is only seen by the member that owns the entry
+    private void audit(EntryEvent event) {
+        if (log.isDebugEnabled() && isSampled()) {
             log.debug(mapName + " " + printEvent(event));
         }
     }
     
+    boolean isSampled() {
+        return this.sampleRate >= 1.0 || (this.sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < this.sampleRate);
+    }
+    
+    @Override
+    public void entryAdded(EntryEvent event) {
+        audit(event);
+    }
+    
     @Override
     public void entryUpdated(EntryEvent event) {
-        if (event.getMember().localMember()) {
-            log.debug(mapName + " " + printEvent(event));
-        }
+        audit(event);
     }
     
     @Override
     public void entryLoaded(EntryEvent event) {
-        log.debug(mapName + " " + printEvent(event));
+        audit(event);
     }
     
     @Override
     public void entryEvicted(EntryEvent event) {
-        if (event.getMember().localMember()) {
-            log.debug(mapName + " " + printEvent(event));
-        }
+        audit(event);
     }
     
     @Override
     public void entryMerged(EntryEvent event) {
-        if (event.getMember().localMember()) {
-            log.debug(mapName + " " + printEvent(event));
-        }
+        audit(event);
     }
     
     @Override
     public void entryRemoved(EntryEvent event) {
-        if (event.getMember().localMember()) {
-            log.debug(mapName + " " + printEvent(event));
-        }
+        audit(event);
     }
     
     @Override
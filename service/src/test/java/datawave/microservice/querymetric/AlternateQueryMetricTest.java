@@ -42,7 +42,7 @@ public class AlternateQueryMetricTest extends QueryMetricTestBase {
                 .build());
         // @formatter:on
         metricAssertEquals("incomingQueryMetricsCache metric wrong", m, incomingQueryMetricsCache.get(queryId, QueryMetricUpdate.class).getMetric());
-        metricAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdate.class).getMetric());
+        persistedStateAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class));
         AlternateQueryMetric metricFromAccumulo = (AlternateQueryMetric) shardTableQueryMetricHandler.getQueryMetric(queryId);
         metricAssertEquals("accumulo metric wrong", m, metricFromAccumulo);
         assertEquals(m.getExtraField(), metricFromAccumulo.getExtraField(), "extra field missing/incorrect");
@@ -0,0 +1,62 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.querymetric.config.QueryMetricHandlerProperties;
+import datawave.microservice.querymetric.handler.SimpleQueryGeometryHandler;
+
+public class FormattedMetricCacheTest {
+    
+    private static final String QUERY = "FIELD1 == 'value1' && (FIELD2 == 'value2' || FIELD3 == 'value3')";
+    private static final String PLAN = "FIELD1 == 'value1' && (FIELD2 == 'value2' || FIELD3 == 'value3')";
+    
+    private QueryMetric createMetric(String queryId) {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId(queryId);
+        metric.setQuery(QUERY);
+        metric.setPlan(PLAN);
+        metric.setNumUpdates(1);
+        return metric;
+    }
+    
+    @Test
+    public void testFormatDoesNotChangeTheMetric() {
+        FormattedMetricCache cache = new FormattedMetricCache(10, 16384, new SimpleQueryGeometryHandler(new QueryMetricHandlerProperties()));
+        QueryMetric metric = createMetric("query1");
+        BaseQueryMetric formatted = cache.format(metric);
+        assertNotSame(metric, formatted);
+        assertEquals(QUERY, metric.getQuery());
+        assertEquals(PLAN, metric.getPlan());
+        assertEquals("query1", formatted.getQueryId());
+        
+        // the same version of the metric is formatted from the cache
+        BaseQueryMetric formattedAgain = cache.format(metric);
+        assertNotSame(formatted, formattedAgain);
+        assertEquals(formatted.getQuery(), formattedAgain.getQuery());
+        assertEquals(formatted.getPlan(), formattedAgain.getPlan());
+        assertEquals(1, cache.getStats().missCount());
+        assertEquals(1, cache.getStats().hitCount());
+        assertFalse(cache.isGeoQuery(metric));
+    }
+    
+    @Test
+    public void testChangedPlanIsFormattedAgain() {
+        FormattedMetricCache cache = new FormattedMetricCache(10, 16384, new SimpleQueryGeometryHandler(new QueryMetricHandlerProperties()));
+        QueryMetric metric = createMetric("query1");
+        metric.setPlan(null);
+        BaseQueryMetric formatted = cache.format(metric);
+        assertNull(formatted.getPlan());
+        
+        // a plan that arrives without a change to numUpdates replaces the cached entry
+        metric.setPlan(PLAN);
+        formatted = cache.format(metric);
+        assertNotNull(formatted.getPlan());
+        assertEquals(formatted.getPlan(), cache.format(createMetric("query1")).getPlan());
+    }
+}
@@ -0,0 +1,37 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class FreshnessSloTest {
+    
+    @Test
+    public void testPercentWithinSlo() {
+        FreshnessSlo slo = new FreshnessSlo(1000, 60000);
+        long now = 1_000_000;
+        assertEquals(100.0, slo.getPercentWithin(now), 0.001);
+        slo.record(500, now);
+        slo.record(1000, now);
+        slo.record(1500, now + 1000);
+        slo.record(5000, now + 2000);
+        assertEquals(50.0, slo.getPercentWithin(now + 2000), 0.001);
+    }
+    
+    @Test
+    public void testWritesLeaveTheWindow() {
+        FreshnessSlo slo = new FreshnessSlo(1000, 60000);
+        long now = 1_000_000;
+        slo.record(5000, now);
+        slo.record(500, now + 30000);
+        assertEquals(50.0, slo.getPercentWithin(now + 30000), 0.001);
+        
+        // the late write is older than the window, which is longer than the timer reservoirs
+        assertEquals(100.0, slo.getPercentWithin(now + 61000), 0.001);
+        assertEquals(100.0, slo.getPercentWithin(now + 200000), 0.001);
+        
+        // a bucket that is used again after a full window starts over
+        slo.record(5000, now + 60000);
+        assertEquals(50.0, slo.getPercentWithin(now + 60000), 0.001);
+    }
+}
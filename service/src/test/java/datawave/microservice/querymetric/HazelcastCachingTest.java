@@ -37,8 +37,8 @@ public class HazelcastCachingTest extends QueryMetricTestBase {
             String queryId = createQueryId();
             BaseQueryMetric m = createMetric(queryId);
             shardTableQueryMetricHandler.writeMetric(m, Collections.emptyList(), m.getCreateDate().getTime(), false);
-            BaseQueryMetric metricFromReadThroughCache = lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdate.class).getMetric();
-            metricAssertEquals("read through cache failed", m, metricFromReadThroughCache);
+            PersistedMetricState stateFromReadThroughCache = lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class);
+            persistedStateAssertEquals("read through cache failed", m, stateFromReadThroughCache);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             fail(e.getMessage());
@@ -0,0 +1,58 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class HeavyHitterSketchTest {
+    
+    @Test
+    public void frequentKeysAreReportedInOrder() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(3, 1024, 4);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("user" + i);
+            if (i % 2 == 0) {
+                sketch.add("heavy1");
+            }
+            if (i % 4 == 0) {
+                sketch.add("heavy2");
+            }
+            if (i % 8 == 0) {
+                sketch.add("heavy3");
+            }
+        }
+        Map<String,Long> topCounts = sketch.getTopCounts();
+        List<String> keys = new ArrayList<>(topCounts.keySet());
+        assertEquals(Arrays.asList("heavy1", "heavy2", "heavy3"), keys);
+        // count-min estimates are never below the true count
+        assertTrue(topCounts.get("heavy1") >= 500);
+        assertTrue(topCounts.get("heavy2") >= 250);
+        assertTrue(topCounts.get("heavy3") >= 125);
+        assertEquals(1875, sketch.getTotal());
+    }
+    
+    @Test
+    public void candidatesStayBounded() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(10, 256, 4);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("host" + i);
+        }
+        assertTrue(sketch.getCandidateCount() <= 21);
+        assertEquals(10, sketch.getTopCounts().size());
+        assertTrue(sketch.getEstimate("host1") >= 1);
+    }
+    
+    @Test
+    public void nullKeysAreCounted() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(10, 256, 4);
+        sketch.add(null);
+        sketch.add(null);
+        assertEquals(Long.valueOf(2), sketch.getTopCounts().get("null"));
+    }
+}
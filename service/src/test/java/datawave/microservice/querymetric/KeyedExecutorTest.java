@@ -0,0 +1,81 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class KeyedExecutorTest {
+    
+    @Test
+    public void tasksForAKeyRunInOrder() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test-lane", 4, 10);
+        Map<String,List<Integer>> results = new HashMap<>();
+        for (int k = 0; k < 20; k++) {
+            results.put("query" + k, Collections.synchronizedList(new ArrayList<>()));
+        }
+        for (int i = 0; i < 100; i++) {
+            for (int k = 0; k < 20; k++) {
+                int value = i;
+                List<Integer> result = results.get("query" + k);
+                executor.execute("query" + k, () -> result.add(value));
+            }
+        }
+        executor.shutdown(10000);
+        assertEquals(2000, executor.getCompletedCount());
+        for (List<Integer> result : results.values()) {
+            assertEquals(100, result.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(Integer.valueOf(i), result.get(i));
+            }
+        }
+    }
+    
+    @Test
+    public void keysOnDifferentLanesRunInParallel() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test-lane", 2, 10);
+        String key1 = "query1";
+        String key2 = "query2";
+        for (int i = 3; executor.getLane(key1) == executor.getLane(key2); i++) {
+            key2 = "query" + i;
+        }
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(key1, () -> {
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(key2, ran::countDown);
+        // the second task runs while the first lane is blocked
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        blocked.countDown();
+        executor.shutdown(10000);
+        assertEquals(2, executor.getCompletedCount());
+    }
+    
+    @Test
+    public void failedTasksDoNotStopTheLane() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test-lane", 1, 10);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute("query1", () -> {
+            throw new IllegalStateException("test");
+        });
+        executor.execute("query1", ran::countDown);
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        executor.shutdown(10000);
+        assertEquals(1, executor.getFailedCount());
+        assertThrows(IllegalStateException.class, () -> executor.execute("query1", () -> {}));
+    }
+}
@@ -0,0 +1,73 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedSegmentTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    public void consumedRecordsAreNotRecovered() throws Exception {
+        Path path = this.directory.resolve("segment-0.dat");
+        MappedSegment segment = new MappedSegment(path, 1024);
+        int first = segment.append("first".getBytes(StandardCharsets.UTF_8));
+        int second = segment.append("second".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2 * MappedSegment.LENGTH_BYTES + 11, segment.getWritePosition());
+        assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), segment.read(second, segment.getLength(second)));
+        segment.consume(first, 5);
+        assertEquals(-5, segment.getLength(first));
+        segment.close();
+        
+        MappedSegment recovered = new MappedSegment(path, 1024);
+        List<String> records = new ArrayList<>();
+        assertEquals(1, recovered.recover((position, length) -> records.add(new String(recovered.read(position, length), StandardCharsets.UTF_8))));
+        assertEquals(Arrays.asList("second"), records);
+        // appends continue after the recovered records
+        assertEquals(segment.getWritePosition(), recovered.getWritePosition());
+        assertFalse(recovered.hasRoom(1024));
+        recovered.close();
+    }
+    
+    @Test
+    public void closedSegmentsAreNotUsed() throws Exception {
+        Path path = this.directory.resolve("segment-0.dat");
+        MappedSegment segment = new MappedSegment(path, 1024);
+        int position = segment.append("first".getBytes(StandardCharsets.UTF_8));
+        segment.delete();
+        assertFalse(segment.isOpen());
+        assertFalse(Files.exists(path));
+        assertThrows(IllegalStateException.class, () -> segment.read(position, 5));
+        assertThrows(IllegalStateException.class, () -> segment.consume(position, 5));
+        // closing again does nothing
+        segment.close();
+    }
+    
+    @Test
+    public void segmentsAreListedInOrder() throws Exception {
+        for (long id : Arrays.asList(10L, 2L, 1L)) {
+            new MappedSegment(this.directory.resolve("segment-" + id + ".dat"), 1024).close();
+        }
+        Files.createFile(this.directory.resolve("other.txt"));
+        List<Path> paths = MappedSegment.list(this.directory, "segment-", ".dat");
+        assertEquals(3, paths.size());
+        assertEquals(1, MappedSegment.getId(paths.get(0), "segment-", ".dat"));
+        assertEquals(2, MappedSegment.getId(paths.get(1), "segment-", ".dat"));
+        assertEquals(10, MappedSegment.getId(paths.get(2), "segment-", ".dat"));
+        assertTrue(SegmentTestUtils.countSegments(this.directory) > paths.size());
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
@@ -22,6 +23,9 @@ import org.springframework.web.util.UriComponentsBuilder;
 @ActiveProfiles({"MessagingTest", "QueryMetricTest", "MessageRouting", "hazelcast-writethrough"})
 public class MessagingTest extends QueryMetricTestBase {
     
+    @Autowired
+    private TopQueryTracker topQueryTracker;
+    
     @BeforeEach
     public void setup() {
         super.setup();
@@ -57,6 +61,48 @@ public class MessagingTest extends QueryMetricTestBase {
         metricAssertEquals(m, returnedMetric);
     }
     
+    @Test
+    public void topQueriesAreMergedFromMembers() throws Exception {
+        // rank above the queries that earlier tests left on the leaderboard
+        long highest = topQueryTracker.getTopQueries(TopQueryTracker.Measure.SEEK_COUNT).stream().mapToLong(TopQuery::getValue).max().orElse(0);
+        BaseQueryMetric expensive = createMetric(createQueryId());
+        expensive.setSeekCount(highest + 2000);
+        BaseQueryMetric cheaper = createMetric(createQueryId());
+        cheaper.setSeekCount(highest + 1000);
+        for (BaseQueryMetric m : new BaseQueryMetric[] {cheaper, expensive}) {
+            // @formatter:off
+            client.submit(new QueryMetricClient.Request.Builder()
+                    .withMetric(m)
+                    .withMetricType(QueryMetricType.COMPLETE)
+                    .build());
+            // @formatter:on
+            ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, m.getQueryId());
+        }
+        
+        UriComponents topUri = UriComponentsBuilder.newInstance().scheme("https").host("localhost").port(webServicePort).path("/querymetric/v1/top")
+                        .queryParam("by", "seekCount").queryParam("limit", 2).build();
+        HttpEntity requestEntity = createRequestEntity(null, adminUser, null);
+        ResponseEntity<TopQueriesResponse> response = restTemplate.exchange(topUri.toUri(), HttpMethod.GET, requestEntity, TopQueriesResponse.class);
+        
+        assertEquals("seekCount", response.getBody().getBy());
+        assertEquals(2, response.getBody().getTopQueries().size());
+        assertEquals(expensive.getQueryId(), response.getBody().getTopQueries().get(0).getQueryId());
+        assertEquals(expensive.getSeekCount(), response.getBody().getTopQueries().get(0).getValue());
+        assertEquals(cheaper.getQueryId(), response.getBody().getTopQueries().get(1).getQueryId());
+        
+        // a query that reaches a final lifecycle leaves the leaderboard
+        expensive.setLifecycle(BaseQueryMetric.Lifecycle.CLOSED);
+        // @formatter:off
+        client.submit(new QueryMetricClient.Request.Builder()
+                .withMetric(expensive)
+                .withMetricType(QueryMetricType.COMPLETE)
+                .build());
+        // @formatter:on
+        ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, expensive.getQueryId());
+        response = restTemplate.exchange(topUri.toUri(), HttpMethod.GET, requestEntity, TopQueriesResponse.class);
+        assertEquals(cheaper.getQueryId(), response.getBody().getTopQueries().get(0).getQueryId());
+    }
+    
     @Test
     public void sendMultiplePagesViaMessage() throws Exception {
         int port = webServicePort;
@@ -0,0 +1,81 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricHistogramTest {
+    
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 1, 63, 64, 65, 66, 127, 128, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = MetricHistogram.bucketIndex(value);
+            assertTrue(MetricHistogram.bucketUpperBound(index) >= value);
+            if (index > 0) {
+                assertTrue(MetricHistogram.bucketUpperBound(index - 1) < value);
+            }
+        }
+    }
+    
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        MetricHistogram histogram = new MetricHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.update(value);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertWithin(5000, histogram.getValueAtPercentile(50));
+        assertWithin(9500, histogram.getValueAtPercentile(95));
+        assertWithin(9900, histogram.getValueAtPercentile(99));
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+    }
+    
+    @Test
+    public void mergedHistogramsMatchCombinedValues() {
+        MetricHistogram histogram1 = new MetricHistogram();
+        MetricHistogram histogram2 = new MetricHistogram();
+        MetricHistogram combined = new MetricHistogram();
+        for (long value = 0; value < 1000; value++) {
+            (value % 3 == 0 ? histogram1 : histogram2).update(value * 7);
+            combined.update(value * 7);
+        }
+        histogram1.merge(histogram2);
+        assertEquals(combined.getCount(), histogram1.getCount());
+        assertEquals(combined.getMax(), histogram1.getMax());
+        for (double percentile : new double[] {50, 95, 99}) {
+            assertEquals(combined.getValueAtPercentile(percentile), histogram1.getValueAtPercentile(percentile));
+        }
+    }
+    
+    @Test
+    public void aggregatorLimitsTagValues() {
+        QueryStatsAggregator aggregator = new QueryStatsAggregator(2);
+        aggregator.record("host1", "user1", "logic", 100, 10);
+        aggregator.record("host2", "user2", "logic", 200, 20);
+        aggregator.record("host3", "user3", "logic", 300, 30);
+        List<String> elapsedHosts = new ArrayList<>();
+        List<Long> allCounts = new ArrayList<>();
+        aggregator.forEach((measure, tag, tagValue, histogram) -> {
+            if (measure == QueryStatsAggregator.Measure.ELAPSED_TIME && tag == QueryStatsAggregator.Tag.HOST) {
+                elapsedHosts.add(tagValue);
+            } else if (tag == null) {
+                allCounts.add(histogram.getCount());
+            }
+        });
+        assertEquals(3, elapsedHosts.size());
+        assertTrue(elapsedHosts.contains(QueryStatsAggregator.OTHER));
+        assertEquals(2, allCounts.size());
+        assertEquals(Long.valueOf(3), allCounts.get(0));
+    }
+    
+    private static void assertWithin(long expected, long actual) {
+        // log-linear buckets of 32 sub-buckets are within about 3% of the value
+        assertTrue(Math.abs(actual - expected) <= expected * 0.04, "expected about " + expected + " but was " + actual);
+    }
+}
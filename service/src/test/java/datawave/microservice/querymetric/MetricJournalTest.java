@@ -0,0 +1,262 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static datawave.microservice.querymetric.SegmentTestUtils.countSegments;
+import static datawave.microservice.querymetric.SegmentTestUtils.createMetric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import datawave.microservice.querymetric.QueryMetricUpdateHolder.Counter;
+import datawave.microservice.querymetric.config.QueryMetricProperties;
+import datawave.microservice.querymetric.handler.QueryMetricCombiner;
+
+public class MetricJournalTest {
+    
+    @TempDir
+    Path directory;
+    
+    private final List<MetricJournal> journals = new ArrayList<>();
+    
+    @AfterEach
+    public void cleanup() {
+        this.journals.forEach(MetricJournal::shutdown);
+    }
+    
+    private MetricJournal open(QueryMetricProperties.Journal properties) throws IOException {
+        MetricJournal journal = new MetricJournal(properties);
+        this.journals.add(journal);
+        return journal;
+    }
+    
+    private QueryMetricProperties.Journal createProperties(int segmentSizeBytes) {
+        QueryMetricProperties.Journal properties = new QueryMetricProperties.Journal();
+        properties.setEnabled(true);
+        properties.setDirectory(this.directory.toString());
+        properties.setSegmentSizeBytes(segmentSizeBytes);
+        return properties;
+    }
+    
+    private QueryMetricUpdateHolder createHolder(String queryId, BaseQueryMetric.Lifecycle lifecycle) {
+        return new QueryMetricUpdateHolder(createMetric(queryId, lifecycle));
+    }
+    
+    @Test
+    public void persistedRecordsAreNotRecovered() throws Exception {
+        QueryMetricProperties.Journal properties = createProperties(64 * 1024);
+        MetricJournal journal = open(properties);
+        long sequence1 = journal.append("query1", createHolder("query1", BaseQueryMetric.Lifecycle.DEFINED));
+        long sequence2 = journal.append("query1", createHolder("query1", BaseQueryMetric.Lifecycle.RESULTS));
+        journal.append("query2", createHolder("query2", BaseQueryMetric.Lifecycle.DEFINED));
+        assertTrue(sequence2 > sequence1);
+        assertEquals(3, journal.getPendingCount());
+        
+        // the write included only the first update of query1
+        journal.persisted("query1", sequence1);
+        assertEquals(2, journal.getPendingCount());
+        journal.shutdown();
+        
+        journal = open(properties);
+        Map<String,QueryMetricUpdateHolder> unpersisted = journal.getRecovered();
+        assertEquals(2, unpersisted.size());
+        assertEquals(BaseQueryMetric.Lifecycle.RESULTS, unpersisted.get("query1").getMetric().getLifecycle());
+        assertEquals(sequence2, unpersisted.get("query1").getJournalSequence());
+        assertEquals("query2", unpersisted.get("query2").getMetric().getQueryId());
+        // new records follow the recovered ones
+        assertTrue(journal.append("query3", createHolder("query3", BaseQueryMetric.Lifecycle.DEFINED)) > sequence2);
+    }
+    
+    @Test
+    public void recoveredRecordsAreKeptUntilReplayed() throws Exception {
+        QueryMetricProperties.Journal properties = createProperties(64 * 1024);
+        MetricJournal journal = open(properties);
+        long sequence1 = journal.append("query1", createHolder("query1", BaseQueryMetric.Lifecycle.DEFINED));
+        journal.shutdown();
+        
+        journal = open(properties);
+        // a write of an update that arrived after the restart does not include the recovered record
+        long sequence2 = journal.append("query1", createHolder("query1", BaseQueryMetric.Lifecycle.RESULTS));
+        assertTrue(sequence2 > sequence1);
+        journal.persisted("query1", sequence2);
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(sequence1, journal.getRecovered().get("query1").getJournalSequence());
+        
+        journal.replayed("query1", sequence1);
+        assertEquals(0, journal.getPendingCount());
+        assertTrue(journal.getRecovered().isEmpty());
+        // the recovered segment is deleted, and the segment of the stripe that was appended to is kept
+        assertEquals(1, countSegments(this.directory));
+    }
+    
+    @Test
+    public void journaledCountersAreMergedOnReplay() {
+        QueryMetricCombiner combiner = new QueryMetricCombiner();
+        QueryMetricUpdateHolder journaled = new QueryMetricUpdateHolder(createMetric("query1", BaseQueryMetric.Lifecycle.RESULTS), QueryMetricType.DISTRIBUTED);
+        // the journaled metric has every count since the query started, and the counters have the counts that were not written
+        journaled.getMetric().setSeekCount(100);
+        journaled.addValue(Counter.SEEK_COUNT, 10);
+        journaled.addValue("customCount", 2l);
+        QueryMetricUpdateHolder cached = new QueryMetricUpdateHolder(createMetric("query1", BaseQueryMetric.Lifecycle.RESULTS), QueryMetricType.DISTRIBUTED);
+        cached.getMetric().setSeekCount(5);
+        cached.addValue(Counter.SEEK_COUNT, 5);
+        
+        Map.Entry<String,QueryMetricUpdateHolder> entry = new AbstractMap.SimpleEntry<>("query1", cached);
+        new MetricUpdateEntryProcessor(journaled, combiner, true).process(entry);
+        assertEquals(15, entry.getValue().getValue(Counter.SEEK_COUNT));
+        assertEquals(15, entry.getValue().getMetric().getSeekCount());
+        assertEquals(Long.valueOf(2), entry.getValue().getValue("customCount"));
+        
+        // a journaled holder that is not in the cache becomes the entry with its counters
+        entry = new AbstractMap.SimpleEntry<>("query1", null);
+        new MetricUpdateEntryProcessor(journaled, combiner, true).process(entry);
+        assertEquals(10, entry.getValue().getValue(Counter.SEEK_COUNT));
+    }
+    
+    @Test
+    public void recordsOfAPreviousHolderAreReplayed() throws Exception {
+        QueryMetricProperties.Journal properties = createProperties(64 * 1024);
+        MetricJournal journal = open(properties);
+        PreviousQueryMetricUpdateHolder previous = new PreviousQueryMetricUpdateHolder(createMetric("query1", BaseQueryMetric.Lifecycle.RESULTS));
+        previous.counters[Counter.SEEK_COUNT.ordinal()] = 10;
+        long sequence = journal.append("query1", serializeAsHolder(previous));
+        journal.shutdown();
+        
+        QueryMetricUpdateHolder recovered = open(properties).getRecovered().get("query1");
+        assertEquals(sequence, recovered.getJournalSequence());
+        assertEquals(BaseQueryMetric.Lifecycle.RESULTS, recovered.getMetric().getLifecycle());
+        assertEquals(1000, recovered.getDirtyTime());
+        assertEquals(10, recovered.getValue(Counter.SEEK_COUNT));
+        // the fields that were added since the record was written have their default values, and the one that was removed is skipped
+        assertNull(recovered.getTraceParent());
+        assertFalse(recovered.isMetricSelectorsPending());
+        
+        Map.Entry<String,QueryMetricUpdateHolder> entry = new AbstractMap.SimpleEntry<>("query1", null);
+        new MetricUpdateEntryProcessor(recovered, new QueryMetricCombiner(), true).process(entry);
+        assertEquals(10, entry.getValue().getMetric().getSeekCount());
+    }
+    
+    @Test
+    public void persistedSegmentsAreDeleted() throws Exception {
+        QueryMetricProperties.Journal properties = createProperties(16 * 1024);
+        properties.setStripes(1);
+        MetricJournal journal = open(properties);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(journal.append("query" + i, createHolder("query" + i, BaseQueryMetric.Lifecycle.DEFINED)) > 0);
+        }
+        assertTrue(countSegments(this.directory) > 1);
+        for (int i = 0; i < 50; i++) {
+            journal.persisted("query" + i, Long.MAX_VALUE);
+        }
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(50, journal.getPersistedCount());
+        // the segment being appended to is kept
+        assertEquals(1, countSegments(this.directory));
+    }
+    
+    @Test
+    public void unownedRecordsAreSwept() throws Exception {
+        QueryMetricProperties.Journal properties = createProperties(64 * 1024);
+        properties.setUnownedRetentionMillis(1);
+        MetricJournal journal = open(properties);
+        journal.append("query1", createHolder("query1", BaseQueryMetric.Lifecycle.DEFINED));
+        journal.append("query2", createHolder("query2", BaseQueryMetric.Lifecycle.DEFINED));
+        Thread.sleep(10);
+        journal.sweep(queryId -> queryId.equals("query1"));
+        assertEquals(1, journal.getSweptCount());
+        assertEquals(1, journal.getPendingCount());
+        journal.shutdown();
+        
+        Map<String,QueryMetricUpdateHolder> unpersisted = open(properties).getRecovered();
+        assertTrue(unpersisted.containsKey("query1"));
+        assertFalse(unpersisted.containsKey("query2"));
+    }
+    
+    @Test
+    public void queriesAreSpreadOverStripes() throws Exception {
+        QueryMetricProperties.Journal properties = createProperties(64 * 1024);
+        properties.setStripes(4);
+        MetricJournal journal = open(properties);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(journal.append("query" + i, createHolder("query" + i, BaseQueryMetric.Lifecycle.DEFINED)) > 0);
+        }
+        // each stripe appends to its own segment
+        assertEquals(4, countSegments(this.directory));
+        assertEquals(50, journal.getPendingCount());
+    }
+    
+    /**
+     * Writes an object as a {@link QueryMetricUpdateHolder}, so that a holder with the fields of an earlier version can be written by this one
+     */
+    private static byte[] serializeAsHolder(PreviousQueryMetricUpdateHolder holder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes) {
+            @Override
+            protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+                if (!desc.forClass().equals(PreviousQueryMetricUpdateHolder.class)) {
+                    super.writeClassDescriptor(desc);
+                    return;
+                }
+                // the format of ObjectStreamClass.writeNonProxy with the name of the current class
+                writeUTF(QueryMetricUpdateHolder.class.getName());
+                writeLong(desc.getSerialVersionUID());
+                writeByte(ObjectStreamConstants.SC_SERIALIZABLE | ObjectStreamConstants.SC_WRITE_METHOD);
+                writeShort(desc.getFields().length);
+                for (ObjectStreamField field : desc.getFields()) {
+                    writeByte(field.getTypeCode());
+                    writeUTF(field.getName());
+                    if (!field.isPrimitive()) {
+                        writeObject(field.getTypeString());
+                    }
+                }
+            }
+        }) {
+            out.writeObject(holder);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * The fields of a holder before the trace, the journal sequence, and the pending selectors were added, with a field that has since been removed
+     */
+    private static class PreviousQueryMetricUpdateHolder extends QueryMetricUpdate<BaseQueryMetric> {
+        private static final long serialVersionUID = 1L;
+        
+        private boolean persisted = false;
+        private BaseQueryMetric.Lifecycle lowestLifecycleSincePersist;
+        private transient long[] counters = new long[Counter.values().length];
+        private Map<String,Long> values = null;
+        private long eventTime = 0;
+        private long dirtyTime = 1000;
+        private long removedTime = 2000;
+        
+        PreviousQueryMetricUpdateHolder(BaseQueryMetric metric) {
+            super(metric, QueryMetricType.DISTRIBUTED);
+            this.lowestLifecycleSincePersist = metric.getLifecycle();
+        }
+        
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(this.counters.length);
+            for (long counter : this.counters) {
+                out.writeLong(counter);
+            }
+        }
+    }
+}
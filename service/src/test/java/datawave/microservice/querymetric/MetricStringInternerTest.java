@@ -0,0 +1,63 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricStringInternerTest {
+    
+    @Test
+    public void equalStringsShareOneInstance() {
+        MetricStringInterner interner = new MetricStringInterner(100);
+        String first = new String("host1");
+        String second = new String("host1");
+        assertNotSame(first, second);
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(second));
+        assertNull(interner.intern((String) null));
+        assertEquals(1, interner.size());
+        assertEquals(1, interner.getStats().hitCount());
+    }
+    
+    @Test
+    public void metricFieldsAreInterned() {
+        MetricStringInterner interner = new MetricStringInterner(100);
+        QueryMetric first = new QueryMetric();
+        first.setUser(new String("user1"));
+        first.setQueryLogic(new String("EventQuery"));
+        first.addVersion(new String("DATAWAVE"), new String("1.0"));
+        QueryMetric second = new QueryMetric();
+        second.setUser(new String("user1"));
+        second.setQueryLogic(new String("EventQuery"));
+        second.addVersion(new String("DATAWAVE"), new String("1.0"));
+        
+        interner.intern(first);
+        interner.intern(second);
+        assertSame(first.getUser(), second.getUser());
+        assertSame(first.getQueryLogic(), second.getQueryLogic());
+        assertSame(first.getVersionMap().get("DATAWAVE"), second.getVersionMap().get("DATAWAVE"));
+        
+        // a version map that only holds interned strings is not copied
+        Map<String,String> versionMap = second.getVersionMap();
+        interner.intern(second);
+        assertSame(versionMap, second.getVersionMap());
+    }
+    
+    @Test
+    public void pageHostsAreInterned() {
+        MetricStringInterner interner = new MetricStringInterner(100);
+        QueryMetric first = new QueryMetric();
+        first.addPageTime(new String("host1"), 10, 500, 500, 1000);
+        QueryMetric second = new QueryMetric();
+        second.addPageTime(new String("host1"), 10, 500, 500, 1000);
+        
+        interner.intern(first);
+        interner.intern(second);
+        assertSame(first.getPageTimes().get(0).getHost(), second.getPageTimes().get(0).getHost());
+    }
+}
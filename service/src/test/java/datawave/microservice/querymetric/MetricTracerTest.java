@@ -0,0 +1,71 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricTracerTest {
+    
+    private List<MetricSpan> exported = new ArrayList<>();
+    
+    @Test
+    public void childSpansContinueTheRemoteTrace() {
+        MetricTracer tracer = new MetricTracer(true, 0, exported::add);
+        String traceParent = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+        MetricSpan parent = tracer.startSpan("parent", traceParent);
+        MetricSpan child = tracer.startSpan("child").setAttribute("queryId", "1234");
+        child.close();
+        parent.close();
+        
+        assertEquals(2, exported.size());
+        assertEquals("child", exported.get(0).getName());
+        assertEquals("0af7651916cd43dd8448eb211c80319c", exported.get(0).getTraceId());
+        assertEquals(parent.getSpanId(), exported.get(0).getParentSpanId());
+        assertEquals("1234", exported.get(0).getAttributes().get("queryId"));
+        assertEquals("b7ad6b7169203331", exported.get(1).getParentSpanId());
+        assertEquals("00-0af7651916cd43dd8448eb211c80319c-" + parent.getSpanId() + "-01", parent.getTraceParent());
+        assertNull(tracer.getCurrentTraceParent());
+    }
+    
+    @Test
+    public void samplingFollowsTheParent() {
+        MetricTracer tracer = new MetricTracer(true, 1.0, exported::add);
+        MetricSpan span = tracer.startSpan("notSampled", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-00");
+        tracer.startSpan("child").close();
+        span.close();
+        assertTrue(exported.isEmpty());
+        assertTrue(span.getTraceParent().endsWith("-00"));
+        
+        // a root span is sampled by the ratio
+        tracer.startSpan("root").close();
+        assertEquals(1, exported.size());
+        assertNull(exported.get(0).getParentSpanId());
+    }
+    
+    @Test
+    public void invalidTraceParentsStartANewTrace() {
+        assertNull(MetricTracer.parseTraceParent("00-00000000000000000000000000000000-b7ad6b7169203331-01"));
+        assertNull(MetricTracer.parseTraceParent("ff-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"));
+        assertNull(MetricTracer.parseTraceParent("00-0af7651916cd43dd8448eb211c80319c-b7ad6b71692033-01"));
+        assertNull(MetricTracer.parseTraceParent(null));
+    }
+    
+    @Test
+    public void disabledTracingCreatesNoSpans() {
+        MetricTracer tracer = new MetricTracer(false, 1.0, exported::add);
+        MetricSpan span = tracer.startSpan("disabled");
+        assertSame(MetricSpan.NOOP, span);
+        assertNull(span.getTraceParent());
+        span.close();
+        assertTrue(exported.isEmpty());
+        
+        // a member without a tracer in its user context does not trace
+        assertSame(MetricTracer.DISABLED, MetricTracer.fromUserContext(null));
+    }
+}
@@ -0,0 +1,168 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static datawave.microservice.querymetric.SegmentTestUtils.countSegments;
+import static datawave.microservice.querymetric.SegmentTestUtils.createMetric;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import datawave.microservice.querymetric.config.QueryMetricHandlerConfiguration;
+import datawave.microservice.querymetric.config.QueryMetricProperties;
+
+public class MetricUpdateSpoolTest {
+    
+    private ObjectMapper objectMapper = new QueryMetricHandlerConfiguration().objectMapper(new QueryMetricFactoryImpl());
+    
+    @TempDir
+    Path directory;
+    
+    private QueryMetricProperties.Spool createProperties(int segmentSizeBytes, long maxSizeBytes) {
+        QueryMetricProperties.Spool properties = new QueryMetricProperties.Spool();
+        properties.setDirectory(this.directory.toString());
+        properties.setSegmentSizeBytes(segmentSizeBytes);
+        properties.setMaxSizeBytes(maxSizeBytes);
+        properties.setBatchSize(10);
+        return properties;
+    }
+    
+    private QueryMetricUpdate createUpdate(String queryId) {
+        return new QueryMetricUpdate(createMetric(queryId, BaseQueryMetric.Lifecycle.DEFINED), QueryMetricType.DISTRIBUTED);
+    }
+    
+    private MetricUpdateSpool.BatchSender each(Predicate<QueryMetricUpdate> sender) {
+        return updates -> {
+            boolean[] sent = new boolean[updates.size()];
+            for (int i = 0; i < updates.size(); i++) {
+                sent[i] = sender.test(updates.get(i));
+            }
+            return sent;
+        };
+    }
+    
+    @Test
+    public void updatesAreDrainedInOrder() throws Exception {
+        MetricUpdateSpool spool = new MetricUpdateSpool(createProperties(16384, 1024 * 1024), this.objectMapper);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(spool.append(createUpdate("query" + i)));
+        }
+        assertEquals(100, spool.getPendingCount());
+        // the segments are small, so the updates span several of them
+        assertTrue(countSegments(this.directory) > 1);
+        
+        List<String> sent = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        while (spool.drainBatch(updates -> {
+            batchSizes.add(updates.size());
+            return each(update -> sent.add(update.getMetric().getQueryId())).send(updates);
+        })) {}
+        assertEquals(100, sent.size());
+        // the updates are sent in batches
+        assertEquals(10, batchSizes.get(0).intValue());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("query" + i, sent.get(i));
+        }
+        assertTrue(spool.isEmpty());
+        assertEquals(100, spool.getDrainedCount());
+        // the segments that were sent are deleted, but not the one being appended to
+        assertEquals(1, countSegments(this.directory));
+        spool.shutdown();
+    }
+    
+    @Test
+    public void unsentUpdatesAreSentWithTheNextBatch() throws Exception {
+        MetricUpdateSpool spool = new MetricUpdateSpool(createProperties(16384, 1024 * 1024), this.objectMapper);
+        for (int i = 0; i < 5; i++) {
+            spool.append(createUpdate("query" + i));
+        }
+        List<String> sent = new ArrayList<>();
+        assertFalse(spool.drainBatch(each(update -> update.getMetric().getQueryId().equals("query2") ? false : sent.add(update.getMetric().getQueryId()))));
+        assertEquals(Arrays.asList("query0", "query1", "query3", "query4"), sent);
+        assertEquals(1, spool.getPendingCount());
+        assertEquals(1, spool.getDrainFailureCount());
+        
+        spool.drainBatch(each(update -> sent.add(update.getMetric().getQueryId())));
+        assertEquals(5, sent.size());
+        assertEquals("query2", sent.get(4));
+        assertTrue(spool.isEmpty());
+        // the segment is sent and is only kept because it is appended to
+        assertEquals(1, countSegments(this.directory));
+        spool.shutdown();
+    }
+    
+    @Test
+    public void unsentUpdatesAreRecovered() throws Exception {
+        QueryMetricProperties.Spool properties = createProperties(16384, 1024 * 1024);
+        MetricUpdateSpool spool = new MetricUpdateSpool(properties, this.objectMapper);
+        for (int i = 0; i < 30; i++) {
+            spool.append(createUpdate("query" + i));
+        }
+        // send the first batch before a restart
+        spool.drainBatch(each(update -> true));
+        spool.shutdown();
+        
+        spool = new MetricUpdateSpool(properties, this.objectMapper);
+        assertEquals(20, spool.getPendingCount());
+        spool.append(createUpdate("query30"));
+        List<String> sent = new ArrayList<>();
+        while (spool.drainBatch(each(update -> sent.add(update.getMetric().getQueryId())))) {}
+        assertEquals(21, sent.size());
+        for (int i = 0; i < 21; i++) {
+            assertEquals("query" + (i + 10), sent.get(i));
+        }
+        spool.shutdown();
+    }
+    
+    @Test
+    public void updatesAreRejectedWhenFull() throws Exception {
+        MetricUpdateSpool spool = new MetricUpdateSpool(createProperties(16384, 32768), this.objectMapper);
+        int appended = 0;
+        while (spool.append(createUpdate("query" + appended))) {
+            appended++;
+        }
+        assertTrue(appended > 0);
+        assertEquals(appended, spool.getPendingCount());
+        assertEquals(1, spool.getRejectedCount());
+        assertEquals(2, countSegments(this.directory));
+        assertEquals(32768, spool.getSizeBytes());
+        
+        // space is available again once the oldest segment is sent
+        while (spool.drainBatch(each(update -> true))) {}
+        assertTrue(spool.append(createUpdate("query" + appended)));
+        spool.shutdown();
+    }
+    
+    @Test
+    public void updatesAreSpooledBehindSpooledUpdates() throws Exception {
+        MetricUpdateSpool spool = new MetricUpdateSpool(createProperties(16384, 1024 * 1024), this.objectMapper);
+        List<String> sent = new ArrayList<>();
+        assertTrue(spool.sendOrAppend(createUpdate("query1"), update -> sent.add(update.getMetric().getQueryId())));
+        assertTrue(spool.isEmpty());
+        
+        // an update that is not sent is spooled, and later updates are spooled behind it without being sent
+        assertTrue(spool.sendOrAppend(createUpdate("query2"), update -> false));
+        assertTrue(spool.sendOrAppend(createUpdate("query3"), update -> sent.add(update.getMetric().getQueryId())));
+        assertEquals(Arrays.asList("query1"), sent);
+        assertEquals(2, spool.getPendingCount());
+        
+        while (spool.drainBatch(each(update -> sent.add(update.getMetric().getQueryId())))) {}
+        assertEquals(Arrays.asList("query1", "query2", "query3"), sent);
+        
+        // updates are sent directly again once the spool is drained
+        assertTrue(spool.sendOrAppend(createUpdate("query4"), update -> sent.add(update.getMetric().getQueryId())));
+        assertEquals(Arrays.asList("query1", "query2", "query3", "query4"), sent);
+        assertTrue(spool.isEmpty());
+        spool.shutdown();
+    }
+}
@@ -0,0 +1,87 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+
+public class PartitionOwnerSelectorTest {
+    
+    private Config newConfig(String clusterName, Integer instanceIndex) {
+        Config config = new Config();
+        config.setClusterName(clusterName);
+        // We don't want the test to rely on multicast. Use ip discovery instead.
+        JoinConfig joinConfig = config.getNetworkConfig().getJoin();
+        joinConfig.getMulticastConfig().setEnabled(false);
+        joinConfig.getTcpIpConfig().addMember("127.0.0.1").setEnabled(true);
+        if (instanceIndex != null) {
+            config.getMemberAttributeConfig().setAttribute(PartitionOwnerSelector.INSTANCE_INDEX_ATTRIBUTE, instanceIndex.toString());
+        }
+        return config;
+    }
+    
+    private void waitFor(BooleanSupplier condition) {
+        long stop = System.currentTimeMillis() + 60000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < stop, "timed out waiting for the cluster");
+            HazelcastUtils.sleepMillis(10);
+        }
+    }
+    
+    @Test
+    public void testUpdatesFollowTheOwner() {
+        String clusterName = HazelcastUtils.generateRandomString(10);
+        HazelcastInstance h1 = Hazelcast.newHazelcastInstance(newConfig(clusterName, 0));
+        HazelcastInstance h2 = Hazelcast.newHazelcastInstance(newConfig(clusterName, 1));
+        try {
+            HazelcastUtils.assertClusterSizeEventually(2, h1, h2);
+            HazelcastUtils.warmUpPartition(h1);
+            HazelcastUtils.warmUpPartition(h2);
+            PartitionOwnerSelector selector = new PartitionOwnerSelector(h1);
+            assertEquals(Arrays.asList(0, 1), selector.getMemberIndexes());
+            
+            String localKey = HazelcastUtils.generateKeyOwnedBy(h1);
+            String remoteKey = HazelcastUtils.generateKeyOwnedBy(h2);
+            assertEquals(0, selector.selectPartition(localKey, 2));
+            assertEquals(1, selector.selectPartition(remoteKey, 2));
+            
+            // an index outside of the partitions is not used, and the hash only chooses the partitions of current members
+            assertEquals(0, selector.selectPartition(remoteKey, 1));
+            
+            // once the member leaves, its partitions move to the remaining member and nothing is sent to its stream partition
+            h2.shutdown();
+            HazelcastUtils.assertClusterSizeEventually(1, h1);
+            waitFor(() -> selector.getMemberIndexes().equals(Collections.singletonList(0)));
+            waitFor(() -> h1.getPartitionService().getPartition(remoteKey).getOwner() != null
+                            && h1.getPartitionService().getPartition(remoteKey).getOwner().localMember());
+            assertEquals(0, selector.selectPartition(localKey, 2));
+            assertEquals(0, selector.selectPartition(remoteKey, 2));
+        } finally {
+            h1.shutdown();
+            h2.shutdown();
+        }
+    }
+    
+    @Test
+    public void testQueryIdIsHashedWithoutIndexes() {
+        HazelcastInstance h1 = Hazelcast.newHazelcastInstance(newConfig(HazelcastUtils.generateRandomString(10), null));
+        try {
+            PartitionOwnerSelector selector = new PartitionOwnerSelector(h1);
+            assertEquals(Collections.emptyList(), selector.getMemberIndexes());
+            for (String queryId : Arrays.asList("query1", "query2", "query3")) {
+                assertEquals(Math.floorMod(queryId.hashCode(), 3), selector.selectPartition(queryId, 3));
+            }
+        } finally {
+            h1.shutdown();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import datawave.microservice.querymetric.handler.ContentQueryMetricsIngestHelper;
+
+public class PersistedMetricStateTest {
+    
+    private ContentQueryMetricsIngestHelper.HelperDelegate<QueryMetric> delegate = new ContentQueryMetricsIngestHelper.HelperDelegate<>();
+    private ContentQueryMetricsIngestHelper ingestHelper = new ContentQueryMetricsIngestHelper(false);
+    
+    private QueryMetric createMetric() {
+        Date now = new Date();
+        QueryMetric m = new QueryMetric();
+        m.setQueryId("1111-2222-3333-4444");
+        m.setCreateDate(now);
+        m.setLastUpdated(now);
+        m.setBeginDate(now);
+        m.setEndDate(now);
+        m.setQuery("USER:testuser");
+        m.setQueryLogic("QueryMetricsQuery");
+        m.setHost("localhost");
+        m.setQueryType("RunningQuery");
+        m.setLifecycle(BaseQueryMetric.Lifecycle.INITIALIZED);
+        m.setUser("testuser");
+        m.setNumUpdates(1);
+        m.addPageTime("localhost", 10, 100, 200, now.getTime() - 1000, now.getTime());
+        return m;
+    }
+    
+    private PersistedMetricState createState(QueryMetric m) {
+        return new PersistedMetricState(m, delegate.getEventFieldValues(m), ingestHelper::isDeletedWhenChanged);
+    }
+    
+    @Test
+    public void testWritesAndDeletesMatchTheStoredMetric() {
+        QueryMetric stored = createMetric();
+        QueryMetric updated = (QueryMetric) stored.duplicate();
+        updated.setLifecycle(BaseQueryMetric.Lifecycle.RESULTS);
+        updated.setNumUpdates(2);
+        updated.setLastUpdated(new Date(stored.getLastUpdated().getTime() + 5000));
+        updated.setPlan("FIELD1 == 'value1'");
+        updated.setErrorMessage("an error");
+        BaseQueryMetric.PageMetric changedPage = new BaseQueryMetric.PageMetric(updated.getPageTimes().get(0));
+        changedPage.setPagesize(20);
+        List<BaseQueryMetric.PageMetric> pageTimes = new ArrayList<>();
+        pageTimes.add(changedPage);
+        updated.setPageTimes(pageTimes);
+        updated.addPageTime("localhost", 10, 100, 200, stored.getCreateDate().getTime(), stored.getCreateDate().getTime() + 1000);
+        
+        // the persisted state gives the same writes and deletes as the stored metric that it replaces
+        PersistedMetricState state = createState(stored);
+        Multimap<String,String> updatedFields = delegate.getEventFieldValues(updated);
+        assertEquals(delegate.getEventFieldsToWrite(updated, stored), delegate.getEventFieldsToWrite(updatedFields, state));
+        assertEquals(delegate.getEventFieldsToDelete(updated, stored), delegate.getEventFieldsToDelete(updatedFields, state));
+        assertTrue(delegate.getEventFieldsToDelete(updatedFields, state).containsKey("LIFECYCLE"));
+        assertTrue(delegate.getEventFieldsToDelete(updatedFields, state).containsKey("PAGE_METRICS.1"));
+        
+        // a write-once field is not written again when it changes
+        QueryMetric replanned = (QueryMetric) updated.duplicate();
+        replanned.setPlan("FIELD2 == 'value2'");
+        state = createState(updated);
+        Multimap<String,String> fieldsToWrite = delegate.getEventFieldsToWrite(delegate.getEventFieldValues(replanned), state);
+        assertFalse(fieldsToWrite.containsKey("PLAN"));
+        assertEquals(delegate.getEventFieldsToWrite(replanned, updated), fieldsToWrite);
+    }
+    
+    @Test
+    public void testLongValuesThatAreDeletedAreKeptVerbatim() {
+        String longValue = StringUtils.repeat("x", PersistedMetricState.MAX_VERBATIM_VALUE_LENGTH + 1);
+        Multimap<String,String> fields = HashMultimap.create();
+        fields.put("QUERY", longValue);
+        fields.put("PAGE_METRICS.1", longValue);
+        PersistedMetricState state = new PersistedMetricState(createMetric(), fields, ingestHelper::isDeletedWhenChanged);
+        
+        // a long value of a field that is never deleted is only kept as a hash
+        assertTrue(state.isWritten("QUERY", longValue));
+        assertFalse(state.isWritten("QUERY", longValue + "y"));
+        assertTrue(state.getWrittenValues("QUERY").isEmpty());
+        
+        // a long value of a field that is deleted when it changes can still be deleted
+        assertTrue(state.isWritten("PAGE_METRICS.1", longValue));
+        assertEquals(longValue, state.getWrittenValues("PAGE_METRICS.1").iterator().next());
+        Multimap<String,String> updatedFields = HashMultimap.create();
+        updatedFields.put("PAGE_METRICS.1", "changed");
+        assertEquals(longValue, delegate.getEventFieldsToDelete(updatedFields, state).get("PAGE_METRICS.1").iterator().next());
+    }
+}
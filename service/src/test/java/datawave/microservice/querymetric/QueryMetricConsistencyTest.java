@@ -321,14 +321,14 @@ public class QueryMetricConsistencyTest extends QueryMetricTestBase {
         
         QueryMetricUpdateHolder holder = new QueryMetricUpdateHolder(storedQueryMetric, QueryMetricType.COMPLETE);
         mapStore.store(queryId, holder);
-        QueryMetricUpdateHolder lastWrittenMetricUpdate = this.lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdateHolder.class);
-        metricAssertEquals(storedQueryMetric, lastWrittenMetricUpdate.getMetric());
+        PersistedMetricState lastWrittenState = this.lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class);
+        persistedStateAssertEquals("", storedQueryMetric, lastWrittenState);
         
         holder.setMetric(updatedQueryMetric);
         mapStore.store(queryId, holder);
-        lastWrittenMetricUpdate = this.lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdateHolder.class);
-        // all fields that were changed should be reflected in the updated metric
-        metricAssertEquals(updatedQueryMetric, lastWrittenMetricUpdate.getMetric());
+        lastWrittenState = this.lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class);
+        // all fields that were changed should be reflected in the persisted state
+        persistedStateAssertEquals("", updatedQueryMetric, lastWrittenState);
         
         Collection<Map.Entry<Key,Value>> entries = getEventEntriesFromAccumulo(queryId);
         assertFalse(entries.isEmpty(), "There should be entries in Accumulo");
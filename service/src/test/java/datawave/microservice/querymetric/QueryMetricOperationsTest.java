@@ -1,13 +1,21 @@
 package datawave.microservice.querymetric;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.util.UriComponentsBuilder;
 
 public abstract class QueryMetricOperationsTest extends QueryMetricTestBase {
     
@@ -36,7 +44,7 @@ public abstract class QueryMetricOperationsTest extends QueryMetricTestBase {
                 .build());
         // @formatter:on
         ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, queryId);
-        metricAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdate.class).getMetric());
+        persistedStateAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class));
         metricAssertEquals("incomingQueryMetricsCache metric wrong", m, incomingQueryMetricsCache.get(queryId, QueryMetricUpdate.class).getMetric());
         metricAssertEquals("accumulo metric wrong", m, shardTableQueryMetricHandler.getQueryMetric(queryId));
     }
@@ -60,7 +68,7 @@ public abstract class QueryMetricOperationsTest extends QueryMetricTestBase {
         metrics.forEach((m) -> {
             String queryId = m.getQueryId();
             ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, queryId);
-            metricAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdate.class).getMetric());
+            persistedStateAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class));
             try {
                 metricAssertEquals("accumulo metric wrong", m, shardTableQueryMetricHandler.getQueryMetric(queryId));
             } catch (Exception e) {
@@ -90,7 +98,7 @@ public abstract class QueryMetricOperationsTest extends QueryMetricTestBase {
         metrics.forEach((m) -> {
             String queryId = m.getQueryId();
             ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, queryId);
-            metricAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, QueryMetricUpdate.class).getMetric());
+            persistedStateAssertEquals("lastWrittenQueryMetricCache metric wrong", m, lastWrittenQueryMetricCache.get(queryId, PersistedMetricState.class));
             metricAssertEquals("incomingQueryMetricsCache metric wrong", m, incomingQueryMetricsCache.get(queryId, QueryMetricUpdate.class).getMetric());
             try {
                 metricAssertEquals("accumulo metric wrong", m, shardTableQueryMetricHandler.getQueryMetric(queryId));
@@ -100,4 +108,80 @@ public abstract class QueryMetricOperationsTest extends QueryMetricTestBase {
             }
         });
     }
+    
+    @Test
+    public void ListPagesContinueAfterTheLastMetric() throws Exception {
+        // a user of its own so that metrics from other tests are not listed
+        String user = "listUser" + createQueryId();
+        Set<String> queryIds = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            BaseQueryMetric m = createMetric(createQueryId());
+            m.setUser(user);
+            queryIds.add(m.getQueryId());
+            // @formatter:off
+            client.submit(new QueryMetricClient.Request.Builder()
+                    .withMetric(m)
+                    .withMetricType(QueryMetricType.COMPLETE)
+                    .withUser(adminUser)
+                    .build());
+            // @formatter:on
+        }
+        queryIds.forEach(queryId -> ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, queryId));
+        
+        HttpEntity requestEntity = createRequestEntity(null, adminUser, null);
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            UriComponentsBuilder uri = UriComponentsBuilder.newInstance().scheme("https").host("localhost").port(webServicePort)
+                            .path("/querymetric/v1/list").queryParam("pageSize", 2);
+            uri = cursor == null ? uri.queryParam("user", user) : uri.queryParam("cursor", cursor);
+            ResponseEntity<BaseQueryMetricListResponse> response = restTemplate.exchange(uri.build().toUri(), HttpMethod.GET, requestEntity,
+                            BaseQueryMetricListResponse.class);
+            BaseQueryMetricListResponse<BaseQueryMetric> page = response.getBody();
+            assertTrue(page.getExceptions() == null || page.getExceptions().isEmpty());
+            assertTrue(page.getResult().size() <= 2);
+            page.getResult().forEach(m -> listed.add(m.getQueryId()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null && pages < 10);
+        
+        // every metric is listed exactly once
+        assertEquals(queryIds.size(), listed.size());
+        assertEquals(queryIds, new HashSet<>(listed));
+        assertEquals(3, pages);
+    }
+    
+    @Test
+    public void RunningQueriesAreReadFromCache() throws Exception {
+        String queryLogic = "RunningQueryLogic" + createQueryId();
+        BaseQueryMetric running = createMetric(createQueryId());
+        running.setQueryLogic(queryLogic);
+        BaseQueryMetric closed = createMetric(createQueryId());
+        closed.setQueryLogic(queryLogic);
+        closed.setLifecycle(BaseQueryMetric.Lifecycle.CLOSED);
+        for (BaseQueryMetric m : new BaseQueryMetric[] {running, closed}) {
+            // @formatter:off
+            client.submit(new QueryMetricClient.Request.Builder()
+                    .withMetric(m)
+                    .withMetricType(QueryMetricType.COMPLETE)
+                    .withUser(adminUser)
+                    .build());
+            // @formatter:on
+            ensureDataWritten(incomingQueryMetricsCache, lastWrittenQueryMetricCache, m.getQueryId());
+        }
+        
+        UriComponentsBuilder uri = UriComponentsBuilder.newInstance().scheme("https").host("localhost").port(webServicePort).path("/querymetric/v1/running")
+                        .queryParam("queryLogic", queryLogic);
+        HttpEntity requestEntity = createRequestEntity(null, adminUser, null);
+        ResponseEntity<RunningQueriesResponse> response = restTemplate.exchange(uri.build().toUri(), HttpMethod.GET, requestEntity,
+                        RunningQueriesResponse.class);
+        
+        // only the query that has not reached a final lifecycle is running
+        assertEquals(1, response.getBody().getRunningQueries().size());
+        RunningQuery runningQuery = response.getBody().getRunningQueries().get(0);
+        assertEquals(running.getQueryId(), runningQuery.getQueryId());
+        assertEquals(running.getUser(), runningQuery.getUser());
+        assertEquals(BaseQueryMetric.Lifecycle.INITIALIZED, runningQuery.getLifecycle());
+    }
 }
@@ -4,6 +4,7 @@ import static datawave.microservice.querymetric.config.HazelcastMetricCacheConfi
 import static datawave.microservice.querymetric.config.HazelcastMetricCacheConfiguration.LAST_WRITTEN_METRICS;
 import static datawave.security.authorization.DatawaveUser.UserType.USER;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -59,6 +60,7 @@ import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.collect.Multimap;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.MapStoreConfig;
 import com.hazelcast.map.IMap;
@@ -418,6 +420,47 @@ public class QueryMetricTestBase {
         }
     }
     
+    /*
+     * This method checks that the persisted state records exactly the event fields and values of the expected metric and the same counters. The LAST_UPDATED
+     * and NUM_UPDATES values are advanced when the metric is stored, so they must match the values that the state recorded for them instead
+     */
+    public void persistedStateAssertEquals(String message, BaseQueryMetric expected, PersistedMetricState actual) {
+        if (null == actual) {
+            fail(message + ": persisted state is null");
+        } else {
+            if (message == null || message.isEmpty()) {
+                message = "";
+            } else {
+                message = message + ": ";
+            }
+            assertEquals(expected.getQueryId(), actual.getQueryId(), message + "queryId");
+            assertEquals(expected.getCreateDate(), actual.getCreateDate(), message + "createDate");
+            assertTrue(assertObjectsEqual(expected.getLifecycle(), actual.getLifecycle()), message + "lifecycle");
+            assertEquals(expected.getSourceCount(), actual.getSourceCount(), message + "sourceCount");
+            assertEquals(expected.getNextCount(), actual.getNextCount(), message + "nextCount");
+            assertEquals(expected.getSeekCount(), actual.getSeekCount(), message + "seekCount");
+            assertEquals(expected.getYieldCount(), actual.getYieldCount(), message + "yieldCount");
+            assertEquals(expected.getDocRanges(), actual.getDocRanges(), message + "docRanges");
+            assertEquals(expected.getFiRanges(), actual.getFiRanges(), message + "fiRanges");
+            assertTrue(actual.getNumUpdates() >= expected.getNumUpdates(), message + "numUpdates");
+            assertFalse(actual.getLastUpdated().before(expected.getCreateDate()), message + "lastUpdated");
+            
+            BaseQueryMetric stored = expected.duplicate();
+            stored.setLastUpdated(actual.getLastUpdated());
+            stored.setNumUpdates(actual.getNumUpdates());
+            Multimap<String,String> expectedFields = this.shardTableQueryMetricHandler.getEventFieldValues(stored);
+            // the selectors are extracted from the query by the service, so they may be written without being in the expected metric
+            Set<String> expectedFieldNames = new HashSet<>(expectedFields.keySet());
+            Set<String> actualFieldNames = new HashSet<>(actual.getWrittenFields());
+            expectedFieldNames.removeAll(Arrays.asList("POSITIVE_SELECTORS", "NEGATIVE_SELECTORS"));
+            actualFieldNames.removeAll(Arrays.asList("POSITIVE_SELECTORS", "NEGATIVE_SELECTORS"));
+            assertEquals(expectedFieldNames, actualFieldNames, message + "fields");
+            for (Map.Entry<String,String> e : expectedFields.entries()) {
+                assertTrue(actual.isWritten(e.getKey(), e.getValue()), message + e.getKey());
+            }
+        }
+    }
+    
     public static boolean assertObjectsEqual(Object o1, Object o2) {
         if (o1 == null && o2 == null) {
             return true;
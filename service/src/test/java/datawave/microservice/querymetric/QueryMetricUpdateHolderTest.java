@@ -0,0 +1,165 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.querymetric.QueryMetricUpdateHolder.Counter;
+
+public class QueryMetricUpdateHolderTest {
+    
+    private QueryMetricUpdateHolder<QueryMetric> createHolder() {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId("query1");
+        metric.setLifecycle(BaseQueryMetric.Lifecycle.DEFINED);
+        return new QueryMetricUpdateHolder<>(metric, QueryMetricType.DISTRIBUTED);
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        QueryMetricUpdateHolder<QueryMetric> holder = createHolder();
+        holder.addValue(Counter.SOURCE_COUNT, 4);
+        holder.addValue(Counter.FI_RANGES, 9);
+        holder.addValue("customCount", 2l);
+        holder.setJournalSequence(12);
+        holder.setMetricSelectorsPending(true);
+        holder.markDirty(holder, 1000);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(holder);
+        }
+        QueryMetricUpdateHolder<QueryMetric> deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            deserialized = (QueryMetricUpdateHolder<QueryMetric>) in.readObject();
+        }
+        for (Counter counter : Counter.values()) {
+            assertEquals(holder.getValue(counter), deserialized.getValue(counter));
+        }
+        assertEquals(Long.valueOf(2), deserialized.getValue("customCount"));
+        assertEquals(12, deserialized.getJournalSequence());
+        assertEquals(1000, deserialized.getDirtyTime());
+        assertTrue(deserialized.isMetricSelectorsPending());
+        assertFalse(deserialized.isPersisted());
+        assertEquals(holder.getMetric(), deserialized.getMetric());
+        assertEquals(QueryMetricType.DISTRIBUTED, deserialized.getMetricType());
+    }
+    
+    @Test
+    public void testCounterKeys() {
+        for (Counter counter : Counter.values()) {
+            assertSame(counter, Counter.fromKey(counter.getKey()));
+        }
+        assertNull(Counter.fromKey("customCount"));
+    }
+    
+    @Test
+    public void testCountersAreAdded() {
+        QueryMetricUpdateHolder<QueryMetric> holder = createHolder();
+        holder.addValue(Counter.SEEK_COUNT, 5);
+        holder.addValue(Counter.SEEK_COUNT, 7);
+        holder.addValue(Counter.FI_RANGES, 3);
+        assertEquals(12, holder.getValue(Counter.SEEK_COUNT));
+        assertEquals(3, holder.getValue(Counter.FI_RANGES));
+        assertEquals(0, holder.getValue(Counter.NEXT_COUNT));
+        
+        // a known key is added to the same counter as the enum
+        holder.addValue("seekCount", 8l);
+        assertEquals(20, holder.getValue(Counter.SEEK_COUNT));
+        assertEquals(Long.valueOf(20), holder.getValue("seekCount"));
+    }
+    
+    @Test
+    public void testCustomCountersAreKeptByKey() {
+        QueryMetricUpdateHolder<QueryMetric> holder = createHolder();
+        assertEquals(Long.valueOf(0), holder.getValue("customCount"));
+        holder.addValue("customCount", 2l);
+        holder.addValue("customCount", 3l);
+        assertEquals(Long.valueOf(5), holder.getValue("customCount"));
+        for (Counter counter : Counter.values()) {
+            assertEquals(0, holder.getValue(counter));
+        }
+    }
+    
+    @Test
+    public void testPersistedResetsCounters() {
+        QueryMetricUpdateHolder<QueryMetric> holder = createHolder();
+        holder.addValue(Counter.SOURCE_COUNT, 4);
+        holder.addValue(Counter.YIELD_COUNT, 1);
+        holder.addValue("customCount", 2l);
+        holder.persisted();
+        for (Counter counter : Counter.values()) {
+            assertEquals(0, holder.getValue(counter));
+        }
+        assertEquals(Long.valueOf(0), holder.getValue("customCount"));
+        
+        // counting starts again after the persist
+        holder.addValue(Counter.SOURCE_COUNT, 6);
+        assertEquals(6, holder.getValue(Counter.SOURCE_COUNT));
+    }
+    
+    @Test
+    public void testEarliestTimesAreKeptUntilPersisted() {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId("query1");
+        metric.setLastUpdated(new Date(1000));
+        QueryMetricUpdate<QueryMetric> update = new QueryMetricUpdate<>(metric, QueryMetricType.COMPLETE);
+        update.setIngestTime(2000);
+        QueryMetricUpdateHolder<QueryMetric> holder = new QueryMetricUpdateHolder<>(update);
+        holder.markDirty(holder, 3000);
+        assertEquals(1000, holder.getEventTime());
+        assertEquals(2000, holder.getIngestTime());
+        assertEquals(3000, holder.getDirtyTime());
+        
+        // a later update does not move the times of the earliest update that is not persisted
+        QueryMetric later = new QueryMetric();
+        later.setQueryId("query1");
+        later.setLastUpdated(new Date(4000));
+        QueryMetricUpdate<QueryMetric> laterUpdate = new QueryMetricUpdate<>(later, QueryMetricType.COMPLETE);
+        laterUpdate.setIngestTime(5000);
+        holder.markDirty(new QueryMetricUpdateHolder<>(laterUpdate), 6000);
+        assertEquals(1000, holder.getEventTime());
+        assertEquals(2000, holder.getIngestTime());
+        assertEquals(3000, holder.getDirtyTime());
+        
+        holder.persisted();
+        assertEquals(0, holder.getEventTime());
+        assertEquals(0, holder.getIngestTime());
+        assertEquals(0, holder.getDirtyTime());
+    }
+    
+    @Test
+    public void testPendingSelectorsAreKeptByTheCachedHolder() {
+        QueryMetricUpdateHolder<QueryMetric> holder = createHolder();
+        QueryMetricUpdateHolder<QueryMetric> update = createHolder();
+        update.setMetricSelectorsPending(true);
+        holder.markDirty(update, 1000);
+        assertTrue(holder.isMetricSelectorsPending());
+        
+        // a later update without pending selectors does not clear the flag
+        holder.markDirty(createHolder(), 2000);
+        assertTrue(holder.isMetricSelectorsPending());
+    }
+    
+    @Test
+    public void testEventTimeIsNotAfterIngestTime() {
+        // the producer's clock is ahead of this service's clock
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId("query1");
+        metric.setLastUpdated(new Date(9000));
+        QueryMetricUpdate<QueryMetric> update = new QueryMetricUpdate<>(metric, QueryMetricType.COMPLETE);
+        update.setIngestTime(2000);
+        QueryMetricUpdateHolder<QueryMetric> holder = new QueryMetricUpdateHolder<>(update);
+        assertEquals(2000, holder.getEventTime());
+    }
+}
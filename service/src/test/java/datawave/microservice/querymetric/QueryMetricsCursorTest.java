@@ -0,0 +1,50 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+public class QueryMetricsCursorTest {
+    
+    @Test
+    public void testRoundTrip() {
+        Date begin = new Date(1000L);
+        Date end = new Date(2000L);
+        QueryMetricsCursor cursor = new QueryMetricsCursor(begin, end, "user1", null);
+        QueryMetricsCursor decoded = QueryMetricsCursor.decode(cursor.encode());
+        assertEquals(begin, decoded.getBegin());
+        assertEquals(end, decoded.getEnd());
+        assertEquals("user1", decoded.getUser());
+        assertNull(decoded.getLastKey());
+        
+        decoded = QueryMetricsCursor.decode(cursor.next("20260101_1\u0000querymetrics\u0000abc").encode());
+        assertEquals("user1", decoded.getUser());
+        assertEquals("20260101_1\u0000querymetrics\u0000abc", decoded.getLastKey());
+    }
+    
+    @Test
+    public void testUserIsNotParsedFromTheCursor() {
+        // a user that contains separators or quotes does not change the other fields
+        String user = "user1\n' || USER == 'user2";
+        QueryMetricsCursor decoded = QueryMetricsCursor.decode(new QueryMetricsCursor(new Date(1000L), new Date(2000L), user, "key").encode());
+        assertEquals(user, decoded.getUser());
+        assertEquals(new Date(2000L), decoded.getEnd());
+        assertEquals("key", decoded.getLastKey());
+        
+        decoded = QueryMetricsCursor.decode(new QueryMetricsCursor(new Date(1000L), new Date(2000L), null, null).encode());
+        assertNull(decoded.getUser());
+    }
+    
+    @Test
+    public void testInvalidCursor() {
+        assertThrows(IllegalArgumentException.class, () -> QueryMetricsCursor.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> QueryMetricsCursor.decode("AAAA"));
+        String cursor = new QueryMetricsCursor(new Date(1000L), new Date(2000L), "user1", "key").encode();
+        // trailing bytes
+        assertThrows(IllegalArgumentException.class, () -> QueryMetricsCursor.decode(cursor + "AAAA"));
+    }
+}
@@ -0,0 +1,24 @@
+package datawave.microservice.querymetric;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Fixtures for the tests of the classes that store records in a {@link MappedSegment}
+ */
+public class SegmentTestUtils {
+    
+    public static long countSegments(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+    
+    public static QueryMetric createMetric(String queryId, BaseQueryMetric.Lifecycle lifecycle) {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId(queryId);
+        metric.setLifecycle(lifecycle);
+        return metric;
+    }
+}
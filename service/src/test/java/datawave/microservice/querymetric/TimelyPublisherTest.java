@@ -0,0 +1,90 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.querymetric.config.TimelyProperties;
+
+public class TimelyPublisherTest {
+    
+    private static TimelyProperties createTimelyProperties(int port) {
+        TimelyProperties timelyProperties = new TimelyProperties();
+        timelyProperties.setEnabled(true);
+        timelyProperties.setHost("localhost");
+        timelyProperties.setPort(port);
+        timelyProperties.setProtocol(TimelyProperties.Protocol.TCP);
+        return timelyProperties;
+    }
+    
+    @Test
+    public void ringBufferIsBoundedAndOrdered() {
+        TimelyPublisher.RingBuffer buffer = new TimelyPublisher.RingBuffer(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer("line" + i));
+        }
+        assertEquals(false, buffer.offer("line4"));
+        assertEquals("line0", buffer.poll());
+        assertTrue(buffer.offer("line4"));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals("line" + i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+    
+    @Test
+    public void linesAreWrittenToTimely() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            serverSocket.setSoTimeout(10000);
+            TimelyPublisher publisher = new TimelyPublisher(createTimelyProperties(serverSocket.getLocalPort()));
+            try {
+                for (int i = 0; i < 3; i++) {
+                    assertTrue(publisher.publish("put test.metric " + i + " 1 tag=value\n"));
+                }
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setSoTimeout(10000);
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    for (int i = 0; i < 3; i++) {
+                        assertEquals("put test.metric " + i + " 1 tag=value", reader.readLine());
+                    }
+                }
+                assertEquals(3, publisher.getPublishedCount());
+                assertEquals(0, publisher.getDroppedCount());
+            } finally {
+                publisher.shutdown();
+            }
+        }
+    }
+    
+    @Test
+    public void linesAreDroppedWhenTimelyIsUnavailable() throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        TimelyProperties timelyProperties = createTimelyProperties(port);
+        timelyProperties.getPublisher().setBufferSize(2);
+        timelyProperties.getPublisher().setBatchSize(1);
+        TimelyPublisher publisher = new TimelyPublisher(timelyProperties);
+        try {
+            for (int i = 0; i < 10; i++) {
+                publisher.publish("put test.metric " + i + " 1\n");
+            }
+            // at most one batch is held by the publisher thread and the rest of the lines fill the buffer
+            assertTrue(publisher.getDroppedCount() >= 7);
+            assertEquals(10, publisher.getPublishedCount() + publisher.getDroppedCount());
+        } finally {
+            publisher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package datawave.microservice.querymetric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class TopQueryTrackerTest {
+    
+    private QueryMetric createMetric(String queryId, long seekCount) {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId(queryId);
+        metric.setSeekCount(seekCount);
+        return metric;
+    }
+    
+    private List<String> getQueryIds(TopQueryTracker tracker) {
+        return tracker.getTopQueries(TopQueryTracker.Measure.SEEK_COUNT).stream().map(TopQuery::getQueryId).collect(Collectors.toList());
+    }
+    
+    @Test
+    public void testHighestValuesAreRetained() {
+        TopQueryTracker tracker = new TopQueryTracker(2);
+        tracker.update(createMetric("query1", 10));
+        tracker.update(createMetric("query2", 30));
+        tracker.update(createMetric("query3", 20));
+        assertEquals(Arrays.asList("query2", "query3"), getQueryIds(tracker));
+        
+        // a retained query is replaced with its latest value
+        tracker.update(createMetric("query3", 40));
+        assertEquals(Arrays.asList("query3", "query2"), getQueryIds(tracker));
+        assertEquals(40, tracker.getTopQueries(TopQueryTracker.Measure.SEEK_COUNT).get(0).getValue());
+    }
+    
+    @Test
+    public void testRemovedQueriesMakeRoom() {
+        TopQueryTracker tracker = new TopQueryTracker(2);
+        tracker.update(createMetric("query1", 30));
+        tracker.update(createMetric("query2", 20));
+        tracker.remove("query1");
+        assertEquals(Arrays.asList("query2"), getQueryIds(tracker));
+        
+        // a value below the earlier minimum is retained once there is room
+        tracker.update(createMetric("query3", 10));
+        assertEquals(Arrays.asList("query2", "query3"), getQueryIds(tracker));
+        
+        tracker.remove("unknown");
+        tracker.remove("query2");
+        tracker.remove("query3");
+        assertTrue(getQueryIds(tracker).isEmpty());
+    }
+}
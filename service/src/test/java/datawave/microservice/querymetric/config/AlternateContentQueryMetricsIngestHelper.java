@@ -17,5 +17,10 @@ public class AlternateContentQueryMetricsIngestHelper extends ContentQueryMetric
                 fields.put("EXTRA_FIELD", updated.getExtraField());
             }
         }
+        
+        @Override
+        protected boolean isWriteOnce(String baseField) {
+            return baseField.equals("EXTRA_FIELD") || super.isWriteOnce(baseField);
+        }
     }
 }
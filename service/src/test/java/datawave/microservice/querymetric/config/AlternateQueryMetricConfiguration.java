@@ -1,5 +1,6 @@
 package datawave.microservice.querymetric.config;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.cache.CacheType;
@@ -49,9 +50,9 @@ public class AlternateQueryMetricConfiguration {
     @Bean
     public ShardTableQueryMetricHandler shardTableQueryMetricHandler(QueryMetricHandlerProperties queryMetricHandlerProperties,
                     @Qualifier("warehouse") AccumuloClientPool accumuloClientPool, QueryMetricQueryLogicFactory logicFactory, QueryMetricFactory metricFactory,
-                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner, LuceneToJexlQueryParser luceneToJexlQueryParser,
-                    DnUtils dnUtils) {
+                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner,
+                    ObjectProvider<LuceneToJexlQueryParser> luceneToJexlQueryParsers, DnUtils dnUtils) {
         return new AlternateShardTableQueryMetricHandler(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions,
-                        queryMetricCombiner, luceneToJexlQueryParser, dnUtils);
+                        queryMetricCombiner, luceneToJexlQueryParsers::getObject, dnUtils);
     }
 }
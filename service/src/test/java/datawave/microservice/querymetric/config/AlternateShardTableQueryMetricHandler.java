@@ -1,6 +1,7 @@
 package datawave.microservice.querymetric.config;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Qualifier;
 
@@ -20,10 +21,10 @@ public class AlternateShardTableQueryMetricHandler extends LocalShardTableQueryM
     
     public AlternateShardTableQueryMetricHandler(QueryMetricHandlerProperties queryMetricHandlerProperties,
                     @Qualifier("warehouse") AccumuloClientPool accumuloClientPool, QueryMetricQueryLogicFactory logicFactory, QueryMetricFactory metricFactory,
-                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner, LuceneToJexlQueryParser luceneToJexlQueryParser,
-                    DnUtils dnUtils) {
-        super(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions, queryMetricCombiner, luceneToJexlQueryParser,
-                        dnUtils);
+                    MarkingFunctions markingFunctions, QueryMetricCombiner queryMetricCombiner,
+                    Supplier<LuceneToJexlQueryParser> luceneToJexlQueryParserSupplier, DnUtils dnUtils) {
+        super(queryMetricHandlerProperties, accumuloClientPool, logicFactory, metricFactory, markingFunctions, queryMetricCombiner,
+                        luceneToJexlQueryParserSupplier, dnUtils);
     }
     
     @Override
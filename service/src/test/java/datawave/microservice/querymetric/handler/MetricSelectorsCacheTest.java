@@ -0,0 +1,171 @@
+package datawave.microservice.querymetric.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.authorization.user.DatawaveUserDetails;
+import datawave.microservice.querymetric.BaseQueryMetric;
+import datawave.microservice.querymetric.MetricSelectorsEntryProcessor;
+import datawave.microservice.querymetric.QueryMetric;
+import datawave.microservice.querymetric.QueryMetricType;
+import datawave.microservice.querymetric.QueryMetricUpdateHolder;
+import datawave.microservice.querymetric.QueryMetricsSummaryResponse;
+import datawave.query.language.parser.jexl.LuceneToJexlQueryParser;
+import datawave.webservice.query.Query;
+
+public class MetricSelectorsCacheTest {
+    
+    private BaseQueryMetricHandler<QueryMetric> handler;
+    
+    @BeforeEach
+    public void setup() {
+        handler = createHandler(LuceneToJexlQueryParser::new);
+    }
+    
+    private BaseQueryMetricHandler<QueryMetric> createHandler(Supplier<LuceneToJexlQueryParser> parserSupplier) {
+        return new BaseQueryMetricHandler<QueryMetric>(parserSupplier, 10) {
+            @Override
+            public QueryMetric combineMetrics(QueryMetric metric, QueryMetric cachedQueryMetric, QueryMetricType metricType) {
+                return metric;
+            }
+            
+            @Override
+            public Map<String,String> getEventFields(BaseQueryMetric queryMetric) {
+                return Collections.emptyMap();
+            }
+            
+            @Override
+            public ContentQueryMetricsIngestHelper getQueryMetricsIngestHelper(boolean deleteMode) {
+                return null;
+            }
+            
+            @Override
+            public Query createQuery() {
+                return null;
+            }
+            
+            @Override
+            public void flush() {}
+            
+            @Override
+            public QueryMetricsSummaryResponse getQueryMetricsSummary(Date begin, Date end, DatawaveUserDetails currentUser, boolean onlyCurrentUser) {
+                return null;
+            }
+            
+            @Override
+            public void reload() {}
+        };
+    }
+    
+    private QueryMetric createMetric(String query) {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId("query1");
+        metric.setQueryType("RunningQuery");
+        metric.setLifecycle(BaseQueryMetric.Lifecycle.DEFINED);
+        metric.setQuery(query);
+        return metric;
+    }
+    
+    @Test
+    public void testSameQueryIsParsedOnce() {
+        BaseQueryMetricHandler.MetricSelectors first = handler.getMetricSelectors("FIELD1 == 'value1'");
+        // surrounding whitespace does not change the selectors, so it does not change the key
+        BaseQueryMetricHandler.MetricSelectors second = handler.getMetricSelectors("  FIELD1 == 'value1'  ");
+        assertSame(first, second);
+        assertEquals(Arrays.asList("FIELD1:value1"), first.getPositiveSelectors());
+        assertEquals(1, handler.getMetricSelectorsCacheStats().missCount());
+        assertEquals(1, handler.getMetricSelectorsCacheStats().hitCount());
+        
+        handler.getMetricSelectors("FIELD1 == 'value2'");
+        assertEquals(2, handler.getMetricSelectorsCacheStats().missCount());
+    }
+    
+    @Test
+    public void testUnparseableQueryIsCachedAsEmpty() {
+        assertTrue(handler.getMetricSelectors("((").isEmpty());
+        assertTrue(handler.getMetricSelectors("((").isEmpty());
+        assertEquals(1, handler.getMetricSelectorsCacheStats().missCount());
+    }
+    
+    @Test
+    public void testPopulateMetricSelectors() {
+        QueryMetric metric = createMetric("FIELD1 == 'value1' && FIELD2 == 'value2'");
+        handler.populateMetricSelectors(metric);
+        assertEquals(Arrays.asList("FIELD1:value1", "FIELD2:value2"), metric.getPositiveSelectors());
+        
+        // each metric gets its own copy of the cached selectors
+        QueryMetric other = createMetric("FIELD1 == 'value1' && FIELD2 == 'value2'");
+        handler.populateMetricSelectors(other);
+        other.getPositiveSelectors().add("FIELD3:value3");
+        assertEquals(2, metric.getPositiveSelectors().size());
+        assertEquals(2, handler.getMetricSelectors("FIELD1 == 'value1' && FIELD2 == 'value2'").getPositiveSelectors().size());
+        
+        // selectors are only extracted for a new running query
+        QueryMetric results = createMetric("FIELD1 == 'value1'");
+        results.setLifecycle(BaseQueryMetric.Lifecycle.RESULTS);
+        handler.populateMetricSelectors(results);
+        assertNull(results.getPositiveSelectors());
+    }
+    
+    @Test
+    public void testEachThreadParsesWithItsOwnParser() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        BaseQueryMetricHandler<QueryMetric> threadHandler = createHandler(() -> {
+            created.incrementAndGet();
+            return new LuceneToJexlQueryParser();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<BaseQueryMetricHandler.MetricSelectors>> futures = new ArrayList<>();
+            for (int x = 0; x < 8; x++) {
+                // lucene queries are parsed by the lucene parser after they fail to parse as JEXL
+                String query = "FIELD" + x + ":value" + x;
+                futures.add(executor.submit(() -> threadHandler.getMetricSelectors(query)));
+            }
+            for (int x = 0; x < 8; x++) {
+                // the same selectors as a query parsed on this thread
+                BaseQueryMetricHandler.MetricSelectors expected = handler.getMetricSelectors("FIELD" + x + ":value" + x);
+                assertEquals(expected.getPositiveSelectors(), futures.get(x).get().getPositiveSelectors());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(created.get() <= 2, created.get() + " parsers were created for 2 threads");
+    }
+    
+    @Test
+    public void testEntryProcessorDoesNotReplaceSelectors() {
+        QueryMetric metric = createMetric("FIELD1 == 'value1'");
+        Map.Entry<String,QueryMetricUpdateHolder> entry = new AbstractMap.SimpleEntry<>("query1", new QueryMetricUpdateHolder(metric));
+        MetricSelectorsEntryProcessor processor = new MetricSelectorsEntryProcessor(Arrays.asList("FIELD1:value1"), Collections.emptyList());
+        assertTrue(processor.process(entry));
+        assertEquals(Arrays.asList("FIELD1:value1"), metric.getPositiveSelectors());
+        assertNull(metric.getNegativeSelectors());
+        
+        metric.setPositiveSelectors(new ArrayList<>(Arrays.asList("FIELD2:value2")));
+        assertFalse(processor.process(entry));
+        assertEquals(Arrays.asList("FIELD2:value2"), metric.getPositiveSelectors());
+        
+        // the metric may have left the cache before the selectors were extracted
+        assertFalse(processor.process(new AbstractMap.SimpleEntry<>("query1", null)));
+    }
+}
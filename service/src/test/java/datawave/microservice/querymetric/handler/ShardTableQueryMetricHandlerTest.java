@@ -0,0 +1,30 @@
+package datawave.microservice.querymetric.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.Test;
+
+public class ShardTableQueryMetricHandlerTest {
+    
+    @Test
+    public void testJexlLiteral() {
+        assertEquals("'user1'", ShardTableQueryMetricHandler.toJexlLiteral("user1"));
+        // a quote can not end the literal early
+        assertEquals("'user1\\' || USER != \\'x'", ShardTableQueryMetricHandler.toJexlLiteral("user1' || USER != 'x"));
+        // a backslash can not escape the closing quote
+        assertEquals("'user1\\\\'", ShardTableQueryMetricHandler.toJexlLiteral("user1\\"));
+    }
+    
+    @Test
+    public void testShardDate() throws Exception {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd HHmmss");
+        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+        assertEquals(sdf.parse("20260101 000000"), ShardTableQueryMetricHandler.getShardDate("20260101_3\u0000querymetrics\u0000abc"));
+        assertNull(ShardTableQueryMetricHandler.getShardDate("abc"));
+        assertNull(ShardTableQueryMetricHandler.getShardDate("notadate_1"));
+    }
+}
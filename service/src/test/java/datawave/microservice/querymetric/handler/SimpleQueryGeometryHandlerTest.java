@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -198,6 +199,63 @@ public class SimpleQueryGeometryHandlerTest {
         assertNull(resp.getExceptions());
     }
     
+    @Test
+    public void cachedGeoFeaturesTest() {
+        QueryGeometryResponse lucene = generateResponse(commonId, "#COVERS(field13, 'POINT(8 8)')", luceneParams);
+        QueryGeometryResponse luceneAgain = generateResponse("another-query-id", "#COVERS(field13, 'POINT(8 8)')", luceneParams);
+        
+        assertEquals(1, luceneAgain.getResult().size());
+        assertEquals(lucene.getResult().get(0).getGeometry(), luceneAgain.getResult().get(0).getGeometry());
+        assertEquals(lucene.getResult().get(0).getFunction(), luceneAgain.getResult().get(0).getFunction());
+        
+        // the same query string with a different syntax must not use the cached lucene result
+        QueryGeometryResponse jexl = generateResponse(commonId, "#COVERS(field13, 'POINT(8 8)')", emptyParams);
+        assertEquals(0, jexl.getResult().size());
+        assertEquals(1, jexl.getExceptions().size());
+        
+        QueryMetric qm = new QueryMetric();
+        qm.setQuery("#COVERS(field13, 'POINT(8 8)')");
+        qm.setParameters(luceneParams);
+        Assertions.assertTrue(handler.isGeoQuery(qm));
+        qm.setParameters(emptyParams);
+        Assertions.assertFalse(handler.isGeoQuery(qm));
+    }
+    
+    @Test
+    public void isGeoQueryUsesQuerySyntaxTest() {
+        QueryMetric qm = new QueryMetric();
+        // a LUCENE query is converted to JEXL before its geo features are found, and finding them does not depend on the syntax
+        qm.setQuery("#COVERS(field1, 'POINT(1 1)')");
+        qm.setParameters(luceneParams);
+        Assertions.assertTrue(handler.isGeoQuery(qm));
+        QueryGeometryResponse resp = handler.getQueryGeometryResponse(commonId, Collections.singletonList(qm));
+        assertEquals("#COVERS(field1, 'POINT(1 1)')", resp.getResult().get(0).getFunction());
+        
+        qm.setQuery("geowave:intersects(field2, 'POINT(2 2)')");
+        qm.setParameters(jexlParams);
+        Assertions.assertTrue(handler.isGeoQuery(qm));
+        
+        qm.setQuery("field1 == 'value1'");
+        Assertions.assertFalse(handler.isGeoQuery(qm));
+        qm.setParameters(luceneParams);
+        qm.setQuery("field1:value1");
+        Assertions.assertFalse(handler.isGeoQuery(qm));
+    }
+    
+    @Test
+    public void configuredCacheSizeTest() {
+        QueryMetricHandlerProperties properties = new QueryMetricHandlerProperties();
+        properties.setGeoFeaturesCacheSize(1);
+        handler = new SimpleQueryGeometryHandler(properties);
+        
+        QueryGeometryResponse first = generateResponse(commonId, "geowave:contains(field1, 'POINT(0 0)')", jexlParams);
+        // evicts the first query from the cache
+        generateResponse(commonId, "geowave:contains(field2, 'POINT(1 1)')", jexlParams);
+        QueryGeometryResponse again = generateResponse(commonId, "geowave:contains(field1, 'POINT(0 0)')", jexlParams);
+        assertEquals(first.getResult().get(0).getGeometry(), again.getResult().get(0).getGeometry());
+        assertEquals(first.getResult().get(0).getFunction(), again.getResult().get(0).getFunction());
+    }
+    
     @Test
     public void multipleQueryMetricsTest() {
         List<QueryMetric> queryMetrics = new ArrayList<>();
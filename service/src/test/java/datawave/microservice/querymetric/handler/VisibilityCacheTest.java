@@ -0,0 +1,64 @@
+package datawave.microservice.querymetric.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.accumulo.core.security.VisibilityEvaluator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import datawave.marking.MarkingFunctions;
+
+public class VisibilityCacheTest {
+    
+    private VisibilityCache visibilityCache;
+    
+    @BeforeEach
+    public void setup() {
+        visibilityCache = new VisibilityCache(new MarkingFunctions.Default(), 10, 10);
+    }
+    
+    @Test
+    public void testColumnVisibilityCached() throws Exception {
+        Map<String,String> markings = new HashMap<>();
+        markings.put(MarkingFunctions.Default.COLUMN_VISIBILITY, "A&C");
+        ColumnVisibility first = visibilityCache.getColumnVisibility(markings);
+        assertSame(first, visibilityCache.getColumnVisibility(markings));
+        
+        // modifying the caller's map must not modify the cached key
+        markings.put(MarkingFunctions.Default.COLUMN_VISIBILITY, "B");
+        ColumnVisibility changed = visibilityCache.getColumnVisibility(markings);
+        assertNotSame(first, changed);
+        assertEquals("B", new String(changed.getExpression()));
+        
+        // the original markings still hit the first entry
+        Map<String,String> original = new HashMap<>();
+        original.put(MarkingFunctions.Default.COLUMN_VISIBILITY, "A&C");
+        assertSame(first, visibilityCache.getColumnVisibility(original));
+        assertEquals("A&C", new String(first.getExpression()));
+        assertEquals(2, visibilityCache.getColumnVisibilityStats().missCount());
+        assertEquals(2, visibilityCache.getColumnVisibilityStats().hitCount());
+    }
+    
+    @Test
+    public void testVisibilityEvaluatorCached() throws Exception {
+        Map<String,String> markings = new HashMap<>();
+        markings.put(MarkingFunctions.Default.COLUMN_VISIBILITY, "A&C");
+        ColumnVisibility columnVisibility = visibilityCache.getColumnVisibility(markings);
+        VisibilityEvaluator evaluator = visibilityCache.getVisibilityEvaluator(Arrays.asList("A", "B", "C"));
+        // the order of the authorizations does not matter
+        assertSame(evaluator, visibilityCache.getVisibilityEvaluator(Arrays.asList("C", "B", "A")));
+        assertTrue(evaluator.evaluate(columnVisibility));
+        assertFalse(visibilityCache.getVisibilityEvaluator(Arrays.asList("A", "B")).evaluate(columnVisibility));
+        assertEquals(2, visibilityCache.getVisibilityEvaluatorStats().missCount());
+        assertEquals(1, visibilityCache.getVisibilityEvaluatorStats().hitCount());
+    }
+}
@@ -0,0 +1,91 @@
+package datawave.microservice.querymetric.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+
+import datawave.microservice.querymetric.BaseQueryMetric;
+import datawave.microservice.querymetric.HazelcastUtils;
+import datawave.microservice.querymetric.QueryMetric;
+import datawave.microservice.querymetric.QueryMetricUpdateHolder;
+
+public class FinalMetricExpirerTest {
+    
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    
+    private HazelcastInstance instance;
+    private IMap<Object,Object> cache;
+    private FinalMetricExpirer expirer;
+    
+    @BeforeEach
+    public void setup() {
+        Config config = new Config();
+        config.setClusterName(HazelcastUtils.generateRandomString(10));
+        // We don't want the test to rely on multicast. Use ip discovery instead.
+        JoinConfig joinConfig = config.getNetworkConfig().getJoin();
+        joinConfig.getMulticastConfig().setEnabled(false);
+        joinConfig.getTcpIpConfig().addMember("127.0.0.1").setEnabled(true);
+        this.instance = Hazelcast.newHazelcastInstance(config);
+        this.cache = this.instance.getMap("incomingQueryMetrics");
+        // the ttl is set on the calling thread so that it can be checked right away
+        this.expirer = new FinalMetricExpirer(this.cache, TimeUnit.MILLISECONDS.toSeconds(TTL_MILLIS), Runnable::run);
+    }
+    
+    @AfterEach
+    public void teardown() {
+        this.instance.shutdown();
+    }
+    
+    private QueryMetricUpdateHolder<QueryMetric> createHolder(String queryId, BaseQueryMetric.Lifecycle lifecycle, long journalSequence) {
+        QueryMetric metric = new QueryMetric();
+        metric.setQueryId(queryId);
+        metric.setLifecycle(lifecycle);
+        QueryMetricUpdateHolder<QueryMetric> holder = new QueryMetricUpdateHolder<>(metric);
+        holder.setJournalSequence(journalSequence);
+        holder.persisted();
+        return holder;
+    }
+    
+    @Test
+    public void theWrittenHolderExpires() {
+        this.cache.set("query1", createHolder("query1", BaseQueryMetric.Lifecycle.CLOSED, 5));
+        this.expirer.expire("query1", 5);
+        assertEquals(TTL_MILLIS, this.cache.getEntryView("query1").getTtl());
+        assertEquals(1, this.expirer.getExpiredCount());
+    }
+    
+    @Test
+    public void aHolderWithALaterUpdateIsKept() {
+        // an update was journaled after the holder was written
+        this.cache.set("query1", createHolder("query1", BaseQueryMetric.Lifecycle.CLOSED, 6));
+        this.expirer.expire("query1", 5);
+        assertNotEquals(TTL_MILLIS, this.cache.getEntryView("query1").getTtl());
+        
+        // an update was applied after the holder was persisted
+        QueryMetricUpdateHolder<QueryMetric> holder = createHolder("query2", BaseQueryMetric.Lifecycle.CLOSED, 5);
+        holder.markDirty(holder, System.currentTimeMillis());
+        this.cache.set("query2", holder);
+        this.expirer.expire("query2", 5);
+        assertNotEquals(TTL_MILLIS, this.cache.getEntryView("query2").getTtl());
+        
+        // the query was created again and is running
+        this.cache.set("query3", createHolder("query3", BaseQueryMetric.Lifecycle.RESULTS, 5));
+        this.expirer.expire("query3", 5);
+        assertNotEquals(TTL_MILLIS, this.cache.getEntryView("query3").getTtl());
+        
+        // the entry is no longer cached
+        this.expirer.expire("query4", 5);
+        assertEquals(0, this.expirer.getExpiredCount());
+    }
+}
@@ -0,0 +1,33 @@
+package datawave.microservice.querymetric.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricMapListenerTest {
+    
+    @Test
+    public void testSampleRateIsValidated() {
+        assertThrows(IllegalArgumentException.class, () -> new MetricMapListener("incomingQueryMetrics", -0.1));
+        assertThrows(IllegalArgumentException.class, () -> new MetricMapListener("incomingQueryMetrics", 1.1));
+        assertThrows(IllegalArgumentException.class, () -> new MetricMapListener("incomingQueryMetrics", Double.NaN));
+    }
+    
+    @Test
+    public void testEventsAreSampled() {
+        MetricMapListener all = new MetricMapListener("incomingQueryMetrics");
+        MetricMapListener none = new MetricMapListener("incomingQueryMetrics", 0.0);
+        MetricMapListener half = new MetricMapListener("incomingQueryMetrics", 0.5);
+        int sampled = 0;
+        for (int x = 0; x < 10000; x++) {
+            assertTrue(all.isSampled());
+            assertFalse(none.isSampled());
+            if (half.isSampled()) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled > 4000 && sampled < 6000, "sampled " + sampled + " of 10000 events");
+    }
+}